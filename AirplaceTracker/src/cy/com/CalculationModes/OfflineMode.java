@@ -37,13 +37,12 @@
 
 package cy.com.CalculationModes;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.util.ArrayList;
 import android.os.Handler;
 import cy.com.airplace.Algorithms;
 import cy.com.airplace.LogRecord;
+import cy.com.airplace.RSSLogTokenizer;
 import cy.com.airplace.RadioMap;
 import cy.com.airplace.WeightRecord;
 
@@ -78,9 +77,8 @@ public class OfflineMode extends Thread {
 
 		OfflineScanList.clear();
 
-		BufferedReader reader = null;
-		String line;
-		String[] temp;
+		RSSLogTokenizer tokenizer = null;
+		int fields_num;
 
 		String test_geo;
 		int count_test_pos = 0;
@@ -99,19 +97,17 @@ public class OfflineMode extends Thread {
 
 		try {
 
-			reader = new BufferedReader(new FileReader(test_data_file));
+			tokenizer = new RSSLogTokenizer(test_data_file);
 
 			/* Read the first line */
-			line = reader.readLine();
-
 			// Must exists
-			if (line == null) {
+			if (!tokenizer.nextLine()) {
 				errMsg = test_data_file + " file is corrupted";
 				handler.sendEmptyMessage(-1);
 				return;
 			}
 
-			bytesRead += line.length() + 1;
+			bytesRead = tokenizer.getPosition();
 
 			if (perc < (int) (((float) bytesRead / (float) bytesTotal) * 100)) {
 				perc = (int) (((float) bytesRead / (float) bytesTotal) * 100);
@@ -119,20 +115,19 @@ public class OfflineMode extends Thread {
 			}
 
 			/* Store the Mac Addresses */
-			if (line.startsWith("#")) {
-				line = line.replace(", ", " ");
-				temp = line.split(" ");
+			if (tokenizer.startsWith('#')) {
+				fields_num = tokenizer.split(false);
 
 				// Must have more than 4 fields
-				if (temp.length < 4) {
+				if (fields_num < 4) {
 					errMsg = test_data_file + " file is corrupted";
 					handler.sendEmptyMessage(-1);
 					return;
 				}
 
 				// Store all Mac Addresses
-				for (int i = 3; i < temp.length; ++i)
-					MacAdressList.add(temp[i]);
+				for (int i = 3; i < fields_num; ++i)
+					MacAdressList.add(tokenizer.getString(i));
 			} else {
 				errMsg = test_data_file + " file is corrupted";
 				handler.sendEmptyMessage(-1);
@@ -141,27 +136,26 @@ public class OfflineMode extends Thread {
 
 			count_test_pos = 0;
 
-			while ((line = reader.readLine()) != null) {
+			while (tokenizer.nextLine()) {
 
-				bytesRead += line.length() + 1;
+				bytesRead = tokenizer.getPosition();
 
-				line = line.trim().replace(", ", " ");
-				temp = line.split(" ");
+				fields_num = tokenizer.split(true);
 
-				if (temp.length < 3) {
+				if (fields_num < 3) {
 					errMsg = test_data_file + " file is corrupted";
 					handler.sendEmptyMessage(-1);
 					return;
 				}
 
-				if (MacAdressList.size() != temp.length - 2) {
+				if (MacAdressList.size() != fields_num - 2) {
 					errMsg = test_data_file + " file is corrupted";
 					handler.sendEmptyMessage(-1);
 					return;
 				}
 
-				for (int i = 2; i < temp.length; ++i) {
-					LogRecord lr = new LogRecord(MacAdressList.get(i - 2), Integer.parseInt(temp[i]));
+				for (int i = 2; i < fields_num; ++i) {
+					LogRecord lr = new LogRecord(MacAdressList.get(i - 2), tokenizer.parseInt(i));
 					OfflineScanList.add(lr);
 				}
 
@@ -186,7 +180,7 @@ public class OfflineMode extends Thread {
 
 				OfflineScanList.clear();
 
-				pos_error = calculateEuclideanDistance(temp[0] + " " + temp[1], test_geo);
+				pos_error = calculateEuclideanDistance(tokenizer.getLocation(0, 1), test_geo);
 
 				if (pos_error != -1) {
 					sum_pos_error += pos_error;
@@ -194,8 +188,6 @@ public class OfflineMode extends Thread {
 				}
 			}
 
-			reader.close();
-
 			handler.sendEmptyMessage(100);
 
 			average_pos_err = sum_pos_error / (double) count_test_pos;
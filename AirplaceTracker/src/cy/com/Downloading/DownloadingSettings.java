@@ -44,6 +44,7 @@ import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import android.os.Handler;
+import android.util.Base64;
 
 public class DownloadingSettings extends Thread {
 
@@ -117,10 +118,17 @@ public class DownloadingSettings extends Thread {
 				return;
 			}
 
-			outputLine = "GET radiomap";
+			// Ask for the compact radio map. Servers without it answer with an error
+			outputLine = "GET radiomap compact";
 			out.println(outputLine);
 			inputLine = in.readLine();
 
+			if (inputLine.startsWith("ERROR")) {
+				outputLine = "GET radiomap";
+				out.println(outputLine);
+				inputLine = in.readLine();
+			}
+
 			if (!inputLine.startsWith("RADIOMAP")) {
 				fos.close();
 				out.close();
@@ -131,15 +139,24 @@ public class DownloadingSettings extends Thread {
 				return;
 			}
 
-			inputLine = inputLine.replaceFirst("RADIOMAP ", "");
-			fos.write((inputLine + "\n").getBytes());
+			// Compact radio map lines are Base64
+			boolean compact = inputLine.equals("RADIOMAP COMPACT");
+
+			if (!compact) {
+				inputLine = inputLine.replaceFirst("RADIOMAP ", "");
+				fos.write((inputLine + "\n").getBytes());
+			}
 
 			while ((inputLine = in.readLine()) != null) {
 				if (inputLine.compareTo("null") == 0 || inputLine.startsWith("CORRUPTED"))
 					break;
 
 				if (inputLine.equalsIgnoreCase("PARAMETERS")) {
+					fos.close();
 					fos = new FileOutputStream(new File(root, parameters), false);
+					compact = false;
+				} else if (compact) {
+					fos.write(Base64.decode(inputLine, Base64.DEFAULT));
 				} else {
 					fos.write((inputLine + "\n").getBytes());
 				}
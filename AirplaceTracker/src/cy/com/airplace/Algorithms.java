@@ -62,36 +62,35 @@ public class Algorithms {
 	 */
 	public static String ProcessingAlgorithms(ArrayList<LogRecord> latestScanList, RadioMap RM, int algorithm_choice) {
 
-		int i, j;
+		int i, column;
 
 		ArrayList<String> MacAdressList = RM.getMacAdressList();
-		ArrayList<String> Observed_RSS_Values = new ArrayList<String>();
+		ArrayList<String> Observed_RSS_Values = new ArrayList<String>(MacAdressList.size());
+		boolean[] observed = new boolean[MacAdressList.size()];
 		LogRecord temp_LR;
-		int notFoundCounter = 0;
+		int foundCounter = 0;
 		// Read parameter of algorithm
 		String NaNValue = readParameter(RM.getRadiomapMean_File(), 0);
 
-		// Check which mac addresses of radio map, we are currently listening.
-		for (i = 0; i < MacAdressList.size(); ++i) {
+		// A MAC Address is missing so we place a small value, NaN value
+		for (i = 0; i < MacAdressList.size(); ++i)
+			Observed_RSS_Values.add(String.valueOf(NaNValue));
 
-			for (j = 0; j < latestScanList.size(); ++j) {
+		// Check which mac addresses of radio map, we are currently listening.
+		for (i = 0; i < latestScanList.size(); ++i) {
 
-				temp_LR = latestScanList.get(j);
+			temp_LR = latestScanList.get(i);
+			column = RM.getMacAddressColumn(temp_LR.getMac());
 
-				// MAC Address Matched
-				if (MacAdressList.get(i).compareTo(temp_LR.getBssid()) == 0) {
-					Observed_RSS_Values.add(String.valueOf(temp_LR.getRss()));
-					break;
-				}
-			}
-			// A MAC Address is missing so we place a small value, NaN value
-			if (j == latestScanList.size()){
-				Observed_RSS_Values.add(String.valueOf(NaNValue));
-				++notFoundCounter;
+			// MAC Address Matched. The first record of a MAC Address is used
+			if (column != -1 && !observed[column]) {
+				Observed_RSS_Values.set(column, String.valueOf(temp_LR.getRss()));
+				observed[column] = true;
+				++foundCounter;
 			}
 		}
 		
-		if (notFoundCounter == MacAdressList.size())
+		if (foundCounter == 0)
 			return null;
 
 		// Read parameter of algorithm
@@ -40,11 +40,17 @@ package cy.com.airplace;
 public class LogRecord {
 
 	private String bssid;
+	private long mac;
 	private int rss;
 
 	public LogRecord(String bssid, int rss) {
+		this(bssid, MacAddress.parse(bssid), rss);
+	}
+
+	public LogRecord(String bssid, long mac, int rss) {
 		super();
 		this.bssid = bssid;
+		this.mac = mac;
 		this.rss = rss;
 	}
 
@@ -52,6 +58,16 @@ public class LogRecord {
 		return bssid;
 	}
 
+	/**
+	 * Getter of the packed MAC address
+	 * 
+	 * @return
+	 *            the packed MAC address, or MacAddress.INVALID if bssid is malformed
+	 * */
+	public long getMac() {
+		return mac;
+	}
+
 	public int getRss() {
 		return rss;
 	}
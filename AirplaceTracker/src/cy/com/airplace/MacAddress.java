@@ -0,0 +1,136 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+
+
+package cy.com.airplace;
+
+/**
+ *
+ * Packs MAC addresses of the form xx:xx:xx:xx:xx:xx to the lower 48 bits of a long.
+ * Parsing validates the address at the same time and allocates nothing, so it
+ * replaces the MAC address regular expression on every line read.
+ */
+public class MacAddress {
+
+	/** Returned by the parsers for a malformed MAC address */
+	public static final long INVALID = -1L;
+	private static final int LENGTH = 17;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private MacAddress() {
+	}
+
+	/**
+	 * Parses and validates a MAC address
+	 *
+	 * @param str
+	 *            the MAC address xx:xx:xx:xx:xx:xx, hex digits in any case
+	 *
+	 * @return
+	 *            the packed MAC address, or INVALID if it is malformed
+	 * */
+	public static long parse(String str) {
+
+		if (str == null || str.length() != LENGTH) {
+			return INVALID;
+		}
+
+		long mac = 0;
+
+		for (int i = 0; i < LENGTH; i += 3) {
+
+			int high = hexValue(str.charAt(i));
+			int low = hexValue(str.charAt(i + 1));
+
+			if (high < 0 || low < 0 || (i + 2 < LENGTH && str.charAt(i + 2) != ':')) {
+				return INVALID;
+			}
+			mac = (mac << 8) | (high << 4) | low;
+		}
+		return mac;
+	}
+
+	/**
+	 * Checks that a MAC address is of the form xx:xx:xx:xx:xx:xx
+	 *
+	 * @param str
+	 *            the MAC address
+	 *
+	 * @return
+	 *            true if the MAC address is valid, otherwise false
+	 * */
+	public static boolean isValid(String str) {
+		return parse(str) != INVALID;
+	}
+
+	/**
+	 * Formats a packed MAC address
+	 *
+	 * @param mac
+	 *            the packed MAC address
+	 *
+	 * @return
+	 *            the MAC address xx:xx:xx:xx:xx:xx in lower case
+	 * */
+	public static String toString(long mac) {
+
+		char[] str = new char[LENGTH];
+
+		for (int i = 0, shift = 40; i < LENGTH; i += 3, shift -= 8) {
+			int b = (int) (mac >>> shift) & 0xFF;
+			str[i] = HEX_DIGITS[b >>> 4];
+			str[i + 1] = HEX_DIGITS[b & 0xF];
+			if (i + 2 < LENGTH) {
+				str[i + 2] = ':';
+			}
+		}
+		return new String(str);
+	}
+
+	static int hexValue(int c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+}
@@ -39,22 +39,34 @@ package cy.com.airplace;/**
  *
 
  */
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.zip.InflaterInputStream;
 
 public class RadioMap {
 
+	// Compact radio map sent by the server, see RadioMapCompact of RM Server
+	private static final int COMPACT_MAGIC = 0x524D4331;
+	private static final int COMPACT_DEFLATED = 2;
+
 	private File RadiomapMean_File = null;
 	private ArrayList<String> MacAdressList = null;
+	private LongIntHashMap MacAddressColumns = null;
 	private HashMap<String, ArrayList<String>> LocationRSS_HashMap = null;
 	private ArrayList<String> OrderList = null;
 
 	public RadioMap() {
 		super();
 		MacAdressList = new ArrayList<String>();
+		MacAddressColumns = new LongIntHashMap();
 		LocationRSS_HashMap = new HashMap<String, ArrayList<String>>();
 		OrderList = new ArrayList<String>();
 	}
@@ -69,6 +81,19 @@ public class RadioMap {
 		return MacAdressList;
 	}
 
+	/**
+	 * Finds the column of a MAC address in the radio map
+	 * 
+	 * @param mac
+	 *            the packed MAC address
+	 * 
+	 * @return
+	 *            the index of the MAC address in MAC Address list, or -1 if it does not exist
+	 * */
+	public int getMacAddressColumn(long mac) {
+		return MacAddressColumns.get(mac, -1);
+	}
+
 	/**
 	 * Getter of HashMap Location-RSS Values list in no particular order
 	 * 
@@ -100,7 +125,7 @@ public class RadioMap {
 	}
 	
 	/**
-	 * Construct a radio map
+	 * Construct a radio map, from a text or a compact radio map file
 	 * 
 	 * @param inFile
 	 *            the radio map file to read
@@ -118,8 +143,12 @@ public class RadioMap {
 
 		this.OrderList.clear();
 		this.MacAdressList.clear();
+		this.MacAddressColumns.clear();
 		this.LocationRSS_HashMap.clear();
 
+		if (isCompact(inFile))
+			return ConstructRadioMapCompact(inFile);
+
 		ArrayList<String> RSS_Values = null;
 		BufferedReader reader = null;
 		String line = null;
@@ -145,8 +174,12 @@ public class RadioMap {
 				return false;
 
 			// Store all Mac Addresses
-			for (int i = 3; i < temp.length; ++i)
+			for (int i = 3; i < temp.length; ++i) {
+				long mac = MacAddress.parse(temp[i]);
+				if (mac != MacAddress.INVALID)
+					this.MacAddressColumns.put(mac, this.MacAdressList.size());
 				this.MacAdressList.add(temp[i]);
+			}
 
 			while ((line = reader.readLine()) != null) {
 				
@@ -181,6 +214,133 @@ public class RadioMap {
 		return true;
 	}
 
+	/**
+	 * Checks if a radio map file is compact
+	 * 
+	 * @param inFile
+	 *            the radio map file
+	 * 
+	 * @return
+	 *            true if the file starts with the compact radio map magic
+	 * */
+	private static boolean isCompact(File inFile) {
+
+		DataInputStream in = null;
+
+		try {
+			in = new DataInputStream(new FileInputStream(inFile));
+			return inFile.length() >= 4 && in.readInt() == COMPACT_MAGIC;
+		} catch (IOException e) {
+			return false;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+			}
+		}
+	}
+
+	/**
+	 * Construct a radio map from a compact radio map file. MAC Addresses not
+	 * heard in a location get the NaN value.
+	 * 
+	 * @param inFile
+	 *            the compact radio map file to read
+	 * 
+	 * @return
+	 *            true if radio map constructed successfully, otherwise false
+	 * */
+	private boolean ConstructRadioMapCompact(File inFile) {
+
+		DataInputStream in = null;
+
+		try {
+			InputStream is = new BufferedInputStream(new FileInputStream(inFile));
+			in = new DataInputStream(is);
+
+			if (in.readInt() != COMPACT_MAGIC)
+				return false;
+
+			if ((in.readByte() & COMPACT_DEFLATED) != 0)
+				in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(is)));
+
+			int NaN_tenths = readVarint(in) * 10;
+			String NaNValue = formatTenths(NaN_tenths);
+			int MacAddress_num = readVarint(in);
+
+			for (int m = 0; m < MacAddress_num; ++m) {
+				long mac = 0;
+				for (int i = 0; i < 6; ++i)
+					mac = (mac << 8) | in.readUnsignedByte();
+				this.MacAddressColumns.put(mac, m);
+				this.MacAdressList.add(MacAddress.toString(mac));
+			}
+
+			int Location_num = readVarint(in);
+
+			for (int l = 0; l < Location_num; ++l)
+				this.OrderList.add(in.readUTF());
+
+			byte[] bitmap = new byte[(MacAddress_num + 7) / 8];
+
+			for (int l = 0; l < Location_num; ++l) {
+
+				in.readFully(bitmap);
+
+				ArrayList<String> RSS_Values = new ArrayList<String>(MacAddress_num);
+				int previous = NaN_tenths;
+
+				for (int m = 0; m < MacAddress_num; ++m) {
+					if ((bitmap[m >> 3] & (1 << (m & 7))) != 0) {
+						previous += readVarint(in);
+						RSS_Values.add(formatTenths(previous));
+					} else {
+						RSS_Values.add(NaNValue);
+					}
+				}
+
+				this.LocationRSS_HashMap.put(this.OrderList.get(l), RSS_Values);
+			}
+		} catch (Exception ex) {
+			return false;
+		} finally {
+			try {
+				if (in != null)
+					in.close();
+			} catch (IOException e) {
+			}
+		}
+		return true;
+	}
+
+	private static int readVarint(DataInputStream in) throws IOException {
+
+		int v = 0;
+		int b;
+
+		for (int shift = 0; shift < 35; shift += 7) {
+			b = in.readUnsignedByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return (v >>> 1) ^ -(v & 1);
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	/**
+	 * Formats an RSS value in tenths of dBm as the server writes the text radio map
+	 * */
+	private static String formatTenths(int tenths) {
+
+		int abs = Math.abs(tenths);
+		String str = (tenths < 0 ? "-" : "") + (abs / 10);
+
+		if (abs % 10 != 0)
+			str += "." + (abs % 10);
+		return str;
+	}
+
 	public String toString() {
 		String str = "MAC Adresses: ";
 		ArrayList<String> temp;
@@ -37,6 +37,7 @@
 package radiomapserver;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 
@@ -59,28 +60,31 @@ public class Algorithms {
      */
     public static String ProcessingAlgorithms(ArrayList<LogRecord> latestScanList, RadioMapMean RM, int algorithm_choice, String parameter) {
 
-        int i = 0, j = 0;
+        int i = 0, column = 0;
 
         ArrayList<String> MacAdressList = RM.getMacAdressList();
-        ArrayList<String> Observed_RSS_Values = new ArrayList<String>();
+        float[] Observed_RSS_Values = new float[MacAdressList.size()];
+        boolean[] observed = new boolean[MacAdressList.size()];
+        long[] observed_mac = new long[MacAdressList.size()];
         LogRecord temp_LR = null;
 
-        // Check which mac addresses of radio map, we are currently listening.
-        for (i = 0; i < MacAdressList.size(); ++i) {
-
-            for (j = 0; j < latestScanList.size(); ++j) {
-
-                temp_LR = latestScanList.get(j);
+        // A MAC Address is missing so we place a small NaN value
+        Arrays.fill(Observed_RSS_Values, RM.getDefaultNaNValue());
 
-                // MAC Address Matched
-                if (MacAdressList.get(i).compareTo(temp_LR.getBssid()) == 0) {
-                    Observed_RSS_Values.add(String.valueOf(temp_LR.getRss()));
-                    break;
-                }
-            }
-            // A MAC Address is missing so we place a small NaN value
-            if (j == latestScanList.size()) {
-                Observed_RSS_Values.add(String.valueOf(RM.getDefaultNaNValue()));
+        // Check which mac addresses of radio map, we are currently listening.
+        for (i = 0; i < latestScanList.size(); ++i) {
+
+            temp_LR = latestScanList.get(i);
+            column = RM.getMacAddressColumn(temp_LR.getMac());
+
+            // MAC Address Matched. The first record of a MAC Address is used
+            if (column != -1 && !observed[column]) {
+                Observed_RSS_Values[column] = temp_LR.getRss();
+                observed[column] = true;
+                observed_mac[column] = temp_LR.getMac();
+            } // Another MAC Address of a virtual access point. The strongest is used
+            else if (column != -1 && observed_mac[column] != temp_LR.getMac() && temp_LR.getRss() > Observed_RSS_Values[column]) {
+                Observed_RSS_Values[column] = temp_LR.getRss();
             }
         }
 
@@ -118,9 +122,8 @@ public class Algorithms {
      *
      * @return The estimated user location
      */
-    private static String KNN_WKNN_Algorithm(RadioMapMean RM, ArrayList<String> Observed_RSS_Values, String parameter, boolean isWeighted) {
+    private static String KNN_WKNN_Algorithm(RadioMapMean RM, float[] Observed_RSS_Values, String parameter, boolean isWeighted) {
 
-        ArrayList<String> RSS_Values;
         float curResult = 0;
         ArrayList<LocDistance> LocDistance_Results_List = new ArrayList<LocDistance>();
         String myLocation = null;
@@ -133,17 +136,13 @@ public class Algorithms {
             return null;
         }
 
+        int[] Locations = findLocations(RM, Observed_RSS_Values, K);
+
         // Construct a list with locations-distances pairs for currently
         // observed RSS values
-        for (String location : RM.getLocationRSS_HashMap().keySet()) {
-            RSS_Values = RM.getLocationRSS_HashMap().get(location);
-            curResult = calculateEuclideanDistance(RSS_Values, Observed_RSS_Values);
-
-            if (curResult == Float.NEGATIVE_INFINITY) {
-                return null;
-            }
-
-            LocDistance_Results_List.add(0, new LocDistance(curResult, location));
+        for (int l : Locations) {
+            curResult = calculateEuclideanDistance(RM, l, Observed_RSS_Values);
+            LocDistance_Results_List.add(new LocDistance(curResult, RM.getLocation(l)));
         }
 
         // Sort locations-distances pairs based on minimum distances
@@ -181,9 +180,8 @@ public class Algorithms {
      *
      * @return The estimated user location
      */
-    private static String MAP_MMSE_Algorithm(RadioMapMean RM, ArrayList<String> Observed_RSS_Values, String parameter, boolean isWeighted) {
+    private static String MAP_MMSE_Algorithm(RadioMapMean RM, float[] Observed_RSS_Values, String parameter, boolean isWeighted) {
 
-        ArrayList<String> RSS_Values;
         double curResult = 0.0d;
         String myLocation = null;
         double highestProbability = Double.NEGATIVE_INFINITY;
@@ -197,21 +195,20 @@ public class Algorithms {
             return null;
         }
 
+        int[] Locations = findLocations(RM, Observed_RSS_Values, 1);
+
         // Find the location of user with the highest probability
-        for (String location : RM.getLocationRSS_HashMap().keySet()) {
+        for (int l : Locations) {
 
-            RSS_Values = RM.getLocationRSS_HashMap().get(location);
-            curResult = calculateProbability(RSS_Values, Observed_RSS_Values, sGreek);
+            curResult = calculateProbability(RM, l, Observed_RSS_Values, sGreek);
 
-            if (curResult == Double.NEGATIVE_INFINITY) {
-                return null;
-            } else if (curResult > highestProbability) {
+            if (curResult > highestProbability) {
                 highestProbability = curResult;
-                myLocation = location;
+                myLocation = RM.getLocation(l);
             }
 
             if (isWeighted) {
-                LocDistance_Results_List.add(0, new LocDistance(curResult, location));
+                LocDistance_Results_List.add(new LocDistance(curResult, RM.getLocation(l)));
             }
         }
 
@@ -222,39 +219,58 @@ public class Algorithms {
         return myLocation;
     }
     
+    /**
+     * Finds the locations to compare with the observed RSS values. If the
+     * locations of the radio map are clustered only the locations of the
+     * nearest clusters are compared, otherwise all.
+     *
+     * @param RM
+     *            The radio map structure
+     *
+     * @param Observed_RSS_Values
+     *            RSS values currently observed
+     *
+     * @param min
+     *            The minimum number of locations
+     *
+     * @return The indexes of the locations in radiomap
+     */
+    private static int[] findLocations(RadioMapMean RM, float[] Observed_RSS_Values, int min) {
+
+        if (RM.getClusters() != null) {
+            return RM.getClusters().findLocations(Observed_RSS_Values, min);
+        }
+
+        int[] Locations = new int[RM.getLocationCount()];
+
+        for (int l = 0; l < Locations.length; ++l) {
+            Locations[l] = l;
+        }
+        return Locations;
+    }
+
     /**
      * Calculates the Euclidean distance between the currently observed RSS
      * values and the RSS values for a specific location.
      *
-     * @param l1
-     *            RSS values of a location in radiomap
+     * @param RM
+     *            The radio map structure
+     * @param location
+     *            the index of a location in radiomap
      * @param l2
      *            RSS values currently observed
      *
-     * @return The Euclidean distance, or MIN_VALUE for error
+     * @return The Euclidean distance
      */
-    private static float calculateEuclideanDistance(ArrayList<String> l1, ArrayList<String> l2) {
+    private static float calculateEuclideanDistance(RadioMapMean RM, int location, float[] l2) {
 
         float finalResult = 0;
-        float v1;
-        float v2;
         float temp;
-        String str;
 
-        for (int i = 0; i < l1.size(); ++i) {
-
-            try {
-                str = l1.get(i);
-                v1 = Float.valueOf(str.trim()).floatValue();
-                str = l2.get(i);
-                v2 = Float.valueOf(str.trim()).floatValue();
-            } catch (Exception e) {
-                System.err.println("Error while computing Euclidean Distance: " + e.getMessage());
-                return Float.NEGATIVE_INFINITY;
-            }
+        for (int i = 0; i < l2.length; ++i) {
 
             // do the procedure
-            temp = v1 - v2;
+            temp = RM.getRSS(location, i) - l2[i];
             temp *= temp;
 
             // do the procedure
@@ -267,34 +283,23 @@ public class Algorithms {
      * Calculates the Probability of the user being in the currently observed
      * RSS values and the RSS values for a specific location.
      *
-     * @param l1
-     *            RSS values of a location in radiomap
+     * @param RM
+     *            The radio map structure
+     * @param location
+     *            the index of a location in radiomap
      * @param l2
      *            RSS values currently observed
      *
-     * @return The Probability for this location, or MIN_VALUE for error
+     * @return The Probability for this location
      */
-    public static double calculateProbability(ArrayList<String> l1, ArrayList<String> l2, float sGreek) {
+    public static double calculateProbability(RadioMapMean RM, int location, float[] l2, float sGreek) {
 
         double finalResult = 1;
-        float v1;
-        float v2;
         double temp;
-        String str;
-
-        for (int i = 0; i < l1.size(); ++i) {
 
-            try {
-                str = l1.get(i);
-                v1 = Float.valueOf(str.trim()).floatValue();
-                str = l2.get(i);
-                v2 = Float.valueOf(str.trim()).floatValue();
-            } catch (Exception e) {
-                System.err.println("Error while computing Euclidean Distance: " + e.getMessage());
-                return Double.NEGATIVE_INFINITY;
-            }
+        for (int i = 0; i < l2.length; ++i) {
 
-            temp = v1 - v2;
+            temp = RM.getRSS(location, i) - l2[i];
 
             temp *= temp;
 
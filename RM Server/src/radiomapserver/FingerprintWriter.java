@@ -0,0 +1,284 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DecimalFormat;
+
+/**
+ *
+ * Buffered writer of the radio map text files. Values are formatted straight
+ * into a reusable byte buffer, with the same output as DecimalFormat("###.#"),
+ * so writing a radio map allocates no String or byte[] per value.
+ */
+public class FingerprintWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    // Larger values are formatted with more digits than a long holds exactly
+    private static final float MAX_DECIMAL = 1e9f;
+    private final OutputStream out;
+    private final byte[] buffer;
+    private int count = 0;
+    // Digits of a number, in reverse order
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Constructor of the FingerprintWriter class
+     *
+     * @param out
+     *            the stream to write to
+     * */
+    public FingerprintWriter(OutputStream out) {
+        this.out = out;
+        this.buffer = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Writes a string of ASCII characters. Other characters are encoded with
+     * the default charset, as String.getBytes does.
+     *
+     * @param s
+     *            the string to write
+     * */
+    public void write(String s) throws IOException {
+
+        int length = s.length();
+
+        for (int i = 0; i < length; ++i) {
+            if (s.charAt(i) >= 0x80) {
+                write(s.getBytes());
+                return;
+            }
+        }
+
+        for (int i = 0; i < length; ++i) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Writes the characters of a string between two indexes, as write(String)
+     *
+     * @param s
+     *            the string to write from
+     *
+     * @param start
+     *            the index of the first character
+     *
+     * @param end
+     *            the index after the last character
+     * */
+    public void write(String s, int start, int end) throws IOException {
+
+        for (int i = start; i < end; ++i) {
+            if (s.charAt(i) >= 0x80) {
+                write(s.substring(start, end).getBytes());
+                return;
+            }
+        }
+
+        for (int i = start; i < end; ++i) {
+            if (count == buffer.length) {
+                flushBuffer();
+            }
+            buffer[count++] = (byte) s.charAt(i);
+        }
+    }
+
+    /**
+     * Writes an array of bytes
+     *
+     * @param b
+     *            the bytes to write
+     * */
+    public void write(byte[] b) throws IOException {
+
+        if (b.length > buffer.length - count) {
+            flushBuffer();
+
+            if (b.length > buffer.length) {
+                out.write(b);
+                return;
+            }
+        }
+        System.arraycopy(b, 0, buffer, count, b.length);
+        count += b.length;
+    }
+
+    /**
+     * Writes the bytes another writer formatted into a byte array stream,
+     * after the bytes buffered, without copying them to the buffer
+     *
+     * @param chunk
+     *            the bytes to write
+     * */
+    public void write(ByteArrayOutputStream chunk) throws IOException {
+        flushBuffer();
+        chunk.writeTo(out);
+    }
+
+    /**
+     * Writes a single character
+     *
+     * @param c
+     *            the ASCII character to write
+     * */
+    public void write(char c) throws IOException {
+        if (count == buffer.length) {
+            flushBuffer();
+        }
+        buffer[count++] = (byte) c;
+    }
+
+    /**
+     * Writes an integer in decimal
+     *
+     * @param value
+     *            the value to write
+     * */
+    public void writeInt(int value) throws IOException {
+        writeLong(value, false);
+    }
+
+    /**
+     * Writes a value rounded half even to one decimal digit, dropping a zero
+     * decimal digit, as DecimalFormat("###.#") formats it
+     *
+     * @param value
+     *            the value to write
+     * */
+    public void writeDecimal(float value) throws IOException {
+
+        if (!(Math.abs(value) < MAX_DECIMAL)) {
+            write(new DecimalFormat("###.#").format(value));
+            return;
+        }
+
+        // Every float times 10 is exact in double, so rint rounds half even on the exact value
+        long n = (long) Math.rint((double) value * 10.0);
+        boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+
+        if (n < 0) {
+            n = -n;
+        }
+
+        writeLong(n / 10, negative);
+
+        if (n % 10 != 0) {
+            write('.');
+            write((char) ('0' + n % 10));
+        }
+    }
+
+    /**
+     * Rounds a value as writeDecimal writes it
+     *
+     * @param value
+     *            the value to round
+     *
+     * @return
+     *            the value read back from the text writeDecimal writes
+     * */
+    public static float roundDecimal(float value) {
+
+        // Larger floats have no decimal digits
+        if (!(Math.abs(value) < MAX_DECIMAL)) {
+            return value;
+        }
+        return (float) (Math.rint((double) value * 10.0) / 10.0);
+    }
+
+    /**
+     * Writes the buffered bytes to the stream
+     * */
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    /**
+     * Writes the buffered bytes and closes the stream
+     * */
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeLong(long value, boolean negative) throws IOException {
+
+        int digits_num = 0;
+
+        if (value < 0) {
+            negative = true;
+        } else {
+            value = -value;
+        }
+
+        // Digits of the negative value, so Long.MIN_VALUE does not overflow
+        do {
+            digits[digits_num++] = (byte) ('0' - (value % 10));
+            value /= 10;
+        } while (value != 0);
+
+        if (count + digits_num + 1 > buffer.length) {
+            flushBuffer();
+        }
+
+        if (negative) {
+            buffer[count++] = '-';
+        }
+
+        while (digits_num > 0) {
+            buffer[count++] = digits[--digits_num];
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Open addressing hash map from primitive long keys to primitive int values.
+ * Used on the hot paths of the radio map, where boxing every key of a
+ * HashMap costs more than the lookup itself.
+ */
+public class LongIntHashMap {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private long[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
+    private boolean hasEmptyKey = false;
+    private int emptyKeyValue;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    /**
+     * Constructor of the LongIntHashMap class
+     *
+     * @param expectedSize
+     *            the number of keys to hold without resizing
+     * */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = 16;
+        while (capacity * 3 / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        key *= 0x9E3779B97F4A7C15L;
+        return (int) (key ^ (key >>> 32));
+    }
+
+    /**
+     * Getter of the value of a key
+     *
+     * @param key
+     *            the key to look up
+     *
+     * @param defaultValue
+     *            the value to return if the key does not exist
+     *
+     * @return
+     *            the value of the key, or defaultValue
+     * */
+    public int get(long key, int defaultValue) {
+
+        if (key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : defaultValue;
+        }
+
+        int i = hash(key) & mask;
+        long k;
+
+        while ((k = keys[i]) != EMPTY) {
+            if (k == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Associates a value with a key
+     *
+     * @param key
+     *            the key
+     *
+     * @param value
+     *            the value to store
+     * */
+    public void put(long key, int value) {
+
+        if (key == EMPTY) {
+            if (!hasEmptyKey) {
+                hasEmptyKey = true;
+                size++;
+            }
+            emptyKeyValue = value;
+            return;
+        }
+
+        int i = hash(key) & mask;
+        long k;
+
+        while ((k = keys[i]) != EMPTY) {
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        values[i] = value;
+
+        if (++size > (mask + 1) * 3 / 4) {
+            rehash();
+        }
+    }
+
+    private void rehash() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+
+        allocate(oldKeys.length << 1);
+
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                int j = hash(oldKeys[i]) & mask;
+                while (keys[j] != EMPTY) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+}
@@ -47,9 +47,22 @@ package radiomapserver;
 public class Main {
 
     /**
-     * @param args the command line arguments
+     * @param args the command line arguments, --build followed by building
+     * folders to build their radio maps without the user interface, or
+     * --serve followed by the folder of the building folders to serve
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("--build")) {
+            String[] buildArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, buildArgs, 0, buildArgs.length);
+            System.exit(RadioMapBatch.main(buildArgs));
+        }
+        if (args.length > 0 && args[0].equals("--serve")) {
+            String[] serveArgs = new String[args.length - 1];
+            System.arraycopy(args, 1, serveArgs, 0, serveArgs.length);
+            System.exit(RadioMapRegistry.main(serveArgs));
+        }
+
         final RadioMapServer Login = new RadioMapServer();
          java.awt.EventQueue.invokeLater(new Runnable() {
             public void run() {
@@ -49,17 +49,23 @@ import javax.swing.table.DefaultTableModel;
 public class MultiServerThread extends Thread {
 
     private Socket socket = null;
-    private final File filename;
-    private final File parameters_file;
-    private final File RSSFolder;
+    // The protocol to exchange data with client
+    private final RadioMapProtocol rmp;
+    // The connections table, or null without user interface
     private final DefaultTableModel model;
     private int row;
 
     MultiServerThread(Socket connection, File RSSFolder, File filename, File parameters_file, DefaultTableModel model) {
+        this(connection, RSSFolder, filename, parameters_file, model, null);
+    }
+
+    MultiServerThread(Socket connection, File RSSFolder, File filename, File parameters_file, DefaultTableModel model, RadioMapIngestor ingestor) {
+        this(connection, new RadioMapProtocol(filename, parameters_file, RSSFolder, ingestor), model);
+    }
+
+    MultiServerThread(Socket connection, RadioMapProtocol rmp, DefaultTableModel model) {
         this.socket = connection;
-        this.filename = filename;
-        this.parameters_file = parameters_file;
-        this.RSSFolder = RSSFolder;
+        this.rmp = rmp;
         this.model = model;
     }
 
@@ -76,9 +82,6 @@ public class MultiServerThread extends Thread {
 
             setStatus("Pending");
 
-            // Create a new protocol to exchange data with client
-            RadioMapProtocol rmp = new RadioMapProtocol(filename, parameters_file, RSSFolder);
-
             // Sending "+OK READY"
             outputLine = rmp.processInput(null);
             System.out.println("Send: " + outputLine);
@@ -176,6 +179,8 @@ public class MultiServerThread extends Thread {
             
         } catch (Exception e) {
             setStatus("ERROR: " + e.getMessage());
+        } finally {
+            rmp.close();
         }
 
         //removeConnection();
@@ -190,6 +195,9 @@ public class MultiServerThread extends Thread {
     }
 
     private void addConnection() {
+        if (model == null) {
+            return;
+        }
         synchronized (model) {
             row = model.getRowCount();
             model.insertRow(row, new Object[]{row + 1, socket.getInetAddress().getHostName(), socket.getPort(), getDateTime()});
@@ -197,6 +205,9 @@ public class MultiServerThread extends Thread {
     }
 
     private void setStatus(String message) {
+        if (model == null) {
+            return;
+        }
         synchronized (model) {
             for (int i = 0; i < model.getRowCount(); ++i) {
                 if (((Integer) model.getValueAt(i, 0)) == row + 1) {
@@ -208,6 +219,9 @@ public class MultiServerThread extends Thread {
     }
 
     private void setConnectionType(String message) {
+        if (model == null) {
+            return;
+        }
         synchronized (model) {
             for (int i = 0; i < model.getRowCount(); ++i) {
                 if (((Integer) model.getValueAt(i, 0)) == row + 1) {
@@ -219,6 +233,9 @@ public class MultiServerThread extends Thread {
     }
 
     private void setDataExchange(String message) {
+        if (model == null) {
+            return;
+        }
         synchronized (model) {
             for (int i = 0; i < model.getRowCount(); ++i) {
                 if (((Integer) model.getValueAt(i, 0)) == row + 1) {
@@ -0,0 +1,484 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Tokenizer of RSS log files, radio map files and test data files. The file is
+ * memory mapped (small files are read to the heap) and lines and fields are kept
+ * as offsets in it, so numbers and MAC addresses are parsed from the bytes
+ * without creating a String per line or per field.
+ *
+ * Fields are split as line.replace(", ", " ").split(" ") splits them.
+ */
+public class RSSLogTokenizer {
+
+    // Smaller files are read, as mapping them costs more than it saves
+    private static final int MIN_MAPPED_SIZE = 1 << 18;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int position = 0;
+    private int line_num = 0;
+    private int lineStart = 0;
+    private int lineEnd = 0;
+    private int fields_num = 0;
+    private int[] fieldStart = new int[16];
+    private int[] fieldEnd = new int[16];
+    // The last location key created and the offsets of its fields
+    private String location = null;
+    private int locationXStart, locationXEnd, locationYStart, locationYEnd;
+
+    /**
+     * Constructor of the RSSLogTokenizer class
+     *
+     * @param inFile
+     *            the file to read
+     *
+     * @throws IOException
+     *            if the file could not be read or is larger than 2GB
+     * */
+    public RSSLogTokenizer(File inFile) throws IOException {
+
+        FileInputStream fis = new FileInputStream(inFile);
+
+        try {
+            FileChannel channel = fis.getChannel();
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File " + inFile.getAbsolutePath() + " is larger than 2GB.");
+            }
+
+            if (size >= MIN_MAPPED_SIZE) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                buffer = ByteBuffer.allocate((int) size);
+                while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+                }
+                buffer.flip();
+            }
+            limit = buffer.limit();
+        } finally {
+            fis.close();
+        }
+    }
+
+    /**
+     * Constructor of the RSSLogTokenizer class over bytes in memory
+     *
+     * @param buffer
+     *            the bytes to read, from its position to its limit
+     * */
+    public RSSLogTokenizer(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        this.limit = this.buffer.limit();
+    }
+
+    /**
+     * Updates a checksum with all bytes of the file
+     *
+     * @param checksum
+     *            the checksum to update
+     * */
+    public void updateChecksum(CRC32 checksum) {
+        checksum.update(buffer.duplicate());
+    }
+
+    /**
+     * Moves to the next line. Lines end at \n, \r or \r\n.
+     *
+     * @return
+     *            true if there is a line, false at the end of file
+     * */
+    public boolean nextLine() {
+
+        if (position >= limit) {
+            return false;
+        }
+
+        int i = position;
+        byte b = 0;
+
+        while (i < limit && (b = buffer.get(i)) != '\n' && b != '\r') {
+            ++i;
+        }
+
+        lineStart = position;
+        lineEnd = i;
+        fields_num = 0;
+        line_num++;
+
+        if (b == '\r' && i + 1 < limit && buffer.get(i + 1) == '\n') {
+            ++i;
+        }
+        position = i + 1;
+        return true;
+    }
+
+    /**
+     * Getter of the current line number
+     *
+     * @return
+     *            the number of the current line, starting from 1
+     * */
+    public int getLineNumber() {
+        return line_num;
+    }
+
+    /**
+     * Getter of the bytes read so far
+     *
+     * @return
+     *            the offset after the current line
+     * */
+    public long getPosition() {
+        return Math.min(position, limit);
+    }
+
+    /**
+     * Checks the first character of the current line
+     *
+     * @param c
+     *            the ASCII character
+     *
+     * @return
+     *            true if the line starts with the character
+     * */
+    public boolean startsWith(char c) {
+        return lineStart < lineEnd && buffer.get(lineStart) == c;
+    }
+
+    /**
+     * Checks if the current line has only white space, as line.trim().isEmpty()
+     *
+     * @return
+     *            true if the line is blank
+     * */
+    public boolean isBlank() {
+        for (int i = lineStart; i < lineEnd; ++i) {
+            if ((buffer.get(i) & 0xFF) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Splits the current line to fields
+     *
+     * @param trim
+     *            true to trim the line before splitting
+     *
+     * @return
+     *            the number of fields
+     * */
+    public int split(boolean trim) {
+
+        int start = lineStart;
+        int end = lineEnd;
+
+        if (trim) {
+            while (start < end && (buffer.get(start) & 0xFF) <= ' ') {
+                ++start;
+            }
+            while (end > start && (buffer.get(end - 1) & 0xFF) <= ' ') {
+                --end;
+            }
+        }
+
+        fields_num = 0;
+        int field = start;
+
+        for (int i = start; i < end; ++i) {
+            byte b = buffer.get(i);
+
+            if (b == ' ') {
+                addField(field, i);
+                field = i + 1;
+            } else if (b == ',' && i + 1 < end && buffer.get(i + 1) == ' ') {
+                addField(field, i);
+                field = i + 2;
+                ++i;
+            }
+        }
+        addField(field, end);
+
+        // As String.split, trailing empty fields are removed, unless the line is empty
+        if (start < end) {
+            while (fields_num > 0 && fieldStart[fields_num - 1] == fieldEnd[fields_num - 1]) {
+                fields_num--;
+            }
+        }
+        return fields_num;
+    }
+
+    /**
+     * Getter of a field
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return
+     *            the field as String
+     * */
+    public String getString(int field) {
+        checkField(field);
+
+        byte[] bytes = new byte[fieldEnd[field] - fieldStart[field]];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = buffer.get(fieldStart[field] + i);
+        }
+        return new String(bytes);
+    }
+
+    /**
+     * Getter of the location key "X Y" of two fields. The same String is
+     * returned while consecutive lines have the same location.
+     *
+     * @param x
+     *            the index of the X or Latitude field
+     *
+     * @param y
+     *            the index of the Y or Longitude field
+     *
+     * @return
+     *            the location key
+     * */
+    public String getLocation(int x, int y) {
+        checkField(x);
+        checkField(y);
+
+        if (location == null
+                || !regionEquals(fieldStart[x], fieldEnd[x], locationXStart, locationXEnd)
+                || !regionEquals(fieldStart[y], fieldEnd[y], locationYStart, locationYEnd)) {
+            location = getString(x) + " " + getString(y);
+            locationXStart = fieldStart[x];
+            locationXEnd = fieldEnd[x];
+            locationYStart = fieldStart[y];
+            locationYEnd = fieldEnd[y];
+        }
+        return location;
+    }
+
+    /**
+     * Parses an int field as Integer.parseInt does
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return
+     *            the value
+     *
+     * @throws NumberFormatException
+     *            if the field is not an int
+     * */
+    public int parseInt(int field) {
+        checkField(field);
+
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        long value = 0;
+
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            ++i;
+        }
+
+        if (i == end) {
+            throw numberFormatException(field);
+        }
+
+        for (; i < end; ++i) {
+            int digit = buffer.get(i) - '0';
+
+            if (digit < 0 || digit > 9) {
+                throw numberFormatException(field);
+            }
+            value = value * 10 + digit;
+
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                throw numberFormatException(field);
+            }
+        }
+
+        if (negative) {
+            value = -value;
+        }
+
+        if (value > Integer.MAX_VALUE) {
+            throw numberFormatException(field);
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a float field as Float.parseFloat does. Plain decimals are parsed
+     * from the bytes, any other form is parsed by Float.parseFloat.
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return
+     *            the value
+     *
+     * @throws NumberFormatException
+     *            if the field is not a float
+     * */
+    public float parseFloat(int field) {
+        checkField(field);
+
+        int i = fieldStart[field];
+        int end = fieldEnd[field];
+        boolean negative = false;
+        long mantissa = 0;
+        int digits = 0;
+        int decimals = 0;
+        boolean point = false;
+
+        if (i < end && (buffer.get(i) == '-' || buffer.get(i) == '+')) {
+            negative = buffer.get(i) == '-';
+            ++i;
+        }
+
+        for (; i < end; ++i) {
+            byte b = buffer.get(i);
+
+            if (b == '.' && !point) {
+                point = true;
+            } else if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                digits++;
+                if (point) {
+                    decimals++;
+                }
+            } else {
+                break;
+            }
+        }
+
+        // Exact mantissa and power of ten, so the division rounds correctly to double
+        if (i == end && digits > 0 && digits <= 15 && decimals < POWERS_OF_TEN.length) {
+            double value = mantissa / POWERS_OF_TEN[decimals];
+            float result = (float) value;
+
+            // Rounding to double then to float is exact unless the double is halfway between two floats
+            if (value == 0 || (Math.abs(value) >= Float.MIN_NORMAL && Math.abs(value) < Float.MAX_VALUE
+                    && (Double.doubleToRawLongBits(value) & 0x1FFFFFFFL) != 0x10000000L)) {
+                return negative ? -result : result;
+            }
+        }
+        return Float.parseFloat(getString(field));
+    }
+
+    /**
+     * Parses a MAC address field
+     *
+     * @param field
+     *            the index of the field
+     *
+     * @return
+     *            the packed MAC address, or MacAddress.INVALID if it is malformed
+     * */
+    public long parseMacAddress(int field) {
+        checkField(field);
+
+        int start = fieldStart[field];
+
+        if (fieldEnd[field] - start != 17) {
+            return MacAddress.INVALID;
+        }
+
+        long mac = 0;
+
+        for (int i = 0; i < 17; i += 3) {
+
+            int high = MacAddress.hexValue(buffer.get(start + i));
+            int low = MacAddress.hexValue(buffer.get(start + i + 1));
+
+            if (high < 0 || low < 0 || (i + 2 < 17 && buffer.get(start + i + 2) != ':')) {
+                return MacAddress.INVALID;
+            }
+            mac = (mac << 8) | (high << 4) | low;
+        }
+        return mac;
+    }
+
+    private void addField(int start, int end) {
+        if (fields_num == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, fields_num << 1);
+            fieldEnd = Arrays.copyOf(fieldEnd, fields_num << 1);
+        }
+        fieldStart[fields_num] = start;
+        fieldEnd[fields_num] = end;
+        fields_num++;
+    }
+
+    private void checkField(int field) {
+        if (field < 0 || field >= fields_num) {
+            throw new ArrayIndexOutOfBoundsException("Index " + field + " out of bounds for length " + fields_num);
+        }
+    }
+
+    private boolean regionEquals(int start, int end, int otherStart, int otherEnd) {
+        if (end - start != otherEnd - otherStart) {
+            return false;
+        }
+        for (int i = 0; i < end - start; ++i) {
+            if (buffer.get(start + i) != buffer.get(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private NumberFormatException numberFormatException(int field) {
+        return new NumberFormatException("For input string: \"" + getString(field) + "\"");
+    }
+}
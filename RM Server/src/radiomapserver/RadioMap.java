@@ -41,17 +41,35 @@
 package radiomapserver;
 
 import Jama.Matrix;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.text.DecimalFormat;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
 
 /**
  *
@@ -60,13 +78,18 @@ import java.util.Iterator;
  */
 public class RadioMap {
 
-    private final HashMap<String, HashMap<String, ArrayList<Integer>>> RadioMap;
+    private RadioMapStore RadioMap;
     private final boolean isIndoor;
     private final File rss_folder;
     private final String radiomap_filename;
     private final String radiomap_mean_filename;
     private final String radiomap_parameters_filename;
+    private final String radiomap_pruning_filename;
+    private final String radiomap_merging_filename;
+    private final String radiomap_statistics_filename;
     private final int Algoritmhs_num = 4;
+    // Values formatted in a chunk of rows, when the rows are formatted in parallel
+    private static final long CHUNK_VALUES = 1 << 16;
     private final int defaultNaNValue;
     private int K_KNN = -1;
     private int K_WKNN = -1;
@@ -74,6 +97,30 @@ public class RadioMap {
     private double S_MMSE = -1;
     private int MIN_RSS = Integer.MAX_VALUE;
     private int MAX_RSS = Integer.MIN_VALUE;
+    private boolean parallelBuild = false;
+    // The pool of a parallel build, shared by all builds of the radio map. Its idle workers end on their own
+    private ForkJoinPool pool = null;
+    private boolean incrementalBuild = false;
+    private boolean streamingBuild = false;
+    private boolean writeStreamingSamples = true;
+    private long streamingChunkSamples = 1 << 22;
+    private boolean externalBuild = false;
+    private int externalRunSamples = 1 << 22;
+    private RadioMapPruning pruning = null;
+    private RadioMapGrouping grouping = null;
+    private RadioMapMerging merging = null;
+    private int clusters = 0;
+    private int clusterProbes = 1;
+    private int maxCellSamples = 0;
+    // The radio map mean with all MAC Addresses, kept to compare it with the pruned one
+    private RadioMapMean UnprunedRadioMap = null;
+    // The radio map mean with all locations, kept to compare it with the merged one
+    private RadioMapMean UnmergedRadioMap = null;
+    // The RSS log files parsed by the last load, and how many were new, changed or removed
+    private final Set<String> LoadedLogFiles = Collections.synchronizedSet(new HashSet<String>());
+    private int changedLogFiles = -1;
+    // Held while the files of the radio map are written and published
+    private final ReentrantLock writer;
 
     /**
      * Constructor of the RadioMap class
@@ -86,13 +133,259 @@ public class RadioMap {
      *
      * */
     public RadioMap(File rss_folder, String radiomap_filename, int defaultNaNValue) {
-        RadioMap = new HashMap<String, HashMap<String, ArrayList<Integer>>>();
+        RadioMap = new RadioMapStore();
         this.rss_folder = rss_folder;
         this.radiomap_filename = radiomap_filename;
-        this.radiomap_mean_filename = radiomap_filename.replace(".", "-mean.");
-        this.radiomap_parameters_filename = radiomap_filename.replace(".", "-parameters.");
+        this.radiomap_mean_filename = getFilename(radiomap_filename, "-mean");
+        this.radiomap_parameters_filename = getFilename(radiomap_filename, "-parameters");
+        this.radiomap_pruning_filename = getFilename(radiomap_filename, "-pruning");
+        this.radiomap_merging_filename = getFilename(radiomap_filename, "-merging");
+        this.radiomap_statistics_filename = getBase(radiomap_filename) + "-statistics.bin";
         this.defaultNaNValue = defaultNaNValue;
-        this.isIndoor = this.radiomap_filename.contains("indoor");
+        this.isIndoor = new File(radiomap_filename).getName().contains("indoor");
+        this.writer = RadioMapSnapshot.getWriterLock(new File(radiomap_mean_filename));
+    }
+
+    /**
+     * Takes the writer lock of the radio map, shared by all radio maps
+     * written to the same files in the process. It must be held while the
+     * radio map is created, its mean or parameters written, and published,
+     * as the radio map mean and parameters are written to the staging folder
+     * of the next version, that is discarded when the lock is released
+     * without publishing it.
+     * */
+    public void lockWriter() {
+        writer.lock();
+
+        // Left by a writer that did not finish
+        if (writer.getHoldCount() == 1) {
+            RadioMapSnapshot.discard(new File(radiomap_mean_filename));
+        }
+    }
+
+    /**
+     * Releases the writer lock of the radio map, discarding the radio map
+     * mean and parameters written and not published
+     * */
+    public void unlockWriter() {
+
+        if (writer.getHoldCount() == 1) {
+            RadioMapSnapshot.discard(new File(radiomap_mean_filename));
+        }
+        writer.unlock();
+    }
+
+    /**
+     * Getter of a file of the radio map mean or parameters, in the staging
+     * folder of the next version they are written to
+     *
+     * @param filename
+     *            the file as written next to the radio map mean
+     *
+     * @return
+     *            the file in the staging folder, or null if it could not be staged
+     * */
+    private File getStagedFile(String filename) {
+
+        try {
+            File staging = RadioMapSnapshot.stage(new File(radiomap_mean_filename), new File(radiomap_parameters_filename));
+            return new File(staging, new File(filename).getName());
+        } catch (IOException e) {
+            System.err.println("Error while staging radio map: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Inserts a suffix to a radio map filename, before the extension of its
+     * name. Dots in the folders of the path are not extensions.
+     *
+     * @param radiomap_filename
+     *            the radio map filename, e.g. indoor/indoor-radiomap.txt
+     *
+     * @param suffix
+     *            the suffix, e.g. -mean
+     *
+     * @return
+     *            the filename with the suffix, e.g. indoor/indoor-radiomap-mean.txt
+     * */
+    static String getFilename(String radiomap_filename, String suffix) {
+
+        String base = getBase(radiomap_filename);
+
+        return base + suffix + radiomap_filename.substring(base.length());
+    }
+
+    /**
+     * Getter of a radio map filename without the extension of its name
+     *
+     * @param radiomap_filename
+     *            the radio map filename, e.g. indoor/indoor-radiomap.txt
+     *
+     * @return
+     *            the filename without extension, e.g. indoor/indoor-radiomap
+     * */
+    static String getBase(String radiomap_filename) {
+
+        int dot = radiomap_filename.lastIndexOf('.');
+
+        if (dot <= radiomap_filename.lastIndexOf(File.separatorChar) || dot <= radiomap_filename.lastIndexOf('/')) {
+            return radiomap_filename;
+        }
+        return radiomap_filename.substring(0, dot);
+    }
+
+    /**
+     * Sets whether RSS log files are parsed, and the rows of the radio map
+     * and its mean are formatted, in parallel over a fork-join pool
+     *
+     * @param parallelBuild
+     *            true to parse the RSS log files and format the rows with all
+     *            available processors
+     * */
+    public void setParallelBuild(boolean parallelBuild) {
+        this.parallelBuild = parallelBuild;
+    }
+
+    /**
+     * Sets whether only new or changed RSS log files are parsed. The partial
+     * radio maps of the files already parsed are kept in a cache folder next
+     * to the radio map, together with a manifest of the files.
+     *
+     * @param incrementalBuild
+     *            true to parse only the RSS log files not in manifest
+     * */
+    public void setIncrementalBuild(boolean incrementalBuild) {
+        this.incrementalBuild = incrementalBuild;
+    }
+
+    /**
+     * Sets whether the radio map is built from running statistics of every
+     * location and MAC address, instead of keeping all RSS samples in memory.
+     * The radio map with all samples is written by reading the RSS log files
+     * again, a chunk of locations at a time.
+     *
+     * @param streamingBuild
+     *            true to keep only the running statistics while parsing
+     *
+     * @param writeStreamingSamples
+     *            false to write only the radio map mean, in which case the
+     *            algorithm parameters can not be calculated
+     * */
+    public void setStreamingBuild(boolean streamingBuild, boolean writeStreamingSamples) {
+        this.streamingBuild = streamingBuild;
+        this.writeStreamingSamples = writeStreamingSamples;
+    }
+
+    /**
+     * Sets how many RSS samples are kept in memory while the radio map is
+     * written in a streaming build. Locations with more samples are written alone.
+     *
+     * @param streamingChunkSamples
+     *            the number of samples read for every chunk of locations
+     * */
+    public void setStreamingChunkSamples(long streamingChunkSamples) {
+        this.streamingChunkSamples = streamingChunkSamples;
+    }
+
+    /**
+     * Sets whether the RSS samples are sorted on disk instead of kept in
+     * memory. Samples are written to sorted runs in a folder next to the
+     * radio map, and the runs are merged so that only the samples of one
+     * location are in memory while the radio map is written.
+     *
+     * @param externalBuild
+     *            true to sort the RSS samples on disk
+     * */
+    public void setExternalBuild(boolean externalBuild) {
+        this.externalBuild = externalBuild;
+    }
+
+    /**
+     * Sets how many RSS samples are kept in memory before a sorted run is
+     * written in an external build
+     *
+     * @param externalRunSamples
+     *            the number of samples of every run
+     * */
+    public void setExternalRunSamples(int externalRunSamples) {
+        this.externalRunSamples = externalRunSamples;
+    }
+
+    /**
+     * Sets the pruning of the MAC Addresses written to the radio map. A report
+     * of the MAC Addresses dropped is written next to the radio map, and the
+     * positioning error and time with and without pruning are added to it when
+     * the parameters are written. Pruning is not applied to external builds.
+     *
+     * @param pruning
+     *            the pruning criteria, or null to write all MAC Addresses
+     * */
+    public void setPruning(RadioMapPruning pruning) {
+        this.pruning = pruning;
+    }
+
+    /**
+     * Sets the grouping of the MAC Addresses of the same access point into
+     * virtual access points, before pruning. The groups are written next to
+     * the radio map mean, so that the MAC Addresses of a group are matched to
+     * its virtual access point when positioning. Grouping is not applied to
+     * external builds.
+     *
+     * @param grouping
+     *            the grouping criteria, or null to write all MAC Addresses
+     * */
+    public void setGrouping(RadioMapGrouping grouping) {
+        this.grouping = grouping;
+    }
+
+    /**
+     * Sets the merging of neighboring locations with almost the same mean
+     * RSS values, after pruning. Only the radio map mean is merged, the radio
+     * map keeps the samples of every location. The report of the locations
+     * merged is written next to the radio map, and the positioning error and
+     * time with and without merging are added to it when the parameters are
+     * written. Merging is not applied to external builds.
+     *
+     * @param merging
+     *            the merging criteria, or null to write all locations
+     * */
+    public void setMerging(RadioMapMerging merging) {
+        this.merging = merging;
+    }
+
+    /**
+     * Sets the clustering of the locations of the radio map mean. The
+     * clusters are written next to the radio map mean, so that positioning
+     * compares the observed RSS values only with the locations of the
+     * nearest clusters.
+     *
+     * @param clusters
+     *            the number of clusters, 0 for none, or less than 0 for the
+     *            square root of the number of locations
+     *
+     * @param clusterProbes
+     *            the number of nearest clusters searched when positioning
+     * */
+    public void setClustering(int clusters, int clusterProbes) {
+        this.clusters = clusters;
+        this.clusterProbes = clusterProbes;
+    }
+
+    /**
+     * Sets the maximum number of RSS samples kept for every location and MAC
+     * Address. Locations logged for a long time keep a uniform sample of the
+     * RSS samples read, so the memory and the radio map with all samples are
+     * bounded while the mean and variance estimates stay unbiased. The mean of
+     * a streaming build is still calculated from all samples.
+     *
+     * @param maxCellSamples
+     *            the maximum number of samples kept for every location and
+     *            MAC Address, or 0 to keep all samples
+     * */
+    public void setMaxCellSamples(int maxCellSamples) {
+        this.maxCellSamples = Math.max(maxCellSamples, 0);
+        RadioMap.setMaxCellSamples(this.maxCellSamples);
     }
 
     /**
@@ -107,18 +400,102 @@ public class RadioMap {
             return false;
         }
 
-        RadioMap.clear();
+        if (externalBuild) {
+            RadioMap.clear();
+            return createRadioMapExternal(rss_folder);
+        }
 
-        createRadioMapFromPath(rss_folder);
+        if (streamingBuild) {
+            RadioMap.clear();
+            ArrayList<File> LogFiles = new ArrayList<File>();
+            return writeRadioMap(createRadioMapStreaming(rss_folder, LogFiles), LogFiles);
+        }
 
         //createRadioMapUrgent("radio-map.txt");
 
-        if (!writeRadioMap()) {
+        if (!loadRadioMap() || !writeRadioMap()) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the RSS samples of all files in Folder to memory, without writing
+     * the radio map. Streaming and external builds do not keep the samples.
+     *
+     * @return
+     *          true if the RSS samples are read, otherwise false
+     * */
+    public boolean loadRadioMap() {
+
+        if (!rss_folder.exists() || !rss_folder.isDirectory()) {
+            return false;
+        }
+
+        if (streamingBuild || externalBuild) {
+            System.err.println("Error while loading radio map: RSS samples are not kept in memory.");
             return false;
         }
+
+        RadioMap.clear();
+        LoadedLogFiles.clear();
+        changedLogFiles = -1;
+
+        if (incrementalBuild) {
+            createRadioMapIncremental(rss_folder);
+        } else if (parallelBuild) {
+            createRadioMapParallel(rss_folder);
+        } else {
+            createRadioMapFromPath(rss_folder);
+        }
         return true;
     }
 
+    /**
+     * Getter of the number of RSS log files new, changed or removed since the
+     * last incremental build, found by the last load
+     *
+     * @return
+     *          the number of files, or -1 if the last load was not incremental
+     * */
+    public int getChangedLogFileCount() {
+        return changedLogFiles;
+    }
+
+    /**
+     * Checks if an RSS log file was parsed by the last load
+     *
+     * @param inFile
+     *          the RSS log file
+     *
+     * @return
+     *          true if the file was parsed, otherwise false
+     * */
+    public boolean isLoadedLogFile(File inFile) {
+        return LoadedLogFiles.contains(inFile.getAbsolutePath());
+    }
+
+    /**
+     * Checks if the current published version holds the RSS log files of the
+     * last incremental build, so that it is published again only if files
+     * are new, changed or removed since
+     *
+     * @return
+     *          true if the manifest of the last incremental build is not newer
+     *          than the current published version, otherwise false
+     * */
+    public boolean isSnapshotCurrent() {
+
+        File mean_file = new File(radiomap_mean_filename);
+        File current_file = RadioMapSnapshot.getCurrentFile(mean_file);
+        File manifest_file = RadioMapManifest.getManifestFile(new File(getBase(radiomap_filename) + "-cache"));
+
+        if (!incrementalBuild || !mean_file.isFile() || RadioMapSnapshot.readCurrentVersion(mean_file) == -1 || !manifest_file.isFile()) {
+            return false;
+        }
+        return manifest_file.lastModified() <= current_file.lastModified();
+    }
+
     private void createRadioMapUrgent(String inFile) {
 
         BufferedReader reader = null;
@@ -216,6 +593,10 @@ public class RadioMap {
                 // Read recursively the path
                 if (list != null) {
                     for (int i = 0; i < list.length; i++) {
+                        // Hidden files, as the upload log, and segment indexes are not RSS log files
+                        if (list[i].startsWith(".") || list[i].endsWith(".idx")) {
+                            continue;
+                        }
                         createRadioMapFromPath(new File(inFile, list[i]));
                     }
                 }
@@ -227,161 +608,564 @@ public class RadioMap {
     }
 
     /**
-     * Parses an RSS log file and store it to radio map structure.
+     * Creates the Radio map parsing all files in Folder in parallel. Every
+     * worker fills its own partial radio map and the partial radio maps are
+     * merged in file order, as they are joined.
      *
      * @param inFile
-     *             the new file to read
+     *             the RSS folder to read
      * */
-    private void parseLogFileToRadioMap(File inFile) {
+    private void createRadioMapParallel(File inFile) {
 
-        int line_num = 0;
-        BufferedReader reader = null;
-        HashMap<String, ArrayList<Integer>> MACAddressMap = null;
-        ArrayList<Integer> RSS_Values = null;
-        String key = "";
+        ArrayList<File> LogFiles = new ArrayList<File>();
+        listLogFiles(inFile, LogFiles);
 
-        // Check that RSS file is OK
-        if (!authenticateRSSlogFile(inFile)) {
+        if (LogFiles.isEmpty()) {
             return;
         }
 
-        try {
-            String line = null;
-            int RSS_Value = 0;
-            FileReader fr = new FileReader(inFile);
-            reader = new BufferedReader(fr);
+        RadioMap.merge(getPool().invoke(new ParseLogFilesTask(LogFiles, 0, LogFiles.size())));
+    }
 
-            while ((line = reader.readLine()) != null) {
+    /**
+     * Getter of the pool of a parallel build, created the first time
+     *
+     * @return
+     *             the fork-join pool with all available processors
+     * */
+    private synchronized ForkJoinPool getPool() {
 
-                line_num++;
+        if (pool == null) {
+            pool = new ForkJoinPool();
+        }
+        return pool;
+    }
 
-                // Ignore the labels
-                if (line.startsWith("#") || line.trim().isEmpty()) {
+    /**
+     * Creates the Radio map parsing only the files in Folder that are new or
+     * changed since the last incremental build. The samples of the other
+     * files are read from their partial radio maps, or from the merged radio
+     * map of the last build if files were only added.
+     *
+     * @param inFile
+     *             the RSS folder to read
+     * */
+    private void createRadioMapIncremental(File inFile) {
+
+        String radiomap_base = getBase(radiomap_filename);
+        File cache_folder = new File(radiomap_base + "-cache");
+
+        if (!cache_folder.isDirectory() && !cache_folder.mkdirs()) {
+            System.err.println("Error while creating cache folder " + cache_folder.getAbsolutePath() + ". Parsing all RSS log files.");
+            createRadioMapFromPath(inFile);
+            return;
+        }
+
+        RadioMapManifest manifest = new RadioMapManifest(cache_folder);
+        manifest.load();
+
+        ArrayList<File> LogFiles = new ArrayList<File>();
+        listLogFiles(inFile, LogFiles);
+
+        HashMap<String, RadioMapStore> Parsed = new HashMap<String, RadioMapStore>();
+        HashMap<String, File> Paths = new HashMap<String, File>();
+        boolean onlyAdded = true;
+        int changed = 0;
+        int touched = 0;
+
+        try {
+            for (File LogFile : LogFiles) {
+
+                String path = LogFile.getAbsolutePath();
+                RadioMapManifest.Entry entry = manifest.get(path);
+                Paths.put(path, LogFile);
+
+                // Unchanged file
+                if (entry != null && entry.getSize() == LogFile.length() && entry.getModified() == LogFile.lastModified()) {
+                    continue;
+                } // Touched file with the same content
+                else if (entry != null && entry.getSize() == LogFile.length() && entry.getHash() == RadioMapManifest.hash(LogFile)) {
+                    manifest.touch(LogFile);
+                    touched++;
                     continue;
                 }
 
-                // Remove commas
-                line = line.replace(", ", " ");
+                if (entry != null) {
+                    onlyAdded = false;
+                }
+                changed++;
 
-                // Split fields
-                String[] temp = line.split(" ");
+                CRC32 crc = new CRC32();
+                RadioMapStore FileRadioMap = parseLogFile(LogFile, crc);
+                manifest.put(LogFile, crc.getValue(), FileRadioMap);
 
-                // Test and set RSS value is integer
-                RSS_Value = Integer.parseInt(temp[4]);
+                if (FileRadioMap != null) {
+                    Parsed.put(path, FileRadioMap);
+                }
+            }
+
+            // Forget the removed files
+            for (RadioMapManifest.Entry entry : manifest.getEntries()) {
+                if (!Paths.containsKey(entry.getPath())) {
+                    manifest.remove(entry.getPath());
+                    onlyAdded = false;
+                    changed++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error while updating manifest: " + e.getMessage() + ". Parsing all RSS log files.");
+            createRadioMapFromPath(inFile);
+            return;
+        }
+
+        RadioMapStore MergedRadioMap = onlyAdded ? manifest.readMerged() : null;
 
-                // Key of location X,Y
-                key = temp[1] + " " + temp[2];
+        // The cache was sampled to fewer samples than kept now
+        if (MergedRadioMap != null && !MergedRadioMap.keepsSamplesFor(maxCellSamples)) {
+            MergedRadioMap = null;
+        }
 
-                // Get the current geolocation value
-                MACAddressMap = RadioMap.get(key);
+        if (MergedRadioMap != null) {
+            RadioMap = MergedRadioMap;
+            RadioMap.setMaxCellSamples(maxCellSamples);
 
-                // Geolocation first read so far
-                if (MACAddressMap == null) {
-                    MACAddressMap = new HashMap<String, ArrayList<Integer>>();
-                    RSS_Values = new ArrayList<Integer>();
-                    RSS_Values.add(RSS_Value);
-                    MACAddressMap.put(temp[3], RSS_Values);
-                    RadioMap.put(key, MACAddressMap);
-                    continue;
+            for (File LogFile : LogFiles) {
+                RadioMapStore FileRadioMap = Parsed.get(LogFile.getAbsolutePath());
+                if (FileRadioMap != null) {
+                    RadioMap.merge(FileRadioMap);
                 }
+            }
+        } else {
+            for (File LogFile : LogFiles) {
 
-                // Get the RSS Values of MAC address
-                RSS_Values = MACAddressMap.get(temp[3]);
+                RadioMapStore FileRadioMap = Parsed.get(LogFile.getAbsolutePath());
 
-                // MAC Address first read so far
-                if (RSS_Values == null) {
-                    RSS_Values = new ArrayList<Integer>();
-                    RSS_Values.add(RSS_Value);
-                    MACAddressMap.put(temp[3], RSS_Values);
-                    continue;
+                if (FileRadioMap == null) {
+                    try {
+                        FileRadioMap = manifest.readPartial(manifest.get(LogFile.getAbsolutePath()));
+
+                        if (FileRadioMap != null && !FileRadioMap.keepsSamplesFor(maxCellSamples)) {
+                            throw new IOException("Partial radio map sampled to fewer samples.");
+                        }
+                    } catch (IOException e) {
+                        // Partial radio map lost or sampled to fewer samples. Parse the file again
+                        CRC32 crc = new CRC32();
+                        FileRadioMap = parseLogFile(LogFile, crc);
+                        try {
+                            manifest.put(LogFile, crc.getValue(), FileRadioMap);
+                        } catch (IOException ioe) {
+                            System.err.println("Error while updating manifest: " + ioe.getMessage());
+                        }
+                    }
                 }
 
-                // MAC Address already exists. Just insert to array list the new RSS value
-                RSS_Values.add(RSS_Value);
+                if (FileRadioMap != null) {
+                    RadioMap.merge(FileRadioMap);
+                }
             }
-            fr.close();
-            reader.close();
-        } catch (Exception e) {
-            System.err.println("Error while parsing RSS log file " + inFile.getAbsolutePath() + ": " + e.getMessage());
         }
 
+        changedLogFiles = changed;
+
+        // Nothing to write if the merged radio map of the last build was read as is
+        if (MergedRadioMap != null && changed == 0 && touched == 0) {
+            return;
+        }
+
+        try {
+            manifest.writeMerged(RadioMap);
+            manifest.save();
+        } catch (IOException e) {
+            System.err.println("Error while writing manifest: " + e.getMessage());
+        }
     }
 
     /**
-     * Parses an RSS log file and authenticates it
+     * Creates the running statistics of the Radio map, parsing all files in
+     * Folder. No RSS sample is kept after it is added to the statistics.
      *
      * @param inFile
-     *             the RSS log file to read
+     *             the RSS folder to read
      *
-     * @return
-     *              true if is authenticated, otherwise false
+     * @param LogFiles
+     *             filled with the authenticated RSS log files, in the order read
      *
+     * @return
+     *             the statistics of all authenticated RSS log files
      * */
-    private boolean authenticateRSSlogFile(File inFile) {
-
-        int line_num = 0;
-        BufferedReader reader = null;
+    private RadioMapStatistics createRadioMapStreaming(File inFile, ArrayList<File> LogFiles) {
 
-        try {
-            String line = null;
-            FileReader fr = new FileReader(inFile);
-            reader = new BufferedReader(fr);
+        ArrayList<File> Files = new ArrayList<File>();
+        listLogFiles(inFile, Files);
 
-            while ((line = reader.readLine()) != null) {
+        RadioMapStatistics Statistics = new RadioMapStatistics();
 
-                line_num++;
+        for (File LogFile : Files) {
 
-                // Check X, Y or Latitude, Longitude
-                if (line.startsWith("#")) {
+            RadioMapStatistics FileStatistics = new RadioMapStatistics();
 
-                    line = line.replace(", ", " ");
-                    String[] temp = line.split(" ");
+            if (parseLogFile(LogFile, null, FileStatistics)) {
+                Statistics.merge(FileStatistics);
+                LogFiles.add(LogFile);
+            }
+        }
+        return Statistics;
+    }
 
-                    if (temp.length < 3) {
-                        return false;
-                    } // Must be # Timestamp, X, Y
-                    else if (this.isIndoor && (!temp[2].trim().equalsIgnoreCase("X") || !temp[3].trim().equalsIgnoreCase("Y"))) {
-                        return false;
-                    } // Must be # Timestamp, Latitude, Longitude
-                    else if (!this.isIndoor && (!temp[2].trim().equalsIgnoreCase("Latitude") || !temp[3].trim().equalsIgnoreCase("Longitude"))) {
-                        return false;
-                    }
-                    continue;
+    /**
+     * Creates and writes the Radio map sorting the samples of all files in
+     * Folder on disk. The sorted runs are deleted when the radio map is written.
+     *
+     * @param inFile
+     *             the RSS folder to read
+     *
+     * @return
+     *             true if radio map constructed and wrote to disk successfully, otherwise false
+     * */
+    private boolean createRadioMapExternal(File inFile) {
 
-                } else if (line.trim().isEmpty()) {
-                    continue;
-                }
+        String radiomap_base = getBase(radiomap_filename);
+        File runs_folder = new File(radiomap_base + "-runs");
 
-                // Remove commas
-                line = line.replace(", ", " ");
+        ArrayList<File> LogFiles = new ArrayList<File>();
+        listLogFiles(inFile, LogFiles);
 
-                // Split fields
-                String[] temp = line.split(" ");
+        if (pruning != null) {
+            System.err.println("MAC Addresses are not pruned in external builds.");
+        }
 
-                // The file may be corrupted so ignore reading it
-                if (temp.length != 5) {
-                    throw new Exception("Line " + line_num + " length is not equal to 5.");
-                }
+        RadioMapRuns Runs = null;
 
-                // Test that X, Y are floats
-                Float.parseFloat(temp[1]);
-                Float.parseFloat(temp[2]);
+        try {
+            Runs = new RadioMapRuns(runs_folder, externalRunSamples);
 
-                // MAC address validation
-                if (!temp[3].matches("[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}")) {
-                    throw new Exception("Line " + line_num + " MAC Address is not valid.");
-                }
+            for (File LogFile : LogFiles) {
+                Runs.startFile();
+                Runs.endFile(parseLogFile(LogFile, null, Runs));
+            }
 
-                // Test RSS value is integer
-                Integer.parseInt(temp[4]);
+            Runs.finish();
+            return writeRadioMap(Runs, new File(runs_folder, "means.bin"));
+        } catch (IOException e) {
+            System.err.println("Error while sorting RSS samples: " + e.getMessage());
+            return false;
+        } finally {
+            if (Runs != null) {
+                Runs.delete();
+            }
+        }
+    }
+
+    /**
+     * Lists recursively all readable files in Folder
+     *
+     * @param inFile
+     *             the file or folder to list
+     *
+     * @param LogFiles
+     *             the list to add the files found
+     * */
+    private void listLogFiles(File inFile, ArrayList<File> LogFiles) {
+
+        if (inFile.exists()) {
+
+            // If is folder
+            if (inFile.canExecute() && inFile.isDirectory()) {
+                String[] list = inFile.list();
+
+                // Read recursively the path
+                if (list != null) {
+                    for (int i = 0; i < list.length; i++) {
+                        // Hidden files, as the upload log, and segment indexes are not RSS log files
+                        if (list[i].startsWith(".") || list[i].endsWith(".idx")) {
+                            continue;
+                        }
+                        listLogFiles(new File(inFile, list[i]), LogFiles);
+                    }
+                }
+            } // Keep all files
+            else if (inFile.canRead() && inFile.isFile()) {
+                LogFiles.add(inFile);
+            }
+        }
+    }
+
+    /**
+     * Fork-join task that parses a range of RSS log files into a partial radio map
+     */
+    private class ParseLogFilesTask extends RecursiveTask<RadioMapStore> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ArrayList<File> LogFiles;
+        private final int start;
+        private final int end;
+
+        ParseLogFilesTask(ArrayList<File> LogFiles, int start, int end) {
+            this.LogFiles = LogFiles;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected RadioMapStore compute() {
+
+            // A single file. Rejected files contribute an empty partial radio map
+            if (end - start == 1) {
+                RadioMapStore FileRadioMap = parseLogFile(LogFiles.get(start));
+
+                if (FileRadioMap == null) {
+                    return new RadioMapStore(maxCellSamples);
+                }
+                return FileRadioMap;
+            }
+
+            int middle = (start + end) >>> 1;
+
+            ParseLogFilesTask left = new ParseLogFilesTask(LogFiles, start, middle);
+            ParseLogFilesTask right = new ParseLogFilesTask(LogFiles, middle, end);
+
+            left.fork();
+            RadioMapStore RightRadioMap = right.compute();
+            RadioMapStore LeftRadioMap = left.join();
+
+            LeftRadioMap.merge(RightRadioMap);
+            return LeftRadioMap;
+        }
+    }
+
+    /**
+     * Parses an RSS log file and store it to radio map structure.
+     * The file is validated and aggregated in a single read. Samples are
+     * collected in a file local structure and merged to the radio map only
+     * when the whole file is authenticated, so a corrupted file contributes nothing.
+     *
+     * @param inFile
+     *             the new file to read
+     * */
+    private void parseLogFileToRadioMap(File inFile) {
+
+        RadioMapStore FileRadioMap = parseLogFile(inFile);
+
+        if (FileRadioMap != null) {
+            RadioMap.merge(FileRadioMap);
+        }
+    }
+
+    /**
+     * Parses an uploaded RSS log file, without adding it to the radio map in
+     * memory. The RSS log is authenticated as a whole, so a corrupted log adds
+     * nothing, as when it is read from the RSS folder.
+     *
+     * @param inFile
+     *             the RSS log file uploaded
+     *
+     * @return
+     *              the samples of the RSS log, or null if it is not authenticated
+     * */
+    public RadioMapStore parseUploadedLogFile(File inFile) {
+
+        if (streamingBuild || externalBuild) {
+            System.err.println("Error while adding RSS log file " + inFile.getAbsolutePath() + ": RSS samples are not kept in memory.");
+            return null;
+        }
+
+        RadioMapStore FileRadioMap = new RadioMapStore(maxCellSamples);
+
+        if (!parseLogFile(inFile, null, FileRadioMap)) {
+            return null;
+        }
+        return FileRadioMap;
+    }
+
+    /**
+     * Adds the samples of a parsed RSS log to the radio map in memory,
+     * without writing the radio map
+     *
+     * @param FileRadioMap
+     *             the samples of the RSS log
+     * */
+    public void addLogFile(RadioMapStore FileRadioMap) {
+        RadioMap.merge(FileRadioMap);
+    }
+
+    /**
+     * Authenticates an RSS log file, without adding its samples to the radio map
+     *
+     * @param inFile
+     *             the RSS log file to read
+     *
+     * @return
+     *              true if the file is authenticated, otherwise false
+     * */
+    boolean authenticateLogFile(File inFile) {
+        return parseLogFile(inFile, null, new RadioMapStatistics());
+    }
+
+    /**
+     * Getter of the folder of RSS log files
+     *
+     * @return
+     *             the folder contains all RSS log files
+     * */
+    File getRSSFolder() {
+        return rss_folder;
+    }
+
+    /**
+     * Parses and authenticates an RSS log file in a single pass
+     *
+     * @param inFile
+     *             the RSS log file to read
+     *
+     * @return
+     *              the samples of the file grouped by location and MAC address,
+     *              or null if the file is not authenticated
+     * */
+    private RadioMapStore parseLogFile(File inFile) {
+        return parseLogFile(inFile, null);
+    }
+
+    /**
+     * Parses and authenticates an RSS log file in a single pass
+     *
+     * @param inFile
+     *             the RSS log file to read
+     *
+     * @param checksum
+     *             updated with every byte read, or null
+     *
+     * @return
+     *              the samples of the file grouped by location and MAC address,
+     *              or null if the file is not authenticated
+     * */
+    private RadioMapStore parseLogFile(File inFile, CRC32 checksum) {
+
+        RadioMapStore FileRadioMap = new RadioMapStore(maxCellSamples);
+        LoadedLogFiles.add(inFile.getAbsolutePath());
+
+        if (!parseLogFile(inFile, checksum, FileRadioMap)) {
+            return null;
+        }
+        return FileRadioMap;
+    }
+
+    /**
+     * Parses and authenticates an RSS log file in a single pass. The samples
+     * read before an error are left in FileRadioMap.
+     *
+     * @param inFile
+     *             the RSS log file to read
+     *
+     * @param checksum
+     *             updated with all bytes of the file, or null
+     *
+     * @param FileRadioMap
+     *             the radio map to add the samples to
+     *
+     * @return
+     *              true if the file is authenticated, otherwise false
+     * */
+    private boolean parseLogFile(File inFile, CRC32 checksum, RadioMapCollector FileRadioMap) {
+
+        RSSLogTokenizer tokenizer = null;
+
+        try {
+            tokenizer = new RSSLogTokenizer(inFile);
+
+            if (checksum != null) {
+                tokenizer.updateChecksum(checksum);
+            }
+
+            return parseLogFile(inFile.getAbsolutePath(), tokenizer, FileRadioMap);
+        } catch (IOException e) {
+            System.err.println("Error while authenticating RSS log file " + inFile.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Parses and authenticates the lines of an RSS log in a single pass. The
+     * samples read before an error are left in FileRadioMap.
+     *
+     * @param path
+     *             the path of the RSS log file, for errors
+     *
+     * @param tokenizer
+     *             the tokenizer of the RSS log
+     *
+     * @param FileRadioMap
+     *             the radio map to add the samples to
+     *
+     * @return
+     *              true if the file is authenticated, otherwise false
+     * */
+    private boolean parseLogFile(String path, RSSLogTokenizer tokenizer, RadioMapCollector FileRadioMap) {
+
+        int line_num = 0;
+
+        try {
+            int RSS_Value = 0;
+            long packedMacAddress = 0;
+            String location = null;
+            String previous_location = null;
+
+            while (tokenizer.nextLine()) {
+
+                line_num = tokenizer.getLineNumber();
+
+                // Check X, Y or Latitude, Longitude
+                if (tokenizer.startsWith('#')) {
+
+                    if (tokenizer.split(false) < 3) {
+                        return false;
+                    } // Must be # Timestamp, X, Y
+                    else if (this.isIndoor && (!tokenizer.getString(2).trim().equalsIgnoreCase("X") || !tokenizer.getString(3).trim().equalsIgnoreCase("Y"))) {
+                        return false;
+                    } // Must be # Timestamp, Latitude, Longitude
+                    else if (!this.isIndoor && (!tokenizer.getString(2).trim().equalsIgnoreCase("Latitude") || !tokenizer.getString(3).trim().equalsIgnoreCase("Longitude"))) {
+                        return false;
+                    }
+                    continue;
+
+                } else if (tokenizer.isBlank()) {
+                    continue;
+                }
+
+                // The file may be corrupted so ignore reading it
+                if (tokenizer.split(false) != 5) {
+                    throw new Exception("Line " + line_num + " length is not equal to 5.");
+                }
+
+                // Key of location X,Y. Test that X, Y are floats when the location changes
+                location = tokenizer.getLocation(1, 2);
+
+                if (location != previous_location) {
+                    Float.parseFloat(tokenizer.getString(1));
+                    Float.parseFloat(tokenizer.getString(2));
+                    previous_location = location;
+                }
+
+                // MAC address validation
+                packedMacAddress = tokenizer.parseMacAddress(3);
+                if (packedMacAddress == MacAddress.INVALID) {
+                    throw new Exception("Line " + line_num + " MAC Address is not valid.");
+                }
+
+                // Test and set RSS value is integer
+                RSS_Value = tokenizer.parseInt(4);
+
+                if (RSS_Value < Short.MIN_VALUE || RSS_Value > Short.MAX_VALUE) {
+                    throw new Exception("Line " + line_num + " RSS value is out of range.");
+                }
+
+                FileRadioMap.add(location, packedMacAddress, RSS_Value);
             }
-            fr.close();
-            reader.close();
         } catch (NumberFormatException nfe) {
-            System.err.println("Error while authenticating RSS log file " + inFile.getAbsolutePath() + ": Line " + line_num + " " + nfe.getMessage());
+            System.err.println("Error while authenticating RSS log file " + path + ": Line " + line_num + " " + nfe.getMessage());
             return false;
         } catch (Exception e) {
-            System.err.println("Error while authenticating RSS log file " + inFile.getAbsolutePath() + ": " + e.getMessage());
+            System.err.println("Error while authenticating RSS log file " + path + ": " + e.getMessage());
             return false;
         }
 
@@ -395,8 +1179,10 @@ public class RadioMap {
         FileOutputStream fos = null;
 
         RadioMapMean RM = new RadioMapMean(this.isIndoor, this.defaultNaNValue);
+        File radiomap_mean_file = getStagedFile(radiomap_mean_filename);
+        File radiomap_parameters_file = getStagedFile(radiomap_parameters_filename);
 
-        if (!RM.ConstructRadioMap(new File(radiomap_mean_filename))) {
+        if (radiomap_mean_file == null || radiomap_parameters_file == null || !RM.ConstructRadioMap(radiomap_mean_file)) {
             return false;
         }
 
@@ -404,14 +1190,28 @@ public class RadioMap {
             return false;
         }
 
+        // The test data is parsed once, and mapped from the cache for every parameter
+        RadioMapSampleCache.TestVectors Tests = RadioMapSampleCache.readTestVectors(RadioMapSampleCache.getCacheFile(radiomap_filename), new File(inFile), this.isIndoor);
+
+        if (Tests == null) {
+            return false;
+        }
+
         for (int i = 1; i <= this.Algoritmhs_num; ++i) {
 
-            if (!calculateAlgorithmParameter(RM, inFile, i)) {
+            if (!calculateAlgorithmParameter(RM, Tests, i)) {
                 return false;
             }
         }
 
-        File radiomap_parameters_file = new File(radiomap_parameters_filename);
+        if (UnprunedRadioMap != null) {
+            comparePruning(RM, Tests);
+        }
+
+        if (UnmergedRadioMap != null) {
+            compareMerging(RM, Tests);
+        }
+
         try {
             fos = new FileOutputStream(radiomap_parameters_file, false);
         } catch (Exception e) {
@@ -439,10 +1239,108 @@ public class RadioMap {
     }
 
     /**
-     * Find Min and Max RSS value
+     * Compares the positioning error and time of every algorithm, with its
+     * parameter, on the pruned radio map mean and on the one with all MAC
+     * Addresses, and adds them to the pruning report
+     *
+     * @param RM
+     *              the pruned radio map mean
+     *
+     * @param Tests
+     *              the test vectors of the test data file
+     * */
+    private void comparePruning(RadioMapMean RM, RadioMapSampleCache.TestVectors Tests) {
+
+        String report = "Dimensions: " + UnprunedRadioMap.getMacAdressList().size() + " -> " + RM.getMacAdressList().size();
+
+        report = compareRadioMaps(UnprunedRadioMap, RM, Tests, report);
+
+        System.out.println(report);
+        writeReport(radiomap_pruning_filename, report, true);
+        UnprunedRadioMap = null;
+    }
+
+    /**
+     * Compares the positioning error and time of every algorithm, with its
+     * parameter, on the merged radio map mean and on the one with all
+     * locations, and adds them to the merging report
+     *
+     * @param RM
+     *              the merged radio map mean
+     *
+     * @param Tests
+     *              the test vectors of the test data file
+     * */
+    private void compareMerging(RadioMapMean RM, RadioMapSampleCache.TestVectors Tests) {
+
+        String report = "Locations: " + UnmergedRadioMap.getLocationCount() + " -> " + RM.getLocationCount();
+
+        report = compareRadioMaps(UnmergedRadioMap, RM, Tests, report);
+
+        System.out.println(report);
+        writeReport(radiomap_merging_filename, report, true);
+        UnmergedRadioMap = null;
+    }
+
+    /**
+     * Adds to a report the positioning error and time of every algorithm,
+     * with its parameter, on two radio map means
+     *
+     * @param Before
+     *              the radio map mean before the change
+     *
+     * @param RM
+     *              the radio map mean written
+     *
+     * @param Tests
+     *              the test vectors of the test data file
+     *
+     * @param report
+     *              the first line of the report
+     *
+     * @return
+     *              the report, one line per algorithm
+     * */
+    private String compareRadioMaps(RadioMapMean Before, RadioMapMean RM, RadioMapSampleCache.TestVectors Tests, String report) {
+
+        String[] Names = {"KNN", "WKNN", "MAP", "MMSE"};
+        String[] Parameters = {String.valueOf(this.K_KNN), String.valueOf(this.K_WKNN), String.valueOf(this.S_MAP), String.valueOf(this.S_MMSE)};
+
+        for (int i = 1; i <= this.Algoritmhs_num; ++i) {
+
+            double[] before = evaluateAlgorithm(Before, Tests, i, Parameters[i - 1]);
+            double[] after = evaluateAlgorithm(RM, Tests, i, Parameters[i - 1]);
+
+            if (before == null || after == null) {
+                continue;
+            }
+
+            report += "\n" + Names[i - 1] + ":" + Parameters[i - 1]
+                    + " Avg. Error: " + before[0] + " -> " + after[0]
+                    + " Avg. Time (ms): " + before[1] + " -> " + after[1];
+        }
+        return report;
+    }
+
+    /**
+     * Find Min and Max RSS value, from the samples cache if it was written
+     * with the radio map, otherwise from the radio map
      */
     private boolean find_MIN_MAX_Values() {
 
+        int[] Range = RadioMapSampleCache.readRSSRange(RadioMapSampleCache.getCacheFile(radiomap_filename), new File(radiomap_filename), this.isIndoor);
+
+        if (Range != null) {
+            // No samples or only NaN values leave the range as it is
+            if (Range[0] != Integer.MAX_VALUE) {
+                set_MIN_MAX_RSS(Range[0]);
+            }
+            if (Range[1] != Integer.MIN_VALUE) {
+                set_MIN_MAX_RSS(Range[1]);
+            }
+            return true;
+        }
+
         FileReader frRadiomap = null;
         BufferedReader readerRadiomap = null;
 
@@ -521,7 +1419,7 @@ public class RadioMap {
         }
     }
 
-    private boolean calculateAlgorithmParameter(RadioMapMean RM, String inFile, int algorithm_choice) {
+    private boolean calculateAlgorithmParameter(RadioMapMean RM, RadioMapSampleCache.TestVectors Tests, int algorithm_choice) {
 
 
         int start = 0;
@@ -557,118 +1455,27 @@ public class RadioMap {
                 return false;
         }
 
-        BufferedReader reader = null;
-        String line = null;
-        String[] temp = null;
-
-        ArrayList<String> MacAdressList = new ArrayList<String>();
-        ArrayList<LogRecord> OfflineScanList = new ArrayList<LogRecord>();
-
-        String test_geo = null;
-        double pos_error = 0.0d;
-        double sum_pos_error = 0.0d;
-        int count_pos = 0;
+        double[] evaluation = null;
         double average_pos_err_cur = Double.POSITIVE_INFINITY;
         double average_pos_err_best = Double.POSITIVE_INFINITY;
 
         for (int parameter = start; parameter <= end; ++parameter) {
 
-            OfflineScanList.clear();
-            MacAdressList.clear();
-            sum_pos_error = 0;
-            count_pos = 0;
-
-            try {
+            evaluation = evaluateAlgorithm(RM, Tests, algorithm_choice, String.valueOf(parameter));
 
-                reader = new BufferedReader(new FileReader(inFile));
+            if (evaluation == null) {
+                return false;
+            }
 
-                // Read the first line
-                line = reader.readLine();
+            average_pos_err_cur = evaluation[0];
 
-                // Must exists
-                if (line == null) {
-                    return false;
-                }
+            System.out.print("\nParameter: " + parameter + " Positions: " + (int) evaluation[2] + " Avg. Error: ");
+            System.out.println(average_pos_err_cur);
 
-                // Store the Mac Addresses
-                if (line.startsWith("#")) {
-                    line = line.replace(", ", " ");
-                    temp = line.split(" ");
 
-                    // Must have more than 3 fields
-                    if (temp.length < 4) {
-                        return false;
-                    } // Must be # Timestamp, X, Y
-                    else if (this.isIndoor && (!temp[1].trim().equalsIgnoreCase("X") || !temp[2].trim().equalsIgnoreCase("Y"))) {
-                        return false;
-                    } // Must be # Timestamp, Latitude, Longitude
-                    else if (!this.isIndoor && (!temp[1].trim().equalsIgnoreCase("Latitude") || !temp[2].trim().equalsIgnoreCase("Longitude"))) {
-                        return false;
-                    }
+            if (average_pos_err_cur < average_pos_err_best) {
 
-                    // Store all Mac Addresses
-                    for (int i = 3; i < temp.length; ++i) {
-                        if (!temp[i].matches("[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}")) {
-                            return false;
-                        }
-                        MacAdressList.add(temp[i]);
-                    }
-                } else {
-                    return false;
-                }
-
-                while ((line = reader.readLine()) != null) {
-
-                    line = line.trim().replace(", ", " ");
-                    temp = line.split(" ");
-
-                    if (temp.length < 3) {
-                        return false;
-                    }
-
-                    if (MacAdressList.size() != temp.length - 2) {
-                        return false;
-                    }
-
-                    for (int i = 2; i < temp.length; ++i) {
-                        LogRecord lr = new LogRecord(MacAdressList.get(i - 2), Integer.parseInt(temp[i]));
-                        OfflineScanList.add(lr);
-                    }
-
-                    if (algorithm_choice == 6) {
-                        test_geo = Algorithms.ProcessingAlgorithms(OfflineScanList, RM, algorithm_choice, String.valueOf(parameter + ", " + MIN_RSS + ", " + MAX_RSS));
-                    } else {
-                        test_geo = Algorithms.ProcessingAlgorithms(OfflineScanList, RM, algorithm_choice, String.valueOf(parameter));
-                    }
-
-                    if (test_geo == null) {
-                        return false;
-                    }
-
-                    OfflineScanList.clear();
-
-                    pos_error = calculateEuclideanDistance(temp[0] + " " + temp[1], test_geo);
-
-                    if (pos_error != -1) {
-                        sum_pos_error += pos_error;
-                        count_pos++;
-                    }
-                }
-                reader.close();
-            } catch (Exception e) {
-                System.err.println("Error while calculating parameters: " + e.getMessage());
-                return false;
-            }
-
-            average_pos_err_cur = sum_pos_error / (double) count_pos;
-
-            System.out.print("\nParameter: " + parameter + " Positions: " + count_pos + " Avg. Error: ");
-            System.out.println(average_pos_err_cur);
-
-
-            if (average_pos_err_cur < average_pos_err_best) {
-
-                switch (algorithm_choice) {
+                switch (algorithm_choice) {
 
                     case 1:
                         this.K_KNN = parameter;
@@ -693,19 +1500,94 @@ public class RadioMap {
         return true;
     }
 
-    private double calculateEuclideanDistance(String real, String estimate) {
+    /**
+     * Runs an algorithm for every line of the test data and measures the
+     * positioning error
+     *
+     * @param RM
+     *              the radio map mean to position with
+     *
+     * @param Tests
+     *              the test vectors of the test data file
+     *
+     * @param algorithm_choice
+     *              the algorithm, 1 to 4
+     *
+     * @param parameter
+     *              the parameter of the algorithm
+     *
+     * @return
+     *              the average positioning error, the average time of an
+     *              algorithm call in milliseconds and the number of positions,
+     *              or null if the test data can not be positioned
+     * */
+    private double[] evaluateAlgorithm(RadioMapMean RM, RadioMapSampleCache.TestVectors Tests, int algorithm_choice, String parameter) {
+
+        ArrayList<LogRecord> OfflineScanList = new ArrayList<LogRecord>();
+
+        String test_geo = null;
+        double pos_error = 0.0d;
+        double sum_pos_error = 0.0d;
+        int count_pos = 0;
+        long start = 0;
+        long total = 0;
+        int count_calls = 0;
+
+        try {
+
+            for (int v = 0; v < Tests.getVectorCount(); ++v) {
+
+                for (int m = 0; m < Tests.getMacAddressCount(); ++m) {
+                    LogRecord lr = new LogRecord(Tests.getMacAddress(m), Tests.getPackedMacAddress(m), Tests.getRSS(v, m));
+                    OfflineScanList.add(lr);
+                }
+
+                start = System.nanoTime();
+
+                if (algorithm_choice == 6) {
+                    test_geo = Algorithms.ProcessingAlgorithms(OfflineScanList, RM, algorithm_choice, String.valueOf(parameter + ", " + MIN_RSS + ", " + MAX_RSS));
+                } else {
+                    test_geo = Algorithms.ProcessingAlgorithms(OfflineScanList, RM, algorithm_choice, parameter);
+                }
+
+                total += System.nanoTime() - start;
+                count_calls++;
+
+                if (test_geo == null) {
+                    return null;
+                }
+
+                OfflineScanList.clear();
+
+                pos_error = calculateEuclideanDistance(Tests.getX(v), Tests.getY(v), test_geo);
+
+                if (pos_error != -1) {
+                    sum_pos_error += pos_error;
+                    count_pos++;
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error while calculating parameters: " + e.getMessage());
+            return null;
+        }
+
+        return new double[]{sum_pos_error / (double) count_pos, total / 1e6 / count_calls, count_pos};
+    }
+
+    private double calculateEuclideanDistance(double real_x, double real_y, String estimate) {
 
         double pos_error;
-        String[] temp_real;
         String[] temp_estimate;
         double x1, x2;
 
-        temp_real = real.split(" ");
         temp_estimate = estimate.split(" ");
 
         try {
-            x1 = Math.pow((Double.parseDouble(temp_real[0]) - Double.parseDouble(temp_estimate[0])), 2);
-            x2 = Math.pow((Double.parseDouble(temp_real[1]) - Double.parseDouble(temp_estimate[1])), 2);
+            if (Double.isNaN(real_x) || Double.isNaN(real_y)) {
+                throw new NumberFormatException("Test location is not a number");
+            }
+            x1 = Math.pow((real_x - Double.parseDouble(temp_estimate[0])), 2);
+            x2 = Math.pow((real_y - Double.parseDouble(temp_estimate[1])), 2);
         } catch (Exception e) {
             System.err.println("Error while calculating Euclidean distance: " + e.getMessage());
             return -1;
@@ -721,166 +1603,1198 @@ public class RadioMap {
     /****************************************************************************************************************/
     /****************************************************************************************************************/
     /**
-     * Write the new Radio Map
+     * Write the new Radio Map from the RSS samples in memory
      * 
      * @return
      *              true if is written to disk, otherwise false
      * */
-    private boolean writeRadioMap() {
+    public boolean writeRadioMap() {
+        return writeRadioMap(RadioMap, null);
+    }
 
-        DecimalFormat dec = new DecimalFormat("###.#");
-        HashMap<String, ArrayList<Integer>> MACAddressMap = null;
-        ArrayList<Integer> RSS_Values = null;
-        FileOutputStream fos = null;
-        FileOutputStream fos_mean = null;
-        String out = null;
+    /**
+     * Writes the radio map mean again from the statistics kept by the last
+     * build, if it was written with another NaN Value. The RSS log files are
+     * not read. The NaN Values of the radio map samples are replaced too,
+     * unless they were written with MAC Addresses grouped to virtual access
+     * points, whose samples may come from another MAC Address with the new
+     * NaN Value.
+     *
+     * @return
+     *              true if the radio map mean is written or up to date, otherwise false
+     * */
+    public boolean updateRadioMapMean() {
 
-        File radiomap_file = new File(radiomap_filename);
-        File radiomap_mean_file = new File(radiomap_mean_filename);
+        File statistics_file = new File(radiomap_statistics_filename);
+        RadioMapStatistics Statistics;
+        int NaNValue;
+        boolean groupedSamples;
 
-        // If is empty no RSS log file parsed
-        if (RadioMap.isEmpty()) {
+        if (!statistics_file.isFile()) {
             return false;
         }
 
-        // Open output streams
         try {
-            fos = new FileOutputStream(radiomap_file, false);
-            fos_mean = new FileOutputStream(radiomap_mean_file, false);
-        } catch (FileNotFoundException e) {
-            System.err.println("Error while writing radio map: " + e.getMessage());
-            radiomap_file.delete();
-            radiomap_mean_file.delete();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(statistics_file), 64 * 1024));
+            try {
+                NaNValue = in.readInt();
+                groupedSamples = in.readBoolean();
+                Statistics = RadioMapStatistics.read(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Error while reading radio map statistics: " + e.getMessage());
+            return false;
+        }
+
+        if (NaNValue == this.defaultNaNValue) {
+            return true;
+        }
+
+        RadioMapAggregate Aggregate = writeRadioMapMean(Statistics);
+
+        if (Aggregate == null) {
             return false;
         }
 
+        if (!new File(radiomap_filename).isFile()) {
+            groupedSamples = false;
+        } else if (groupedSamples) {
+            System.out.println("Radio map samples keep NaN value " + NaNValue + ". Create the radio map again to write them.");
+        } else if (!writeRadioMapSamples(Statistics, Aggregate, NaNValue)) {
+            // Do not leave a radio map that does not match the mean
+            new File(radiomap_filename).delete();
+        }
+
+        writeStatistics(Statistics, groupedSamples);
+        return true;
+    }
+
+    /**
+     * Replaces the NaN Values of the radio map samples, in a single pass.
+     * The samples missing for a MAC Address are the last lines of a location
+     * after all samples of its cell.
+     *
+     * @param Statistics
+     *              the statistics of every location and MAC Address
+     *
+     * @param Aggregate
+     *              the aggregate of the radio map mean written
+     *
+     * @param NaNValue
+     *              the NaN Value the radio map samples are written with
+     *
+     * @return
+     *              true if the radio map samples are written, otherwise false
+     * */
+    private boolean writeRadioMapSamples(RadioMapStatistics Statistics, RadioMapAggregate Aggregate, int NaNValue) {
+
+        File radiomap_file = new File(radiomap_filename);
+        File temp_file = new File(radiomap_filename + ".tmp");
+        BufferedReader reader = null;
+        FingerprintWriter fos = null;
+        RadioMapSampleCache.Writer cache = null;
 
         try {
-            // Store all unique MAC addresses
-            HashSet<String> s = new HashSet<String>();
+            reader = new BufferedReader(new FileReader(radiomap_file));
+            fos = new FingerprintWriter(new FileOutputStream(temp_file, false));
+
+            String line = reader.readLine();
 
-            for (String Geolocation : RadioMap.keySet()) {
-                MACAddressMap = RadioMap.get(Geolocation);
-                s.addAll(MACAddressMap.keySet());
+            if (line == null || !line.startsWith("#")) {
+                throw new IOException("Radio map has no header.");
             }
 
-            // Start the print out to Radio Map files
-            if (isIndoor) {
-                fos.write("# X, Y".getBytes());
-                fos_mean.write("# X, Y".getBytes());
-            } else {
-                fos.write("# Latitude, Longitude".getBytes());
-                fos_mean.write("# Latitude, Longitude".getBytes());
+            fos.write(line);
+            fos.write('\n');
+
+            String[] header = line.substring(1).split(",");
+            int[] MacAddressIds = new int[header.length - 2];
+            long[] PackedMacAddresses = new long[MacAddressIds.length];
+            int[] cells = new int[MacAddressIds.length];
+
+            boolean pruned = MacAddressIds.length != Aggregate.getMacAddressCount();
+
+            for (int m = 0; m < MacAddressIds.length; ++m) {
+                long packedMacAddress = MacAddress.parse(header[m + 2].trim());
+                MacAddressIds[m] = Statistics.findMacAddress(packedMacAddress);
+                PackedMacAddresses[m] = packedMacAddress;
+
+                if (!pruned && Aggregate.getPackedMacAddress(m) != packedMacAddress) {
+                    pruned = true;
+                }
             }
 
-            // Write MAC Addresses
-            Iterator<String> iterator = s.iterator();
-            while (iterator.hasNext()) {
-                out = iterator.next();
-                fos.write((", " + out).getBytes());
-                fos_mean.write((", " + out).getBytes());
+            if (pruned) {
+                System.out.println("Radio map samples keep the MAC Addresses pruned with NaN value " + NaNValue + ". Create the radio map again to prune them.");
             }
-            fos.write("\n".getBytes());
-            fos_mean.write("\n".getBytes());
 
+            String location = null;
+            int row = 0;
 
-            // For each location print the Average RSS of every single MAC Address
-            iterator = s.iterator();
-            String MacAddress = null;
-            for (String location : RadioMap.keySet()) {
+            cache = new RadioMapSampleCache.Writer(RadioMapSampleCache.getCacheFile(radiomap_filename), isIndoor, defaultNaNValue, PackedMacAddresses);
+
+            while ((line = reader.readLine()) != null) {
 
-                fos.write(location.replace(" ", ", ").getBytes());
-                fos_mean.write(location.replace(" ", ", ").getBytes());
+                // The location "X, Y" ends at the second separator
+                int first = line.indexOf(", ");
+                int end = first == -1 ? -1 : line.indexOf(", ", first + 2);
 
-                MACAddressMap = RadioMap.get(location);
+                if (end == -1) {
+                    throw new IOException("Corrupted radio map line: " + line);
+                }
 
-                iterator = s.iterator();
+                // Lines of a location follow each other
+                if (location == null || end != location.length() || !line.startsWith(location)) {
+                    location = line.substring(0, end);
+                    row = 0;
 
-                int max = 0;
+                    String key = line.substring(0, first) + " " + line.substring(first + 2, end);
+                    int sample_location = Statistics.findLocation(key);
+                    cache.location(key);
 
-                // Find the maximum number of RSS Values recorded
-                while (iterator.hasNext()) {
-                    MacAddress = iterator.next();
-                    RSS_Values = MACAddressMap.get(MacAddress);
-                    if (RSS_Values != null && max < RSS_Values.size()) {
-                        max = RSS_Values.size();
+                    for (int m = 0; m < MacAddressIds.length; ++m) {
+                        cells[m] = sample_location == -1 || MacAddressIds[m] == -1 ? -1 : Statistics.findCell(sample_location, MacAddressIds[m]);
                     }
                 }
-                int i = 0;
-                iterator = s.iterator();
-                while (iterator.hasNext()) {
 
-                    MacAddress = iterator.next();
+                fos.write(location);
 
-                    RSS_Values = MACAddressMap.get(MacAddress);
+                for (int m = 0; m < MacAddressIds.length; ++m) {
+                    int start = end + 2;
+                    end = line.indexOf(", ", start);
 
-                    // Write NaN RSS Value if no sample recorded for this mac address
-                    if (RSS_Values == null || i > RSS_Values.size() - 1) {
-                        fos.write((", " + this.defaultNaNValue).getBytes());
-                    } // Write the value
-                    else {
-                        fos.write((", " + dec.format(RSS_Values.get(i))).getBytes());
+                    if (end == -1) {
+                        end = m == MacAddressIds.length - 1 ? line.length() : -1;
                     }
 
-                    // If this is the last mac address
-                    if (!iterator.hasNext()) {
+                    if (start > line.length() || end == -1) {
+                        throw new IOException("Corrupted radio map line: " + line);
+                    }
 
-                        // Break if we reach the max number of samples in this location
-                        if (i == max - 1) {
-                            break;
-                        } // Restart from the next RSS Value
-                        else {
-                            iterator = s.iterator();
-                            ++i;
-                            fos.write("\n".getBytes());
-                            fos.write(location.replace(" ", ", ").getBytes());
-                        }
+                    fos.write(", ");
+
+                    if (cells[m] == -1 || row >= Statistics.getSampleCount(cells[m])) {
+                        fos.writeInt(this.defaultNaNValue);
+                        cache.add(this.defaultNaNValue);
+                    } else {
+                        fos.write(line, start, end);
+                        cache.add(line, start, end);
                     }
                 }
 
-                fos.write("\n".getBytes());
+                if (end != line.length()) {
+                    throw new IOException("Corrupted radio map line: " + line);
+                }
+
+                fos.write('\n');
+                ++row;
+            }
+
+            reader.close();
+            fos.close();
+            Files.move(temp_file.toPath(), radiomap_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            cache.finish(radiomap_file);
+        } catch (IOException e) {
+            System.err.println("Error while writing radio map with NaN value " + this.defaultNaNValue + " instead of " + NaNValue + ": " + e.getMessage());
+            if (cache != null) {
+                cache.abort();
+            }
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
+                if (fos != null) {
+                    fos.close();
+                }
+            } catch (IOException ioe) {
+                System.err.println("Error while writing radio map: " + ioe.getMessage());
+            }
+            temp_file.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Publishes the radio map mean and parameters written as a new version
+     * for distribution, and replaces the files next to the radio map mean
+     * with them. The writer lock must be held since they were written.
+     *
+     * @return
+     *              the version published, or -1 if it could not be published
+     * */
+    public int publishSnapshot() {
+
+        try {
+            int version = RadioMapSnapshot.publish(new File(radiomap_mean_filename), new File(radiomap_parameters_filename));
+            System.out.println("Published radio map version " + version);
+            return version;
+        } catch (IOException e) {
+            System.err.println("Error while publishing radio map: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Write the new Radio Map from an aggregate of the RSS samples
+     *
+     * @param Aggregate
+     *              the samples grouped by location and MAC address
+     *
+     * @param LogFiles
+     *              the RSS log files to read again the samples from, in chunks
+     *              of locations, or null to take the samples from the radio map
+     *
+     * @return
+     *              true if is written to disk, otherwise false
+     * */
+    private boolean writeRadioMap(RadioMapAggregate Aggregate, ArrayList<File> LogFiles) {
+
+        FingerprintWriter fos = null;
+        RadioMapSampleCache.Writer cache = null;
+
+        File radiomap_file = new File(radiomap_filename);
+        File radiomap_mean_file = getStagedFile(radiomap_mean_filename);
+
+        // If is empty no RSS log file parsed
+        if (Aggregate.isEmpty() || radiomap_mean_file == null) {
+            return false;
+        }
+
+        RadioMapAggregate Ungrouped = Aggregate;
+        Aggregate = writeRadioMapMean(Ungrouped);
 
-                // For every MAC Address print average RSS value, or NaN Value if does not exist
-                iterator = s.iterator();
+        if (Aggregate == null) {
+            radiomap_file.delete();
+            return false;
+        }
 
-                while (iterator.hasNext()) {
+        if (LogFiles != null && !writeStreamingSamples) {
+            // Do not leave a radio map that does not match the mean
+            radiomap_file.delete();
+            writeStatistics(Ungrouped, false);
+            return true;
+        }
 
-                    MacAddress = iterator.next();
+        // Open output stream
+        try {
+            fos = new FingerprintWriter(new FileOutputStream(radiomap_file, false));
+        } catch (FileNotFoundException e) {
+            System.err.println("Error while writing radio map: " + e.getMessage());
+            radiomap_file.delete();
+            radiomap_mean_file.delete();
+            return false;
+        }
 
-                    RSS_Values = MACAddressMap.get(MacAddress);
+        try {
+            writeRadioMapHeader(fos, Aggregate);
+            cache = newSampleCache(Aggregate);
 
-                    // Write NaN RSS Value if no sample recorded for this mac address
-                    if (RSS_Values == null) {
-                        fos_mean.write((", " + this.defaultNaNValue).getBytes());
-                    } // Calculate Average RSS Value for this location
-                    else {
-                        float rss_sum = (float) 0.0;
-                        float rss_avg = (float) 0.0;
-                        for (i = 0; i < RSS_Values.size(); ++i) {
-                            rss_sum += RSS_Values.get(i);
+            if (LogFiles == null) {
+                writeRadioMapSamples(fos, cache, Aggregate, 0, Aggregate.getLocationCount(), RadioMap);
+            } else {
+                int first = 0;
+
+                // Read again the samples of as many locations as fit in a chunk
+                while (first < Aggregate.getLocationCount()) {
+
+                    HashSet<String> ChunkLocations = new HashSet<String>();
+                    long samples = 0;
+                    int last = first;
+
+                    while (last < Aggregate.getLocationCount()) {
+                        long location_samples = 0;
+                        for (int m = 0; m < Aggregate.getMacAddressCount(); ++m) {
+                            int cell = Aggregate.findCell(last, m);
+                            if (cell != -1) {
+                                location_samples += Aggregate.getSampleCount(cell);
+                            }
                         }
 
-                        // Add NaN value for those samples not recorded
-                        for (; i < max; ++i) {
-                            rss_sum += this.defaultNaNValue;
+                        if (last > first && samples + location_samples > streamingChunkSamples) {
+                            break;
                         }
+                        samples += location_samples;
+                        ChunkLocations.add(Aggregate.getLocation(last++));
+                    }
 
-                        rss_avg = rss_sum / max;
-                        fos_mean.write((", " + dec.format(rss_avg)).getBytes());
+                    RadioMapStore ChunkRadioMap = new LocationsRadioMapStore(ChunkLocations);
+                    ChunkRadioMap.setMaxCellSamples(maxCellSamples);
+
+                    for (File LogFile : LogFiles) {
+                        if (!parseLogFile(LogFile, null, ChunkRadioMap)) {
+                            throw new Exception("RSS log file " + LogFile.getAbsolutePath() + " changed while writing.");
+                        }
                     }
+
+                    writeRadioMapSamples(fos, cache, Aggregate, first, last, ChunkRadioMap);
+                    first = last;
                 }
-                fos_mean.write("\n".getBytes());
             }
 
             fos.close();
-            fos_mean.close();
+            cache.finish(radiomap_file);
 
         } catch (Exception e) {
             System.err.println("Error while writing radio map: " + e.getMessage());
+            if (cache != null) {
+                cache.abort();
+            }
             radiomap_file.delete();
             radiomap_mean_file.delete();
             return false;
         }
+
+        writeStatistics(Ungrouped, grouping != null);
         return true;
     }
+
+    /**
+     * Writes the radio map mean and its binary, compact, groups and clusters
+     * files. The MAC Addresses are grouped and pruned first, and then the
+     * locations merged, if set.
+     *
+     * @param Aggregate
+     *              the samples grouped by location and MAC address
+     *
+     * @return
+     *              the aggregate written, grouped and pruned, with all its
+     *              locations, or null if the mean is not written
+     * */
+    private RadioMapAggregate writeRadioMapMean(RadioMapAggregate Aggregate) {
+
+        FingerprintWriter fos_mean = null;
+        File radiomap_mean_file = getStagedFile(radiomap_mean_filename);
+
+        if (radiomap_mean_file == null) {
+            return null;
+        }
+
+        RadioMapAggregate Ungrouped = Aggregate;
+        UnprunedRadioMap = null;
+        UnmergedRadioMap = null;
+
+        // The statistics of a previous radio map no longer match the mean
+        new File(radiomap_statistics_filename).delete();
+
+        if (grouping != null) {
+            Aggregate = grouping.group(Aggregate, this.defaultNaNValue);
+            System.out.println(grouping.getReport());
+        }
+
+        RadioMapAggregate Unpruned = Aggregate;
+
+        if (pruning != null) {
+            Aggregate = pruning.prune(Aggregate, this.defaultNaNValue);
+        }
+
+        // The radio map samples are written with all locations
+        RadioMapAggregate Merged = Aggregate;
+
+        if (merging != null) {
+            Merged = merging.merge(Aggregate, this.defaultNaNValue);
+        }
+
+        try {
+            fos_mean = new FingerprintWriter(new FileOutputStream(radiomap_mean_file, false));
+        } catch (FileNotFoundException e) {
+            System.err.println("Error while writing radio map: " + e.getMessage());
+            radiomap_mean_file.delete();
+            return null;
+        }
+
+        try {
+            final RadioMapAggregate Means = Merged;
+            final int MacAddress_num = Merged.getMacAddressCount();
+            final float[] RSS_Means = new float[Merged.getLocationCount() * MacAddress_num];
+            final int[] MacAddressIds = new int[MacAddress_num];
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                MacAddressIds[m] = m;
+            }
+
+            writeRadioMapHeader(fos_mean, Merged);
+
+            // For each location print the Average RSS of every single MAC Address
+            new RowsWriter() {
+                @Override
+                void writeRows(FingerprintWriter fos_mean, RadioMapSampleCache.Writer cache, int first, int last) throws IOException {
+                    for (int l = first; l < last; ++l) {
+                        writeRadioMapMean(fos_mean, Means.getLocation(l), Means, l, MacAddressIds, RSS_Means, l * MacAddress_num);
+                    }
+                }
+
+                @Override
+                long getValueCount(int location) {
+                    return MacAddress_num;
+                }
+            }.write(fos_mean, null, 0, Merged.getLocationCount());
+
+            fos_mean.close();
+
+            writeMacAddressGroups(radiomap_mean_file, Aggregate != Ungrouped ? grouping : null);
+            writeRadioMapMeanFiles(radiomap_mean_file, Merged, FloatBuffer.wrap(RSS_Means));
+
+            if (pruning != null) {
+                writePruningReport(Unpruned, Aggregate);
+            }
+
+            if (merging != null) {
+                writeMergingReport(Aggregate, Merged);
+            }
+        } catch (Exception e) {
+            System.err.println("Error while writing radio map: " + e.getMessage());
+            radiomap_mean_file.delete();
+            return null;
+        }
+        return Aggregate;
+    }
+
+    /**
+     * Writes the statistics of every location and MAC Address next to the
+     * radio map, with the NaN Value of the mean written
+     *
+     * @param Aggregate
+     *              the samples grouped by location and MAC address, before grouping and pruning
+     *
+     * @param groupedSamples
+     *              true if the radio map samples are written with MAC Addresses grouped
+     * */
+    private void writeStatistics(RadioMapAggregate Aggregate, boolean groupedSamples) {
+
+        File statistics_file = new File(radiomap_statistics_filename);
+        File temp_file = new File(radiomap_statistics_filename + ".tmp");
+
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp_file, false), 64 * 1024));
+
+            try {
+                out.writeInt(this.defaultNaNValue);
+                out.writeBoolean(groupedSamples);
+                RadioMapStatistics.of(Aggregate).write(out);
+            } finally {
+                out.close();
+            }
+
+            Files.move(temp_file.toPath(), statistics_file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Error while writing radio map statistics: " + e.getMessage());
+            temp_file.delete();
+        }
+    }
+
+    /**
+     * Writes the header line of a radio map file, with the MAC Addresses
+     *
+     * @param fos
+     *              the radio map file
+     *
+     * @param Aggregate
+     *              the samples grouped by location and MAC address
+     * */
+    private void writeRadioMapHeader(FingerprintWriter fos, RadioMapCollector Aggregate) throws IOException {
+
+        // Start the print out to Radio Map files
+        if (isIndoor) {
+            fos.write("# X, Y");
+        } else {
+            fos.write("# Latitude, Longitude");
+        }
+
+        // Write MAC Addresses
+        for (int m = 0; m < Aggregate.getMacAddressCount(); ++m) {
+            fos.write(", ");
+            fos.write(Aggregate.getMacAddress(m));
+        }
+        fos.write('\n');
+    }
+
+    /**
+     * Starts the cache of the radio map samples, with the MAC Addresses of
+     * the radio map header
+     *
+     * @param Aggregate
+     *              the samples grouped by location and MAC address
+     * */
+    private RadioMapSampleCache.Writer newSampleCache(RadioMapCollector Aggregate) {
+
+        long[] PackedMacAddresses = new long[Aggregate.getMacAddressCount()];
+
+        for (int m = 0; m < PackedMacAddresses.length; ++m) {
+            PackedMacAddresses[m] = Aggregate.getPackedMacAddress(m);
+        }
+        return new RadioMapSampleCache.Writer(RadioMapSampleCache.getCacheFile(radiomap_filename), isIndoor, defaultNaNValue, PackedMacAddresses);
+    }
+
+    /**
+     * Write the new Radio Map from the sorted runs of the RSS samples, one
+     * location at a time
+     *
+     * @param Runs
+     *              the finished runs of all authenticated RSS log files
+     *
+     * @param means_file
+     *              the temporary file to keep the mean RSS values, until the
+     *              binary and compact radio map means are written
+     *
+     * @return
+     *              true if is written to disk, otherwise false
+     * */
+    private boolean writeRadioMap(RadioMapRuns Runs, File means_file) {
+
+        FingerprintWriter fos = null;
+        FingerprintWriter fos_mean = null;
+        DataOutputStream means = null;
+        RadioMapSampleCache.Writer cache = null;
+
+        File radiomap_file = new File(radiomap_filename);
+        File radiomap_mean_file = getStagedFile(radiomap_mean_filename);
+
+        // If is empty no RSS log file parsed
+        if (Runs.isEmpty() || radiomap_mean_file == null) {
+            return false;
+        }
+
+        // No statistics are kept in memory for the sorted runs
+        new File(radiomap_statistics_filename).delete();
+
+        try {
+            fos = new FingerprintWriter(new FileOutputStream(radiomap_file, false));
+            fos_mean = new FingerprintWriter(new FileOutputStream(radiomap_mean_file, false));
+            means = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(means_file, false)));
+
+            int MacAddress_num = Runs.getMacAddressCount();
+            float[] RSS_Means = new float[MacAddress_num];
+            int[] MacAddressIds = new int[MacAddress_num];
+            RadioMapStore LocationSamples = new RadioMapStore(maxCellSamples);
+
+            writeRadioMapHeader(fos_mean, Runs);
+            writeRadioMapHeader(fos, Runs);
+            cache = newSampleCache(Runs);
+
+            while (Runs.nextLocation(LocationSamples)) {
+
+                for (int m = 0; m < MacAddress_num; ++m) {
+                    MacAddressIds[m] = LocationSamples.findMacAddress(Runs.getPackedMacAddress(m));
+                }
+
+                writeRadioMapMean(fos_mean, LocationSamples.getLocation(0), LocationSamples, 0, MacAddressIds, RSS_Means, 0);
+                writeRadioMapSamples(fos, cache, LocationSamples.getLocation(0), LocationSamples, 0, MacAddressIds);
+
+                for (int m = 0; m < MacAddress_num; ++m) {
+                    means.writeFloat(RSS_Means[m]);
+                }
+            }
+
+            means.close();
+            fos_mean.close();
+            fos.close();
+            cache.finish(radiomap_file);
+
+            writeMacAddressGroups(radiomap_mean_file, null);
+        } catch (IOException e) {
+            if (cache != null) {
+                cache.abort();
+            }
+            try {
+                if (means != null) {
+                    means.close();
+                }
+                if (fos_mean != null) {
+                    fos_mean.close();
+                }
+                if (fos != null) {
+                    fos.close();
+                }
+            } catch (IOException ioe) {
+                System.err.println("Error while writing radio map: " + ioe.getMessage());
+            }
+            System.err.println("Error while writing radio map: " + e.getMessage());
+            radiomap_file.delete();
+            radiomap_mean_file.delete();
+            return false;
+        }
+
+        // The mean values of all locations are read back from the temporary file
+        FileInputStream fis = null;
+
+        try {
+            fis = new FileInputStream(means_file);
+            FileChannel channel = fis.getChannel();
+            FloatBuffer RSS_Values = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asFloatBuffer();
+            writeRadioMapMeanFiles(radiomap_mean_file, Runs, RSS_Values);
+        } catch (IOException e) {
+            System.err.println("Error while reading radio map mean values: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error while reading radio map mean values: " + e.getMessage());
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    System.err.println("Error while reading radio map mean values: " + e.getMessage());
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the binary and compact radio map means, and the clusters of its
+     * locations, next to the radio map mean. Errors are reported but do not fail the build, as the text radio
+     * map mean can always be read instead.
+     *
+     * @param radiomap_mean_file
+     *              the radio map mean text file, already written
+     *
+     * @param Aggregate
+     *              the aggregate that orders the locations and MAC Addresses
+     *
+     * @param RSS_Values
+     *              the mean RSS values as written to text, location after location
+     * */
+    private void writeRadioMapMeanFiles(File radiomap_mean_file, RadioMapCollector Aggregate, FloatBuffer RSS_Values) {
+
+        try {
+            RadioMapMeanBinary.write(radiomap_mean_file, isIndoor, defaultNaNValue, Aggregate, RSS_Values);
+        } catch (IOException e) {
+            System.err.println("Error while writing binary radio map mean: " + e.getMessage());
+        }
+
+        try {
+            RadioMapCompact.write(radiomap_mean_file, isIndoor, defaultNaNValue, Aggregate, RSS_Values);
+        } catch (IOException e) {
+            System.err.println("Error while writing compact radio map mean: " + e.getMessage());
+        }
+
+        File clusters_file = RadioMapClusters.getClustersFile(radiomap_mean_file);
+        int Location_num = Aggregate.getLocationCount();
+
+        if (clusters == 0 || Location_num == 0) {
+            clusters_file.delete();
+            return;
+        }
+
+        try {
+            int Cluster_num = clusters > 0 ? clusters : (int) Math.round(Math.sqrt(Location_num));
+            RadioMapClusters.build(RSS_Values, Location_num, Aggregate.getMacAddressCount(), Cluster_num, clusterProbes).write(radiomap_mean_file);
+        } catch (IOException e) {
+            System.err.println("Error while writing radio map clusters: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the mean line of a location. Samples missing for a MAC Address
+     * are counted as NaN Value.
+     *
+     * @param fos_mean
+     *              the radio map mean file
+     *
+     * @param location
+     *              the location key "X Y"
+     *
+     * @param Samples
+     *              the aggregate of the samples of the location
+     *
+     * @param sample_location
+     *              the id of the location in Samples
+     *
+     * @param MacAddressIds
+     *              the id in Samples of every MAC Address written, or -1
+     *
+     * @param RSS_Means
+     *              filled with the mean RSS values as written
+     *
+     * @param offset
+     *              the index in RSS_Means of the first value of the location
+     * */
+    private void writeRadioMapMean(FingerprintWriter fos_mean, String location, RadioMapAggregate Samples, int sample_location, int[] MacAddressIds, float[] RSS_Means, int offset) throws IOException {
+
+        fos_mean.write(location.replace(" ", ", "));
+
+        // The maximum number of RSS Values recorded
+        int max = Samples.getMaxSampleCount(sample_location);
+
+        // For every MAC Address print average RSS value, or NaN Value if does not exist
+        for (int m = 0; m < MacAddressIds.length; ++m) {
+
+            int cell = MacAddressIds[m] == -1 ? -1 : Samples.findCell(sample_location, MacAddressIds[m]);
+
+            // Write NaN RSS Value if no sample recorded for this mac address
+            if (cell == -1) {
+                fos_mean.write(", ");
+                fos_mean.writeInt(this.defaultNaNValue);
+                RSS_Means[offset + m] = this.defaultNaNValue;
+            } // Calculate Average RSS Value for this location
+            else {
+                float rss_avg = calculateMean(Samples, cell, max);
+                fos_mean.write(", ");
+                fos_mean.writeDecimal(rss_avg);
+                RSS_Means[offset + m] = FingerprintWriter.roundDecimal(rss_avg);
+            }
+        }
+        fos_mean.write('\n');
+    }
+
+    /**
+     * Calculates the Average RSS Value of a cell, as written to the radio map mean
+     *
+     * @param Samples
+     *              the aggregate of the samples
+     *
+     * @param cell
+     *              the cell
+     *
+     * @param max
+     *              the maximum number of RSS Values recorded in the location
+     *
+     * @return
+     *              the average, counting NaN Value for the samples not recorded
+     * */
+    private float calculateMean(RadioMapAggregate Samples, int cell, int max) {
+        float rss_sum = (float) Samples.getSampleSum(cell);
+
+        // Add NaN value for those samples not recorded
+        rss_sum += (float) (max - Samples.getSampleCount(cell)) * this.defaultNaNValue;
+
+        return rss_sum / max;
+    }
+
+    /**
+     * Prints and writes the report of the MAC Addresses pruned. If any was
+     * dropped, the radio map mean with all MAC Addresses is kept in memory to
+     * compare the positioning error and time when the parameters are written.
+     *
+     * @param Unpruned
+     *              the aggregate with all MAC Addresses
+     *
+     * @param Pruned
+     *              the aggregate with the MAC Addresses kept
+     * */
+    private void writePruningReport(RadioMapAggregate Unpruned, RadioMapAggregate Pruned) {
+
+        String report = pruning.getReport();
+
+        if (Pruned != Unpruned) {
+            UnprunedRadioMap = newRadioMapMean(Unpruned);
+        }
+
+        System.out.println(report);
+        writeReport(radiomap_pruning_filename, report, false);
+    }
+
+    /**
+     * Prints and writes the report of the locations merged. If any was
+     * merged, the radio map mean with all locations is kept in memory to
+     * compare the positioning error and time when the parameters are written.
+     *
+     * @param Unmerged
+     *              the aggregate with all locations
+     *
+     * @param Merged
+     *              the aggregate with the locations merged
+     * */
+    private void writeMergingReport(RadioMapAggregate Unmerged, RadioMapAggregate Merged) {
+
+        String report = merging.getReport();
+
+        if (Merged != Unmerged) {
+            UnmergedRadioMap = newRadioMapMean(Unmerged);
+        }
+
+        System.out.println(report);
+        writeReport(radiomap_merging_filename, report, false);
+    }
+
+    /**
+     * Constructs in memory the radio map mean of an aggregate, as it would be
+     * written, with the groups of MAC Addresses of the radio map mean written
+     *
+     * @param Aggregate
+     *              the samples grouped by location and MAC address
+     *
+     * @return
+     *              the radio map mean
+     * */
+    private RadioMapMean newRadioMapMean(RadioMapAggregate Aggregate) {
+
+        int MacAddress_num = Aggregate.getMacAddressCount();
+        float[] RSS_Means = new float[Aggregate.getLocationCount() * MacAddress_num];
+
+        for (int l = 0; l < Aggregate.getLocationCount(); ++l) {
+
+            int max = Aggregate.getMaxSampleCount(l);
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                int cell = Aggregate.findCell(l, m);
+
+                if (cell == -1) {
+                    RSS_Means[l * MacAddress_num + m] = this.defaultNaNValue;
+                } else {
+                    RSS_Means[l * MacAddress_num + m] = FingerprintWriter.roundDecimal(calculateMean(Aggregate, cell, max));
+                }
+            }
+        }
+
+        RadioMapMean RM = new RadioMapMean(this.isIndoor, this.defaultNaNValue);
+        RM.ConstructRadioMap(Aggregate, FloatBuffer.wrap(RSS_Means));
+        File radiomap_mean_file = getStagedFile(radiomap_mean_filename);
+
+        if (radiomap_mean_file != null) {
+            RM.readMacAddressGroups(RadioMapGrouping.getGroupsFile(radiomap_mean_file));
+        }
+        return RM;
+    }
+
+    /**
+     * Writes the groups of MAC Addresses next to the radio map mean, or
+     * deletes the groups of a previous radio map mean
+     *
+     * @param radiomap_mean_file
+     *              the radio map mean written
+     *
+     * @param grouping
+     *              the grouping applied to the radio map mean, or null if none
+     * */
+    private void writeMacAddressGroups(File radiomap_mean_file, RadioMapGrouping grouping) throws IOException {
+
+        File groups_file = RadioMapGrouping.getGroupsFile(radiomap_mean_file);
+
+        if (grouping == null) {
+            if (groups_file.exists() && !groups_file.delete()) {
+                throw new IOException("Cannot delete " + groups_file.getAbsolutePath());
+            }
+            return;
+        }
+
+        FileOutputStream fos = new FileOutputStream(groups_file, false);
+
+        try {
+            fos.write(grouping.getGroups().getBytes());
+        } finally {
+            fos.close();
+        }
+    }
+
+    /**
+     * Writes lines to a report next to the radio map
+     *
+     * @param report_filename
+     *              the report file, e.g. the pruning report
+     *
+     * @param report
+     *              the lines to write
+     *
+     * @param append
+     *              true to add the lines to the report, false to replace it
+     * */
+    private void writeReport(String report_filename, String report, boolean append) {
+
+        FileOutputStream fos = null;
+
+        try {
+            fos = new FileOutputStream(report_filename, append);
+            fos.write((report + "\n").getBytes());
+            fos.close();
+        } catch (IOException e) {
+            System.err.println("Error while writing report " + report_filename + ": " + e.getMessage());
+            if (fos != null) {
+                try {
+                    fos.close();
+                } catch (IOException ioe) {
+                    System.err.println("Error while writing report " + report_filename + ": " + ioe.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the RSS samples of a range of locations, one line per sample.
+     * Samples missing for a MAC Address are written as NaN Value.
+     *
+     * @param fos
+     *              the radio map file
+     *
+     * @param cache
+     *              the cache the samples are written to as well
+     *
+     * @param Aggregate
+     *              the aggregate that orders the locations and MAC Addresses
+     *
+     * @param first
+     *              the first location id to write
+     *
+     * @param last
+     *              the location id after the last one to write
+     *
+     * @param Samples
+     *              the samples of the locations
+     * */
+    private void writeRadioMapSamples(FingerprintWriter fos, RadioMapSampleCache.Writer cache, final RadioMapAggregate Aggregate, int first, int last, final RadioMapStore Samples) throws IOException {
+
+        new RowsWriter() {
+            @Override
+            void writeRows(FingerprintWriter fos, RadioMapSampleCache.Writer cache, int first, int last) throws IOException {
+
+                int MacAddress_num = Aggregate.getMacAddressCount();
+                int[] MacAddressIds = new int[MacAddress_num];
+
+                for (int l = first; l < last; ++l) {
+
+                    // The MAC Address of a cell is not the one of its column for virtual access points
+                    for (int m = 0; m < MacAddress_num; ++m) {
+                        int cell = Aggregate.findCell(l, m);
+                        MacAddressIds[m] = cell == -1 ? -1 : Samples.findMacAddress(Aggregate.getCellMacAddress(cell));
+                    }
+
+                    writeRadioMapSamples(fos, cache, Aggregate.getLocation(l), Samples, Samples.findLocation(Aggregate.getLocation(l)), MacAddressIds);
+                }
+            }
+
+            @Override
+            long getValueCount(int location) {
+                return (long) Aggregate.getMaxSampleCount(location) * Aggregate.getMacAddressCount();
+            }
+        }.write(fos, cache, first, last);
+    }
+
+    /**
+     * Writes the RSS samples of a location, one line per sample.
+     * Samples missing for a MAC Address are written as NaN Value.
+     *
+     * @param fos
+     *              the radio map file
+     *
+     * @param cache
+     *              the cache the samples are written to as well
+     *
+     * @param location
+     *              the location key "X Y"
+     *
+     * @param Samples
+     *              the samples of the location
+     *
+     * @param sample_location
+     *              the id of the location in Samples
+     *
+     * @param MacAddressIds
+     *              the id in Samples of every MAC Address written, or -1
+     * */
+    private void writeRadioMapSamples(FingerprintWriter fos, RadioMapSampleCache.Writer cache, String location, RadioMapStore Samples, int sample_location, int[] MacAddressIds) throws IOException {
+
+        int MacAddress_num = MacAddressIds.length;
+        int[] cells = new int[MacAddress_num];
+
+        cache.location(location);
+        location = location.replace(" ", ", ");
+        fos.write(location);
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+            if (sample_location == -1 || MacAddressIds[m] == -1) {
+                cells[m] = -1;
+            } else {
+                cells[m] = Samples.findCell(sample_location, MacAddressIds[m]);
+            }
+        }
+
+        // The maximum number of RSS Values kept
+        int max = sample_location == -1 ? 0 : Samples.getMaxKeptSampleCount(sample_location);
+
+        for (int i = 0; i < max; ++i) {
+
+            if (i > 0) {
+                fos.write('\n');
+                fos.write(location);
+            }
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+
+                // Write NaN RSS Value if no sample recorded for this mac address
+                if (cells[m] == -1 || i > Samples.getKeptSampleCount(cells[m]) - 1) {
+                    fos.write(", ");
+                    fos.writeInt(this.defaultNaNValue);
+                    cache.add(this.defaultNaNValue);
+                } // Write the value
+                else {
+                    int RSS_Value = Samples.getSample(cells[m], i);
+                    fos.write(", ");
+                    fos.writeInt(RSS_Value);
+                    cache.add(RSS_Value);
+                }
+            }
+        }
+
+        fos.write('\n');
+    }
+
+    /**
+     * Writer of the rows of a range of locations. With a parallel build the
+     * rows are formatted in chunks of locations over a fork-join pool, each
+     * chunk into its own buffer, and the chunks are written in order as they
+     * are done, so the files are the same as written serially. A few chunks
+     * are formatted ahead of the one written, to bound the memory.
+     */
+    private abstract class RowsWriter {
+
+        /**
+         * Formats the rows of a range of locations
+         *
+         * @param fos
+         *              the file or chunk to write to
+         *
+         * @param cache
+         *              the cache or its chunk to write the samples to, or null
+         *
+         * @param first
+         *              the first location id to write
+         *
+         * @param last
+         *              the location id after the last one to write
+         * */
+        abstract void writeRows(FingerprintWriter fos, RadioMapSampleCache.Writer cache, int first, int last) throws IOException;
+
+        /**
+         * Getter of the number of values written for a location, to size the chunks
+         *
+         * @param location
+         *              the location id
+         *
+         * @return
+         *              the number of values, or an estimate of it
+         * */
+        abstract long getValueCount(int location);
+
+        /**
+         * Writes the rows of a range of locations, in parallel with a parallel build
+         *
+         * @param fos
+         *              the file to write to
+         *
+         * @param cache
+         *              the cache to write the samples to, or null
+         *
+         * @param first
+         *              the first location id to write
+         *
+         * @param last
+         *              the location id after the last one to write
+         * */
+        void write(FingerprintWriter fos, RadioMapSampleCache.Writer cache, int first, int last) throws IOException {
+
+            if (!parallelBuild || last - first < 2) {
+                writeRows(fos, cache, first, last);
+                return;
+            }
+
+            ForkJoinPool pool = getPool();
+            ArrayDeque<Future<Chunk>> Chunks = new ArrayDeque<Future<Chunk>>();
+            int ahead = 2 * pool.getParallelism();
+            int start = first;
+
+            try {
+                while (start < last || !Chunks.isEmpty()) {
+
+                    while (start < last && Chunks.size() < ahead) {
+                        long values = 0;
+                        int end = start;
+
+                        while (end < last) {
+                            long location_values = getValueCount(end);
+
+                            if (end > start && values + location_values > CHUNK_VALUES) {
+                                break;
+                            }
+                            values += location_values;
+                            end++;
+                        }
+
+                        Chunks.add(pool.submit(new FormatRowsTask(cache == null ? null : cache.newChunk(), start, end)));
+                        start = end;
+                    }
+
+                    Chunk chunk = Chunks.poll().get();
+                    fos.write(chunk.bytes);
+
+                    if (cache != null) {
+                        cache.append(chunk.cache);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while formatting rows.");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(e.getCause().getMessage(), e.getCause());
+            } finally {
+                // Chunks formatted ahead of an error are not written
+                for (Future<Chunk> chunk : Chunks) {
+                    chunk.cancel(true);
+                }
+            }
+        }
+
+        /**
+         * Task that formats the rows of a chunk of locations
+         */
+        private class FormatRowsTask implements Callable<Chunk> {
+
+            private final RadioMapSampleCache.Writer cache;
+            private final int first;
+            private final int last;
+
+            FormatRowsTask(RadioMapSampleCache.Writer cache, int first, int last) {
+                this.cache = cache;
+                this.first = first;
+                this.last = last;
+            }
+
+            @Override
+            public Chunk call() throws IOException {
+
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 16);
+                FingerprintWriter fos = new FingerprintWriter(bytes);
+
+                writeRows(fos, cache, first, last);
+                fos.close();
+                return new Chunk(bytes, cache);
+            }
+        }
+    }
+
+    /**
+     * Rows of a chunk of locations, formatted and not yet written
+     */
+    private static class Chunk {
+
+        private final ByteArrayOutputStream bytes;
+        private final RadioMapSampleCache.Writer cache;
+
+        Chunk(ByteArrayOutputStream bytes, RadioMapSampleCache.Writer cache) {
+            this.bytes = bytes;
+            this.cache = cache;
+        }
+    }
+
+    /**
+     * Radio map store that keeps only the samples of some locations
+     */
+    private static class LocationsRadioMapStore extends RadioMapStore {
+
+        private final HashSet<String> Locations;
+
+        LocationsRadioMapStore(HashSet<String> Locations) {
+            this.Locations = Locations;
+        }
+
+        @Override
+        public void add(String location, long packedMacAddress, int RSS_Value) {
+            if (Locations.contains(location)) {
+                super.add(location, packedMacAddress, RSS_Value);
+            }
+        }
+    }
 }
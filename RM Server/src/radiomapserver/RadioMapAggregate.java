@@ -0,0 +1,114 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+/**
+ *
+ * Per (location, MAC address) aggregate of RSS samples read from the RSS log files.
+ * Every (location, MAC address) pair that has samples is a cell.
+ */
+public interface RadioMapAggregate extends RadioMapCollector {
+
+    /**
+     * Finds the cell of a location and MAC address
+     *
+     * @param location
+     *            the location id
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the cell, or -1 if no sample recorded for this MAC address in this location
+     * */
+    int findCell(int location, int MacAddress);
+
+    /**
+     * Getter of the MAC address of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the packed MAC address
+     * */
+    long getCellMacAddress(int cell);
+
+    /**
+     * Getter of the number of samples of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the number of samples
+     * */
+    int getSampleCount(int cell);
+
+    /**
+     * Getter of the sum of samples of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the sum of RSS values
+     * */
+    long getSampleSum(int cell);
+
+    /**
+     * Getter of the sample variance of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the variance of RSS values, or 0 if the cell has less than two samples
+     * */
+    double getVariance(int cell);
+
+    /**
+     * Getter of the maximum number of samples recorded for a MAC address in a location
+     *
+     * @param location
+     *            the location id
+     *
+     * @return
+     *            the maximum number of samples
+     * */
+    int getMaxSampleCount(int location);
+}
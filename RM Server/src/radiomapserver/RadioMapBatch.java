@@ -0,0 +1,351 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ *
+ * Builds and calibrates the radio maps of many buildings without the user
+ * interface, e.g. from a nightly job:
+ *
+ * java -jar "RM Server.jar" --build [--threads N] [--nan V] [--stats file] [options] building...
+ *
+ * A building folder is laid out as the working folder of the server, with
+ * indoor-rss-logs and outdoor-rss-logs, and writes its radio maps to the
+ * indoor and outdoor folders, calibrated on their test-data.txt. Every
+ * radio map of a building is a job on a pool of a bounded number of
+ * threads. The options of how the radio maps are built are those of
+ * RadioMapOptions.
+ *
+ * Every stage of a job writes one line of JSON to the standard output, with
+ * its status, elapsed time, and the CPU time and bytes allocated by the job
+ * thread only, without the threads a parallel build forks. A final line sums
+ * up the batch, with the CPU time of the whole process. Messages of the radio
+ * maps are written to the standard error instead.
+ */
+public class RadioMapBatch {
+
+    private static final String[] Modes = {"indoor", "outdoor"};
+    private final List<File> buildings = new ArrayList<File>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int defaultNaNValue = -110;
+    private PrintStream stats = System.out;
+    private final RadioMapOptions options = new RadioMapOptions(false);
+    private int failed = 0;
+
+    /**
+     * Runs the batch with the command line arguments after --build
+     *
+     * @param args
+     *            the options and building folders
+     *
+     * @return
+     *            the exit status, 0 if all radio maps are built, 1 if some failed, 2 for bad arguments
+     * */
+    public static int main(String[] args) {
+
+        RadioMapBatch batch = new RadioMapBatch();
+        PrintStream out = System.out;
+
+        if (!batch.parseArguments(args)) {
+            System.err.println("Usage: --build [--threads N] [--nan V] [--stats file]" + batch.options.getUsage() + " building...");
+            return 2;
+        }
+
+        // Only the statistics go to the standard output
+        System.setOut(System.err);
+
+        try {
+            return batch.run() ? 0 : 1;
+        } finally {
+            System.setOut(out);
+            if (batch.stats != out) {
+                batch.stats.close();
+            }
+        }
+    }
+
+    private boolean parseArguments(String[] args) {
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                int consumed = options.parseArgument(args, i);
+
+                if (consumed > 0) {
+                    i += consumed - 1;
+                } else if (args[i].equals("--threads") && i + 1 < args.length) {
+                    threads = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--nan") && i + 1 < args.length) {
+                    defaultNaNValue = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--stats") && i + 1 < args.length) {
+                    stats = new PrintStream(new FileOutputStream(args[++i], false), true);
+                } else if (args[i].startsWith("--")) {
+                    return false;
+                } else {
+                    buildings.add(new File(args[i]));
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error while parsing arguments: " + e.getMessage());
+            return false;
+        } catch (FileNotFoundException e) {
+            System.err.println("Error while opening statistics file: " + e.getMessage());
+            return false;
+        }
+        return threads > 0 && options.isValid() && !buildings.isEmpty();
+    }
+
+    /**
+     * Builds all radio maps of all buildings on the pool
+     *
+     * @return
+     *            true if all radio maps are built, otherwise false
+     * */
+    private boolean run() {
+
+        long start = System.nanoTime();
+        long cpu = getProcessCpuTime();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> Jobs = new ArrayList<Future<?>>();
+        int maps = 0;
+
+        for (File building : buildings) {
+
+            if (!building.isDirectory()) {
+                writeStage(building, "", "building", "failed", 0, 0, 0);
+                continue;
+            }
+
+            for (final String mode : Modes) {
+                final File rss_folder = new File(building, mode + "-rss-logs");
+                final File building_folder = building;
+
+                if (rss_folder.isDirectory()) {
+                    ++maps;
+                    Jobs.add(pool.submit(new Runnable() {
+
+                        public void run() {
+                            build(building_folder, mode, rss_folder);
+                        }
+                    }));
+                }
+            }
+        }
+
+        pool.shutdown();
+
+        for (Future<?> job : Jobs) {
+            try {
+                job.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                System.err.println("Error while building radio map: " + e.getCause());
+                synchronized (this) {
+                    ++failed;
+                }
+            }
+        }
+
+        synchronized (this) {
+            stats.println("{\"stage\":\"batch\",\"buildings\":" + buildings.size() + ",\"maps\":" + maps
+                    + ",\"failed\":" + failed + ",\"threads\":" + threads
+                    + ",\"elapsed_ms\":" + (System.nanoTime() - start) / 1000000 + ",\"cpu_ms\":" + (getProcessCpuTime() - cpu) / 1000000
+                    + ",\"peak_heap_bytes\":" + getPeakHeap() + "}");
+            return failed == 0;
+        }
+    }
+
+    /**
+     * Builds, calibrates and publishes one radio map of a building
+     *
+     * @param building
+     *            the building folder
+     *
+     * @param mode
+     *            indoor or outdoor
+     *
+     * @param rss_folder
+     *            the RSS log files of the radio map
+     * */
+    private void build(File building, String mode, File rss_folder) {
+
+        File folder = new File(building, mode);
+        File test_data = new File(folder, "test-data.txt");
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            writeStage(building, mode, "radiomap", "failed", 0, 0, 0);
+            return;
+        }
+
+        RadioMap rm = new RadioMap(rss_folder, new File(folder, mode + "-radiomap.txt").getPath(), defaultNaNValue);
+        rm.setIncrementalBuild(true);
+        options.apply(rm);
+        rm.lockWriter();
+
+        try {
+            Stage stage = new Stage();
+            boolean created = rm.createRadioMap();
+            stage.write(building, mode, "radiomap", created ? "ok" : "failed");
+
+            if (!created) {
+                return;
+            }
+
+            if (test_data.isFile()) {
+                stage = new Stage();
+                boolean calibrated = rm.writeParameters(test_data.getPath());
+                stage.write(building, mode, "parameters", calibrated ? "ok" : "failed");
+            } else {
+                writeStage(building, mode, "parameters", "skipped", 0, 0, 0);
+            }
+
+            stage = new Stage();
+            stage.write(building, mode, "publish", rm.publishSnapshot() != -1 ? "ok" : "failed");
+        } finally {
+            rm.unlockWriter();
+        }
+    }
+
+    /**
+     * Elapsed time since the start of a stage, and CPU time and allocated
+     * bytes of the current thread only
+     */
+    private class Stage {
+
+        private final long start = System.nanoTime();
+        private final long cpu = getCpuTime();
+        private final long allocated = getAllocatedBytes();
+
+        private void write(File building, String mode, String name, String status) {
+            writeStage(building, mode, name, status, System.nanoTime() - start, getCpuTime() - cpu, getAllocatedBytes() - allocated);
+        }
+    }
+
+    private synchronized void writeStage(File building, String mode, String stage, String status, long elapsed, long cpu, long allocated) {
+
+        if (status.equals("failed")) {
+            ++failed;
+        }
+
+        stats.println("{\"building\":\"" + escape(building.getPath()) + "\",\"map\":\"" + mode + "\",\"stage\":\"" + stage
+                + "\",\"status\":\"" + status + "\",\"elapsed_ms\":" + elapsed / 1000000 + ",\"thread_cpu_ms\":" + cpu / 1000000
+                + ",\"thread_allocated_bytes\":" + allocated + ",\"heap_used_bytes\":" + getUsedHeap() + "}");
+    }
+
+    private static String escape(String value) {
+
+        StringBuilder sb = new StringBuilder();
+
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static long getCpuTime() {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        if (!bean.isCurrentThreadCpuTimeSupported()) {
+            return 0;
+        }
+        return bean.getCurrentThreadCpuTime();
+    }
+
+    private static long getProcessCpuTime() {
+
+        // The CPU time of all threads is only known by the HotSpot extension of the bean
+        if (!(ManagementFactory.getOperatingSystemMXBean() instanceof com.sun.management.OperatingSystemMXBean)) {
+            return 0;
+        }
+
+        long cpu = ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+        return cpu < 0 ? 0 : cpu;
+    }
+
+    private static long getAllocatedBytes() {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+        // Allocated bytes are only known by the HotSpot extension of the bean
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long getUsedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long getPeakHeap() {
+
+        long peak = 0;
+
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ *
+ * Clusters of the locations of a radio map mean with similar mean RSS values,
+ * found with k-means, so that positioning compares the observed RSS values
+ * with the centroids of the clusters first and then only with the locations
+ * of the nearest clusters.
+ *
+ * Written next to the radio map mean, e.g. indoor-radiomap-mean-clusters.bin.
+ * All values are little endian:
+ *
+ *  int magic, int version,
+ *  long length and long modification time of the text mean file it was written with,
+ *  int clusters count, int locations count, int MAC Addresses count, int clusters searched,
+ *  float[clusters][MAC Addresses] centroids,
+ *  int[clusters + 1] offset of the first location of every cluster,
+ *  int[locations] location ids, cluster after cluster.
+ */
+public class RadioMapClusters {
+
+    public static final int MAGIC = 0x4C434D52;
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 40;
+    private static final int MAX_ITERATIONS = 20;
+    private final int Cluster_num;
+    private final int MacAddress_num;
+    private final int Probe_num;
+    private final FloatBuffer Centroids;
+    private final IntBuffer Offsets;
+    private final IntBuffer Members;
+
+    private RadioMapClusters(int Cluster_num, int MacAddress_num, int Probe_num, FloatBuffer Centroids, IntBuffer Offsets, IntBuffer Members) {
+        this.Cluster_num = Cluster_num;
+        this.MacAddress_num = MacAddress_num;
+        this.Probe_num = Probe_num;
+        this.Centroids = Centroids;
+        this.Offsets = Offsets;
+        this.Members = Members;
+    }
+
+    /**
+     * Getter of the clusters file of a radio map mean file
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the clusters file next to it, named as the mean with "-clusters.bin"
+     * */
+    public static File getClustersFile(File meanFile) {
+        String name = meanFile.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot != -1) {
+            name = name.substring(0, dot);
+        }
+        return new File(meanFile.getParentFile(), name + "-clusters.bin");
+    }
+
+    /**
+     * Getter of the number of clusters
+     *
+     * @return
+     *            the number of clusters
+     * */
+    public int getClusterCount() {
+        return Cluster_num;
+    }
+
+    /**
+     * Getter of the number of nearest clusters searched
+     *
+     * @return
+     *            the number of clusters
+     * */
+    public int getProbeCount() {
+        return Probe_num;
+    }
+
+    /**
+     * Clusters the locations of a radio map mean with k-means. The first
+     * centroids are chosen with k-means++ from a fixed seed, so the same
+     * radio map mean always gives the same clusters.
+     *
+     * @param RSS_Values
+     *            the mean RSS values, location after location
+     *
+     * @param Location_num
+     *            the number of locations
+     *
+     * @param MacAddress_num
+     *            the number of MAC Addresses
+     *
+     * @param Cluster_num
+     *            the number of clusters, at most the number of locations
+     *
+     * @param Probe_num
+     *            the number of nearest clusters searched when positioning
+     *
+     * @return
+     *            the clusters
+     * */
+    public static RadioMapClusters build(FloatBuffer RSS_Values, int Location_num, int MacAddress_num, int Cluster_num, int Probe_num) {
+
+        Cluster_num = Math.max(1, Math.min(Cluster_num, Location_num));
+
+        float[] Centroids = new float[Cluster_num * MacAddress_num];
+        int[] Assignments = new int[Location_num];
+        double[] Nearest = new double[Location_num];
+        Random random = new Random(0);
+
+        // k-means++, every next centroid is a location chosen with probability
+        // proportional to its squared distance from the nearest centroid
+        Arrays.fill(Nearest, Double.POSITIVE_INFINITY);
+        copyLocation(RSS_Values, random.nextInt(Location_num), MacAddress_num, Centroids, 0);
+
+        for (int c = 1; c < Cluster_num; ++c) {
+
+            double total = 0;
+
+            for (int l = 0; l < Location_num; ++l) {
+                Nearest[l] = Math.min(Nearest[l], distance(RSS_Values, l, Centroids, c - 1, MacAddress_num));
+                total += Nearest[l];
+            }
+
+            int next = Location_num - 1;
+
+            if (total > 0) {
+                double target = random.nextDouble() * total;
+
+                for (int l = 0; l < Location_num; ++l) {
+                    target -= Nearest[l];
+                    if (target < 0) {
+                        next = l;
+                        break;
+                    }
+                }
+            } else {
+                next = random.nextInt(Location_num);
+            }
+            copyLocation(RSS_Values, next, MacAddress_num, Centroids, c);
+        }
+
+        // Lloyd iterations, until no location changes cluster
+        Arrays.fill(Assignments, -1);
+        double[] Sums = new double[Cluster_num * MacAddress_num];
+        int[] Counts = new int[Cluster_num];
+
+        for (int iteration = 0; iteration < MAX_ITERATIONS; ++iteration) {
+
+            boolean changed = false;
+
+            for (int l = 0; l < Location_num; ++l) {
+                int nearest = nearestCentroid(RSS_Values, l, Centroids, Cluster_num, MacAddress_num);
+
+                if (nearest != Assignments[l]) {
+                    Assignments[l] = nearest;
+                    changed = true;
+                }
+            }
+
+            if (!changed) {
+                break;
+            }
+
+            Arrays.fill(Sums, 0);
+            Arrays.fill(Counts, 0);
+
+            for (int l = 0; l < Location_num; ++l) {
+                int offset = Assignments[l] * MacAddress_num;
+
+                Counts[Assignments[l]]++;
+                for (int m = 0; m < MacAddress_num; ++m) {
+                    Sums[offset + m] += RSS_Values.get(l * MacAddress_num + m);
+                }
+            }
+
+            // An empty cluster keeps its centroid
+            for (int c = 0; c < Cluster_num; ++c) {
+                if (Counts[c] > 0) {
+                    for (int m = 0; m < MacAddress_num; ++m) {
+                        Centroids[c * MacAddress_num + m] = (float) (Sums[c * MacAddress_num + m] / Counts[c]);
+                    }
+                }
+            }
+        }
+
+        // Locations of every cluster, in the order of the radio map mean
+        int[] Offsets = new int[Cluster_num + 1];
+        int[] Members = new int[Location_num];
+
+        for (int l = 0; l < Location_num; ++l) {
+            Offsets[Assignments[l] + 1]++;
+        }
+        for (int c = 0; c < Cluster_num; ++c) {
+            Offsets[c + 1] += Offsets[c];
+        }
+
+        int[] next = Arrays.copyOf(Offsets, Cluster_num);
+
+        for (int l = 0; l < Location_num; ++l) {
+            Members[next[Assignments[l]]++] = l;
+        }
+
+        return new RadioMapClusters(Cluster_num, MacAddress_num, Math.max(1, Math.min(Probe_num, Cluster_num)),
+                FloatBuffer.wrap(Centroids), IntBuffer.wrap(Offsets), IntBuffer.wrap(Members));
+    }
+
+    /**
+     * Writes the clusters next to a radio map mean. Must be called after the
+     * text mean file is written, so the clusters are matched to it.
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @throws IOException
+     *            if the file could not be written
+     * */
+    public void write(File meanFile) throws IOException {
+
+        int Location_num = Members.capacity();
+        File clustersFile = getClustersFile(meanFile);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + 4 * (Cluster_num * MacAddress_num + Cluster_num + 1 + Location_num)).order(ByteOrder.LITTLE_ENDIAN);
+
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(meanFile.length());
+        buffer.putLong(meanFile.lastModified());
+        buffer.putInt(Cluster_num);
+        buffer.putInt(Location_num);
+        buffer.putInt(MacAddress_num);
+        buffer.putInt(Probe_num);
+
+        for (int i = 0; i < Cluster_num * MacAddress_num; ++i) {
+            buffer.putFloat(Centroids.get(i));
+        }
+        for (int c = 0; c <= Cluster_num; ++c) {
+            buffer.putInt(Offsets.get(c));
+        }
+        for (int l = 0; l < Location_num; ++l) {
+            buffer.putInt(Members.get(l));
+        }
+
+        FileOutputStream fos = new FileOutputStream(clustersFile, false);
+        boolean written = false;
+
+        try {
+            FileChannel channel = fos.getChannel();
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            written = true;
+        } finally {
+            fos.close();
+
+            if (!written) {
+                clustersFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the clusters written next to a radio map mean. The clusters stay
+     * in the mapped file.
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param Location_num
+     *            the number of locations of the radio map mean
+     *
+     * @param MacAddress_num
+     *            the number of MAC Addresses of the radio map mean
+     *
+     * @return
+     *            the clusters, or null if there are none or they were written
+     *            with another version of the text file
+     * */
+    public static RadioMapClusters read(File meanFile, int Location_num, int MacAddress_num) {
+
+        File clustersFile = getClustersFile(meanFile);
+
+        if (!clustersFile.exists()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = RadioMapMeanBinary.map(clustersFile);
+
+            if (buffer.capacity() < HEADER_SIZE
+                    || buffer.getInt(0) != MAGIC
+                    || buffer.getInt(4) != VERSION
+                    || buffer.getLong(8) != meanFile.length()
+                    || buffer.getLong(16) != meanFile.lastModified()
+                    || buffer.getInt(28) != Location_num
+                    || buffer.getInt(32) != MacAddress_num) {
+                return null;
+            }
+
+            int Cluster_num = buffer.getInt(24);
+            int Probe_num = buffer.getInt(36);
+
+            buffer.position(HEADER_SIZE);
+            FloatBuffer Centroids = slice(buffer, Cluster_num * MacAddress_num).asFloatBuffer();
+            IntBuffer Offsets = slice(buffer, Cluster_num + 1).asIntBuffer();
+            IntBuffer Members = slice(buffer, Location_num).asIntBuffer();
+
+            return new RadioMapClusters(Cluster_num, MacAddress_num, Probe_num, Centroids, Offsets, Members);
+        } catch (Exception e) {
+            System.err.println("Error while mapping clusters " + clustersFile.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Finds the locations of the clusters with the centroids nearest to the
+     * observed RSS values. More clusters than the clusters searched are added
+     * until there are enough locations.
+     *
+     * @param Observed_RSS_Values
+     *            RSS values currently observed
+     *
+     * @param min
+     *            the minimum number of locations
+     *
+     * @return
+     *            the location ids
+     * */
+    public int[] findLocations(float[] Observed_RSS_Values, int min) {
+
+        long[] ranked = new long[Cluster_num];
+
+        // Squared distances are not negative, so their bits sort as the floats
+        for (int c = 0; c < Cluster_num; ++c) {
+            float distance = 0;
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                float temp = Centroids.get(c * MacAddress_num + m) - Observed_RSS_Values[m];
+                distance += temp * temp;
+            }
+            ranked[c] = ((long) Float.floatToIntBits(distance) << 32) | c;
+        }
+        Arrays.sort(ranked);
+
+        int count = 0;
+        int probes = 0;
+
+        while (probes < Cluster_num && (probes < Probe_num || count < min)) {
+            int c = (int) ranked[probes++];
+            count += Offsets.get(c + 1) - Offsets.get(c);
+        }
+
+        int[] Locations = new int[count];
+        int i = 0;
+
+        for (int p = 0; p < probes; ++p) {
+            int c = (int) ranked[p];
+
+            for (int j = Offsets.get(c); j < Offsets.get(c + 1); ++j) {
+                Locations[i++] = Members.get(j);
+            }
+        }
+        return Locations;
+    }
+
+    private static void copyLocation(FloatBuffer RSS_Values, int location, int MacAddress_num, float[] Centroids, int cluster) {
+        for (int m = 0; m < MacAddress_num; ++m) {
+            Centroids[cluster * MacAddress_num + m] = RSS_Values.get(location * MacAddress_num + m);
+        }
+    }
+
+    private static double distance(FloatBuffer RSS_Values, int location, float[] Centroids, int cluster, int MacAddress_num) {
+
+        double distance = 0;
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+            double temp = RSS_Values.get(location * MacAddress_num + m) - Centroids[cluster * MacAddress_num + m];
+            distance += temp * temp;
+        }
+        return distance;
+    }
+
+    private static int nearestCentroid(FloatBuffer RSS_Values, int location, float[] Centroids, int Cluster_num, int MacAddress_num) {
+
+        int nearest = 0;
+        double nearest_distance = Double.POSITIVE_INFINITY;
+
+        for (int c = 0; c < Cluster_num; ++c) {
+            double distance = distance(RSS_Values, location, Centroids, c, MacAddress_num);
+
+            if (distance < nearest_distance) {
+                nearest = c;
+                nearest_distance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Views the next values of a little endian buffer, and skips them
+     * */
+    private static ByteBuffer slice(ByteBuffer buffer, int count) {
+        ByteBuffer view = buffer.slice().order(buffer.order());
+        view.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return view;
+    }
+}
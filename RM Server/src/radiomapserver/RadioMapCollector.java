@@ -0,0 +1,110 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+/**
+ *
+ * Collector of the RSS samples read from the RSS log files. Locations and MAC
+ * addresses are given int ids in the order they are first read.
+ */
+public interface RadioMapCollector {
+
+    /**
+     * Adds a new RSS sample
+     *
+     * @param location
+     *            the location key "X Y"
+     *
+     * @param packedMacAddress
+     *            the packed MAC address of AP
+     *
+     * @param RSS_Value
+     *            the RSS value, that must fit in a short
+     * */
+    void add(String location, long packedMacAddress, int RSS_Value);
+
+    boolean isEmpty();
+
+    /**
+     * Getter of the number of locations
+     *
+     * @return
+     *            the number of locations, ids are 0 to count - 1
+     * */
+    int getLocationCount();
+
+    /**
+     * Getter of a location key
+     *
+     * @param location
+     *            the location id
+     *
+     * @return
+     *            the location key "X Y"
+     * */
+    String getLocation(int location);
+
+    /**
+     * Getter of the number of MAC addresses
+     *
+     * @return
+     *            the number of MAC addresses, ids are 0 to count - 1
+     * */
+    int getMacAddressCount();
+
+    /**
+     * Getter of a MAC address
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the MAC address in lower case
+     * */
+    String getMacAddress(int MacAddress);
+
+    /**
+     * Getter of a packed MAC address
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the packed MAC address
+     * */
+    long getPackedMacAddress(int MacAddress);
+}
@@ -0,0 +1,215 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ *
+ * Compact encoding of the radio map mean, e.g. indoor-radiomap-mean.rmc, that is
+ * sent to the trackers instead of the text file. The mean RSS values are kept in
+ * tenths of dBm and a bitmap per location marks the MAC Addresses heard, so the
+ * NaN value is never written:
+ *
+ *  int magic, byte flags (1 if indoor, 2 if the rest is deflated),
+ *  varint NaN value, varint MAC Addresses count, 6 bytes per MAC Address,
+ *  varint locations count, UTF "X Y" key per location,
+ *  per location the heard bitmap and, for every heard MAC Address, the varint
+ *  difference from the previous value of the location (the first from NaN value).
+ *
+ * Varints are unsigned LEB128 of zigzag encoded ints.
+ */
+public class RadioMapCompact {
+
+    public static final int MAGIC = 0x524D4331;
+    public static final int FLAG_INDOOR = 1;
+    public static final int FLAG_DEFLATED = 2;
+
+    private RadioMapCompact() {
+    }
+
+    /**
+     * Getter of the compact file of a radio map mean file
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the compact file next to it, with .rmc extension
+     * */
+    public static File getCompactFile(File meanFile) {
+        String name = meanFile.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot != -1) {
+            name = name.substring(0, dot);
+        }
+        return new File(meanFile.getParentFile(), name + ".rmc");
+    }
+
+    /**
+     * Writes the compact radio map mean. The values are deflated only if
+     * that makes the file smaller.
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param isIndoor
+     *            true if locations are X, Y
+     *
+     * @param defaultNaNValue
+     *            the NaN value
+     *
+     * @param Aggregate
+     *            the aggregate that orders the locations and MAC Addresses
+     *
+     * @param RSS_Values
+     *            the mean RSS values as written to text, location after location
+     *
+     * @throws IOException
+     *            if the file could not be written
+     * */
+    public static void write(File meanFile, boolean isIndoor, int defaultNaNValue, RadioMapCollector Aggregate, FloatBuffer RSS_Values) throws IOException {
+
+        File compactFile = getCompactFile(meanFile);
+        boolean written = false;
+
+        try {
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            encode(raw, defaultNaNValue, Aggregate, RSS_Values);
+
+            ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+            DeflaterOutputStream dos = new DeflaterOutputStream(deflated, new Deflater(Deflater.BEST_COMPRESSION));
+            raw.writeTo(dos);
+            dos.close();
+
+            int flags = isIndoor ? FLAG_INDOOR : 0;
+            ByteArrayOutputStream payload = raw;
+
+            if (deflated.size() < raw.size()) {
+                flags |= FLAG_DEFLATED;
+                payload = deflated;
+            }
+
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(compactFile, false));
+
+            try {
+                out.writeInt(MAGIC);
+                out.writeByte(flags);
+                payload.writeTo(out);
+            } finally {
+                out.close();
+            }
+            written = true;
+        } finally {
+            if (!written) {
+                compactFile.delete();
+            }
+        }
+    }
+
+    private static void encode(OutputStream os, int defaultNaNValue, RadioMapCollector Aggregate, FloatBuffer RSS_Values) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(os);
+        int MacAddress_num = Aggregate.getMacAddressCount();
+        int Location_num = Aggregate.getLocationCount();
+        int NaN_tenths = defaultNaNValue * 10;
+        byte[] bitmap = new byte[(MacAddress_num + 7) / 8];
+        int[] tenths = new int[MacAddress_num];
+
+        writeVarint(out, defaultNaNValue);
+        writeVarint(out, MacAddress_num);
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+            long mac = Aggregate.getPackedMacAddress(m);
+            for (int shift = 40; shift >= 0; shift -= 8) {
+                out.writeByte((int) (mac >>> shift));
+            }
+        }
+
+        writeVarint(out, Location_num);
+
+        for (int l = 0; l < Location_num; ++l) {
+            out.writeUTF(Aggregate.getLocation(l));
+        }
+
+        for (int l = 0; l < Location_num; ++l) {
+
+            Arrays.fill(bitmap, (byte) 0);
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                tenths[m] = Math.round(RSS_Values.get(l * MacAddress_num + m) * 10);
+
+                if (tenths[m] != NaN_tenths) {
+                    bitmap[m >> 3] |= 1 << (m & 7);
+                }
+            }
+            out.write(bitmap);
+
+            int previous = NaN_tenths;
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                if (tenths[m] != NaN_tenths) {
+                    writeVarint(out, tenths[m] - previous);
+                    previous = tenths[m];
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+
+        // Zigzag, so small negative values take a single byte
+        int v = (value << 1) ^ (value >> 31);
+
+        while ((v & ~0x7F) != 0) {
+            out.writeByte((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+}
@@ -0,0 +1,504 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Merges the small RSS log files uploaded to a folder into large segment
+ * files, so that building the radio map opens a few files instead of one
+ * per upload. Uploads are numbered in the order they are committed, e.g.
+ * rsslog17.txt, and a segment of the uploads 1 to 40 is rsslog1-40.txt,
+ * with the uploads in number order. The index rsslog1-40.idx next to it
+ * lists the offset, length and CRC32 of every upload in the segment.
+ *
+ * Only uploads with consecutive numbers that are authenticated are merged,
+ * so a corrupted upload is still rejected on its own, and an upload that is
+ * still being written is never inside the numbers of a segment. The index is renamed before its
+ * segment, and the merged files are deleted after it, so a compaction
+ * interrupted by a crash is undone if the segment was not renamed, or
+ * completed if it was. The segment is renamed and the merged files are
+ * deleted under the writer lock of the radio map, so a build of the radio
+ * map never lists files that are deleted before it reads them. Builds of
+ * other radio maps of the folder running meanwhile may read the uploads of a
+ * segment twice.
+ */
+public class RadioMapCompactor {
+
+    // Uploaded RSS log files and segments
+    private static final Pattern LOG_NAME = Pattern.compile("rsslog(\\d+)(?:-(\\d+))?\\.txt");
+    private static final Pattern INDEX_NAME = Pattern.compile("rsslog(\\d+)-(\\d+)\\.idx");
+    private final RadioMap radiomap;
+    private final File RSSFolder;
+    private long segmentBytes = 32L << 20;
+    private int minLogFiles = 16;
+    // Modification time of the uploaded files that are not authenticated, by name
+    private final HashMap<String, Long> Rejected = new HashMap<String, Long>();
+
+    /**
+     * Constructor of the RadioMapCompactor class
+     *
+     * @param radiomap
+     *            the radio map to authenticate the RSS log files with
+     *
+     * @param RSSFolder
+     *            the folder of uploaded RSS log files
+     * */
+    public RadioMapCompactor(RadioMap radiomap, File RSSFolder) {
+        this.radiomap = radiomap;
+        this.RSSFolder = RSSFolder;
+    }
+
+    /**
+     * Sets the maximum size of a segment. Files of more than half of it are
+     * not merged.
+     *
+     * @param segmentBytes
+     *            the size in bytes
+     * */
+    public void setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    /**
+     * Sets how many small RSS log files and segments make a compaction
+     *
+     * @param minLogFiles
+     *            the number of files
+     * */
+    public void setMinLogFiles(int minLogFiles) {
+        this.minLogFiles = minLogFiles;
+    }
+
+    /**
+     * Parses the upload numbers of an uploaded RSS log file or segment name
+     *
+     * @param name
+     *            the name of the file, e.g. rsslog17.txt or rsslog1-40.txt
+     *
+     * @return
+     *            the first and last upload number, or null if it is not an uploaded file
+     * */
+    static long[] parseLogName(String name) {
+
+        Matcher matcher = LOG_NAME.matcher(name);
+
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        try {
+            long first = Long.parseLong(matcher.group(1));
+            long last = matcher.group(2) == null ? first : Long.parseLong(matcher.group(2));
+            return first <= last ? new long[]{first, last} : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks whether an upload is merged in a segment of a folder
+     *
+     * @param RSSFolder
+     *            the folder of uploaded RSS log files
+     *
+     * @param number
+     *            the upload number
+     *
+     * @return
+     *            true if a segment with an index holds the upload
+     * */
+    static boolean isCompacted(File RSSFolder, long number) {
+
+        String[] list = RSSFolder.list();
+
+        if (list == null) {
+            return false;
+        }
+
+        for (String name : list) {
+            long[] range = parseIndexName(name);
+
+            if (range != null && range[0] <= number && number <= range[1] && getSegment(RSSFolder, name).isFile()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Completes or undoes the compactions interrupted by a crash. The files
+     * merged in a segment that was renamed are deleted, and the index of a
+     * segment that was not renamed is deleted.
+     * */
+    public synchronized void recover() {
+
+        // Builds list the folder and read its files under the writer lock
+        radiomap.lockWriter();
+
+        try {
+            recoverLocked();
+        } finally {
+            radiomap.unlockWriter();
+        }
+    }
+
+    private void recoverLocked() {
+
+        String[] list = RSSFolder.list();
+
+        if (list == null) {
+            return;
+        }
+
+        for (String name : list) {
+
+            long[] range = parseIndexName(name);
+
+            if (range == null) {
+                continue;
+            }
+
+            File segment = getSegment(RSSFolder, name);
+
+            if (!segment.isFile()) {
+                new File(RSSFolder, name).delete();
+                new File(RSSFolder, "." + segment.getName() + ".tmp").delete();
+                continue;
+            }
+
+            for (String merged : list) {
+                long[] merged_range = parseLogName(merged);
+
+                if (merged_range != null && !merged.equals(segment.getName()) && range[0] <= merged_range[0] && merged_range[1] <= range[1]) {
+                    delete(new File(RSSFolder, merged));
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges the small uploaded RSS log files and segments into segments,
+     * if there are enough of them
+     *
+     * @return
+     *            the number of files merged
+     * */
+    public synchronized int compact() {
+
+        recover();
+
+        String[] list = RSSFolder.list();
+
+        if (list == null) {
+            return 0;
+        }
+
+        TreeMap<Long, File> Logs = new TreeMap<Long, File>();
+        int candidates = 0;
+
+        for (String name : list) {
+            long[] range = parseLogName(name);
+
+            if (range != null) {
+                File LogFile = new File(RSSFolder, name);
+                Logs.put(range[0], LogFile);
+
+                if (LogFile.length() < segmentBytes / 2) {
+                    candidates++;
+                }
+            }
+        }
+
+        if (candidates < minLogFiles) {
+            return 0;
+        }
+
+        // Small files that are authenticated with consecutive numbers, up to the size of a segment
+        ArrayList<ArrayList<File>> Groups = new ArrayList<ArrayList<File>>();
+        ArrayList<File> Group = new ArrayList<File>();
+        long group_bytes = 0;
+        long next = -1;
+
+        for (Map.Entry<Long, File> entry : Logs.entrySet()) {
+
+            File LogFile = entry.getValue();
+            long[] range = parseLogName(LogFile.getName());
+            long size = LogFile.length();
+            boolean merge = size < segmentBytes / 2 && (range[0] != range[1] || isAuthenticated(LogFile));
+
+            if (!merge || range[0] != next || group_bytes + size > segmentBytes) {
+                Groups.add(Group);
+                Group = new ArrayList<File>();
+                group_bytes = 0;
+            }
+
+            if (merge) {
+                Group.add(LogFile);
+                group_bytes += size;
+                next = range[1] + 1;
+            }
+        }
+        Groups.add(Group);
+
+        int merged = 0;
+        long start = System.currentTimeMillis();
+
+        for (ArrayList<File> LogFiles : Groups) {
+
+            if (LogFiles.size() < 2) {
+                continue;
+            }
+
+            try {
+                writeSegment(LogFiles);
+                merged += LogFiles.size();
+            } catch (IOException e) {
+                System.err.println("Error while compacting RSS log files of " + RSSFolder.getAbsolutePath() + ": " + e.getMessage());
+            }
+        }
+
+        if (merged > 0) {
+            System.out.println("Compacted " + merged + " RSS log files of " + RSSFolder.getAbsolutePath() + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return merged;
+    }
+
+    /**
+     * Writes a segment of RSS log files and its index, and deletes the files
+     *
+     * @param LogFiles
+     *            the uploaded RSS log files and segments, in number order
+     * */
+    private void writeSegment(ArrayList<File> LogFiles) throws IOException {
+
+        long first = parseLogName(LogFiles.get(0).getName())[0];
+        long last = parseLogName(LogFiles.get(LogFiles.size() - 1).getName())[1];
+        String name = "rsslog" + first + "-" + last;
+        File segment = new File(RSSFolder, name + ".txt");
+        File index = new File(RSSFolder, name + ".idx");
+        File segment_temp = new File(RSSFolder, "." + segment.getName() + ".tmp");
+        File index_temp = new File(RSSFolder, "." + index.getName() + ".tmp");
+        StringBuilder Index = new StringBuilder("# Log\tOffset\tLength\tCRC32\n");
+        long offset = 0;
+
+        FileOutputStream fos = new FileOutputStream(segment_temp, false);
+
+        try {
+            for (File LogFile : LogFiles) {
+
+                byte[] bytes = Files.readAllBytes(LogFile.toPath());
+                ArrayList<String[]> Entries = readIndex(LogFile);
+
+                if (Entries == null) {
+                    CRC32 crc = new CRC32();
+                    crc.update(bytes);
+                    Entries = new ArrayList<String[]>();
+                    Entries.add(new String[]{LogFile.getName(), "0", Integer.toString(bytes.length), Long.toHexString(crc.getValue())});
+                }
+
+                for (String[] entry : Entries) {
+                    Index.append(entry[0]).append('\t').append(offset + Long.parseLong(entry[1])).append('\t').append(entry[2]).append('\t').append(entry[3]).append('\n');
+                }
+
+                fos.write(bytes);
+                offset += bytes.length;
+
+                // The next file starts on a new line
+                if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') {
+                    fos.write('\n');
+                    offset++;
+                }
+            }
+            fos.getFD().sync();
+        } catch (IOException e) {
+            fos.close();
+            segment_temp.delete();
+            throw e;
+        } catch (NumberFormatException e) {
+            fos.close();
+            segment_temp.delete();
+            throw new IOException("Corrupted index of a segment.");
+        }
+        fos.close();
+
+        fos = new FileOutputStream(index_temp, false);
+
+        try {
+            fos.write(Index.toString().getBytes("UTF-8"));
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        // A build that listed the folder reads the files merged after they are deleted, unless it holds the writer lock
+        radiomap.lockWriter();
+
+        try {
+            // The index is renamed first, so the files merged are deleted by recover once the segment is renamed
+            Files.move(index_temp.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(segment_temp.toPath(), segment.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            for (File LogFile : LogFiles) {
+                delete(LogFile);
+            }
+        } catch (IOException e) {
+            index_temp.delete();
+            segment_temp.delete();
+            throw e;
+        } finally {
+            radiomap.unlockWriter();
+        }
+    }
+
+    /**
+     * Reads the index of a segment
+     *
+     * @return
+     *            the log, offset, length and CRC32 of every upload, or null if
+     *            the file is not a segment or its index can not be read
+     * */
+    private ArrayList<String[]> readIndex(File segment) {
+
+        long[] range = parseLogName(segment.getName());
+
+        if (range == null || range[0] == range[1]) {
+            return null;
+        }
+
+        File index = new File(RSSFolder, "rsslog" + range[0] + "-" + range[1] + ".idx");
+        ArrayList<String[]> Entries = new ArrayList<String[]>();
+        BufferedReader reader = null;
+
+        try {
+            reader = new BufferedReader(new FileReader(index));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.startsWith("#") || line.isEmpty()) {
+                    continue;
+                }
+
+                String[] entry = line.split("\t");
+
+                if (entry.length != 4) {
+                    return null;
+                }
+                Entries.add(entry);
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    System.err.println("Error while closing index " + index.getAbsolutePath() + ": " + e.getMessage());
+                }
+            }
+        }
+        return Entries.isEmpty() ? null : Entries;
+    }
+
+    /**
+     * Authenticates an uploaded RSS log file, unless it was rejected and not modified since
+     * */
+    private boolean isAuthenticated(File LogFile) {
+
+        Long modified = Rejected.get(LogFile.getName());
+
+        if (modified != null && modified == LogFile.lastModified()) {
+            return false;
+        }
+
+        if (radiomap.authenticateLogFile(LogFile)) {
+            Rejected.remove(LogFile.getName());
+            return true;
+        }
+
+        Rejected.put(LogFile.getName(), LogFile.lastModified());
+        return false;
+    }
+
+    private static long[] parseIndexName(String name) {
+
+        Matcher matcher = INDEX_NAME.matcher(name);
+
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        try {
+            return new long[]{Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2))};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static File getSegment(File RSSFolder, String index_name) {
+        return new File(RSSFolder, index_name.substring(0, index_name.length() - ".idx".length()) + ".txt");
+    }
+
+    /**
+     * Deletes an uploaded RSS log file, or a segment with its index
+     * */
+    private void delete(File LogFile) {
+
+        long[] range = parseLogName(LogFile.getName());
+
+        LogFile.delete();
+
+        if (range != null && range[0] != range[1]) {
+            new File(RSSFolder, "rsslog" + range[0] + "-" + range[1] + ".idx").delete();
+        }
+    }
+}
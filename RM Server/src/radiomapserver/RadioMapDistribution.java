@@ -0,0 +1,220 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ *
+ * The files of a radio map distributed to clients, and the radio map in
+ * memory the uploaded RSS log files are added to. Clients are sent the
+ * latest published version of the radio map mean and parameters, or the
+ * files written next to the radio map if no version is published.
+ */
+public class RadioMapDistribution {
+
+    private final File filename;
+    private final File parameters_file;
+    private final File RSSFolder;
+    // Radio map in memory the uploaded RSS log files are added to, or null
+    private final RadioMapIngestor ingestor;
+    // Version of the radio map served to new connections, or null if none is opened
+    private final AtomicReference<RadioMapSnapshot> current = new AtomicReference<RadioMapSnapshot>();
+    private boolean stopped = false;
+
+    /**
+     * Constructor of the distribution
+     *
+     * @param filename
+     *            the radio map mean file
+     *
+     * @param RSSFolder
+     *            the folder to store uploaded RSS log files
+     *
+     * @param ingestor
+     *            the radio map in memory to add the RSS files to, or null
+     * */
+    public RadioMapDistribution(File filename, File RSSFolder, RadioMapIngestor ingestor) {
+        this.filename = filename;
+        this.parameters_file = new File(filename.getAbsolutePath().replace("-mean.txt", "-parameters.txt"));
+        this.RSSFolder = RSSFolder;
+        this.ingestor = ingestor;
+    }
+
+    /**
+     * Writes the uploads committed before a crash to the RSS folder, and
+     * creates the radio map in memory, if any
+     *
+     * @return
+     *            true if there is no radio map in memory or it is created, otherwise false
+     * */
+    public boolean start() {
+
+        if (RSSFolder.isDirectory()) {
+            RadioMapUploadLog.open(RSSFolder);
+        }
+        return ingestor == null || ingestor.start();
+    }
+
+    /**
+     * Writes the samples not written yet of the radio map in memory, and
+     * releases the version served. The files of the version are kept while
+     * it is the latest, or sent by connections.
+     * */
+    public void stop() {
+
+        if (ingestor != null) {
+            ingestor.stop();
+        }
+
+        RadioMapSnapshot previous;
+
+        synchronized (this) {
+            stopped = true;
+            previous = current.getAndSet(null);
+        }
+
+        if (previous != null) {
+            previous.release();
+        }
+    }
+
+    /**
+     * Acquires the latest published version of the radio map for a new
+     * connection. Connections to previous versions keep their files until
+     * they end.
+     *
+     * @return
+     *            the version acquired, to be released by the connection, or null if none is published
+     * */
+    public RadioMapSnapshot acquireSnapshot() {
+
+        int version = RadioMapSnapshot.readCurrentVersion(filename);
+        RadioMapSnapshot snapshot = current.get();
+
+        // Connections of a stopped radio map are sent the latest version, not kept as served
+        if (version != -1 && (snapshot == null || snapshot.getVersion() != version) && !switchSnapshot(version)) {
+            return RadioMapSnapshot.open(filename, version);
+        }
+
+        while ((snapshot = current.get()) != null) {
+            if (snapshot.acquire()) {
+                return snapshot;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Serves a new version to new connections
+     *
+     * @param version
+     *            the version
+     *
+     * @return
+     *            false if the radio map is stopped, otherwise true
+     * */
+    private synchronized boolean switchSnapshot(int version) {
+
+        RadioMapSnapshot previous = current.get();
+
+        if (stopped) {
+            return false;
+        }
+
+        if (previous != null && previous.getVersion() == version) {
+            return true;
+        }
+
+        RadioMapSnapshot latest = RadioMapSnapshot.open(filename, version);
+
+        if (latest == null) {
+            return true;
+        }
+
+        current.set(latest);
+
+        if (previous != null) {
+            previous.release();
+        }
+        // Versions opened are deleted when released, the rest are not sent by anyone
+        RadioMapSnapshot.deleteOlder(filename, version);
+        System.out.println("Serving " + filename.getPath() + " version " + version);
+        return true;
+    }
+
+    /**
+     * Getter of the radio map mean file
+     *
+     * @return
+     *            the radio map mean file written next to the radio map
+     * */
+    public File getFilename() {
+        return filename;
+    }
+
+    /**
+     * Getter of the parameters file
+     *
+     * @return
+     *            the parameters file written next to the radio map
+     * */
+    public File getParametersFile() {
+        return parameters_file;
+    }
+
+    /**
+     * Getter of the folder of RSS log files
+     *
+     * @return
+     *            the folder to store uploaded RSS log files
+     * */
+    public File getRSSFolder() {
+        return RSSFolder;
+    }
+
+    /**
+     * Getter of the radio map in memory
+     *
+     * @return
+     *            the radio map in memory, or null
+     * */
+    public RadioMapIngestor getIngestor() {
+        return ingestor;
+    }
+}
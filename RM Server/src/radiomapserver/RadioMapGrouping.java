@@ -0,0 +1,409 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *
+ * Grouping of the MAC addresses broadcast by the same access point into a
+ * single virtual access point. Many access points broadcast a BSSID for
+ * every network they serve, which differ only in their last bits and are
+ * received with the same RSS values everywhere.
+ *
+ * MAC addresses with the same prefix are grouped if the mean RSS values of
+ * the locations either is detected in are correlated enough. A virtual access
+ * point is named after the first MAC address of its group, and in every
+ * location takes the samples of its strongest MAC address, the one with the
+ * highest mean RSS value.
+ */
+public class RadioMapGrouping {
+
+    private int prefixLength = 44;
+    private double minCorrelation = 0.9;
+    // Result of the last grouping, MAC addresses of every virtual access point
+    private int MacAddress_num = 0;
+    private ArrayList<long[]> Groups = new ArrayList<long[]>();
+
+    /**
+     * Sets the number of leading bits the MAC addresses of a group share
+     *
+     * @param prefixLength
+     *            the number of bits, from 0 to 48
+     * */
+    public void setPrefixLength(int prefixLength) {
+        this.prefixLength = prefixLength;
+    }
+
+    /**
+     * Sets the minimum correlation of the mean RSS values of two MAC addresses
+     * of a group
+     *
+     * @param minCorrelation
+     *            the Pearson correlation, from -1 to 1
+     * */
+    public void setMinCorrelation(double minCorrelation) {
+        this.minCorrelation = minCorrelation;
+    }
+
+    /**
+     * Getter of the file the groups are written next to a radio map mean
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the groups file, named as the mean with "-groups.txt"
+     * */
+    public static File getGroupsFile(File meanFile) {
+        String name = meanFile.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot != -1) {
+            name = name.substring(0, dot);
+        }
+        return new File(meanFile.getParentFile(), name + "-groups.txt");
+    }
+
+    /**
+     * Groups the MAC addresses of a radio map
+     *
+     * @param Aggregate
+     *            the samples grouped by location and MAC address
+     *
+     * @param defaultNaNValue
+     *            the NaN value of samples not recorded
+     *
+     * @return
+     *            a view of Aggregate with a virtual access point for every
+     *            group, in the order of their first MAC address, or Aggregate
+     *            if no MAC addresses are grouped
+     * */
+    public RadioMapAggregate group(RadioMapAggregate Aggregate, int defaultNaNValue) {
+
+        int Location_num = Aggregate.getLocationCount();
+
+        MacAddress_num = Aggregate.getMacAddressCount();
+        Groups.clear();
+
+        // MAC addresses with the same prefix, by the order read
+        HashMap<Long, ArrayList<Integer>> Prefixes = new HashMap<Long, ArrayList<Integer>>();
+        int shift = 48 - Math.max(0, Math.min(48, prefixLength));
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+            Long prefix = Aggregate.getPackedMacAddress(m) >>> shift;
+            ArrayList<Integer> Candidates = Prefixes.get(prefix);
+
+            if (Candidates == null) {
+                Candidates = new ArrayList<Integer>();
+                Prefixes.put(prefix, Candidates);
+            }
+            Candidates.add(m);
+        }
+
+        int[] Virtual = new int[MacAddress_num];
+        ArrayList<int[]> Members = new ArrayList<int[]>();
+        float[][] Means = new float[MacAddress_num][];
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+
+            ArrayList<Integer> Candidates = Prefixes.get(Aggregate.getPackedMacAddress(m) >>> shift);
+
+            Virtual[m] = -1;
+
+            if (Candidates.size() > 1) {
+                Means[m] = calculateMeans(Aggregate, m, defaultNaNValue);
+
+                // Join the first group of the prefix its first MAC address correlates with
+                for (int c = 0; c < Candidates.size() && Candidates.get(c) < m; ++c) {
+                    int first = Candidates.get(c);
+
+                    if (Members.get(Virtual[first])[0] == first && correlation(Means[first], Means[m], defaultNaNValue) >= minCorrelation) {
+                        int[] Group = Members.get(Virtual[first]);
+                        Group = Arrays.copyOf(Group, Group.length + 1);
+                        Group[Group.length - 1] = m;
+                        Members.set(Virtual[first], Group);
+                        Virtual[m] = Virtual[first];
+                        break;
+                    }
+                }
+            }
+
+            if (Virtual[m] == -1) {
+                Virtual[m] = Members.size();
+                Members.add(new int[]{m});
+            }
+        }
+
+        for (int[] Group : Members) {
+            if (Group.length > 1) {
+                long[] MacAddresses = new long[Group.length];
+
+                for (int i = 0; i < Group.length; ++i) {
+                    MacAddresses[i] = Aggregate.getPackedMacAddress(Group[i]);
+                }
+                Groups.add(MacAddresses);
+            }
+        }
+
+        if (Members.size() == MacAddress_num) {
+            return Aggregate;
+        }
+        return new GroupedRadioMapAggregate(Aggregate, Members.toArray(new int[Members.size()][]), defaultNaNValue);
+    }
+
+    /**
+     * Getter of the report of the last grouping
+     *
+     * @return
+     *            the number of MAC addresses and virtual access points
+     * */
+    public String getReport() {
+
+        int grouped_num = 0;
+
+        for (long[] Group : Groups) {
+            grouped_num += Group.length;
+        }
+
+        int virtual_num = MacAddress_num - grouped_num + Groups.size();
+        String report = "MAC Addresses: " + MacAddress_num + " Virtual access points: " + virtual_num;
+
+        if (MacAddress_num > 0) {
+            report += " Dimensionality reduction: " + Math.round(1000.0 * (MacAddress_num - virtual_num) / MacAddress_num) / 10.0 + "%";
+        }
+
+        report += "\nGroups of MAC Addresses with prefix length " + prefixLength + " and correlation >= " + minCorrelation + ": " + Groups.size();
+        return report;
+    }
+
+    /**
+     * Getter of the groups of the last grouping, as written to the groups file
+     *
+     * @return
+     *            a header line and a line for every group of more than one MAC
+     *            address, the virtual access point first
+     * */
+    public String getGroups() {
+
+        StringBuilder groups = new StringBuilder("# Virtual access point, MAC Addresses\n");
+
+        for (long[] Group : Groups) {
+            for (int i = 0; i < Group.length; ++i) {
+                if (i > 0) {
+                    groups.append(", ");
+                }
+                groups.append(MacAddress.toString(Group[i]));
+            }
+            groups.append('\n');
+        }
+        return groups.toString();
+    }
+
+    /**
+     * Calculates the mean RSS values of a MAC address in every location, as
+     * written to the radio map mean
+     * */
+    private static float[] calculateMeans(RadioMapAggregate Aggregate, int MacAddress, int defaultNaNValue) {
+
+        float[] Means = new float[Aggregate.getLocationCount()];
+
+        for (int l = 0; l < Means.length; ++l) {
+            Means[l] = calculateMean(Aggregate, Aggregate.findCell(l, MacAddress), Aggregate.getMaxSampleCount(l), defaultNaNValue);
+        }
+        return Means;
+    }
+
+    private static float calculateMean(RadioMapAggregate Aggregate, int cell, int max, int defaultNaNValue) {
+
+        if (cell == -1) {
+            return defaultNaNValue;
+        }
+        return (Aggregate.getSampleSum(cell) + (float) (max - Aggregate.getSampleCount(cell)) * defaultNaNValue) / max;
+    }
+
+    /**
+     * Calculates the Pearson correlation of the mean RSS values of two MAC
+     * addresses, in the locations either is detected in
+     *
+     * @return
+     *            the correlation, or -1 if it is not defined
+     * */
+    private static double correlation(float[] x, float[] y, int defaultNaNValue) {
+
+        int n = 0;
+        double sum_x = 0, sum_y = 0, sum_xx = 0, sum_yy = 0, sum_xy = 0;
+
+        for (int l = 0; l < x.length; ++l) {
+            if (x[l] == defaultNaNValue && y[l] == defaultNaNValue) {
+                continue;
+            }
+            n++;
+            sum_x += x[l];
+            sum_y += y[l];
+            sum_xx += (double) x[l] * x[l];
+            sum_yy += (double) y[l] * y[l];
+            sum_xy += (double) x[l] * y[l];
+        }
+
+        double var_x = sum_xx - sum_x * sum_x / n;
+        double var_y = sum_yy - sum_y * sum_y / n;
+
+        if (n < 2 || var_x <= 0 || var_y <= 0) {
+            return -1;
+        }
+        return (sum_xy - sum_x * sum_y / n) / Math.sqrt(var_x * var_y);
+    }
+
+    /**
+     * Read only view of an aggregate with a virtual access point for every
+     * group of MAC addresses. The cells of a virtual access point are the
+     * cells of its strongest MAC address in every location.
+     */
+    private static class GroupedRadioMapAggregate implements RadioMapAggregate {
+
+        private final RadioMapAggregate Aggregate;
+        private final int[][] Members;
+        // Index of every virtual access point among those of more than one MAC address, or -1
+        private final int[] GroupIds;
+        // Cell of every location and virtual access point of more than one MAC address
+        private final int[] GroupCells;
+        private final int Group_num;
+
+        GroupedRadioMapAggregate(RadioMapAggregate Aggregate, int[][] Members, int defaultNaNValue) {
+            this.Aggregate = Aggregate;
+            this.Members = Members;
+            this.GroupIds = new int[Members.length];
+
+            int groups = 0;
+
+            for (int v = 0; v < Members.length; ++v) {
+                GroupIds[v] = Members[v].length > 1 ? groups++ : -1;
+            }
+
+            this.Group_num = groups;
+            this.GroupCells = new int[Aggregate.getLocationCount() * groups];
+
+            for (int l = 0; l < Aggregate.getLocationCount(); ++l) {
+
+                int max = Aggregate.getMaxSampleCount(l);
+
+                for (int v = 0; v < Members.length; ++v) {
+
+                    if (GroupIds[v] == -1) {
+                        continue;
+                    }
+
+                    int strongest = -1;
+                    float strongest_mean = 0;
+
+                    for (int m : Members[v]) {
+                        int cell = Aggregate.findCell(l, m);
+
+                        if (cell != -1) {
+                            float mean = calculateMean(Aggregate, cell, max, defaultNaNValue);
+
+                            if (strongest == -1 || mean > strongest_mean) {
+                                strongest = cell;
+                                strongest_mean = mean;
+                            }
+                        }
+                    }
+                    GroupCells[l * groups + GroupIds[v]] = strongest;
+                }
+            }
+        }
+
+        public void add(String location, long packedMacAddress, int RSS_Value) {
+            throw new UnsupportedOperationException("Grouped radio map is read only.");
+        }
+
+        public boolean isEmpty() {
+            return Aggregate.isEmpty();
+        }
+
+        public int getLocationCount() {
+            return Aggregate.getLocationCount();
+        }
+
+        public String getLocation(int location) {
+            return Aggregate.getLocation(location);
+        }
+
+        public int getMacAddressCount() {
+            return Members.length;
+        }
+
+        public String getMacAddress(int MacAddress) {
+            return Aggregate.getMacAddress(Members[MacAddress][0]);
+        }
+
+        public long getPackedMacAddress(int MacAddress) {
+            return Aggregate.getPackedMacAddress(Members[MacAddress][0]);
+        }
+
+        public int findCell(int location, int MacAddress) {
+            if (GroupIds[MacAddress] == -1) {
+                return Aggregate.findCell(location, Members[MacAddress][0]);
+            }
+            return GroupCells[location * Group_num + GroupIds[MacAddress]];
+        }
+
+        public long getCellMacAddress(int cell) {
+            return Aggregate.getCellMacAddress(cell);
+        }
+
+        public int getSampleCount(int cell) {
+            return Aggregate.getSampleCount(cell);
+        }
+
+        public long getSampleSum(int cell) {
+            return Aggregate.getSampleSum(cell);
+        }
+
+        public double getVariance(int cell) {
+            return Aggregate.getVariance(cell);
+        }
+
+        public int getMaxSampleCount(int location) {
+            return Aggregate.getMaxSampleCount(location);
+        }
+    }
+}
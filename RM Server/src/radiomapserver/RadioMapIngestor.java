@@ -0,0 +1,350 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Keeps the RSS samples of a radio map in memory while the server runs, and
+ * adds every uploaded RSS log to them as soon as it is received. The radio
+ * map, its mean and parameters are written again on a schedule, or as soon
+ * as enough new samples are added, instead of parsing all RSS log files again.
+ * The small RSS log files uploaded are merged into segments on a schedule.
+ * Uploads are parsed and queued without waiting for the radio map to be
+ * written, and the queued samples are added to it only when it is published.
+ */
+public class RadioMapIngestor {
+
+    private final RadioMap radiomap;
+    private final String testData;
+    private final RadioMapCompactor compactor;
+    private long publishInterval = 10000;
+    private long compactInterval = 60000;
+    private long publishSamples = 10000;
+    // Samples added since the radio map was last written
+    private long pendingSamples = 0;
+    // RSS logs uploaded since the radio map was last written
+    private ArrayList<RadioMapStore> PendingLogs = new ArrayList<RadioMapStore>();
+    // RSS logs uploaded before the radio map is loaded, by file, as the load may read them too
+    private LinkedHashMap<String, RadioMapStore> StartingLogs = new LinkedHashMap<String, RadioMapStore>();
+    // Held while the radio map in memory is loaded, written or published
+    private final Object publishLock = new Object();
+    private ScheduledExecutorService scheduler = null;
+    private boolean stopped = false;
+    private final Runnable publishTask = new Runnable() {
+
+        public void run() {
+            publish();
+        }
+    };
+    private final Runnable compactTask = new Runnable() {
+
+        public void run() {
+            compactor.compact();
+        }
+    };
+
+    /**
+     * Constructor of the RadioMapIngestor class
+     *
+     * @param radiomap
+     *            the radio map to keep in memory, that must not be a
+     *            streaming or external build
+     *
+     * @param testData
+     *            the test data file to calculate the parameters with, or
+     *            null to write only the radio map
+     * */
+    public RadioMapIngestor(RadioMap radiomap, String testData) {
+        this.radiomap = radiomap;
+        this.testData = testData;
+        this.compactor = new RadioMapCompactor(radiomap, radiomap.getRSSFolder());
+    }
+
+    /**
+     * Sets how often the radio map is written if new samples were added
+     *
+     * @param publishInterval
+     *            the interval in milliseconds
+     * */
+    public void setPublishInterval(long publishInterval) {
+        this.publishInterval = publishInterval;
+    }
+
+    /**
+     * Sets how many new samples make the radio map be written at once
+     *
+     * @param publishSamples
+     *            the number of samples
+     * */
+    public void setPublishSamples(long publishSamples) {
+        this.publishSamples = publishSamples;
+    }
+
+    /**
+     * Sets how often the small RSS log files uploaded are merged into segments
+     *
+     * @param compactInterval
+     *            the interval in milliseconds
+     * */
+    public void setCompactInterval(long compactInterval) {
+        this.compactInterval = compactInterval;
+    }
+
+    /**
+     * Getter of the compactor of the RSS log files uploaded
+     *
+     * @return
+     *            the compactor, to set how the files are merged
+     * */
+    public RadioMapCompactor getCompactor() {
+        return compactor;
+    }
+
+    /**
+     * Loads the radio map from the RSS folder, and starts writing it on
+     * schedule. The radio map is written and published at once only if RSS
+     * log files are new, changed or removed since the current version.
+     *
+     * @return
+     *            true if radio map constructed and wrote to disk successfully, otherwise false
+     * */
+    public boolean start() {
+
+        synchronized (publishLock) {
+
+            synchronized (this) {
+                if (scheduler != null || stopped) {
+                    return scheduler != null;
+                }
+            }
+
+            // Segments of a compaction interrupted by a crash would be read twice
+            compactor.recover();
+
+            boolean created;
+            radiomap.lockWriter();
+
+            try {
+                boolean current = radiomap.isSnapshotCurrent();
+                created = radiomap.loadRadioMap();
+
+                synchronized (this) {
+                    for (Map.Entry<String, RadioMapStore> Log : StartingLogs.entrySet()) {
+                        if (!radiomap.isLoadedLogFile(new File(Log.getKey()))) {
+                            PendingLogs.add(Log.getValue());
+                            pendingSamples += Log.getValue().getTotalSampleCount();
+                        }
+                    }
+                    StartingLogs = null;
+                }
+
+                if (!created) {
+                    System.err.println("Error while loading radio map.");
+                } else if (!current || radiomap.getChangedLogFileCount() != 0) {
+                    created = radiomap.writeRadioMap() && writeParameters() && radiomap.publishSnapshot() != -1;
+                }
+            } finally {
+                radiomap.unlockWriter();
+            }
+
+            synchronized (this) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "RadioMapIngestor");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+                scheduler.scheduleWithFixedDelay(publishTask, publishInterval, publishInterval, TimeUnit.MILLISECONDS);
+                scheduler.scheduleWithFixedDelay(compactTask, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+            }
+            return created;
+        }
+    }
+
+    /**
+     * Stops writing the radio map on schedule, and writes the samples not
+     * written yet. RSS logs uploaded after are not added, and are read from
+     * the RSS folder when the radio map is loaded again.
+     * */
+    public void stop() {
+
+        ScheduledExecutorService scheduled;
+
+        synchronized (this) {
+            scheduled = scheduler;
+            scheduler = null;
+            stopped = true;
+        }
+
+        if (scheduled != null) {
+            scheduled.shutdown();
+            try {
+                scheduled.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Adds an uploaded RSS log to the samples waiting to be written. The
+     * radio map is written at once if enough samples are waiting.
+     *
+     * @param logFile
+     *            the RSS log file uploaded
+     *
+     * @return
+     *            true if the RSS log is added, or false if it is not
+     *            authenticated or the radio map is stopped
+     * */
+    public boolean addLogFile(File logFile) {
+
+        synchronized (this) {
+            if (stopped) {
+                return false;
+            }
+        }
+
+        // Parsed before locking, so that uploads do not wait for each other
+        RadioMapStore FileRadioMap = radiomap.parseUploadedLogFile(logFile);
+
+        if (FileRadioMap == null) {
+            return false;
+        }
+
+        synchronized (this) {
+            if (stopped) {
+                return false;
+            }
+
+            if (StartingLogs != null) {
+                StartingLogs.put(logFile.getAbsolutePath(), FileRadioMap);
+                return true;
+            }
+
+            PendingLogs.add(FileRadioMap);
+            pendingSamples += FileRadioMap.getTotalSampleCount();
+
+            if (pendingSamples < publishSamples || scheduler == null) {
+                return true;
+            }
+            scheduler.execute(publishTask);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the radio map, its mean and parameters if samples were added
+     * since they were last written, and publishes them as a new version.
+     * Uploads are not blocked while the radio map is written.
+     *
+     * @return
+     *            true if nothing to write or written successfully, otherwise false
+     * */
+    public boolean publish() {
+
+        synchronized (publishLock) {
+
+            ArrayList<RadioMapStore> Logs;
+            long samples;
+
+            synchronized (this) {
+                if (pendingSamples == 0 || StartingLogs != null) {
+                    return true;
+                }
+
+                Logs = PendingLogs;
+                samples = pendingSamples;
+                PendingLogs = new ArrayList<RadioMapStore>();
+                pendingSamples = 0;
+            }
+
+            long start = System.currentTimeMillis();
+            boolean published;
+
+            for (RadioMapStore FileRadioMap : Logs) {
+                radiomap.addLogFile(FileRadioMap);
+            }
+
+            radiomap.lockWriter();
+            try {
+                published = radiomap.writeRadioMap() && writeParameters() && radiomap.publishSnapshot() != -1;
+            } finally {
+                radiomap.unlockWriter();
+            }
+
+            if (!published) {
+                System.err.println("Error while publishing radio map with " + samples + " new samples.");
+
+                // The samples are in the radio map already, so it is written again next time
+                synchronized (this) {
+                    pendingSamples += samples;
+                }
+                return false;
+            }
+
+            System.out.println("Published radio map with " + samples + " new samples in " + (System.currentTimeMillis() - start) + "ms");
+            return true;
+        }
+    }
+
+    /**
+     * Getter of the number of samples added since the radio map was last written
+     *
+     * @return
+     *            the number of samples
+     * */
+    public synchronized long getPendingSampleCount() {
+        return pendingSamples;
+    }
+
+    private boolean writeParameters() {
+        return testData == null || radiomap.writeParameters(testData);
+    }
+}
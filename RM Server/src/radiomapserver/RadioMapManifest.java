@@ -0,0 +1,464 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Manifest of the RSS log files already ingested to a radio map. For every file
+ * it keeps the size, last modified time, content hash and the partial radio map
+ * the file produced, so an incremental build only parses new or changed files.
+ * The manifest, the partial radio maps and the merged radio map of the last build
+ * are kept in the cache folder next to the radio map files.
+ */
+public class RadioMapManifest {
+
+    private static final String MANIFEST_FILENAME = "manifest.txt";
+    private static final String MERGED_FILENAME = "merged.bin";
+    /** Partial name of files that were rejected as corrupted */
+    public static final String REJECTED = "-";
+    private final File cache_folder;
+    private final LinkedHashMap<String, Entry> Entries;
+    private int next_part = 1;
+    // Identifies the merged radio map that matches this manifest
+    private long merged_id = 0;
+
+    /**
+     * A single ingested RSS log file
+     */
+    public static class Entry {
+
+        private final String path;
+        private final long size;
+        private final long modified;
+        private final long hash;
+        private final String partial;
+
+        Entry(String path, long size, long modified, long hash, String partial) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+            this.hash = hash;
+            this.partial = partial;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        public long getHash() {
+            return hash;
+        }
+
+        public String getPartial() {
+            return partial;
+        }
+
+        public boolean isRejected() {
+            return REJECTED.equals(partial);
+        }
+    }
+
+    /**
+     * Constructor of the RadioMapManifest class
+     *
+     * @param cache_folder
+     *            the folder that holds the manifest and the partial radio maps
+     * */
+    public RadioMapManifest(File cache_folder) {
+        this.cache_folder = cache_folder;
+        this.Entries = new LinkedHashMap<String, Entry>();
+    }
+
+    /**
+     * Getter of the manifest file of a cache folder
+     *
+     * @param cache_folder
+     *            the folder that holds the manifest and the partial radio maps
+     *
+     * @return
+     *            the manifest file, rewritten every time the manifest is saved
+     * */
+    public static File getManifestFile(File cache_folder) {
+        return new File(cache_folder, MANIFEST_FILENAME);
+    }
+
+    /**
+     * Reads the manifest from cache folder. A missing or unreadable manifest
+     * leaves the manifest empty, so that every file is parsed again.
+     *
+     * @return
+     *            true if the manifest was read, otherwise false
+     * */
+    public boolean load() {
+
+        Entries.clear();
+        next_part = 1;
+        merged_id = 0;
+
+        File manifest_file = new File(cache_folder, MANIFEST_FILENAME);
+
+        if (!manifest_file.isFile()) {
+            return false;
+        }
+
+        BufferedReader reader = null;
+
+        try {
+            String line = null;
+            // Written in UTF-8, whatever the platform encoding
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest_file), "UTF-8"));
+
+            while ((line = reader.readLine()) != null) {
+
+                if (line.startsWith("# Merged\t")) {
+                    merged_id = Long.parseLong(line.substring(9), 16);
+                    continue;
+                } // Ignore the labels
+                else if (line.startsWith("#") || line.trim().isEmpty()) {
+                    continue;
+                }
+
+                // Size, Modified, Hash, Partial, Path. Path is last as it may contain tabs
+                String[] temp = line.split("\t", 5);
+
+                if (temp.length != 5) {
+                    throw new Exception("Corrupted manifest line.");
+                }
+
+                Entry entry = new Entry(temp[4], Long.parseLong(temp[0]), Long.parseLong(temp[1]), Long.parseLong(temp[2], 16), temp[3]);
+                Entries.put(entry.getPath(), entry);
+
+                if (temp[3].startsWith("part-") && temp[3].endsWith(".bin")) {
+                    next_part = Math.max(next_part, Integer.parseInt(temp[3].substring(5, temp[3].length() - 4)) + 1);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error while reading manifest " + manifest_file.getAbsolutePath() + ": " + e.getMessage());
+            Entries.clear();
+            return false;
+        } finally {
+            close(reader);
+        }
+        return true;
+    }
+
+    /**
+     * Writes the manifest to cache folder, replacing the old one atomically
+     *
+     * @throws IOException
+     *            if the manifest could not be written
+     * */
+    public void save() throws IOException {
+
+        File manifest_file = new File(cache_folder, MANIFEST_FILENAME);
+        File temp_file = new File(cache_folder, MANIFEST_FILENAME + ".tmp");
+        FileOutputStream fos = new FileOutputStream(temp_file, false);
+
+        try {
+            fos.write(("# Merged\t" + Long.toHexString(merged_id) + "\n").getBytes());
+            fos.write("# Size\tModified\tCRC32\tPartial\tPath\n".getBytes());
+
+            for (Entry entry : Entries.values()) {
+                fos.write((entry.getSize() + "\t" + entry.getModified() + "\t" + Long.toHexString(entry.getHash()) + "\t" + entry.getPartial() + "\t" + entry.getPath() + "\n").getBytes("UTF-8"));
+            }
+        } finally {
+            fos.close();
+        }
+
+        replace(temp_file, manifest_file);
+    }
+
+    /**
+     * Getter of the entry of a file
+     *
+     * @param path
+     *            the absolute path of RSS log file
+     *
+     * @return
+     *            the entry, or null if the file is not ingested
+     * */
+    public Entry get(String path) {
+        return Entries.get(path);
+    }
+
+    /**
+     * Getter of all entries in manifest order
+     *
+     * @return
+     *            the entries
+     * */
+    public ArrayList<Entry> getEntries() {
+        return new ArrayList<Entry>(Entries.values());
+    }
+
+    /**
+     * Records an ingested file and stores its partial radio map
+     *
+     * @param inFile
+     *            the RSS log file
+     *
+     * @param hash
+     *            the content hash of the file
+     *
+     * @param FileRadioMap
+     *            the partial radio map of the file, or null if it was rejected
+     *
+     * @throws IOException
+     *            if the partial radio map could not be written
+     * */
+    public void put(File inFile, long hash, RadioMapStore FileRadioMap) throws IOException {
+
+        String partial = REJECTED;
+
+        if (FileRadioMap != null) {
+            partial = "part-" + (next_part++) + ".bin";
+            writeStore(new File(cache_folder, partial), FileRadioMap);
+        }
+
+        remove(inFile.getAbsolutePath());
+        Entry entry = new Entry(inFile.getAbsolutePath(), inFile.length(), inFile.lastModified(), hash, partial);
+        Entries.put(entry.getPath(), entry);
+    }
+
+    /**
+     * Records that an ingested file is touched without changing its content
+     *
+     * @param inFile
+     *            the RSS log file
+     * */
+    public void touch(File inFile) {
+
+        Entry old = Entries.get(inFile.getAbsolutePath());
+
+        if (old != null) {
+            Entries.put(old.getPath(), new Entry(old.getPath(), inFile.length(), inFile.lastModified(), old.getHash(), old.getPartial()));
+        }
+    }
+
+    /**
+     * Forgets a file and deletes its partial radio map
+     *
+     * @param path
+     *            the absolute path of RSS log file
+     * */
+    public void remove(String path) {
+
+        Entry old = Entries.remove(path);
+
+        if (old != null && !old.isRejected()) {
+            new File(cache_folder, old.getPartial()).delete();
+        }
+    }
+
+    /**
+     * Reads the partial radio map of a file
+     *
+     * @param entry
+     *            the entry of the file
+     *
+     * @return
+     *            the partial radio map, or null if the file was rejected
+     *
+     * @throws IOException
+     *            if the partial radio map is missing or corrupted
+     * */
+    public RadioMapStore readPartial(Entry entry) throws IOException {
+
+        if (entry.isRejected()) {
+            return null;
+        }
+        return readStore(new File(cache_folder, entry.getPartial()));
+    }
+
+    /**
+     * Reads the merged radio map of the last build. The merged radio map holds
+     * the partial radio maps of all entries of the manifest.
+     *
+     * @return
+     *            the merged radio map, or null if it does not exist or does not match the manifest
+     * */
+    public RadioMapStore readMerged() {
+
+        File merged_file = new File(cache_folder, MERGED_FILENAME);
+
+        if (merged_id == 0 || !merged_file.isFile()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(merged_file), 64 * 1024));
+
+            if (in.readLong() != merged_id) {
+                return null;
+            }
+            return RadioMapStore.read(in);
+        } catch (IOException e) {
+            System.err.println("Error while reading merged radio map: " + e.getMessage());
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    System.err.println("Error while closing merged radio map: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the merged radio map of this build. It is used by the next build
+     * only after the manifest is saved.
+     *
+     * @param RadioMap
+     *            the merged radio map
+     *
+     * @throws IOException
+     *            if the merged radio map could not be written
+     * */
+    public void writeMerged(RadioMapStore RadioMap) throws IOException {
+
+        File temp_file = new File(cache_folder, MERGED_FILENAME + ".tmp");
+        long id = System.nanoTime() | 1L;
+
+        // No merged radio map matches the manifest until this one is written
+        merged_id = 0;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp_file, false), 64 * 1024));
+
+        try {
+            out.writeLong(id);
+            RadioMap.write(out);
+        } finally {
+            out.close();
+        }
+
+        replace(temp_file, new File(cache_folder, MERGED_FILENAME));
+        merged_id = id;
+    }
+
+    /**
+     * Calculates the content hash of a file
+     *
+     * @param inFile
+     *            the file to read
+     *
+     * @return
+     *            the CRC32 of the file content
+     *
+     * @throws IOException
+     *            if the file could not be read
+     * */
+    public static long hash(File inFile) throws IOException {
+
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(inFile);
+
+        try {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return crc.getValue();
+    }
+
+    private static void writeStore(File outFile, RadioMapStore store) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outFile, false), 64 * 1024));
+        try {
+            store.write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static RadioMapStore readStore(File inFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(inFile), 64 * 1024));
+        try {
+            return RadioMapStore.read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static void close(BufferedReader reader) {
+        if (reader != null) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                System.err.println("Error while closing manifest: " + e.getMessage());
+            }
+        }
+    }
+}
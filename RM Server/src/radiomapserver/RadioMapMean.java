@@ -40,25 +40,29 @@ package radiomapserver;
  *
  * @author Silouanos
  */
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class RadioMapMean {
 
     private File RadiomapMean_File = null;
     private ArrayList<String> MacAdressList = null;
-    private HashMap<String, ArrayList<String>> LocationRSS_HashMap = null;
+    private LongIntHashMap MacAddressColumns = null;
     private ArrayList<String> OrderList = null;
+    private FloatBuffer LocationX = null;
+    private FloatBuffer LocationY = null;
+    private FloatBuffer RSS_Values = null;
+    private RadioMapClusters Clusters = null;
     private final boolean isIndoor;
     private final int defaultNaNValue;
 
     public RadioMapMean(boolean isIndoor, int defaultNaNValue) {
         super();
         this.MacAdressList = new ArrayList<String>();
-        this.LocationRSS_HashMap = new HashMap<String, ArrayList<String>>();
+        this.MacAddressColumns = new LongIntHashMap();
         this.OrderList = new ArrayList<String>();
         this.isIndoor = isIndoor;
         this.defaultNaNValue = defaultNaNValue;
@@ -85,13 +89,16 @@ public class RadioMapMean {
     }
 
     /**
-     * Getter of HashMap Location-RSS Values list in no particular order
+     * Finds the column of a MAC address in the radio map
+     *
+     * @param mac
+     *            the packed MAC address
      *
      * @return
-     *            the HashMap Location-RSS Values
+     *            the index of the MAC address in MAC Address list, or -1 if it does not exist
      * */
-    public HashMap<String, ArrayList<String>> getLocationRSS_HashMap() {
-        return LocationRSS_HashMap;
+    public int getMacAddressColumn(long mac) {
+        return MacAddressColumns.get(mac, -1);
     }
 
     /**
@@ -104,6 +111,81 @@ public class RadioMapMean {
         return OrderList;
     }
 
+    /**
+     * Getter of the clusters of the locations
+     *
+     * @return
+     *            the clusters, or null if the locations are not clustered
+     * */
+    public RadioMapClusters getClusters() {
+        return Clusters;
+    }
+
+    /**
+     * Getter of the number of locations
+     *
+     * @return
+     *            the number of locations
+     * */
+    public int getLocationCount() {
+        return OrderList.size();
+    }
+
+    /**
+     * Getter of a location
+     *
+     * @param location
+     *            the index of the location in Location list
+     *
+     * @return
+     *            the location key "X Y"
+     * */
+    public String getLocation(int location) {
+        return OrderList.get(location);
+    }
+
+    /**
+     * Getter of the X or Latitude of a location
+     *
+     * @param location
+     *            the index of the location in Location list
+     *
+     * @return
+     *            the X or Latitude
+     * */
+    public float getLocationX(int location) {
+        return LocationX.get(location);
+    }
+
+    /**
+     * Getter of the Y or Longitude of a location
+     *
+     * @param location
+     *            the index of the location in Location list
+     *
+     * @return
+     *            the Y or Longitude
+     * */
+    public float getLocationY(int location) {
+        return LocationY.get(location);
+    }
+
+    /**
+     * Getter of a mean RSS value
+     *
+     * @param location
+     *            the index of the location in Location list
+     *
+     * @param column
+     *            the index of the MAC address in MAC Address list
+     *
+     * @return
+     *            the mean RSS value, or NaN value if the MAC Address is not heard in the location
+     * */
+    public float getRSS(int location, int column) {
+        return RSS_Values.get(location * MacAdressList.size() + column);
+    }
+
     /**
      * Getter of radio map mean filename
      *
@@ -115,7 +197,8 @@ public class RadioMapMean {
     }
 
     /**
-     * Construct a radio map
+     * Construct a radio map. The binary radio map mean next to the file is
+     * memory mapped instead, if it was written with this file.
      *
      * @param inFile
      *            the radio map file to read
@@ -132,120 +215,288 @@ public class RadioMapMean {
         this.RadiomapMean_File = inFile;
         this.OrderList.clear();
         this.MacAdressList.clear();
-        this.LocationRSS_HashMap.clear();
+        this.MacAddressColumns.clear();
+        this.LocationX = null;
+        this.LocationY = null;
+        this.RSS_Values = null;
+        this.Clusters = null;
 
-        ArrayList<String> RSS_Values = null;
-        BufferedReader reader = null;
-        String line = null;
-        String[] temp = null;
-        String key = null;
+        File binaryFile = RadioMapMeanBinary.getBinaryFile(inFile);
 
-        try {
+        if (binaryFile.exists() && ConstructRadioMapBinary(inFile, binaryFile)) {
+            this.Clusters = RadioMapClusters.read(inFile, this.OrderList.size(), this.MacAdressList.size());
+            return readMacAddressGroups(RadioMapGrouping.getGroupsFile(inFile));
+        }
+
+        this.OrderList.clear();
+        this.MacAdressList.clear();
+        this.MacAddressColumns.clear();
 
-            reader = new BufferedReader(new FileReader(inFile));
+        float[] X = new float[64];
+        float[] Y = new float[64];
+        float[] RSS = new float[1024];
+        int RSS_num = 0;
+        RSSLogTokenizer tokenizer = null;
+        int fields_num = 0;
 
-            // Read the first line
-            line = reader.readLine();
+        try {
 
-            // Must exists
-            if (line == null) {
+            tokenizer = new RSSLogTokenizer(inFile);
+
+            // Read the first line, must exists
+            if (!tokenizer.nextLine()) {
                 return false;
             }
 
-            line = line.replace(", ", " ");
-            temp = line.split(" ");
+            fields_num = tokenizer.split(false);
 
             // Must have more than 3 fields
-            if (temp.length < 4) {
+            if (fields_num < 4) {
                 return false;
             } // Must be # Timestamp, X, Y
-            else if (this.isIndoor && (!temp[1].trim().equalsIgnoreCase("X") || !temp[2].trim().equalsIgnoreCase("Y"))) {
+            else if (this.isIndoor && (!tokenizer.getString(1).trim().equalsIgnoreCase("X") || !tokenizer.getString(2).trim().equalsIgnoreCase("Y"))) {
                 return false;
             } // Must be # Timestamp, Latitude, Longitude
-            else if (!this.isIndoor && (!temp[1].trim().equalsIgnoreCase("Latitude") || !temp[2].trim().equalsIgnoreCase("Longitude"))) {
+            else if (!this.isIndoor && (!tokenizer.getString(1).trim().equalsIgnoreCase("Latitude") || !tokenizer.getString(2).trim().equalsIgnoreCase("Longitude"))) {
                 return false;
             }
 
             // Store all Mac Addresses
-            for (int i = 3; i < temp.length; ++i) {
-                if (!temp[i].matches("[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}:[a-fA-F0-9]{2}")) {
+            for (int i = 3; i < fields_num; ++i) {
+                long mac = tokenizer.parseMacAddress(i);
+                if (mac == MacAddress.INVALID) {
                     return false;
                 }
-                this.MacAdressList.add(temp[i]);
+                this.MacAddressColumns.put(mac, this.MacAdressList.size());
+                this.MacAdressList.add(tokenizer.getString(i));
             }
 
-            while ((line = reader.readLine()) != null) {
+            while (tokenizer.nextLine()) {
 
-                if (line.trim().equals("")) {
+                if (tokenizer.isBlank()) {
                     continue;
                 }
 
-                line = line.replace(", ", " ");
-                temp = line.split(" ");
+                fields_num = tokenizer.split(false);
 
-                if (temp.length < 3) {
+                if (fields_num < 3) {
                     return false;
                 }
 
-                key = temp[0] + " " + temp[1];
+                // Equal number of MAC address and RSS Values
+                if (this.MacAdressList.size() != fields_num - 2) {
+                    return false;
+                }
 
-                RSS_Values = new ArrayList<String>();
+                int location = this.OrderList.size();
 
-                for (int i = 2; i < temp.length; ++i) {
-                    RSS_Values.add(temp[i]);
+                if (location == X.length) {
+                    X = Arrays.copyOf(X, location << 1);
+                    Y = Arrays.copyOf(Y, location << 1);
                 }
+                X[location] = tokenizer.parseFloat(0);
+                Y[location] = tokenizer.parseFloat(1);
 
-                // Equal number of MAC address and RSS Values
-                if (this.MacAdressList.size() != RSS_Values.size()) {
-                    return false;
+                if (RSS.length - RSS_num < fields_num - 2) {
+                    RSS = Arrays.copyOf(RSS, Math.max(RSS.length << 1, RSS_num + fields_num - 2));
                 }
 
-                this.LocationRSS_HashMap.put(key, RSS_Values);
+                for (int i = 2; i < fields_num; ++i) {
+                    RSS[RSS_num++] = tokenizer.parseFloat(i);
+                }
 
-                this.OrderList.add(key);
+                this.OrderList.add(tokenizer.getLocation(0, 1));
             }
-            reader.close();
         } catch (Exception e) {
             System.err.println("Error while constructing RadioMap: " + e.getMessage());
             return false;
         }
+
+        this.LocationX = FloatBuffer.wrap(X, 0, this.OrderList.size()).slice();
+        this.LocationY = FloatBuffer.wrap(Y, 0, this.OrderList.size()).slice();
+        this.RSS_Values = FloatBuffer.wrap(RSS, 0, RSS_num).slice();
+        this.Clusters = RadioMapClusters.read(inFile, this.OrderList.size(), this.MacAdressList.size());
+        return readMacAddressGroups(RadioMapGrouping.getGroupsFile(inFile));
+    }
+
+    /**
+     * Reads the groups of MAC Addresses written next to the radio map mean.
+     * Every MAC Address of a group is matched to the column of its virtual
+     * access point, the first MAC Address of the group.
+     *
+     * @param groupsFile
+     *            the groups file
+     *
+     * @return
+     *            true if there are no groups or they are read successfully, otherwise false
+     * */
+    public boolean readMacAddressGroups(File groupsFile) {
+
+        if (!groupsFile.exists()) {
+            return true;
+        }
+
+        try {
+            RSSLogTokenizer tokenizer = new RSSLogTokenizer(groupsFile);
+
+            while (tokenizer.nextLine()) {
+
+                if (tokenizer.isBlank() || tokenizer.startsWith('#')) {
+                    continue;
+                }
+
+                int fields_num = tokenizer.split(true);
+                int column = this.MacAddressColumns.get(tokenizer.parseMacAddress(0), -1);
+
+                // Virtual access point not in this radio map
+                if (column == -1) {
+                    continue;
+                }
+
+                for (int i = 1; i < fields_num; ++i) {
+                    long mac = tokenizer.parseMacAddress(i);
+
+                    if (mac == MacAddress.INVALID) {
+                        return false;
+                    }
+                    if (this.MacAddressColumns.get(mac, -1) == -1) {
+                        this.MacAddressColumns.put(mac, column);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error while reading MAC Address groups " + groupsFile.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
         return true;
     }
 
-    public String toString() {
-        String str = "MAC Adresses: ";
-        ArrayList<String> temp;
+    /**
+     * Construct a radio map from mean RSS values in memory
+     *
+     * @param Aggregate
+     *            the aggregate that orders the locations and MAC Addresses
+     *
+     * @param RSS_Values
+     *            the mean RSS values, location after location
+     *
+     * @return
+     *            true if radio map constructed successfully, otherwise false
+     * */
+    public boolean ConstructRadioMap(RadioMapCollector Aggregate, FloatBuffer RSS_Values) {
 
+        int Location_num = Aggregate.getLocationCount();
+        float[] X = new float[Location_num];
+        float[] Y = new float[Location_num];
 
-        for (int i = 0; i
-                < MacAdressList.size();
-                ++i) {
-            str += MacAdressList.get(i) + " ";
+        this.RadiomapMean_File = null;
+        this.Clusters = null;
+        this.OrderList.clear();
+        this.MacAdressList.clear();
+        this.MacAddressColumns.clear();
 
+        for (int m = 0; m < Aggregate.getMacAddressCount(); ++m) {
+            this.MacAddressColumns.put(Aggregate.getPackedMacAddress(m), m);
+            this.MacAdressList.add(Aggregate.getMacAddress(m));
+        }
 
+        try {
+            for (int l = 0; l < Location_num; ++l) {
+                String[] coordinates = Aggregate.getLocation(l).split(" ");
+                X[l] = Float.parseFloat(coordinates[0]);
+                Y[l] = Float.parseFloat(coordinates[1]);
+                this.OrderList.add(Aggregate.getLocation(l));
+            }
+        } catch (Exception e) {
+            System.err.println("Error while constructing RadioMap: " + e.getMessage());
+            return false;
         }
 
-        str += "\nLocations\n";
+        this.LocationX = FloatBuffer.wrap(X);
+        this.LocationY = FloatBuffer.wrap(Y);
+        this.RSS_Values = RSS_Values;
+        return true;
+    }
+
+    /**
+     * Construct a radio map from its binary radio map mean. Coordinates and
+     * mean RSS values stay in the mapped file.
+     *
+     * @param inFile
+     *            the radio map mean text file
+     *
+     * @param binaryFile
+     *            the binary radio map mean
+     *
+     * @return
+     *            true if radio map constructed successfully, otherwise false
+     * */
+    private boolean ConstructRadioMapBinary(File inFile, File binaryFile) {
 
+        try {
+            ByteBuffer buffer = RadioMapMeanBinary.map(binaryFile);
 
-        for (String location : LocationRSS_HashMap.keySet()) {
-            str += location + " ";
-            temp = LocationRSS_HashMap.get(location);
+            // Written with another version of the text file
+            if (!RadioMapMeanBinary.matches(buffer, inFile)) {
+                return false;
+            }
 
+            if (this.isIndoor != ((buffer.getInt(8) & RadioMapMeanBinary.FLAG_INDOOR) != 0)) {
+                return false;
+            }
 
-            for (int i = 0; i
-                    < temp.size();
-                    ++i) {
-                str += temp.get(i) + " ";
+            int MacAddress_num = buffer.getInt(32);
+            int Location_num = buffer.getInt(36);
 
+            buffer.position(RadioMapMeanBinary.HEADER_SIZE);
 
+            for (int m = 0; m < MacAddress_num; ++m) {
+                long mac = buffer.getLong();
+                this.MacAddressColumns.put(mac, m);
+                this.MacAdressList.add(MacAddress.toString(mac));
             }
-            str += "\n";
 
+            this.LocationX = floats(buffer, Location_num);
+            this.LocationY = floats(buffer, Location_num);
 
+            RadioMapMeanBinary.readLocations(buffer, Location_num, this.OrderList);
+
+            this.RSS_Values = floats(buffer, Location_num * MacAddress_num);
+        } catch (Exception e) {
+            System.err.println("Error while mapping binary RadioMap " + binaryFile.getAbsolutePath() + ": " + e.getMessage());
+            return false;
         }
+        return true;
+    }
 
-        return str;
+    /**
+     * Views the next floats of a little endian buffer, and skips them
+     * */
+    private static FloatBuffer floats(ByteBuffer buffer, int count) {
+        ByteBuffer view = buffer.slice().order(buffer.order());
+        view.limit(count * 4);
+        buffer.position(buffer.position() + count * 4);
+        return view.asFloatBuffer();
+    }
+
+    public String toString() {
+        String str = "MAC Adresses: ";
+
+        for (int i = 0; i < MacAdressList.size(); ++i) {
+            str += MacAdressList.get(i) + " ";
+        }
 
+        str += "\nLocations\n";
+
+        for (int l = 0; l < OrderList.size(); ++l) {
+            str += OrderList.get(l) + " ";
+
+            for (int i = 0; i < MacAdressList.size(); ++i) {
+                str += getRSS(l, i) + " ";
+            }
+            str += "\n";
+        }
+
+        return str;
     }
 }
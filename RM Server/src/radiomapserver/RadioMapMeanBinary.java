@@ -0,0 +1,277 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+
+/**
+ *
+ * Binary companion of the radio map mean file, e.g. indoor-radiomap-mean.bin.
+ * All values are little endian:
+ *
+ *  int magic, int version, int flags (1 if indoor), int NaN value,
+ *  long length and long modification time of the text mean file it was written with,
+ *  int MAC Addresses count, int locations count,
+ *  long[MAC Addresses] packed MAC Addresses,
+ *  float[locations] X or Latitude, float[locations] Y or Longitude,
+ *  for every location the int length and the UTF-8 bytes of its "X Y" key,
+ *  padding to 4 bytes, float[locations][MAC Addresses] mean RSS values.
+ */
+public class RadioMapMeanBinary {
+
+    public static final int MAGIC = 0x424D4D52;
+    public static final int VERSION = 1;
+    public static final int FLAG_INDOOR = 1;
+    public static final int HEADER_SIZE = 40;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private RadioMapMeanBinary() {
+    }
+
+    /**
+     * Getter of the binary file of a radio map mean file
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the binary file next to it, with .bin extension
+     * */
+    public static File getBinaryFile(File meanFile) {
+        String name = meanFile.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot != -1) {
+            name = name.substring(0, dot);
+        }
+        return new File(meanFile.getParentFile(), name + ".bin");
+    }
+
+    /**
+     * Writes the binary radio map mean. Must be called after the text mean
+     * file is written, so the binary is matched to it.
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param isIndoor
+     *            true if locations are X, Y
+     *
+     * @param defaultNaNValue
+     *            the NaN value
+     *
+     * @param Aggregate
+     *            the aggregate that orders the locations and MAC Addresses
+     *
+     * @param RSS_Values
+     *            the mean RSS values as written to text, location after location
+     *
+     * @throws IOException
+     *            if the file could not be written
+     * */
+    public static void write(File meanFile, boolean isIndoor, int defaultNaNValue, RadioMapCollector Aggregate, FloatBuffer RSS_Values) throws IOException {
+
+        int MacAddress_num = Aggregate.getMacAddressCount();
+        int Location_num = Aggregate.getLocationCount();
+        File binaryFile = getBinaryFile(meanFile);
+        FileOutputStream fos = new FileOutputStream(binaryFile, false);
+        boolean written = false;
+
+        try {
+            FileChannel channel = fos.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long position = HEADER_SIZE;
+
+            buffer.putInt(MAGIC);
+            buffer.putInt(VERSION);
+            buffer.putInt(isIndoor ? FLAG_INDOOR : 0);
+            buffer.putInt(defaultNaNValue);
+            buffer.putLong(meanFile.length());
+            buffer.putLong(meanFile.lastModified());
+            buffer.putInt(MacAddress_num);
+            buffer.putInt(Location_num);
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                buffer = ensure(channel, buffer, 8);
+                buffer.putLong(Aggregate.getPackedMacAddress(m));
+                position += 8;
+            }
+
+            for (int c = 0; c < 2; ++c) {
+                for (int l = 0; l < Location_num; ++l) {
+                    String[] coordinates = Aggregate.getLocation(l).split(" ");
+                    buffer = ensure(channel, buffer, 4);
+                    buffer.putFloat(Float.parseFloat(coordinates[c]));
+                    position += 4;
+                }
+            }
+
+            for (int l = 0; l < Location_num; ++l) {
+                byte[] location = Aggregate.getLocation(l).getBytes(UTF8);
+                buffer = ensure(channel, buffer, 4 + location.length);
+                buffer.putInt(location.length);
+                buffer.put(location);
+                position += 4 + location.length;
+            }
+
+            while (position % 4 != 0) {
+                buffer = ensure(channel, buffer, 1);
+                buffer.put((byte) 0);
+                position++;
+            }
+
+            for (int i = 0; i < Location_num * MacAddress_num; ++i) {
+                buffer = ensure(channel, buffer, 4);
+                buffer.putFloat(RSS_Values.get(i));
+            }
+
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            written = true;
+        } finally {
+            fos.close();
+
+            if (!written) {
+                binaryFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Maps a binary radio map mean to memory
+     *
+     * @param binaryFile
+     *            the binary file
+     *
+     * @return
+     *            the little endian read only buffer of the whole file
+     *
+     * @throws IOException
+     *            if the file could not be mapped
+     * */
+    public static MappedByteBuffer map(File binaryFile) throws IOException {
+
+        FileInputStream fis = new FileInputStream(binaryFile);
+
+        try {
+            FileChannel channel = fis.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            fis.close();
+        }
+    }
+
+    /**
+     * Checks that a mapped binary radio map mean was written with a text mean file
+     *
+     * @param buffer
+     *            the mapped binary file
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            true if the binary file matches the text file, otherwise false
+     * */
+    public static boolean matches(ByteBuffer buffer, File meanFile) {
+        return buffer.capacity() >= HEADER_SIZE
+                && buffer.getInt(0) == MAGIC
+                && buffer.getInt(4) == VERSION
+                && buffer.getLong(16) == meanFile.length()
+                && buffer.getLong(24) == meanFile.lastModified();
+    }
+
+    /**
+     * Reads the location keys of a mapped binary radio map mean
+     *
+     * @param buffer
+     *            the mapped binary file, positioned at the first location key
+     *
+     * @param Location_num
+     *            the number of locations
+     *
+     * @param Locations
+     *            filled with the location keys "X Y"
+     * */
+    public static void readLocations(ByteBuffer buffer, int Location_num, ArrayList<String> Locations) {
+
+        for (int l = 0; l < Location_num; ++l) {
+            byte[] location = new byte[buffer.getInt()];
+            buffer.get(location);
+            Locations.add(new String(location, UTF8));
+        }
+
+        while (buffer.position() % 4 != 0) {
+            buffer.get();
+        }
+    }
+
+    private static ByteBuffer ensure(FileChannel channel, ByteBuffer buffer, int bytes) throws IOException {
+
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+
+        // A single value larger than the buffer
+        if (buffer.remaining() < bytes) {
+            return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return buffer;
+    }
+}
@@ -0,0 +1,559 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * Merging of neighboring locations of the radio map mean with almost the
+ * same mean RSS values. Dense surveys record reference points closer than
+ * positioning can tell apart, which positioning compares one by one without
+ * locating any better.
+ *
+ * Two locations, or groups of already merged locations, are merged if they
+ * are at most a distance apart and the root mean square difference of their
+ * mean RSS values, over the MAC addresses either detects, is at most a
+ * number of dBm. The closest fingerprints are merged first. A merged
+ * location is the centroid of its locations weighted by their number of
+ * samples, and its samples are all their samples, so its mean RSS values are
+ * the weighted mean of theirs. No location of a group is further than the
+ * distance from its centroid. Its key is the centroid with at most six
+ * decimal digits.
+ */
+public class RadioMapMerging {
+
+    private double maxDistance = 1.0;
+    private double maxFingerprintDistance = 2.0;
+    // Result of the last merging
+    private int Location_num = 0;
+    private int kept_num = 0;
+    private int largest_num = 0;
+
+    /**
+     * Sets the maximum distance of the locations merged
+     *
+     * @param maxDistance
+     *            the distance, in the units of the locations, e.g. meters
+     *            indoor or degrees outdoor
+     * */
+    public void setMaxDistance(double maxDistance) {
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * Sets the maximum difference of the mean RSS values of the locations merged
+     *
+     * @param maxFingerprintDistance
+     *            the root mean square difference, in dBm
+     * */
+    public void setMaxFingerprintDistance(double maxFingerprintDistance) {
+        this.maxFingerprintDistance = maxFingerprintDistance;
+    }
+
+    /**
+     * Merges the locations of a radio map
+     *
+     * @param Aggregate
+     *            the samples grouped by location and MAC address
+     *
+     * @param defaultNaNValue
+     *            the NaN value of samples not recorded
+     *
+     * @return
+     *            a view of Aggregate with a location for every group of
+     *            locations merged, in the order of their first location, or
+     *            Aggregate if no locations are merged
+     * */
+    public RadioMapAggregate merge(RadioMapAggregate Aggregate, int defaultNaNValue) {
+
+        int MacAddress_num = Aggregate.getMacAddressCount();
+
+        Location_num = Aggregate.getLocationCount();
+        kept_num = Location_num;
+        largest_num = Location_num > 0 ? 1 : 0;
+
+        double[] X = new double[Location_num];
+        double[] Y = new double[Location_num];
+        double[] Weights = new double[Location_num];
+        double[] Means = new double[Location_num * MacAddress_num];
+        int[][] Members = new int[Location_num][];
+        int[] versions = new int[Location_num];
+
+        for (int l = 0; l < Location_num; ++l) {
+            String[] coordinates = Aggregate.getLocation(l).split(" ");
+            int max = Aggregate.getMaxSampleCount(l);
+
+            try {
+                X[l] = Double.parseDouble(coordinates[0]);
+                Y[l] = Double.parseDouble(coordinates[1]);
+            } catch (RuntimeException e) {
+                // Never merged
+                X[l] = Double.NaN;
+                Y[l] = Double.NaN;
+            }
+
+            Weights[l] = max;
+            Members[l] = new int[]{l};
+
+            // As written to the radio map mean, samples not recorded count as NaN value
+            for (int m = 0; m < MacAddress_num; ++m) {
+                int cell = Aggregate.findCell(l, m);
+                Means[l * MacAddress_num + m] = cell == -1 ? defaultNaNValue : (Aggregate.getSampleSum(cell) + (double) (max - Aggregate.getSampleCount(cell)) * defaultNaNValue) / max;
+            }
+        }
+
+        if (maxDistance <= 0 || Location_num < 2) {
+            return Aggregate;
+        }
+
+        // The centroids of the groups replace X and Y
+        double[] LocationX = X.clone();
+        double[] LocationY = Y.clone();
+
+        // Locations in squares as large as the distance, neighbors are in the 3 x 3 squares around
+        HashMap<Long, ArrayList<Integer>> Grid = new HashMap<Long, ArrayList<Integer>>();
+        PriorityQueue<Candidate> Candidates = new PriorityQueue<Candidate>();
+
+        for (int l = 0; l < Location_num; ++l) {
+            if (!Double.isNaN(X[l]) && !Double.isNaN(Y[l])) {
+                addToGrid(Grid, X[l], Y[l], l);
+            }
+        }
+
+        for (int l = 0; l < Location_num; ++l) {
+            if (!Double.isNaN(X[l]) && !Double.isNaN(Y[l])) {
+                addCandidates(Candidates, Grid, X, Y, Means, MacAddress_num, defaultNaNValue, versions, l, true);
+            }
+        }
+
+        while (!Candidates.isEmpty()) {
+
+            Candidate candidate = Candidates.poll();
+            int a = candidate.first;
+            int b = candidate.second;
+
+            // A group merged or changed since
+            if (Members[a] == null || Members[b] == null || versions[a] != candidate.firstVersion || versions[b] != candidate.secondVersion) {
+                continue;
+            }
+
+            double weight = Weights[a] + Weights[b];
+            double x = (X[a] * Weights[a] + X[b] * Weights[b]) / weight;
+            double y = (Y[a] * Weights[a] + Y[b] * Weights[b]) / weight;
+
+            if (!withinDistance(Members[a], LocationX, LocationY, x, y) || !withinDistance(Members[b], LocationX, LocationY, x, y)) {
+                continue;
+            }
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                Means[a * MacAddress_num + m] = (Means[a * MacAddress_num + m] * Weights[a] + Means[b * MacAddress_num + m] * Weights[b]) / weight;
+            }
+
+            removeFromGrid(Grid, X[a], Y[a], a);
+            removeFromGrid(Grid, X[b], Y[b], b);
+
+            int[] merged = Arrays.copyOf(Members[a], Members[a].length + Members[b].length);
+            System.arraycopy(Members[b], 0, merged, Members[a].length, Members[b].length);
+            Arrays.sort(merged);
+
+            Members[a] = merged;
+            Members[b] = null;
+            X[a] = x;
+            Y[a] = y;
+            Weights[a] = weight;
+            versions[a]++;
+            kept_num--;
+            largest_num = Math.max(largest_num, merged.length);
+
+            addToGrid(Grid, x, y, a);
+            addCandidates(Candidates, Grid, X, Y, Means, MacAddress_num, defaultNaNValue, versions, a, false);
+        }
+
+        if (kept_num == Location_num) {
+            return Aggregate;
+        }
+
+        // The group of the lower location keeps its id, so groups are in the order of their first location
+        int[][] Groups = new int[kept_num][];
+        String[] Locations = new String[kept_num];
+        // Fixed decimals, as the radio map writes its values, without exponents or double artifacts
+        DecimalFormat coordinateFormat = new DecimalFormat("0.######", DecimalFormatSymbols.getInstance(Locale.ROOT));
+
+        for (int l = 0, g = 0; l < Location_num; ++l) {
+            if (Members[l] != null) {
+                Groups[g] = Members[l];
+                Locations[g] = Members[l].length == 1 ? Aggregate.getLocation(l)
+                        : coordinateFormat.format(X[l]) + " " + coordinateFormat.format(Y[l]);
+                g++;
+            }
+        }
+        return new MergedRadioMapAggregate(Aggregate, Groups, Locations);
+    }
+
+    /**
+     * Getter of the report of the last merging
+     *
+     * @return
+     *            the number of locations kept and merged
+     * */
+    public String getReport() {
+
+        String report = "Locations: " + Location_num + " Kept: " + kept_num;
+
+        if (Location_num > 0) {
+            report += " Reduction: " + Math.round(1000.0 * (Location_num - kept_num) / Location_num) / 10.0 + "%";
+        }
+
+        report += "\nMerged within distance " + maxDistance + " and fingerprint distance " + maxFingerprintDistance + " dBm: " + (Location_num - kept_num);
+        report += "\nLargest merged location: " + largest_num + " locations";
+        return report;
+    }
+
+    /**
+     * Adds the candidates of a location with its neighbors, those after it
+     * only if it is the first pass over all locations
+     * */
+    private void addCandidates(PriorityQueue<Candidate> Candidates, HashMap<Long, ArrayList<Integer>> Grid, double[] X, double[] Y, double[] Means, int MacAddress_num, int defaultNaNValue, int[] versions, int l, boolean after) {
+
+        long gx = (long) Math.floor(X[l] / maxDistance);
+        long gy = (long) Math.floor(Y[l] / maxDistance);
+
+        for (long i = gx - 1; i <= gx + 1; ++i) {
+            for (long j = gy - 1; j <= gy + 1; ++j) {
+
+                ArrayList<Integer> Square = Grid.get(key(i, j));
+
+                if (Square == null) {
+                    continue;
+                }
+
+                for (int n : Square) {
+
+                    if (n == l || (after && n < l)) {
+                        continue;
+                    }
+
+                    double dx = X[l] - X[n];
+                    double dy = Y[l] - Y[n];
+
+                    if (dx * dx + dy * dy > maxDistance * maxDistance) {
+                        continue;
+                    }
+
+                    double distance = fingerprintDistance(Means, MacAddress_num, defaultNaNValue, l, n);
+
+                    if (distance <= maxFingerprintDistance) {
+                        int first = Math.min(l, n);
+                        int second = Math.max(l, n);
+                        Candidates.add(new Candidate(distance, first, second, versions[first], versions[second]));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the root mean square difference of the mean RSS values of
+     * two locations, over the MAC addresses either detects
+     * */
+    private static double fingerprintDistance(double[] Means, int MacAddress_num, int defaultNaNValue, int a, int b) {
+
+        double sum = 0;
+        int count = 0;
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+            double first = Means[a * MacAddress_num + m];
+            double second = Means[b * MacAddress_num + m];
+
+            if (first != defaultNaNValue || second != defaultNaNValue) {
+                sum += (first - second) * (first - second);
+                count++;
+            }
+        }
+        return count == 0 ? 0 : Math.sqrt(sum / count);
+    }
+
+    /**
+     * Checks that the locations of a group are within the distance of a centroid
+     * */
+    private boolean withinDistance(int[] Members, double[] X, double[] Y, double x, double y) {
+
+        for (int l : Members) {
+            double dx = X[l] - x;
+            double dy = Y[l] - y;
+
+            if (dx * dx + dy * dy > maxDistance * maxDistance) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addToGrid(HashMap<Long, ArrayList<Integer>> Grid, double x, double y, int l) {
+
+        Long key = key((long) Math.floor(x / maxDistance), (long) Math.floor(y / maxDistance));
+        ArrayList<Integer> Square = Grid.get(key);
+
+        if (Square == null) {
+            Square = new ArrayList<Integer>();
+            Grid.put(key, Square);
+        }
+        Square.add(l);
+    }
+
+    private void removeFromGrid(HashMap<Long, ArrayList<Integer>> Grid, double x, double y, int l) {
+
+        Long key = key((long) Math.floor(x / maxDistance), (long) Math.floor(y / maxDistance));
+        ArrayList<Integer> Square = Grid.get(key);
+
+        Square.remove(Integer.valueOf(l));
+
+        if (Square.isEmpty()) {
+            Grid.remove(key);
+        }
+    }
+
+    private static Long key(long x, long y) {
+        return (x << 32) ^ (y & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Two groups of locations that may be merged, the closest fingerprints first
+     */
+    private static class Candidate implements Comparable<Candidate> {
+
+        final double distance;
+        final int first;
+        final int second;
+        final int firstVersion;
+        final int secondVersion;
+
+        Candidate(double distance, int first, int second, int firstVersion, int secondVersion) {
+            this.distance = distance;
+            this.first = first;
+            this.second = second;
+            this.firstVersion = firstVersion;
+            this.secondVersion = secondVersion;
+        }
+
+        public int compareTo(Candidate other) {
+
+            if (distance != other.distance) {
+                return distance < other.distance ? -1 : 1;
+            }
+            if (first != other.first) {
+                return first < other.first ? -1 : 1;
+            }
+            return second < other.second ? -1 : second == other.second ? 0 : 1;
+        }
+    }
+
+    /**
+     * Read only view of an aggregate with groups of its locations merged.
+     * The cells of a merged location are numbered after the cells of the
+     * aggregate, which single locations keep.
+     */
+    private static class MergedRadioMapAggregate implements RadioMapAggregate {
+
+        private final RadioMapAggregate Aggregate;
+        private final int[][] Groups;
+        private final String[] Locations;
+        private final int[] MaxSampleCounts;
+        // For merged locations, the cell of every location and MAC address
+        private final int[] Cells;
+        private final ArrayList<int[]> MergedCells = new ArrayList<int[]>();
+        private final int cell_base;
+
+        MergedRadioMapAggregate(RadioMapAggregate Aggregate, int[][] Groups, String[] Locations) {
+
+            int MacAddress_num = Aggregate.getMacAddressCount();
+            int base = 0;
+
+            this.Aggregate = Aggregate;
+            this.Groups = Groups;
+            this.Locations = Locations;
+            this.MaxSampleCounts = new int[Groups.length];
+            this.Cells = new int[Groups.length * MacAddress_num];
+
+            // Cells of the aggregate are below this base
+            for (int l = 0; l < Aggregate.getLocationCount(); ++l) {
+                for (int m = 0; m < MacAddress_num; ++m) {
+                    base = Math.max(base, Aggregate.findCell(l, m) + 1);
+                }
+            }
+            this.cell_base = base;
+
+            for (int g = 0; g < Groups.length; ++g) {
+
+                int max = 0;
+
+                for (int l : Groups[g]) {
+                    max += Aggregate.getMaxSampleCount(l);
+                }
+                MaxSampleCounts[g] = max;
+
+                for (int m = 0; m < MacAddress_num; ++m) {
+
+                    if (Groups[g].length == 1) {
+                        Cells[g * MacAddress_num + m] = Aggregate.findCell(Groups[g][0], m);
+                        continue;
+                    }
+
+                    int[] members = new int[Groups[g].length];
+                    int count = 0;
+
+                    for (int l : Groups[g]) {
+                        int cell = Aggregate.findCell(l, m);
+
+                        if (cell != -1) {
+                            members[count++] = cell;
+                        }
+                    }
+
+                    if (count == 0) {
+                        Cells[g * MacAddress_num + m] = -1;
+                    } else {
+                        Cells[g * MacAddress_num + m] = cell_base + MergedCells.size();
+                        MergedCells.add(Arrays.copyOf(members, count));
+                    }
+                }
+            }
+        }
+
+        public void add(String location, long packedMacAddress, int RSS_Value) {
+            throw new UnsupportedOperationException("Merged radio map is read only.");
+        }
+
+        public boolean isEmpty() {
+            return Aggregate.isEmpty();
+        }
+
+        public int getLocationCount() {
+            return Groups.length;
+        }
+
+        public String getLocation(int location) {
+            return Locations[location];
+        }
+
+        public int getMacAddressCount() {
+            return Aggregate.getMacAddressCount();
+        }
+
+        public String getMacAddress(int MacAddress) {
+            return Aggregate.getMacAddress(MacAddress);
+        }
+
+        public long getPackedMacAddress(int MacAddress) {
+            return Aggregate.getPackedMacAddress(MacAddress);
+        }
+
+        public int findCell(int location, int MacAddress) {
+            return Cells[location * Aggregate.getMacAddressCount() + MacAddress];
+        }
+
+        public long getCellMacAddress(int cell) {
+            return Aggregate.getCellMacAddress(cell < cell_base ? cell : MergedCells.get(cell - cell_base)[0]);
+        }
+
+        public int getSampleCount(int cell) {
+
+            if (cell < cell_base) {
+                return Aggregate.getSampleCount(cell);
+            }
+
+            int count = 0;
+
+            for (int member : MergedCells.get(cell - cell_base)) {
+                count += Aggregate.getSampleCount(member);
+            }
+            return count;
+        }
+
+        public long getSampleSum(int cell) {
+
+            if (cell < cell_base) {
+                return Aggregate.getSampleSum(cell);
+            }
+
+            long sum = 0;
+
+            for (int member : MergedCells.get(cell - cell_base)) {
+                sum += Aggregate.getSampleSum(member);
+            }
+            return sum;
+        }
+
+        /**
+         * The variance of all samples of the locations merged, from the mean
+         * and variance of each
+         * */
+        public double getVariance(int cell) {
+
+            if (cell < cell_base) {
+                return Aggregate.getVariance(cell);
+            }
+
+            int count = getSampleCount(cell);
+
+            if (count < 2) {
+                return 0;
+            }
+
+            double mean = (double) getSampleSum(cell) / count;
+            double squares = 0;
+
+            for (int member : MergedCells.get(cell - cell_base)) {
+                int n = Aggregate.getSampleCount(member);
+                double difference = (double) Aggregate.getSampleSum(member) / n - mean;
+                squares += Aggregate.getVariance(member) * (n - 1) + difference * difference * n;
+            }
+            return squares / (count - 1);
+        }
+
+        public int getMaxSampleCount(int location) {
+            return MaxSampleCounts[location];
+        }
+    }
+}
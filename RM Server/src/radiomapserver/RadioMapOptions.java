@@ -0,0 +1,338 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+/**
+ *
+ * Options of how radio maps are built, given on the command line of the
+ * batch build and of the server of many buildings. Every option is off
+ * unless given, so that radio maps are built as by the user interface:
+ *
+ * --streaming              keep only running statistics of every location and
+ *                          MAC address while parsing the RSS log files
+ * --streaming-chunk N      RSS samples read for every chunk of locations of the
+ *                          radio map written by a streaming build
+ * --external               sort the RSS samples on disk instead of keeping
+ *                          them in memory
+ * --external-run N         RSS samples of every sorted run of an external build
+ * --parallel               parse the RSS log files, and format the rows of the
+ *                          radio map, over all available processors
+ * --prune-detection R      drop access points detected in less than a
+ *                          fraction of the locations
+ * --prune-samples N        drop access points with less samples
+ * --prune-variance V       drop access points with a larger mean variance
+ * --prune-gain G           drop access points with less information gain, in bits
+ * --prune-max N            keep at most a number of access points
+ * --group                  group the MAC addresses of the same access point
+ *                          into virtual access points, before pruning
+ * --group-prefix B         leading bits the MAC addresses of a group share
+ * --group-correlation C    minimum correlation of the mean RSS values of the
+ *                          MAC addresses of a group
+ * --clusters N             cluster the locations of the radio map mean for a
+ *                          two-stage search, or -1 for the square root of the
+ *                          number of locations
+ * --cluster-probes P       nearest clusters searched when positioning
+ * --max-cell-samples N     RSS samples kept for every location and MAC
+ *                          address, a uniform sample of those read
+ * --merge                  merge neighboring locations of the radio map mean
+ *                          with almost the same mean RSS values
+ * --merge-distance D       maximum distance of the locations merged
+ * --merge-rss D            maximum root mean square difference of the mean
+ *                          RSS values of the locations merged, in dBm
+ *
+ * Pruning and merging are off by default, since they may locate worse, e.g.
+ * on the indoor data of the server. A report of the access points dropped
+ * or the locations merged is written next to every radio map, with the
+ * positioning error and time with and without them if the radio map has
+ * test data, to decide from.
+ *
+ * Radio maps kept in memory by a server can not be streaming or external
+ * builds.
+ */
+public class RadioMapOptions {
+
+    private final boolean resident;
+    private boolean streamingBuild = false;
+    private long streamingChunkSamples = -1;
+    private boolean externalBuild = false;
+    private int externalRunSamples = -1;
+    private boolean parallelBuild = false;
+    private boolean prune = false;
+    private double minDetectionRate = 0;
+    private long minSampleCount = 0;
+    private double maxVariance = Double.POSITIVE_INFINITY;
+    private double minInformationGain = 0;
+    private int maxMacAddresses = Integer.MAX_VALUE;
+    private boolean group = false;
+    private int prefixLength = -1;
+    private double minCorrelation = Double.NaN;
+    private int clusters = 0;
+    private int clusterProbes = 1;
+    private int maxCellSamples = 0;
+    private boolean merge = false;
+    private double maxDistance = Double.NaN;
+    private double maxFingerprintDistance = Double.NaN;
+
+    /**
+     * Constructor of the RadioMapOptions class
+     *
+     * @param resident
+     *            true if the radio maps are kept in memory by a server, so
+     *            only options that keep all samples in memory are accepted
+     * */
+    public RadioMapOptions(boolean resident) {
+        this.resident = resident;
+    }
+
+    /**
+     * Parses a build option of a command line
+     *
+     * @param args
+     *            the command line arguments
+     *
+     * @param i
+     *            the index of the argument to parse
+     *
+     * @return
+     *            the number of arguments of the option, or 0 if the argument
+     *            is not a build option
+     * */
+    public int parseArgument(String[] args, int i) {
+
+        String option = args[i];
+        boolean hasValue = i + 1 < args.length;
+
+        if (!resident && option.equals("--streaming")) {
+            streamingBuild = true;
+            return 1;
+        }
+        if (!resident && option.equals("--streaming-chunk") && hasValue) {
+            streamingChunkSamples = Long.parseLong(args[i + 1]);
+            return 2;
+        }
+        if (!resident && option.equals("--external")) {
+            externalBuild = true;
+            return 1;
+        }
+        if (!resident && option.equals("--external-run") && hasValue) {
+            externalRunSamples = Integer.parseInt(args[i + 1]);
+            return 2;
+        }
+        if (option.equals("--parallel")) {
+            parallelBuild = true;
+            return 1;
+        }
+        if (option.equals("--prune-detection") && hasValue) {
+            minDetectionRate = Double.parseDouble(args[i + 1]);
+            prune = true;
+            return 2;
+        }
+        if (option.equals("--prune-samples") && hasValue) {
+            minSampleCount = Long.parseLong(args[i + 1]);
+            prune = true;
+            return 2;
+        }
+        if (option.equals("--prune-variance") && hasValue) {
+            maxVariance = Double.parseDouble(args[i + 1]);
+            prune = true;
+            return 2;
+        }
+        if (option.equals("--prune-gain") && hasValue) {
+            minInformationGain = Double.parseDouble(args[i + 1]);
+            prune = true;
+            return 2;
+        }
+        if (option.equals("--prune-max") && hasValue) {
+            maxMacAddresses = Integer.parseInt(args[i + 1]);
+            prune = true;
+            return 2;
+        }
+        if (option.equals("--group")) {
+            group = true;
+            return 1;
+        }
+        if (option.equals("--group-prefix") && hasValue) {
+            prefixLength = Integer.parseInt(args[i + 1]);
+            group = true;
+            return 2;
+        }
+        if (option.equals("--group-correlation") && hasValue) {
+            minCorrelation = Double.parseDouble(args[i + 1]);
+            group = true;
+            return 2;
+        }
+        if (option.equals("--clusters") && hasValue) {
+            clusters = Integer.parseInt(args[i + 1]);
+            return 2;
+        }
+        if (option.equals("--cluster-probes") && hasValue) {
+            clusterProbes = Integer.parseInt(args[i + 1]);
+            return 2;
+        }
+        if (option.equals("--max-cell-samples") && hasValue) {
+            maxCellSamples = Integer.parseInt(args[i + 1]);
+            return 2;
+        }
+        if (option.equals("--merge")) {
+            merge = true;
+            return 1;
+        }
+        if (option.equals("--merge-distance") && hasValue) {
+            maxDistance = Double.parseDouble(args[i + 1]);
+            merge = true;
+            return 2;
+        }
+        if (option.equals("--merge-rss") && hasValue) {
+            maxFingerprintDistance = Double.parseDouble(args[i + 1]);
+            merge = true;
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Checks the values of the options parsed
+     *
+     * @return
+     *            true if the options are valid, otherwise false
+     * */
+    public boolean isValid() {
+        return (streamingChunkSamples == -1 || streamingChunkSamples > 0)
+                && (externalRunSamples == -1 || externalRunSamples > 0)
+                && !(streamingBuild && externalBuild)
+                && minDetectionRate >= 0 && minDetectionRate <= 1 && minSampleCount >= 0
+                && maxVariance >= 0 && minInformationGain >= 0 && maxMacAddresses > 0
+                && (prefixLength == -1 || (prefixLength >= 1 && prefixLength <= 48))
+                && (Double.isNaN(minCorrelation) || Math.abs(minCorrelation) <= 1)
+                && clusters >= -1 && clusterProbes > 0 && maxCellSamples >= 0
+                && (Double.isNaN(maxDistance) || maxDistance >= 0)
+                && (Double.isNaN(maxFingerprintDistance) || maxFingerprintDistance >= 0);
+    }
+
+    /**
+     * Getter of the usage of the build options
+     *
+     * @return
+     *            the options accepted, for the usage message
+     * */
+    public String getUsage() {
+
+        StringBuilder usage = new StringBuilder();
+
+        if (!resident) {
+            usage.append(" [--streaming [--streaming-chunk N] | --external [--external-run N]]");
+        }
+        usage.append(" [--parallel]");
+        usage.append(" [--prune-detection R] [--prune-samples N] [--prune-variance V] [--prune-gain G] [--prune-max N]");
+        usage.append(" [--group [--group-prefix B] [--group-correlation C]]");
+        usage.append(" [--clusters N [--cluster-probes P]] [--max-cell-samples N]");
+        usage.append(" [--merge [--merge-distance D] [--merge-rss D]]");
+        return usage.toString();
+    }
+
+    /**
+     * Sets the options to a radio map
+     *
+     * @param rm
+     *            the radio map to build
+     * */
+    public void apply(RadioMap rm) {
+
+        if (streamingBuild) {
+            rm.setStreamingBuild(true, true);
+
+            if (streamingChunkSamples != -1) {
+                rm.setStreamingChunkSamples(streamingChunkSamples);
+            }
+        }
+
+        if (externalBuild) {
+            rm.setExternalBuild(true);
+
+            if (externalRunSamples != -1) {
+                rm.setExternalRunSamples(externalRunSamples);
+            }
+        }
+
+        if (parallelBuild) {
+            rm.setParallelBuild(true);
+        }
+
+        // Pruning keeps the result of the radio map it last pruned
+        if (prune) {
+            RadioMapPruning pruning = new RadioMapPruning();
+            pruning.setMinDetectionRate(minDetectionRate);
+            pruning.setMinSampleCount(minSampleCount);
+            pruning.setMaxVariance(maxVariance);
+            pruning.setMinInformationGain(minInformationGain);
+            pruning.setMaxMacAddresses(maxMacAddresses);
+            rm.setPruning(pruning);
+        }
+
+        if (group) {
+            RadioMapGrouping grouping = new RadioMapGrouping();
+
+            if (prefixLength != -1) {
+                grouping.setPrefixLength(prefixLength);
+            }
+            if (!Double.isNaN(minCorrelation)) {
+                grouping.setMinCorrelation(minCorrelation);
+            }
+            rm.setGrouping(grouping);
+        }
+
+        if (clusters != 0) {
+            rm.setClustering(clusters, clusterProbes);
+        }
+
+        if (maxCellSamples != 0) {
+            rm.setMaxCellSamples(maxCellSamples);
+        }
+
+        if (merge) {
+            RadioMapMerging merging = new RadioMapMerging();
+
+            if (!Double.isNaN(maxDistance)) {
+                merging.setMaxDistance(maxDistance);
+            }
+            if (!Double.isNaN(maxFingerprintDistance)) {
+                merging.setMaxFingerprintDistance(maxFingerprintDistance);
+            }
+            rm.setMerging(merging);
+        }
+    }
+}
@@ -37,11 +37,35 @@
 package radiomapserver;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Base64;
 
+/**
+ *
+ * The protocol of a connection of a client, the logger or the tracker. The
+ * server answers "+OK READY" and then takes one request:
+ *
+ *  GET radiomap [id]          the radio map mean, "RADIOMAP" and its first
+ *                             line, its lines, then "PARAMETERS" and the
+ *                             lines of the parameters
+ *  GET radiomap compact [id]  as above, but "RADIOMAP COMPACT" and the
+ *                             compact radio map in Base64 lines, if there is
+ *                             a compact radio map
+ *  UPLOAD rsslog [id]         "+OK UPLOAD", then the lines of an RSS log
+ *                             until the client closes its output
+ *
+ * The id selects a radio map of the registry, e.g. ucy-cs/floor1/indoor.
+ * Without a registry the id is not given. With a registry, a request
+ * without id selects the default radio map of the registry, if any.
+ * Requests are not case sensitive. An unknown request or id is answered
+ * with an ERROR line and another request is taken.
+ */
 public class RadioMapProtocol {
 
     public enum STATES {
@@ -50,22 +74,41 @@ public class RadioMapProtocol {
     }
     private STATES state = STATES.WAITING;
     // Files to transfer
-    private final File radiomap_file;
-    private final File parameters_file;
+    private File radiomap_file;
+    private File parameters_file;
     // A single line in files
     private String line = null;
     // Folder to store RSS log files
-    private final File RSSFolder;
+    private File RSSFolder;
     // File to store RSS Log
     private File outFile = null;
     // To read files
     private BufferedReader reader = null;
-    // To write file
-    private BufferedWriter writer = null;
+    // To read the compact radio map
+    private InputStream compact_stream = null;
+    // Bytes of compact radio map sent in a single line, as Base64
+    private static final int COMPACT_LINE_BYTES = 3072;
+    // To write the RSS log received before it is committed
+    private RadioMapUploadLog uploadLog = null;
+    private long uploadId = -1;
+    // Lines received and not appended to the upload log yet
+    private ByteArrayOutputStream frame = null;
+    // Bytes of lines appended to the upload log in a single frame
+    private static final int FRAME_BYTES = 64 * 1024;
+    // To add the RSS log to the radio map in memory, or null
+    private RadioMapIngestor ingestor;
+    // The radio map to send the latest version of, or null for the files above
+    private RadioMapDistribution distribution = null;
+    // The radio maps selected by id after the request, or null
+    private RadioMapRegistry registry = null;
+    // The id of the radio map selected, or null
+    private String radiomap_id = null;
+    // The version of radio map sent, or null
+    private RadioMapSnapshot snapshot = null;
     // Server answers
-    public static final String[] answers = {"+OK READY", "RADIOMAP", "+OK UPLOAD", "BUSY"};
+    public static final String[] answers = {"+OK READY", "RADIOMAP", "+OK UPLOAD", "BUSY", "RADIOMAP COMPACT"};
     // Client requests
-    public static final String[] requests = {"GET radiomap", "UPLOAD rsslog"};
+    public static final String[] requests = {"GET radiomap", "UPLOAD rsslog", "GET radiomap compact"};
 
     /**
      * Constructor of the protocol
@@ -84,10 +127,53 @@ public class RadioMapProtocol {
      *
      * */
     RadioMapProtocol(File radiomap_file, File parameters_file, File RSSFolder) {
+        this(radiomap_file, parameters_file, RSSFolder, null);
+    }
+
+    /**
+     * Constructor of the protocol
+     *
+     * @param radiomap_file
+     *            the radio map mean file to sent
+     *
+     * @param parameters_file
+     *            the parameters file of algorithms to sent
+     *
+     * @param RSSFolder
+     *            the folder to store all RSS files
+     *
+     * @param ingestor
+     *            the radio map in memory to add the RSS files to, or null
+     * */
+    RadioMapProtocol(File radiomap_file, File parameters_file, File RSSFolder, RadioMapIngestor ingestor) {
         super();
         this.radiomap_file = radiomap_file;
         this.parameters_file = parameters_file;
         this.RSSFolder = RSSFolder;
+        this.ingestor = ingestor;
+    }
+
+    /**
+     * Constructor of the protocol, to send the latest version of a radio map
+     *
+     * @param distribution
+     *            the radio map to send and add the RSS files to
+     * */
+    RadioMapProtocol(RadioMapDistribution distribution) {
+        this(distribution.getFilename(), distribution.getParametersFile(), distribution.getRSSFolder(), distribution.getIngestor());
+        this.distribution = distribution;
+    }
+
+    /**
+     * Constructor of the protocol, to send the radio map with the id given
+     * after the request, e.g. "GET radiomap ucy-cs/floor1/indoor"
+     *
+     * @param registry
+     *            the radio maps to select from
+     * */
+    RadioMapProtocol(RadioMapRegistry registry) {
+        this(null, null, null, null);
+        this.registry = registry;
     }
 
     /**
@@ -111,8 +197,30 @@ public class RadioMapProtocol {
         } // Check for download Radiomap, Upload RSS file or unrecognized command
         else if (state == STATES.SENT_READY_MSG) {
 
-            // Received a "GET radiomap"
-            if (theInput.equalsIgnoreCase(requests[0])) {
+            String request = theInput;
+
+            if (registry != null || distribution != null) {
+                request = selectRadioMap(theInput);
+            }
+
+            // Received a request for a radio map id that does not exist
+            if (request == null) {
+                theOutput = "ERROR: Unknown radio map! Try again.";
+                state = STATES.SENT_READY_MSG;
+            } // Received a "GET radiomap compact". Send the text radio map if there is no compact one
+            else if (request.equalsIgnoreCase(requests[2]) && OK_files() && RadioMapCompact.getCompactFile(radiomap_file).canRead()) {
+                // Send RADIOMAP COMPACT. The file follows in Base64 lines
+                theOutput = answers[4];
+                state = STATES.SENDING_RADIOMAP;
+                try {
+                    compact_stream = new FileInputStream(RadioMapCompact.getCompactFile(radiomap_file));
+                } catch (Exception fnf) {
+                    theOutput = "UNAVAILABLE: Radio map file is currently unavailable. Please try later.";
+                    state = STATES.DONE;
+                }
+
+            } // Received a "GET radiomap"
+            else if (request.equalsIgnoreCase(requests[0]) || request.equalsIgnoreCase(requests[2])) {
                 // Check files that are available for distribution
                 if (!OK_files()) {
                     // Send BUSY
@@ -140,7 +248,7 @@ public class RadioMapProtocol {
                 }
 
             } // Received a "UPLOAD rsslog"
-            else if (theInput.equalsIgnoreCase(requests[1])) {
+            else if (request.equalsIgnoreCase(requests[1])) {
                 // Check folder that is available to store new files
                 if (!OK_RSS_Folder()) {
                     // Send BUSY
@@ -150,12 +258,12 @@ public class RadioMapProtocol {
                     // Send "+OK UPLOAD"
                     theOutput = answers[2];
                     state = STATES.UPLOADING_RSSFILE;
-                    // Find a filename that does not exist
-                    outFile = findFilename();
-                    try {
-                        writer = new BufferedWriter(new FileWriter(outFile));
-                    } catch (Exception fnf) {
-                        System.out.println(fnf.getMessage());
+                    // The RSS log is written to a file that does not exist when committed
+                    uploadLog = RadioMapUploadLog.open(RSSFolder);
+                    uploadId = uploadLog.begin();
+                    frame = new ByteArrayOutputStream();
+
+                    if (uploadId == -1) {
                         theOutput = "UNAVAILABLE: Server is currently unavailable. Please try later.";
                         state = STATES.DONE;
                     }
@@ -170,12 +278,20 @@ public class RadioMapProtocol {
         else if (state == STATES.SENDING_RADIOMAP) {
 
             try {
-                // Send a single line of radio map
-                if ((line = reader.readLine()) != null) {
+                // Send a single line of compact radio map
+                if (compact_stream != null && (line = readCompactLine()) != null) {
+                    theOutput = line;
+                } // Send a single line of radio map
+                else if (compact_stream == null && (line = reader.readLine()) != null) {
                     theOutput = line;
                 } // Radiomap sent. Now send the parameters
                 else {
-                    reader.close();
+                    if (compact_stream != null) {
+                        compact_stream.close();
+                        compact_stream = null;
+                    } else {
+                        reader.close();
+                    }
                     reader = new BufferedReader(new FileReader(parameters_file));
                     theOutput = "PARAMETERS";
                     state = STATES.SENDING_PARAMETERS;
@@ -191,13 +307,33 @@ public class RadioMapProtocol {
             try {
                 // Write a single line of RSS file
                 if (theInput != null) {
-                    writer.write(theInput + "\n");
-                } // RSS file stored. We are done.
+                    frame.write((theInput + "\n").getBytes());
+                    if (frame.size() >= FRAME_BYTES) {
+                        appendFrame();
+                    }
+                    theOutput = null;
+                } // RSS file received. Commit and store it. We are done.
                 else {
-                    writer.close();
+                    appendFrame();
                     state = STATES.DONE;
+
+                    outFile = uploadLog.commit(uploadId);
+                    uploadId = -1;
+
+                    if (outFile == null) {
+                        throw new IOException("RSS log not committed.");
+                    }
+
+                    // Add the RSS file to the radio map in memory, loaded again if stopped since selected
+                    if (registry != null) {
+                        ingestor = registry.getIngestor(radiomap_id);
+                    }
+
+                    if (ingestor != null) {
+                        ingestor.addLogFile(outFile);
+                    }
+                    theOutput = null;
                 }
-                theOutput = null;
 
             } catch (Exception e) {
                 theOutput = "ERROR: I/O error occured. Please try later.";
@@ -228,6 +364,121 @@ public class RadioMapProtocol {
         return theOutput;
     }
 
+    /**
+     * Selects the radio map of a request, and the latest version of its files
+     *
+     * @param theInput
+     *            the request, followed by the radio map id if there are many radio maps
+     *
+     * @return
+     *            the request without the radio map id, or null if there is no radio map with that id
+     * */
+    private String selectRadioMap(String theInput) {
+
+        String request = theInput.trim();
+        RadioMapDistribution selected = distribution;
+
+        if (registry != null) {
+            int space = request.lastIndexOf(' ');
+
+            // A request without radio map id selects the default one, if any
+            if (isRequest(request)) {
+                radiomap_id = registry.getDefaultId();
+            } else if (space != -1 && isRequest(request.substring(0, space))) {
+                radiomap_id = request.substring(space + 1);
+                request = request.substring(0, space);
+            } else {
+                return request;
+            }
+
+            selected = radiomap_id == null ? null : registry.get(radiomap_id);
+
+            if (selected == null) {
+                return null;
+            }
+        } else if (!isRequest(request)) {
+            return request;
+        }
+
+        close();
+        snapshot = selected.acquireSnapshot();
+
+        if (snapshot != null) {
+            radiomap_file = snapshot.getFile(selected.getFilename());
+            parameters_file = snapshot.getFile(selected.getParametersFile());
+        } else {
+            radiomap_file = selected.getFilename();
+            parameters_file = selected.getParametersFile();
+        }
+        RSSFolder = selected.getRSSFolder();
+        ingestor = selected.getIngestor();
+        return request;
+    }
+
+    private static boolean isRequest(String request) {
+
+        for (String r : requests) {
+            if (r.equalsIgnoreCase(request)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the lines received to the upload log
+     * */
+    private void appendFrame() throws IOException {
+
+        if (frame.size() == 0) {
+            return;
+        }
+
+        byte[] bytes = frame.toByteArray();
+        frame.reset();
+
+        if (!uploadLog.append(uploadId, bytes, 0, bytes.length)) {
+            throw new IOException("RSS log not written to upload log.");
+        }
+    }
+
+    /**
+     * Releases the version of radio map sent, and drops the RSS log received
+     * if it is not committed, when the connection ends
+     * */
+    public void close() {
+        if (snapshot != null) {
+            snapshot.release();
+            snapshot = null;
+        }
+        if (uploadId != -1) {
+            uploadLog.abort(uploadId);
+            uploadId = -1;
+        }
+    }
+
+    /**
+     * Reads the next bytes of compact radio map
+     *
+     * @return
+     *            the bytes in Base64, or null if the whole file is read
+     * */
+    private String readCompactLine() throws IOException {
+
+        byte[] bytes = new byte[COMPACT_LINE_BYTES];
+        int count = 0;
+        int read;
+
+        while (count < bytes.length && (read = compact_stream.read(bytes, count, bytes.length - count)) != -1) {
+            count += read;
+        }
+
+        if (count == 0) {
+            return null;
+        }
+        return Base64.getEncoder().encodeToString(count == bytes.length ? bytes : Arrays.copyOf(bytes, count));
+    }
+
     /**
      * Used to determine if the work is done
      * to close the connection with client
@@ -275,30 +526,4 @@ public class RadioMapProtocol {
     STATES getState() {
         return state;
     }
-
-    /**
-     * Finds the first available RSS filename to store the new RSS log file
-     *
-     * @return
-     *            the File to store new RSS log file
-     * */
-    private File findFilename() {
-
-        File f = null;
-        int RSS_Counter = 1;
-
-        while (true) {
-            f = new File(RSSFolder, "rsslog" + RSS_Counter + ".txt");
-
-            try {
-                if (f.createNewFile()) {
-                    return f;
-                }
-            } catch (Exception ex) {
-                return null;
-            }
-
-            RSS_Counter++;
-        }
-    }
 }
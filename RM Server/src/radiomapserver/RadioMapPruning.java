@@ -0,0 +1,332 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.util.Arrays;
+
+/**
+ *
+ * Pruning of the MAC addresses written to the radio map. An access point is
+ * dropped if it is detected in too few locations, has too few samples, its
+ * RSS values vary too much while standing at a location, or its mean RSS
+ * values tell too little about the location. The most informative access
+ * points can also be capped to a maximum number.
+ *
+ * The information gain of an access point is the entropy of the locations,
+ * all equally likely, minus the entropy of the locations given the bin of
+ * the mean RSS value of the access point, in bits.
+ */
+public class RadioMapPruning {
+
+    // Width of the bins of mean RSS values used for the information gain
+    private static final int GAIN_BIN_WIDTH = 5;
+    private double minDetectionRate = 0;
+    private long minSampleCount = 0;
+    private double maxVariance = Double.POSITIVE_INFINITY;
+    private double minInformationGain = 0;
+    private int maxMacAddresses = Integer.MAX_VALUE;
+    // Result of the last pruning
+    private int MacAddress_num = 0;
+    private int kept_num = 0;
+    private int dropped_detection = 0;
+    private int dropped_samples = 0;
+    private int dropped_variance = 0;
+    private int dropped_gain = 0;
+    private int dropped_max = 0;
+
+    /**
+     * Sets the minimum fraction of locations an access point must be detected in
+     *
+     * @param minDetectionRate
+     *            the fraction of locations, from 0 to 1
+     * */
+    public void setMinDetectionRate(double minDetectionRate) {
+        this.minDetectionRate = minDetectionRate;
+    }
+
+    /**
+     * Sets the minimum number of samples of an access point
+     *
+     * @param minSampleCount
+     *            the number of samples in all locations
+     * */
+    public void setMinSampleCount(long minSampleCount) {
+        this.minSampleCount = minSampleCount;
+    }
+
+    /**
+     * Sets the maximum variance of the RSS values of an access point, averaged
+     * over the locations it has at least two samples in
+     *
+     * @param maxVariance
+     *            the variance in dBm^2
+     * */
+    public void setMaxVariance(double maxVariance) {
+        this.maxVariance = maxVariance;
+    }
+
+    /**
+     * Sets the minimum information gain of an access point
+     *
+     * @param minInformationGain
+     *            the information gain in bits
+     * */
+    public void setMinInformationGain(double minInformationGain) {
+        this.minInformationGain = minInformationGain;
+    }
+
+    /**
+     * Sets the maximum number of access points kept. The access points with
+     * the highest information gain are kept.
+     *
+     * @param maxMacAddresses
+     *            the number of MAC addresses
+     * */
+    public void setMaxMacAddresses(int maxMacAddresses) {
+        this.maxMacAddresses = maxMacAddresses;
+    }
+
+    /**
+     * Prunes the MAC addresses of a radio map
+     *
+     * @param Aggregate
+     *            the samples grouped by location and MAC address
+     *
+     * @param defaultNaNValue
+     *            the NaN value of samples not recorded
+     *
+     * @return
+     *            a view of Aggregate with only the MAC addresses kept, in the
+     *            same order, or Aggregate if all are kept
+     * */
+    public RadioMapAggregate prune(RadioMapAggregate Aggregate, int defaultNaNValue) {
+
+        int Location_num = Aggregate.getLocationCount();
+
+        MacAddress_num = Aggregate.getMacAddressCount();
+        dropped_detection = 0;
+        dropped_samples = 0;
+        dropped_variance = 0;
+        dropped_gain = 0;
+        dropped_max = 0;
+
+        int[] Kept = new int[MacAddress_num];
+        double[] Gains = new double[MacAddress_num];
+        int[] bins = new int[Location_num];
+        int candidates_num = 0;
+
+        for (int m = 0; m < MacAddress_num; ++m) {
+
+            int detected = 0;
+            long samples = 0;
+            double variance_sum = 0;
+            int variance_num = 0;
+
+            for (int l = 0; l < Location_num; ++l) {
+
+                int cell = Aggregate.findCell(l, m);
+                double mean = defaultNaNValue;
+
+                if (cell != -1) {
+                    int max = Aggregate.getMaxSampleCount(l);
+
+                    detected++;
+                    samples += Aggregate.getSampleCount(cell);
+
+                    if (Aggregate.getSampleCount(cell) > 1) {
+                        variance_sum += Aggregate.getVariance(cell);
+                        variance_num++;
+                    }
+
+                    // As written to the radio map mean, samples not recorded count as NaN value
+                    mean = (Aggregate.getSampleSum(cell) + (double) (max - Aggregate.getSampleCount(cell)) * defaultNaNValue) / max;
+                }
+                bins[l] = (int) Math.floor(mean / GAIN_BIN_WIDTH);
+            }
+
+            Gains[m] = informationGain(bins);
+
+            if ((double) detected / Location_num < minDetectionRate) {
+                dropped_detection++;
+            } else if (samples < minSampleCount) {
+                dropped_samples++;
+            } else if (variance_num > 0 && variance_sum / variance_num > maxVariance) {
+                dropped_variance++;
+            } else if (Gains[m] < minInformationGain) {
+                dropped_gain++;
+            } else {
+                Kept[candidates_num++] = m;
+            }
+        }
+
+        kept_num = candidates_num;
+
+        // Keep the most informative, ties by the order read
+        if (candidates_num > maxMacAddresses) {
+            long[] ranked = new long[candidates_num];
+
+            for (int i = 0; i < candidates_num; ++i) {
+                ranked[i] = (Math.round(-Gains[Kept[i]] * 1e6) << 32) | Kept[i];
+            }
+            Arrays.sort(ranked);
+
+            kept_num = Math.max(maxMacAddresses, 0);
+            dropped_max = candidates_num - kept_num;
+
+            for (int i = 0; i < kept_num; ++i) {
+                Kept[i] = (int) ranked[i];
+            }
+            Arrays.sort(Kept, 0, kept_num);
+        }
+
+        if (kept_num == MacAddress_num) {
+            return Aggregate;
+        }
+        return new PrunedRadioMapAggregate(Aggregate, Arrays.copyOf(Kept, kept_num));
+    }
+
+    /**
+     * Getter of the report of the last pruning
+     *
+     * @return
+     *            the number of MAC addresses kept and dropped by each criterion, one per line
+     * */
+    public String getReport() {
+
+        String report = "MAC Addresses: " + MacAddress_num + " Kept: " + kept_num;
+
+        if (MacAddress_num > 0) {
+            report += " Dimensionality reduction: " + Math.round(1000.0 * (MacAddress_num - kept_num) / MacAddress_num) / 10.0 + "%";
+        }
+
+        report += "\nDropped by detection rate < " + minDetectionRate + ": " + dropped_detection;
+        report += "\nDropped by sample count < " + minSampleCount + ": " + dropped_samples;
+        report += "\nDropped by variance > " + maxVariance + ": " + dropped_variance;
+        report += "\nDropped by information gain < " + minInformationGain + ": " + dropped_gain;
+        report += "\nDropped by maximum MAC Addresses " + maxMacAddresses + ": " + dropped_max;
+        return report;
+    }
+
+    /**
+     * Calculates the information gain of the bins of the locations, sorting bins
+     * */
+    private static double informationGain(int[] bins) {
+
+        int Location_num = bins.length;
+        double conditional = 0;
+
+        Arrays.sort(bins);
+
+        for (int start = 0, end = 0; start < Location_num; start = end) {
+            while (end < Location_num && bins[end] == bins[start]) {
+                end++;
+            }
+            conditional += (double) (end - start) / Location_num * log2(end - start);
+        }
+        return log2(Location_num) - conditional;
+    }
+
+    private static double log2(double x) {
+        return Math.log(x) / Math.log(2);
+    }
+
+    /**
+     * Read only view of an aggregate with some of its MAC addresses
+     */
+    private static class PrunedRadioMapAggregate implements RadioMapAggregate {
+
+        private final RadioMapAggregate Aggregate;
+        private final int[] MacAddressIds;
+
+        PrunedRadioMapAggregate(RadioMapAggregate Aggregate, int[] MacAddressIds) {
+            this.Aggregate = Aggregate;
+            this.MacAddressIds = MacAddressIds;
+        }
+
+        public void add(String location, long packedMacAddress, int RSS_Value) {
+            throw new UnsupportedOperationException("Pruned radio map is read only.");
+        }
+
+        public boolean isEmpty() {
+            return Aggregate.isEmpty();
+        }
+
+        public int getLocationCount() {
+            return Aggregate.getLocationCount();
+        }
+
+        public String getLocation(int location) {
+            return Aggregate.getLocation(location);
+        }
+
+        public int getMacAddressCount() {
+            return MacAddressIds.length;
+        }
+
+        public String getMacAddress(int MacAddress) {
+            return Aggregate.getMacAddress(MacAddressIds[MacAddress]);
+        }
+
+        public long getPackedMacAddress(int MacAddress) {
+            return Aggregate.getPackedMacAddress(MacAddressIds[MacAddress]);
+        }
+
+        public int findCell(int location, int MacAddress) {
+            return Aggregate.findCell(location, MacAddressIds[MacAddress]);
+        }
+
+        public long getCellMacAddress(int cell) {
+            return Aggregate.getCellMacAddress(cell);
+        }
+
+        public int getSampleCount(int cell) {
+            return Aggregate.getSampleCount(cell);
+        }
+
+        public long getSampleSum(int cell) {
+            return Aggregate.getSampleSum(cell);
+        }
+
+        public double getVariance(int cell) {
+            return Aggregate.getVariance(cell);
+        }
+
+        public int getMaxSampleCount(int location) {
+            return Aggregate.getMaxSampleCount(location);
+        }
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ *
+ * The radio maps of many buildings served by one server, e.g.
+ *
+ * java -jar "RM Server.jar" --serve [--port P] [--maps N] [--nan V] [--default-map id] [options] folder
+ *
+ * A radio map is selected by the id of its building and indoor or outdoor,
+ * e.g. ucy-cs/floor1/indoor, given after the request of the client. The
+ * requests of clients that give no id, as the logger and the tracker, select
+ * the default radio map, if any. The building folders under the root folder are laid out as for the batch
+ * build: ucy-cs/floor1/indoor-rss-logs and ucy-cs/floor1/indoor.
+ *
+ * A radio map is loaded in the background when first requested, with its
+ * radio map in memory the uploaded RSS log files are added to, while the
+ * version already published is served. At most as many radio maps as
+ * processors are loaded at the same time, and the rest wait their turn. At most a number of radio maps are
+ * kept loaded, and the least recently requested one is stopped in the
+ * background when another is loaded. A radio map requested again while it
+ * is stopped is loaded after it is stopped, so that its files are written
+ * by one radio map at a time. The options of how the radio maps are built
+ * are those of RadioMapOptions that keep all samples in memory.
+ */
+public class RadioMapRegistry {
+
+    private final File root;
+    private final int capacity;
+    private final int defaultNaNValue;
+    private final RadioMapOptions options;
+    // The radio map of requests without id, or null
+    private String defaultId = null;
+    // The radio maps loaded, from the least to the most recently requested
+    private final LinkedHashMap<String, Entry> Loaded = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    // The radio maps evicted and not stopped yet, by id
+    private final HashMap<String, Entry> Stopping = new HashMap<String, Entry>();
+    private static final ThreadFactory Daemons = new ThreadFactory() {
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "RadioMapRegistry");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    // Loads the radio maps, a few at a time, without blocking the connections
+    private final ExecutorService loader = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), Daemons);
+    // Stops the radio maps evicted. Loads wait for the stop of their id, so stops never queue behind loads
+    private final ExecutorService stopper = Executors.newCachedThreadPool(Daemons);
+
+    /**
+     * Constructor of the registry
+     *
+     * @param root
+     *            the folder of the building folders
+     *
+     * @param capacity
+     *            the number of radio maps kept loaded
+     *
+     * @param defaultNaNValue
+     *            the RSS value of MAC addresses not detected
+     * */
+    public RadioMapRegistry(File root, int capacity, int defaultNaNValue) {
+        this(root, capacity, defaultNaNValue, new RadioMapOptions(true));
+    }
+
+    /**
+     * Constructor of the registry
+     *
+     * @param root
+     *            the folder of the building folders
+     *
+     * @param capacity
+     *            the number of radio maps kept loaded
+     *
+     * @param defaultNaNValue
+     *            the RSS value of MAC addresses not detected
+     *
+     * @param options
+     *            the options of how the radio maps are built
+     * */
+    public RadioMapRegistry(File root, int capacity, int defaultNaNValue, RadioMapOptions options) {
+        this.root = root;
+        this.capacity = capacity;
+        this.defaultNaNValue = defaultNaNValue;
+        this.options = options;
+    }
+
+    /**
+     * Runs the registry with the command line arguments after --serve, until
+     * the process is stopped
+     *
+     * @param args
+     *            the options and root folder
+     *
+     * @return
+     *            the exit status, 1 if the server could not listen, 2 for bad arguments
+     * */
+    public static int main(String[] args) {
+
+        int port = 65510;
+        int capacity = 64;
+        int defaultNaNValue = -110;
+        String defaultId = null;
+        File root = null;
+        RadioMapOptions options = new RadioMapOptions(true);
+
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                int consumed = options.parseArgument(args, i);
+
+                if (consumed > 0) {
+                    i += consumed - 1;
+                } else if (args[i].equals("--port") && i + 1 < args.length) {
+                    port = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--maps") && i + 1 < args.length) {
+                    capacity = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--nan") && i + 1 < args.length) {
+                    defaultNaNValue = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--default-map") && i + 1 < args.length) {
+                    defaultId = args[++i];
+                } else if (args[i].startsWith("--") || root != null) {
+                    root = null;
+                    break;
+                } else {
+                    root = new File(args[i]);
+                }
+            }
+        } catch (NumberFormatException e) {
+            System.err.println("Error while parsing arguments: " + e.getMessage());
+            root = null;
+        }
+
+        if (root == null || !root.isDirectory() || capacity < 1 || !options.isValid()) {
+            System.err.println("Usage: --serve [--port P] [--maps N] [--nan V] [--default-map id]" + options.getUsage() + " folder");
+            return 2;
+        }
+
+        RadioMapRegistry registry = new RadioMapRegistry(root, capacity, defaultNaNValue, options);
+
+        // Loaded in the background from now on, as it is requested the most
+        if (defaultId != null && registry.get(defaultId) == null) {
+            System.err.println("Error while selecting default radio map: There is no radio map " + defaultId + " in " + root.getPath());
+            registry.stop();
+            return 2;
+        }
+        registry.setDefaultId(defaultId);
+
+        try {
+            registry.serve(new ServerSocket(port));
+        } catch (IOException e) {
+            System.err.println("Error while listening on port " + port + ": " + e.getMessage());
+            return 1;
+        } finally {
+            registry.stop();
+        }
+        return 0;
+    }
+
+    /**
+     * Accepts connections for all radio maps, until the socket is closed
+     *
+     * @param ListenSocket
+     *            the socket to listen to
+     * */
+    public void serve(ServerSocket ListenSocket) {
+
+        System.out.println("Listening for connections on port " + ListenSocket.getLocalPort() + " for radio maps in " + root.getPath());
+
+        while (!ListenSocket.isClosed()) {
+            try {
+                Socket Connection = ListenSocket.accept();
+                new MultiServerThread(Connection, new RadioMapProtocol(this), null).start();
+            } catch (IOException e) {
+                System.err.println("Stopped listening for connections: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Getter of a radio map, that is loaded in the background if it is not.
+     * The version already published is served until it is loaded.
+     *
+     * @param id
+     *            the id of the radio map, e.g. ucy-cs/floor1/indoor
+     *
+     * @return
+     *            the radio map, or null if there is no radio map with that id
+     * */
+    public RadioMapDistribution get(String id) {
+
+        final Entry entry;
+        List<Entry> Evicted = new ArrayList<Entry>();
+
+        synchronized (this) {
+            Entry loaded = Loaded.get(id);
+
+            if (loaded != null) {
+                return loaded.distribution;
+            }
+
+            RadioMapDistribution distribution = create(id);
+
+            if (distribution == null) {
+                return null;
+            }
+
+            // Loaded after the radio map of the same id is stopped, if it is stopping
+            entry = new Entry(id, distribution, Stopping.get(id));
+            Loaded.put(id, entry);
+
+            Iterator<Entry> it = Loaded.values().iterator();
+            while (Loaded.size() > capacity && it.hasNext()) {
+                Entry evicted = it.next();
+                Evicted.add(evicted);
+                Stopping.put(evicted.id, evicted);
+                it.remove();
+            }
+        }
+
+        for (final Entry e : Evicted) {
+            stopper.execute(new Runnable() {
+
+                public void run() {
+                    e.stop();
+
+                    synchronized (RadioMapRegistry.this) {
+                        if (Stopping.get(e.id) == e) {
+                            Stopping.remove(e.id);
+                        }
+                    }
+                }
+            });
+        }
+
+        loader.execute(new Runnable() {
+
+            public void run() {
+                entry.load();
+            }
+        });
+        return entry.distribution;
+    }
+
+    /**
+     * Setter of the radio map of the requests without id
+     *
+     * @param defaultId
+     *            the id of the radio map, e.g. ucy-cs/floor1/indoor, or null for none
+     * */
+    public synchronized void setDefaultId(String defaultId) {
+        this.defaultId = defaultId;
+    }
+
+    /**
+     * Getter of the radio map of the requests without id
+     *
+     * @return
+     *            the id of the radio map, or null if there is none
+     * */
+    public synchronized String getDefaultId() {
+        return defaultId;
+    }
+
+    /**
+     * Getter of the radio map in memory of a radio map loaded, for the RSS
+     * log files uploaded to it. The RSS log files uploaded to a radio map not
+     * loaded are read from its RSS folder when it is loaded.
+     *
+     * @param id
+     *            the id of the radio map, e.g. ucy-cs/floor1/indoor
+     *
+     * @return
+     *            the radio map in memory, or null if the radio map is not loaded
+     * */
+    public synchronized RadioMapIngestor getIngestor(String id) {
+
+        Entry entry = Loaded.get(id);
+        return entry == null ? null : entry.distribution.getIngestor();
+    }
+
+    /**
+     * Stops all radio maps loaded, and waits for the radio maps stopping
+     * */
+    public void stop() {
+
+        List<Entry> Stopped;
+
+        synchronized (this) {
+            Stopped = new ArrayList<Entry>(Loaded.values());
+            Stopped.addAll(Stopping.values());
+            Loaded.clear();
+        }
+
+        for (Entry e : Stopped) {
+            e.stop();
+        }
+        loader.shutdown();
+        stopper.shutdown();
+    }
+
+    /**
+     * Getter of the number of radio maps loaded
+     *
+     * @return
+     *            the number of radio maps
+     * */
+    public synchronized int getLoadedCount() {
+        return Loaded.size();
+    }
+
+    /**
+     * Creates the radio map of an id, not loaded yet
+     *
+     * @param id
+     *            the id of the radio map, e.g. ucy-cs/floor1/indoor
+     *
+     * @return
+     *            the radio map, or null if the id is not valid or there are no files for it
+     * */
+    private RadioMapDistribution create(String id) {
+
+        String[] Segments = id.split("/");
+        String mode = Segments[Segments.length - 1];
+
+        if (Segments.length < 2 || !(mode.equals("indoor") || mode.equals("outdoor"))) {
+            return null;
+        }
+
+        // Ids are relative paths inside the root folder only
+        for (String segment : Segments) {
+            if (!segment.matches("[A-Za-z0-9_.-]+") || segment.equals(".") || segment.equals("..")) {
+                return null;
+            }
+        }
+
+        File building = new File(root, id.substring(0, id.length() - mode.length() - 1));
+        File rss_folder = new File(building, mode + "-rss-logs");
+        String radiomap_filename = new File(new File(building, mode), mode + "-radiomap.txt").getPath();
+        File mean_file = new File(RadioMap.getFilename(radiomap_filename, "-mean"));
+        File test_data = new File(new File(building, mode), "test-data.txt");
+
+        if (!rss_folder.isDirectory()) {
+            return mean_file.isFile() ? new RadioMapDistribution(mean_file, rss_folder, null) : null;
+        }
+
+        RadioMap rm = new RadioMap(rss_folder, radiomap_filename, defaultNaNValue);
+        rm.setIncrementalBuild(true);
+        options.apply(rm);
+
+        return new RadioMapDistribution(mean_file, rss_folder, new RadioMapIngestor(rm, test_data.isFile() ? test_data.getPath() : null));
+    }
+
+    /**
+     * A radio map loaded, or loading
+     */
+    private static class Entry {
+
+        private final String id;
+        private final RadioMapDistribution distribution;
+        // The radio map of the same id stopping when this one was created, or null
+        private Entry previous;
+        private boolean loaded = false;
+        private boolean stopped = false;
+        private boolean finished = false;
+
+        private Entry(String id, RadioMapDistribution distribution, Entry previous) {
+            this.id = id;
+            this.distribution = distribution;
+            this.previous = previous;
+        }
+
+        private synchronized void load() {
+
+            awaitPrevious();
+
+            if (loaded || stopped) {
+                return;
+            }
+
+            long start = System.currentTimeMillis();
+            File folder = distribution.getFilename().getParentFile();
+
+            if (!folder.isDirectory() && !folder.mkdirs()) {
+                System.err.println("Error while creating folder " + folder.getAbsolutePath());
+            }
+
+            if (!distribution.start()) {
+                System.err.println("Error while loading radio map " + id + ". Existed radio map will be used if exists.");
+            }
+            loaded = true;
+            System.out.println("Loaded radio map " + id + " in " + (System.currentTimeMillis() - start) + "ms");
+        }
+
+        private synchronized void stop() {
+
+            awaitPrevious();
+
+            if (!stopped) {
+                stopped = true;
+                if (loaded) {
+                    distribution.stop();
+                    System.out.println("Stopped radio map " + id);
+                }
+            }
+
+            finished = true;
+            notifyAll();
+        }
+
+        /**
+         * Waits until the radio map is stopped
+         * */
+        private synchronized void awaitStopped() {
+
+            while (!finished) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+
+        private void awaitPrevious() {
+
+            if (previous != null) {
+                previous.awaitStopped();
+                previous = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,601 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ *
+ * Out of core collector of RSS samples, for radio maps whose samples do not
+ * fit in memory. Samples are buffered as (location, MAC address, file, RSS)
+ * records, and every full buffer is sorted by location and MAC address and
+ * spilled to a run file. The runs are then merged and read back one location
+ * at a time, with the samples of every cell in the order they were read.
+ *
+ * Only the location and MAC address ids are kept in memory. Samples of a file
+ * that is not authenticated are dropped while merging, and the locations and
+ * MAC addresses first read in it are forgotten, so the ids are the same as
+ * those of a radio map built in memory.
+ */
+public class RadioMapRuns implements RadioMapCollector {
+
+    // Runs merged at once, so the open files stay bounded
+    private static final int MAX_MERGE_RUNS = 64;
+    // Location, MAC address and file ids, and RSS value
+    private static final int RECORD_SIZE = 14;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private final File runs_folder;
+    private final int run_samples;
+    private final HashMap<String, Integer> LocationIds;
+    private final ArrayList<String> Locations;
+    private final LongIntHashMap MacAddressIds;
+    private final ArrayList<String> MacAddresses;
+    private long[] PackedMacAddresses;
+    // Ids of the locations and MAC addresses kept, set by finish()
+    private int[] LocationOrder;
+    private int[] MacAddressOrder;
+    private int locations_num = 0;
+    private int file_num = 0;
+    private int file_first_location = 0;
+    private int file_first_MacAddress = 0;
+    private final BitSet RejectedFiles;
+    private int samples_num = 0;
+    private int[] sampleLocation;
+    private int[] sampleMacAddress;
+    private int[] sampleFile;
+    private short[] sampleRSS;
+    private final ArrayList<File> Runs;
+    private int next_run = 0;
+    private IOException error = null;
+    private PriorityQueue<RunReader> Merge = null;
+    private int location_num = 0;
+
+    /**
+     * A sorted run file, read record after record
+     */
+    private static class RunReader {
+
+        private final DataInputStream in;
+        private final int run;
+        private long remaining;
+        int location;
+        int MacAddress;
+        int file;
+        short RSS_Value;
+
+        RunReader(File runFile, int run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), BUFFER_SIZE));
+            this.run = run;
+            this.remaining = runFile.length() / RECORD_SIZE;
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            location = in.readInt();
+            MacAddress = in.readInt();
+            file = in.readInt();
+            RSS_Value = in.readShort();
+            remaining--;
+            return true;
+        }
+
+        void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final Comparator<RunReader> RECORD_ORDER = new Comparator<RunReader>() {
+
+        @Override
+        public int compare(RunReader a, RunReader b) {
+            if (a.location != b.location) {
+                return a.location < b.location ? -1 : 1;
+            }
+            if (a.MacAddress != b.MacAddress) {
+                return a.MacAddress < b.MacAddress ? -1 : 1;
+            }
+            // Earlier runs hold earlier samples
+            return a.run < b.run ? -1 : (a.run == b.run ? 0 : 1);
+        }
+    };
+
+    /**
+     * Constructor of the RadioMapRuns class
+     *
+     * @param runs_folder
+     *            the folder to write the run files, created if missing
+     *
+     * @param run_samples
+     *            the number of samples kept in memory before a run is written
+     *
+     * @throws IOException
+     *            if the folder could not be created
+     * */
+    public RadioMapRuns(File runs_folder, int run_samples) throws IOException {
+
+        if (!runs_folder.isDirectory() && !runs_folder.mkdirs()) {
+            throw new IOException("Could not create folder " + runs_folder.getAbsolutePath() + ".");
+        }
+
+        this.runs_folder = runs_folder;
+        this.run_samples = Math.max(run_samples, 1);
+        this.LocationIds = new HashMap<String, Integer>();
+        this.Locations = new ArrayList<String>();
+        this.MacAddressIds = new LongIntHashMap(256);
+        this.MacAddresses = new ArrayList<String>();
+        this.PackedMacAddresses = new long[256];
+        this.RejectedFiles = new BitSet();
+        this.Runs = new ArrayList<File>();
+
+        int capacity = Math.min(this.run_samples, 1 << 16);
+        this.sampleLocation = new int[capacity];
+        this.sampleMacAddress = new int[capacity];
+        this.sampleFile = new int[capacity];
+        this.sampleRSS = new short[capacity];
+    }
+
+    /**
+     * Starts a new RSS log file. Its samples are kept only if endFile is
+     * called with true.
+     * */
+    public void startFile() {
+        file_first_location = Locations.size();
+        file_first_MacAddress = MacAddresses.size();
+    }
+
+    /**
+     * Ends the current RSS log file
+     *
+     * @param authenticated
+     *            false to drop all samples of the file
+     * */
+    public void endFile(boolean authenticated) {
+
+        if (!authenticated) {
+            RejectedFiles.set(file_num);
+
+            // Forget the ids first read in this file, they get new ids if read again
+            for (int l = file_first_location; l < Locations.size(); ++l) {
+                LocationIds.remove(Locations.get(l));
+                Locations.set(l, null);
+            }
+
+            for (int m = file_first_MacAddress; m < MacAddresses.size(); ++m) {
+                MacAddressIds.put(PackedMacAddresses[m], -1);
+                MacAddresses.set(m, null);
+            }
+        }
+        file_num++;
+    }
+
+    /**
+     * Adds a new RSS sample to the current file
+     *
+     * @param location
+     *            the location key "X Y"
+     *
+     * @param packedMacAddress
+     *            the packed MAC address of AP
+     *
+     * @param RSS_Value
+     *            the RSS value, that must fit in a short
+     *
+     * @throws UncheckedIOException
+     *            if a run could not be written, the error is thrown again by finish()
+     * */
+    public void add(String location, long packedMacAddress, int RSS_Value) {
+
+        if (samples_num == sampleLocation.length) {
+            if (samples_num == run_samples) {
+                try {
+                    writeRun();
+                } catch (IOException e) {
+                    error = e;
+                    throw new UncheckedIOException(e);
+                }
+            } else {
+                int capacity = (int) Math.min((long) samples_num << 1, run_samples);
+                sampleLocation = Arrays.copyOf(sampleLocation, capacity);
+                sampleMacAddress = Arrays.copyOf(sampleMacAddress, capacity);
+                sampleFile = Arrays.copyOf(sampleFile, capacity);
+                sampleRSS = Arrays.copyOf(sampleRSS, capacity);
+            }
+        }
+
+        sampleLocation[samples_num] = locationId(location);
+        sampleMacAddress[samples_num] = macAddressId(packedMacAddress);
+        sampleFile[samples_num] = file_num;
+        sampleRSS[samples_num] = (short) RSS_Value;
+        samples_num++;
+    }
+
+    /**
+     * Writes the last run and merges the runs down to as many as can be
+     * read at once. Must be called after the last file is ended and before
+     * the ids are read.
+     *
+     * @throws IOException
+     *            if a run could not be written or merged
+     * */
+    public void finish() throws IOException {
+
+        if (error != null) {
+            throw error;
+        }
+
+        writeRun();
+        sampleLocation = null;
+        sampleMacAddress = null;
+        sampleFile = null;
+        sampleRSS = null;
+
+        while (Runs.size() > MAX_MERGE_RUNS) {
+            ArrayList<File> Merged = new ArrayList<File>();
+
+            for (int first = 0; first < Runs.size(); first += MAX_MERGE_RUNS) {
+                int last = Math.min(first + MAX_MERGE_RUNS, Runs.size());
+
+                if (last - first == 1) {
+                    Merged.add(Runs.get(first));
+                } else {
+                    Merged.add(mergeRuns(Runs.subList(first, last)));
+                }
+            }
+            Runs.clear();
+            Runs.addAll(Merged);
+        }
+
+        // Ids of the files not authenticated are skipped, the order stays the same
+        LocationOrder = new int[Locations.size()];
+        for (int l = 0; l < Locations.size(); ++l) {
+            if (Locations.get(l) != null) {
+                LocationOrder[locations_num++] = l;
+            }
+        }
+
+        MacAddressOrder = new int[MacAddresses.size()];
+        int MacAddress_num = 0;
+        for (int m = 0; m < MacAddresses.size(); ++m) {
+            if (MacAddresses.get(m) != null) {
+                MacAddressOrder[MacAddress_num++] = m;
+            }
+        }
+        MacAddressOrder = Arrays.copyOf(MacAddressOrder, MacAddress_num);
+
+        Merge = new PriorityQueue<RunReader>(Math.max(Runs.size(), 1), RECORD_ORDER);
+
+        for (int r = 0; r < Runs.size(); ++r) {
+            RunReader reader = new RunReader(Runs.get(r), r);
+            if (reader.next()) {
+                Merge.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the samples of the next location from the runs. Locations are
+     * read in the order of their ids.
+     *
+     * @param LocationSamples
+     *            cleared and filled with the samples of the location
+     *
+     * @return
+     *            true if a location was read, false after the last location
+     *
+     * @throws IOException
+     *            if a run could not be read
+     * */
+    public boolean nextLocation(RadioMapStore LocationSamples) throws IOException {
+
+        LocationSamples.clear();
+
+        if (location_num == locations_num) {
+            return false;
+        }
+
+        int id = LocationOrder[location_num];
+        String location = Locations.get(id);
+
+        while (!Merge.isEmpty() && Merge.peek().location <= id) {
+            RunReader reader = Merge.poll();
+
+            if (reader.location == id && !RejectedFiles.get(reader.file)) {
+                LocationSamples.add(location, PackedMacAddresses[reader.MacAddress], reader.RSS_Value);
+            }
+
+            if (reader.next()) {
+                Merge.add(reader);
+            } else {
+                reader.close();
+            }
+        }
+
+        location_num++;
+        return true;
+    }
+
+    /**
+     * Closes and deletes all run files and the runs folder
+     * */
+    public void delete() {
+
+        if (Merge != null) {
+            for (RunReader reader : Merge) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    System.err.println("Error while closing run file: " + e.getMessage());
+                }
+            }
+            Merge.clear();
+        }
+
+        File[] files = runs_folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        runs_folder.delete();
+    }
+
+    public boolean isEmpty() {
+        return getLocationCount() == 0;
+    }
+
+    /**
+     * Getter of the number of locations
+     *
+     * @return
+     *            the number of locations, ids are 0 to count - 1
+     * */
+    public int getLocationCount() {
+        return LocationOrder == null ? LocationIds.size() : locations_num;
+    }
+
+    /**
+     * Getter of a location key
+     *
+     * @param location
+     *            the location id
+     *
+     * @return
+     *            the location key "X Y"
+     * */
+    public String getLocation(int location) {
+        return Locations.get(LocationOrder[location]);
+    }
+
+    /**
+     * Getter of the number of MAC addresses
+     *
+     * @return
+     *            the number of MAC addresses, ids are 0 to count - 1
+     * */
+    public int getMacAddressCount() {
+        return MacAddressOrder == null ? MacAddresses.size() : MacAddressOrder.length;
+    }
+
+    /**
+     * Getter of a MAC address
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the MAC address in lower case
+     * */
+    public String getMacAddress(int MacAddress) {
+        return MacAddresses.get(MacAddressOrder[MacAddress]);
+    }
+
+    /**
+     * Getter of a packed MAC address
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the packed MAC address
+     * */
+    public long getPackedMacAddress(int MacAddress) {
+        return PackedMacAddresses[MacAddressOrder[MacAddress]];
+    }
+
+    private int locationId(String location) {
+        Integer id = LocationIds.get(location);
+
+        if (id == null) {
+            id = Locations.size();
+            LocationIds.put(location, id);
+            Locations.add(location);
+        }
+        return id;
+    }
+
+    private int macAddressId(long packedMacAddress) {
+        int id = MacAddressIds.get(packedMacAddress, -1);
+
+        if (id == -1) {
+            id = MacAddresses.size();
+            MacAddressIds.put(packedMacAddress, id);
+            MacAddresses.add(MacAddress.toString(packedMacAddress));
+
+            if (id == PackedMacAddresses.length) {
+                PackedMacAddresses = Arrays.copyOf(PackedMacAddresses, id << 1);
+            }
+            PackedMacAddresses[id] = packedMacAddress;
+        }
+        return id;
+    }
+
+    /**
+     * Sorts the buffered samples by location and MAC address and writes them
+     * to a new run. Two stable counting sorts keep the samples of every cell
+     * in the order they were read.
+     * */
+    private void writeRun() throws IOException {
+
+        if (samples_num == 0) {
+            return;
+        }
+
+        int[] byMacAddress = new int[samples_num];
+        int[] order = new int[samples_num];
+        int[] counts = new int[Math.max(Locations.size(), MacAddresses.size()) + 1];
+
+        for (int i = 0; i < samples_num; ++i) {
+            counts[sampleMacAddress[i] + 1]++;
+        }
+        for (int m = 0; m < MacAddresses.size(); ++m) {
+            counts[m + 1] += counts[m];
+        }
+        for (int i = 0; i < samples_num; ++i) {
+            byMacAddress[counts[sampleMacAddress[i]]++] = i;
+        }
+
+        Arrays.fill(counts, 0);
+
+        for (int i = 0; i < samples_num; ++i) {
+            counts[sampleLocation[i] + 1]++;
+        }
+        for (int l = 0; l < Locations.size(); ++l) {
+            counts[l + 1] += counts[l];
+        }
+        for (int i = 0; i < samples_num; ++i) {
+            int sample = byMacAddress[i];
+            order[counts[sampleLocation[sample]]++] = sample;
+        }
+
+        File runFile = new File(runs_folder, "run-" + (next_run++) + ".bin");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), BUFFER_SIZE));
+
+        try {
+            for (int i = 0; i < samples_num; ++i) {
+                int sample = order[i];
+
+                // Samples of files already dropped are not written
+                if (!RejectedFiles.get(sampleFile[sample])) {
+                    out.writeInt(sampleLocation[sample]);
+                    out.writeInt(sampleMacAddress[sample]);
+                    out.writeInt(sampleFile[sample]);
+                    out.writeShort(sampleRSS[sample]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+
+        Runs.add(runFile);
+        samples_num = 0;
+    }
+
+    /**
+     * Merges consecutive runs to a new run, keeping the order of samples
+     * read from different runs
+     *
+     * @param Group
+     *            the runs to merge, in the order they were written
+     *
+     * @return
+     *            the merged run
+     * */
+    private File mergeRuns(List<File> Group) throws IOException {
+
+        File runFile = new File(runs_folder, "run-" + (next_run++) + ".bin");
+        PriorityQueue<RunReader> Readers = new PriorityQueue<RunReader>(Group.size(), RECORD_ORDER);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), BUFFER_SIZE));
+
+        try {
+            for (int r = 0; r < Group.size(); ++r) {
+                RunReader reader = new RunReader(Group.get(r), r);
+                if (reader.next()) {
+                    Readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+
+            while (!Readers.isEmpty()) {
+                RunReader reader = Readers.poll();
+
+                if (!RejectedFiles.get(reader.file)) {
+                    out.writeInt(reader.location);
+                    out.writeInt(reader.MacAddress);
+                    out.writeInt(reader.file);
+                    out.writeShort(reader.RSS_Value);
+                }
+
+                if (reader.next()) {
+                    Readers.add(reader);
+                } else {
+                    reader.close();
+                }
+            }
+        } finally {
+            out.close();
+
+            for (RunReader reader : Readers) {
+                reader.close();
+            }
+        }
+
+        for (File merged : Group) {
+            merged.delete();
+        }
+        return runFile;
+    }
+}
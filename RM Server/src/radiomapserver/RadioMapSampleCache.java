@@ -0,0 +1,774 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ *
+ * Binary cache of the range of the radio map samples and of the parsed test
+ * data, e.g. indoor-radiomap-samples.bin. It is written by the build next to
+ * the radio map, and memory mapped by the calibration of the parameters, so
+ * the radio map and the test data are not parsed again for every algorithm
+ * and parameter. All values are little endian:
+ *
+ *  int magic, int version, int flags (1 if indoor), int NaN value,
+ *  long length and long modification time of the radio map file it was
+ *  written with, or -1 if it holds no range,
+ *  int MAC Addresses count, int locations count, int reserved,
+ *  int minimum RSS value without NaN values, int maximum RSS value,
+ *  int reserved, long offset of the test data, or 0 if it holds none.
+ *
+ * The test data, at its offset:
+ *
+ *  long length and long modification time of the test data file,
+ *  int length and the UTF-8 bytes of its absolute path, padding to 8 bytes,
+ *  int MAC Addresses count, int test vectors count,
+ *  long[MAC Addresses] packed MAC Addresses,
+ *  double[vectors] X or Latitude, double[vectors] Y or Longitude, NaN if
+ *  not a number, int[MAC Addresses][vectors] RSS values, one column per
+ *  MAC Address, padding to 8 bytes.
+ *
+ * The test data is kept when the build writes the range again, as long as
+ * the test data file does not change.
+ */
+public class RadioMapSampleCache {
+
+    public static final int MAGIC = 0x43534D52;
+    public static final int VERSION = 2;
+    public static final int FLAG_INDOOR = 1;
+    public static final int HEADER_SIZE = 64;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    
+    private RadioMapSampleCache() {
+    }
+
+    /**
+     * Getter of the cache file of a radio map
+     *
+     * @param radiomap_filename
+     *            the radio map filename, e.g. indoor/indoor-radiomap.txt
+     *
+     * @return
+     *            the cache file next to it, e.g. indoor/indoor-radiomap-samples.bin
+     * */
+    public static File getCacheFile(String radiomap_filename) {
+        return new File(RadioMap.getBase(radiomap_filename) + "-samples.bin");
+    }
+
+    /**
+     * Reads the range of the RSS values of the radio map samples, if the
+     * cache was written with the radio map file
+     *
+     * @param cacheFile
+     *            the cache file
+     *
+     * @param radiomapFile
+     *            the radio map file
+     *
+     * @param isIndoor
+     *            true if locations are X, Y
+     *
+     * @return
+     *            the minimum RSS value without NaN values and the maximum
+     *            RSS value, or null if the cache does not match the radio map
+     * */
+    public static int[] readRSSRange(File cacheFile, File radiomapFile, boolean isIndoor) {
+
+        if (!cacheFile.isFile() || !radiomapFile.isFile()) {
+            return null;
+        }
+
+        try {
+            ByteBuffer buffer = map(cacheFile);
+
+            if (!matches(buffer, isIndoor)
+                    || buffer.getLong(16) != radiomapFile.length()
+                    || buffer.getLong(24) != radiomapFile.lastModified()) {
+                return null;
+            }
+            return new int[]{buffer.getInt(44), buffer.getInt(48)};
+        } catch (IOException e) {
+            System.err.println("Error while mapping radio map samples " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the test data from the cache. If the cache does not hold this
+     * test data file, it is parsed and written to the cache, next to the
+     * samples.
+     *
+     * @param cacheFile
+     *            the cache file
+     *
+     * @param testFile
+     *            the test data file
+     *
+     * @param isIndoor
+     *            true if locations are X, Y
+     *
+     * @return
+     *            the test vectors, or null if the test data file is not valid
+     * */
+    public static TestVectors readTestVectors(File cacheFile, File testFile, boolean isIndoor) {
+
+        ByteBuffer cache = null;
+
+        if (cacheFile.isFile()) {
+            try {
+                cache = map(cacheFile);
+
+                if (!matches(cache, isIndoor)) {
+                    cache = null;
+                }
+            } catch (IOException e) {
+                System.err.println("Error while mapping radio map samples " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+            }
+        }
+
+        if (cache != null && cache.getLong(56) != 0) {
+            ByteBuffer test = slice(cache, cache.getLong(56), cache.capacity());
+
+            if (matches(test, testFile)) {
+                return new TestVectors(test);
+            }
+        }
+
+        ByteBuffer test = parseTestData(testFile, isIndoor);
+
+        if (test == null) {
+            return null;
+        }
+
+        File temp_file = new File(cacheFile.getPath() + ".test.tmp");
+
+        try {
+            FileOutputStream fos = new FileOutputStream(temp_file, false);
+
+            try {
+                FileChannel channel = fos.getChannel();
+                ByteBuffer header;
+
+                if (cache != null) {
+                    // Keep the range, which ends where the test data starts
+                    long end = cache.getLong(56) != 0 ? cache.getLong(56) : cache.capacity();
+                    write(channel, slice(cache, 0, end));
+                } else {
+                    header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                    header.putInt(MAGIC);
+                    header.putInt(VERSION);
+                    header.putInt(isIndoor ? FLAG_INDOOR : 0);
+                    header.putInt(0);
+                    header.putLong(-1);
+                    header.putLong(-1);
+                    header.putInt(0);
+                    header.putInt(0);
+                    header.putInt(0);
+                    header.putInt(Integer.MAX_VALUE);
+                    header.putInt(Integer.MIN_VALUE);
+                    header.putInt(0);
+                    header.putLong(0);
+                    header.flip();
+                    write(channel, header);
+                }
+
+                long offset = channel.position();
+                write(channel, test.duplicate());
+
+                header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                header.putLong(0, offset);
+                channel.write(header, 56);
+            } finally {
+                fos.close();
+            }
+
+            Files.move(temp_file.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The test data parsed is still used, only not kept
+            System.err.println("Error while writing radio map samples " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+            temp_file.delete();
+        }
+
+        return new TestVectors(test);
+    }
+
+    /**
+     * Parses a test data file to the binary test data of the cache
+     *
+     * @param testFile
+     *            the test data file
+     *
+     * @param isIndoor
+     *            true if locations are X, Y
+     *
+     * @return
+     *            the little endian binary test data, or null if the test data file is not valid
+     * */
+    private static ByteBuffer parseTestData(File testFile, boolean isIndoor) {
+
+        RSSLogTokenizer tokenizer = null;
+        int fields_num = 0;
+        long[] PackedMacAddresses = null;
+        double[] X = new double[64];
+        double[] Y = new double[64];
+        int[] RSS = new int[1024];
+        int Vector_num = 0;
+
+        // Both are taken before parsing, so a test data file changed meanwhile is parsed again
+        long length = testFile.length();
+        long lastModified = testFile.lastModified();
+
+        try {
+
+            tokenizer = new RSSLogTokenizer(testFile);
+
+            // Read the first line, must exists
+            if (!tokenizer.nextLine()) {
+                return null;
+            }
+
+            // Store the Mac Addresses
+            if (tokenizer.startsWith('#')) {
+                fields_num = tokenizer.split(false);
+
+                // Must have more than 3 fields
+                if (fields_num < 4) {
+                    return null;
+                } // Must be # Timestamp, X, Y
+                else if (isIndoor && (!tokenizer.getString(1).trim().equalsIgnoreCase("X") || !tokenizer.getString(2).trim().equalsIgnoreCase("Y"))) {
+                    return null;
+                } // Must be # Timestamp, Latitude, Longitude
+                else if (!isIndoor && (!tokenizer.getString(1).trim().equalsIgnoreCase("Latitude") || !tokenizer.getString(2).trim().equalsIgnoreCase("Longitude"))) {
+                    return null;
+                }
+
+                // Store all Mac Addresses
+                PackedMacAddresses = new long[fields_num - 3];
+                for (int i = 3; i < fields_num; ++i) {
+                    PackedMacAddresses[i - 3] = tokenizer.parseMacAddress(i);
+                    if (PackedMacAddresses[i - 3] == MacAddress.INVALID) {
+                        return null;
+                    }
+                }
+            } else {
+                return null;
+            }
+
+            int MacAddress_num = PackedMacAddresses.length;
+
+            while (tokenizer.nextLine()) {
+
+                fields_num = tokenizer.split(true);
+
+                if (fields_num < 3) {
+                    return null;
+                }
+
+                if (MacAddress_num != fields_num - 2) {
+                    return null;
+                }
+
+                if (Vector_num == X.length) {
+                    X = Arrays.copyOf(X, Vector_num * 2);
+                    Y = Arrays.copyOf(Y, Vector_num * 2);
+                }
+
+                if ((long) (Vector_num + 1) * MacAddress_num > RSS.length) {
+                    RSS = Arrays.copyOf(RSS, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) RSS.length * 2, (long) (Vector_num + 1) * MacAddress_num)));
+                }
+
+                for (int i = 2; i < fields_num; ++i) {
+                    RSS[Vector_num * MacAddress_num + i - 2] = tokenizer.parseInt(i);
+                }
+
+                X[Vector_num] = parseCoordinate(tokenizer.getString(0));
+                Y[Vector_num] = parseCoordinate(tokenizer.getString(1));
+                ++Vector_num;
+            }
+
+            byte[] path = testFile.getAbsolutePath().getBytes(UTF8);
+            int path_size = (4 + path.length + 7) / 8 * 8;
+            long size = 16 + path_size + 8 + (long) MacAddress_num * 8 + (long) Vector_num * 16 + pad8((long) MacAddress_num * Vector_num * 4);
+
+            if (size > Integer.MAX_VALUE) {
+                throw new Exception("Test data is too large.");
+            }
+
+            ByteBuffer test = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            test.putLong(length);
+            test.putLong(lastModified);
+            test.putInt(path.length);
+            test.put(path);
+            test.position(16 + path_size);
+            test.putInt(MacAddress_num);
+            test.putInt(Vector_num);
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                test.putLong(PackedMacAddresses[m]);
+            }
+
+            for (int v = 0; v < Vector_num; ++v) {
+                test.putDouble(X[v]);
+            }
+
+            for (int v = 0; v < Vector_num; ++v) {
+                test.putDouble(Y[v]);
+            }
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                for (int v = 0; v < Vector_num; ++v) {
+                    test.putInt(RSS[v * MacAddress_num + m]);
+                }
+            }
+
+            test.clear();
+            return test;
+        } catch (Exception e) {
+            System.err.println("Error while calculating parameters: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Parses a coordinate of a test vector
+     *
+     * @return
+     *            the coordinate, or NaN if it is not a number
+     * */
+    private static double parseCoordinate(String coordinate) {
+
+        try {
+            return Double.parseDouble(coordinate);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Checks that a mapped cache is of this version and kind of locations
+     * */
+    private static boolean matches(ByteBuffer buffer, boolean isIndoor) {
+        return buffer.capacity() >= HEADER_SIZE
+                && buffer.getInt(0) == MAGIC
+                && buffer.getInt(4) == VERSION
+                && ((buffer.getInt(8) & FLAG_INDOOR) != 0) == isIndoor
+                && buffer.getLong(56) >= 0
+                && buffer.getLong(56) <= buffer.capacity();
+    }
+
+    /**
+     * Checks that the test data of a cache was parsed from a test data file
+     * */
+    private static boolean matches(ByteBuffer test, File testFile) {
+
+        if (test.capacity() < 20) {
+            return false;
+        }
+
+        byte[] path = testFile.getAbsolutePath().getBytes(UTF8);
+
+        if (test.getLong(0) != testFile.length()
+                || test.getLong(8) != testFile.lastModified()
+                || test.getInt(16) != path.length
+                || test.capacity() < 20 + path.length) {
+            return false;
+        }
+
+        for (int i = 0; i < path.length; ++i) {
+            if (test.get(20 + i) != path[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps a cache file to memory
+     *
+     * @param cacheFile
+     *            the cache file
+     *
+     * @return
+     *            the little endian read only buffer of the whole file
+     *
+     * @throws IOException
+     *            if the file could not be mapped
+     * */
+    private static MappedByteBuffer map(File cacheFile) throws IOException {
+
+        FileInputStream fis = new FileInputStream(cacheFile);
+
+        try {
+            FileChannel channel = fis.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        } finally {
+            // The mapping stays valid after the channel is closed
+            fis.close();
+        }
+    }
+
+    /**
+     * Views a region of a little endian buffer
+     * */
+    private static ByteBuffer slice(ByteBuffer buffer, long start, long end) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit((int) end);
+        view.position((int) start);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static long pad8(long size) {
+        return (size + 7) / 8 * 8;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the range of the RSS values of a radio map to the cache, as the
+     * radio map rows are written. Errors are reported but do not fail the
+     * build, as the text radio map can always be read instead. Rows formatted
+     * apart are counted by a chunk, until added to the writer in their order.
+     */
+    public static class Writer {
+
+        private final File cacheFile;
+        private final boolean isIndoor;
+        private final int defaultNaNValue;
+        private final int MacAddress_num;
+        private int Location_num = 0;
+        private int column = 0;
+        private int MIN_RSS = Integer.MAX_VALUE;
+        private int MAX_RSS = Integer.MIN_VALUE;
+        private String error = null;
+
+        /**
+         * Constructor of the Writer class
+         *
+         * @param cacheFile
+         *            the cache file
+         *
+         * @param isIndoor
+         *            true if locations are X, Y
+         *
+         * @param defaultNaNValue
+         *            the NaN value the radio map is written with
+         *
+         * @param PackedMacAddresses
+         *            the MAC Addresses of the radio map columns
+         * */
+        public Writer(File cacheFile, boolean isIndoor, int defaultNaNValue, long[] PackedMacAddresses) {
+            this.cacheFile = cacheFile;
+            this.isIndoor = isIndoor;
+            this.defaultNaNValue = defaultNaNValue;
+            this.MacAddress_num = PackedMacAddresses.length;
+        }
+
+        /**
+         * Creates a chunk to count the samples of some locations, which may be
+         * written by another thread
+         *
+         * @return
+         *            the chunk, to add with append when its turn comes
+         * */
+        public Writer newChunk() {
+            return new Writer(cacheFile, isIndoor, defaultNaNValue, new long[MacAddress_num]);
+        }
+
+        /**
+         * Adds the samples of a chunk after those written
+         *
+         * @param chunk
+         *            the chunk, with all its samples complete
+         * */
+        public void append(Writer chunk) {
+
+            if (chunk.error != null && error == null) {
+                error = chunk.error;
+            }
+
+            if (chunk.column != 0 && error == null) {
+                error = "Last sample of a chunk is not complete.";
+            }
+
+            Location_num += chunk.Location_num;
+            MIN_RSS = Math.min(MIN_RSS, chunk.MIN_RSS);
+            MAX_RSS = Math.max(MAX_RSS, chunk.MAX_RSS);
+        }
+
+        /**
+         * Starts the samples of the next location
+         *
+         * @param location
+         *            the location key "X Y"
+         * */
+        public void location(String location) {
+            ++Location_num;
+        }
+
+        /**
+         * Adds the RSS value of the next MAC Address of a sample
+         *
+         * @param RSS_Value
+         *            the RSS value as written to the radio map
+         * */
+        public void add(int RSS_Value) {
+
+            if (error != null) {
+                return;
+            }
+
+            if (RSS_Value != defaultNaNValue && RSS_Value < MIN_RSS) {
+                MIN_RSS = RSS_Value;
+            }
+
+            if (RSS_Value > MAX_RSS) {
+                MAX_RSS = RSS_Value;
+            }
+
+            if (++column == MacAddress_num) {
+                column = 0;
+            }
+        }
+
+        /**
+         * Adds the RSS value of the next MAC Address of a sample, from the
+         * characters of a radio map line
+         *
+         * @param line
+         *            the radio map line
+         *
+         * @param start
+         *            the index of the first character of the RSS value
+         *
+         * @param end
+         *            the index after the last character of the RSS value
+         * */
+        public void add(String line, int start, int end) {
+
+            int i = start;
+            boolean negative = i < end && line.charAt(i) == '-';
+            int RSS_Value = 0;
+
+            if (negative) {
+                ++i;
+            }
+
+            if (i == end || end - i > 9) {
+                error = "RSS value " + line.substring(start, end) + " is not valid.";
+                return;
+            }
+
+            for (; i < end; ++i) {
+                char c = line.charAt(i);
+
+                if (c < '0' || c > '9') {
+                    error = "RSS value " + line.substring(start, end) + " is not valid.";
+                    return;
+                }
+                RSS_Value = RSS_Value * 10 + (c - '0');
+            }
+
+            add(negative ? -RSS_Value : RSS_Value);
+        }
+
+        /**
+         * Writes the cache after the radio map file is written and closed,
+         * with the test data of the previous cache
+         *
+         * @param radiomapFile
+         *            the radio map file
+         * */
+        public void finish(File radiomapFile) {
+
+            File temp_file = new File(cacheFile.getPath() + ".tmp");
+
+            try {
+                if (error != null) {
+                    throw new IOException(error);
+                }
+
+                if (column != 0) {
+                    throw new IOException("Last sample is not complete.");
+                }
+
+                ByteBuffer test = null;
+
+                if (cacheFile.isFile()) {
+                    ByteBuffer cache = map(cacheFile);
+
+                    if (matches(cache, isIndoor) && cache.getLong(56) != 0) {
+                        test = slice(cache, cache.getLong(56), cache.capacity());
+                    }
+                }
+
+                FileOutputStream fos = new FileOutputStream(temp_file, false);
+
+                try {
+                    FileChannel channel = fos.getChannel();
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+                    header.putInt(MAGIC);
+                    header.putInt(VERSION);
+                    header.putInt(isIndoor ? FLAG_INDOOR : 0);
+                    header.putInt(defaultNaNValue);
+                    header.putLong(radiomapFile.length());
+                    header.putLong(radiomapFile.lastModified());
+                    header.putInt(MacAddress_num);
+                    header.putInt(Location_num);
+                    header.putInt(0);
+                    header.putInt(MIN_RSS);
+                    header.putInt(MAX_RSS);
+                    header.putInt(0);
+                    header.putLong(test != null ? HEADER_SIZE : 0);
+                    header.flip();
+                    write(channel, header);
+
+                    if (test != null) {
+                        write(channel, test);
+                    }
+                } finally {
+                    fos.close();
+                }
+
+                Files.move(temp_file.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch (IOException e) {
+                System.err.println("Error while writing radio map samples " + cacheFile.getAbsolutePath() + ": " + e.getMessage());
+                temp_file.delete();
+            }
+        }
+
+        /**
+         * Discards the samples counted, when the radio map is not written
+         * */
+        public void abort() {
+            error = "Radio map is not written.";
+        }
+    }
+
+    /**
+     * The test vectors of a test data file, read from the cache
+     */
+    public static class TestVectors {
+
+        private final ByteBuffer buffer;
+        private final int MacAddress_num;
+        private final int Vector_num;
+        private final long[] PackedMacAddresses;
+        private final String[] MacAddresses;
+        private final int X_offset;
+        private final int Y_offset;
+        private final int RSS_offset;
+
+        private TestVectors(ByteBuffer buffer) {
+            int position = 16 + (4 + buffer.getInt(16) + 7) / 8 * 8;
+
+            this.buffer = buffer;
+            this.MacAddress_num = buffer.getInt(position);
+            this.Vector_num = buffer.getInt(position + 4);
+            this.PackedMacAddresses = new long[MacAddress_num];
+            this.MacAddresses = new String[MacAddress_num];
+            position += 8;
+
+            for (int m = 0; m < MacAddress_num; ++m) {
+                PackedMacAddresses[m] = buffer.getLong(position + m * 8);
+                MacAddresses[m] = MacAddress.toString(PackedMacAddresses[m]);
+            }
+
+            this.X_offset = position + MacAddress_num * 8;
+            this.Y_offset = X_offset + Vector_num * 8;
+            this.RSS_offset = Y_offset + Vector_num * 8;
+        }
+
+        public int getVectorCount() {
+            return Vector_num;
+        }
+
+        public int getMacAddressCount() {
+            return MacAddress_num;
+        }
+
+        public String getMacAddress(int MacAddress) {
+            return MacAddresses[MacAddress];
+        }
+
+        public long getPackedMacAddress(int MacAddress) {
+            return PackedMacAddresses[MacAddress];
+        }
+
+        /**
+         * Getter of the X or Latitude of a test vector
+         *
+         * @return
+         *            the coordinate, or NaN if it is not a number in the test data
+         * */
+        public double getX(int vector) {
+            return buffer.getDouble(X_offset + vector * 8);
+        }
+
+        /**
+         * Getter of the Y or Longitude of a test vector
+         *
+         * @return
+         *            the coordinate, or NaN if it is not a number in the test data
+         * */
+        public double getY(int vector) {
+            return buffer.getDouble(Y_offset + vector * 8);
+        }
+
+        public int getRSS(int vector, int MacAddress) {
+            return buffer.getInt(RSS_offset + (MacAddress * Vector_num + vector) * 4);
+        }
+    }
+}
@@ -530,8 +530,18 @@ public class RadioMapServer extends javax.swing.JFrame {
     private void Create_Outdoor_Radiomap_ParametersActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_Create_Outdoor_Radiomap_ParametersActionPerformed
         File folderOutdoor = new File(outdoorRSSFolder);
         rmOutdoor = new RadioMap(folderOutdoor, outdoorFilename, set.getDefaultNaNValue());
+        boolean created;
+
+        rmOutdoor.lockWriter();
+        try {
+            // The radio map mean is written again if the NaN value changed since it was created
+            rmOutdoor.updateRadioMapMean();
+            created = rmOutdoor.writeParameters(outdoorTestData) && rmOutdoor.publishSnapshot() != -1;
+        } finally {
+            rmOutdoor.unlockWriter();
+        }
 
-        if (!rmOutdoor.writeParameters(outdoorTestData)) {
+        if (!created) {
             JOptionPane.showMessageDialog(null, "There was a problem creating outdoor parameters.\n"
                     + "Existed outdoor parameters will be used if exist!", "Warning", JOptionPane.WARNING_MESSAGE);
             return;
@@ -544,8 +554,18 @@ public class RadioMapServer extends javax.swing.JFrame {
     private void Create_Indoor_Radiomap_ParametersActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_Create_Indoor_Radiomap_ParametersActionPerformed
         File folderIndoor = new File(indoorRSSFolder);
         rmIndoor = new RadioMap(folderIndoor, indoorFilename, set.getDefaultNaNValue());
+        boolean created;
+
+        rmIndoor.lockWriter();
+        try {
+            // The radio map mean is written again if the NaN value changed since it was created
+            rmIndoor.updateRadioMapMean();
+            created = rmIndoor.writeParameters(indoorTestData) && rmIndoor.publishSnapshot() != -1;
+        } finally {
+            rmIndoor.unlockWriter();
+        }
 
-        if (!rmIndoor.writeParameters(indoorTestData)) {
+        if (!created) {
             JOptionPane.showMessageDialog(null, "There was a problem creating indoor parameters.\n"
                     + "Existed indoor parameters will be used if exist!", "Warning", JOptionPane.WARNING_MESSAGE);
             return;
@@ -558,7 +578,18 @@ public class RadioMapServer extends javax.swing.JFrame {
         File folderIndoor = new File(indoorRSSFolder);
         if (folderIndoor.exists() && folderIndoor.canRead() && folderIndoor.isDirectory()) {
             rmIndoor = new RadioMap(folderIndoor, indoorFilename, set.getDefaultNaNValue());
-            if (!rmIndoor.createRadioMap()) {
+            rmIndoor.setParallelBuild(true);
+            rmIndoor.setIncrementalBuild(true);
+            boolean created;
+
+            rmIndoor.lockWriter();
+            try {
+                created = rmIndoor.createRadioMap() && rmIndoor.publishSnapshot() != -1;
+            } finally {
+                rmIndoor.unlockWriter();
+            }
+
+            if (!created) {
                 JOptionPane.showMessageDialog(null, "There was a problem creating the indoor radio map.\n"
                         + "Existed Indoor Radio Map will be used if exists!", "Warning", JOptionPane.WARNING_MESSAGE);
             } else {
@@ -573,7 +604,18 @@ public class RadioMapServer extends javax.swing.JFrame {
         File folderOutdoor = new File(outdoorRSSFolder);
         if (folderOutdoor.exists() && folderOutdoor.canRead() && folderOutdoor.isDirectory()) {
             rmOutdoor = new RadioMap(folderOutdoor, outdoorFilename, set.getDefaultNaNValue());
-            if (!rmOutdoor.createRadioMap()) {
+            rmOutdoor.setParallelBuild(true);
+            rmOutdoor.setIncrementalBuild(true);
+            boolean created;
+
+            rmOutdoor.lockWriter();
+            try {
+                created = rmOutdoor.createRadioMap() && rmOutdoor.publishSnapshot() != -1;
+            } finally {
+                rmOutdoor.unlockWriter();
+            }
+
+            if (!created) {
                 JOptionPane.showMessageDialog(null, "There was a problem creating the outdoor radio map.\n"
                         + "Existed Outdoor Radio Map will be used if exists!", "Warning", JOptionPane.WARNING_MESSAGE);
             } else {
@@ -610,7 +652,10 @@ public class RadioMapServer extends javax.swing.JFrame {
 
             if (IndoorMode == null) {
                 indoorPort = set.getPortNumIndoor();
-                IndoorMode = new ServerMode(indoorPort, indoorRSSFolder, new File(indoorFilename.replace(".", "-mean.")), ServerMode.MODE.INDOOR, logIndoorDisplay, State_Indoor_Text, model_Server_Indoor);
+                RadioMap rmLive = new RadioMap(new File(indoorRSSFolder), indoorFilename, set.getDefaultNaNValue());
+                rmLive.setParallelBuild(true);
+                rmLive.setIncrementalBuild(true);
+                IndoorMode = new ServerMode(indoorPort, indoorRSSFolder, new File(RadioMap.getFilename(indoorFilename, "-mean")), ServerMode.MODE.INDOOR, logIndoorDisplay, State_Indoor_Text, model_Server_Indoor, new RadioMapIngestor(rmLive, new File(indoorTestData).isFile() ? indoorTestData : null));
                 IndoorMode.start();
             }
 
@@ -644,7 +689,10 @@ public class RadioMapServer extends javax.swing.JFrame {
 
             if (OutdoorMode == null) {
                 outdoorPort = set.getPortNumOutdoor();
-                OutdoorMode = new ServerMode(outdoorPort, outdoorRSSFolder, new File(outdoorFilename.replace(".", "-mean.")), ServerMode.MODE.OUTDOOR, logOutdoorDisplay, State_Outdoor_Text, model_Server_Outdoor);
+                RadioMap rmLive = new RadioMap(new File(outdoorRSSFolder), outdoorFilename, set.getDefaultNaNValue());
+                rmLive.setParallelBuild(true);
+                rmLive.setIncrementalBuild(true);
+                OutdoorMode = new ServerMode(outdoorPort, outdoorRSSFolder, new File(RadioMap.getFilename(outdoorFilename, "-mean")), ServerMode.MODE.OUTDOOR, logOutdoorDisplay, State_Outdoor_Text, model_Server_Outdoor, new RadioMapIngestor(rmLive, new File(outdoorTestData).isFile() ? outdoorTestData : null));
                 OutdoorMode.start();
             }
 
@@ -0,0 +1,555 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ *
+ * A published version of the files distributed for a radio map mean: the
+ * radio map mean with its binary, compact, groups and clusters files, and
+ * the parameters. Every version is a folder that is never written again,
+ * in a snapshots folder next to the radio map mean, e.g.
+ * indoor-radiomap-mean-snapshots/v12. The "current" file of the snapshots
+ * folder names the latest version.
+ *
+ * A version is written to a hidden staging folder first, that is renamed to
+ * its version when published, and the current file is replaced by renaming,
+ * so readers see either the previous or the new version as a whole. Only
+ * the thread holding the writer lock of the radio map writes to its staging
+ * folder, so the files of a version always come from the same build. The
+ * files published are then copied next to the radio map mean, replacing
+ * each file by renaming, for the readers of the files in place.
+ *
+ * A snapshot counts its references, and a version opened twice in the
+ * process is the same snapshot. The reference of the server to its current
+ * version is released when a newer version is served, and the version
+ * folder is deleted when its last download releases it, unless it is still
+ * the current version.
+ */
+public class RadioMapSnapshot {
+
+    private static final String CURRENT = "current";
+    private static final String STAGING = ".staging";
+    private static final String DELETED = ".deleted-";
+    // The snapshots with references in this process, by version folder
+    private static final HashMap<File, RadioMapSnapshot> Opened = new HashMap<File, RadioMapSnapshot>();
+    // The writer locks of the radio maps written in this process, by snapshots folder
+    private static final HashMap<File, ReentrantLock> Writers = new HashMap<File, ReentrantLock>();
+    private final File meanFile;
+    private final File folder;
+    private final int version;
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    private RadioMapSnapshot(File meanFile, File folder, int version) {
+        this.meanFile = meanFile;
+        this.folder = folder;
+        this.version = version;
+    }
+
+    /**
+     * Getter of the snapshots folder of a radio map mean file
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the folder next to it, named as the mean with "-snapshots"
+     * */
+    public static File getSnapshotsFolder(File meanFile) {
+        String name = meanFile.getName();
+        int dot = name.lastIndexOf('.');
+
+        if (dot != -1) {
+            name = name.substring(0, dot);
+        }
+        return new File(meanFile.getAbsoluteFile().getParentFile(), name + "-snapshots");
+    }
+
+    /**
+     * Getter of the file naming the current version of a radio map mean
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the file, rewritten every time a version is published
+     * */
+    public static File getCurrentFile(File meanFile) {
+        return new File(getSnapshotsFolder(meanFile), CURRENT);
+    }
+
+    /**
+     * Getter of the writer lock of a radio map mean, the same for every
+     * radio map written to the same files in the process
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the lock to hold while the files of the radio map are
+     *            written and published
+     * */
+    public static synchronized ReentrantLock getWriterLock(File meanFile) {
+
+        File snapshots = getSnapshotsFolder(meanFile).toPath().normalize().toFile();
+        ReentrantLock writer = Writers.get(snapshots);
+
+        if (writer == null) {
+            writer = new ReentrantLock();
+            Writers.put(snapshots, writer);
+        }
+        return writer;
+    }
+
+    /**
+     * Getter of the staging folder the next version of a radio map mean is
+     * written to. The folder is created with the files of the current
+     * version, or of the files next to the radio map mean if no version is
+     * published, so that the files not written again are published as they are.
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param parametersFile
+     *            the parameters file
+     *
+     * @return
+     *            the staging folder
+     *
+     * @throws IOException
+     *            if the writer lock is not held, or the folder could not be created
+     * */
+    public static File stage(File meanFile, File parametersFile) throws IOException {
+
+        if (!getWriterLock(meanFile).isHeldByCurrentThread()) {
+            throw new IOException("Radio map " + meanFile.getAbsolutePath() + " is written without its writer lock.");
+        }
+
+        File snapshots = getSnapshotsFolder(meanFile);
+        File staging = new File(snapshots, STAGING);
+
+        if (staging.isDirectory()) {
+            return staging;
+        }
+
+        if (!staging.mkdirs()) {
+            throw new IOException("Cannot create staging folder " + staging.getAbsolutePath());
+        }
+
+        int current = readCurrentVersion(meanFile);
+        File[] Published = current == -1 ? null : new File(snapshots, "v" + current).listFiles();
+
+        if (Published == null) {
+            Published = getDistributedFiles(meanFile, parametersFile);
+        }
+
+        try {
+            // Modification times are kept, as the binary files are matched to the mean by them
+            for (File file : Published) {
+                if (file.isFile()) {
+                    Files.copy(file.toPath(), new File(staging, file.getName()).toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        } catch (IOException e) {
+            delete(staging);
+            throw e;
+        }
+        return staging;
+    }
+
+    /**
+     * Deletes the staging folder of a radio map mean, with the files written
+     * and not published
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     * */
+    public static void discard(File meanFile) {
+        delete(new File(getSnapshotsFolder(meanFile), STAGING));
+    }
+
+    /**
+     * Publishes the radio map mean and parameters written to the staging
+     * folder as a new version, and copies them next to the radio map mean.
+     * The writer lock of the radio map is the only lock held, so connections
+     * to this or other radio maps are not blocked while the files are forced.
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param parametersFile
+     *            the parameters file
+     *
+     * @return
+     *            the version published
+     *
+     * @throws IOException
+     *            if the writer lock is not held, or the version could not be published
+     * */
+    public static int publish(File meanFile, File parametersFile) throws IOException {
+
+        File snapshots = getSnapshotsFolder(meanFile);
+        File staging = stage(meanFile, parametersFile);
+
+        if (!new File(staging, meanFile.getName()).isFile()) {
+            throw new IOException("Radio map mean " + meanFile.getAbsolutePath() + " not found.");
+        }
+
+        int version = Math.max(readCurrentVersion(meanFile), latestVersion(snapshots)) + 1;
+        File folder = new File(snapshots, "v" + version);
+        File[] Staged = staging.listFiles();
+
+        if (Staged != null) {
+            for (File file : Staged) {
+                force(file);
+            }
+        }
+
+        Files.move(staging.toPath(), folder.toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        File current_temp = new File(snapshots, "." + CURRENT + ".tmp");
+        FileOutputStream fos = new FileOutputStream(current_temp, false);
+
+        try {
+            fos.write(("v" + version + "\n").getBytes());
+            fos.getFD().sync();
+        } finally {
+            fos.close();
+        }
+
+        Files.move(current_temp.toPath(), new File(snapshots, CURRENT).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        for (File file : getDistributedFiles(meanFile, parametersFile)) {
+            install(new File(folder, file.getName()), file);
+        }
+        return version;
+    }
+
+    /**
+     * Reads the current version of a radio map mean
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @return
+     *            the current version, or -1 if no version is published
+     * */
+    public static int readCurrentVersion(File meanFile) {
+
+        File current = getCurrentFile(meanFile);
+        BufferedReader reader = null;
+
+        if (!current.isFile()) {
+            return -1;
+        }
+
+        try {
+            reader = new BufferedReader(new FileReader(current));
+            return parseVersion(reader.readLine());
+        } catch (IOException e) {
+            System.err.println("Error while reading current snapshot: " + e.getMessage());
+            return -1;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    System.err.println("Error while reading current snapshot: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a published version of a radio map mean, with one more reference
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param version
+     *            the version
+     *
+     * @return
+     *            the snapshot, or null if the version does not exist
+     * */
+    public static synchronized RadioMapSnapshot open(File meanFile, int version) {
+
+        File folder = new File(getSnapshotsFolder(meanFile), "v" + version).getAbsoluteFile();
+        RadioMapSnapshot snapshot = Opened.get(folder);
+
+        if (snapshot != null && snapshot.acquire()) {
+            return snapshot;
+        }
+
+        if (!new File(folder, meanFile.getName()).isFile()) {
+            return null;
+        }
+
+        snapshot = new RadioMapSnapshot(meanFile, folder, version);
+        Opened.put(folder, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Deletes the versions of a radio map mean older than a version, that are
+     * not opened in this process
+     *
+     * @param meanFile
+     *            the radio map mean text file
+     *
+     * @param version
+     *            the oldest version kept
+     * */
+    public static void deleteOlder(File meanFile, int version) {
+
+        File[] list = getSnapshotsFolder(meanFile).getAbsoluteFile().listFiles();
+
+        if (list == null) {
+            return;
+        }
+
+        for (File folder : list) {
+            int old = parseVersion(folder.getName());
+
+            if (old != -1 && old < version) {
+                folder = retire(folder);
+            } else if (!folder.getName().startsWith(DELETED)) {
+                continue;
+            }
+
+            // Not opened, and out of reach of open once renamed
+            if (folder != null) {
+                delete(folder);
+            }
+        }
+    }
+
+    /**
+     * Getter of the version
+     *
+     * @return
+     *            the version
+     * */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Getter of a file of the version
+     *
+     * @param file
+     *            the file as written next to the radio map mean
+     *
+     * @return
+     *            the file with the same name in the version folder
+     * */
+    public File getFile(File file) {
+        return new File(folder, file.getName());
+    }
+
+    /**
+     * Adds a reference to the snapshot, unless it is already deleted
+     *
+     * @return
+     *            true if the reference is added, false if the snapshot is deleted
+     * */
+    public boolean acquire() {
+
+        while (true) {
+            int count = references.get();
+
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a reference to the snapshot. The version folder is deleted
+     * with the last reference, if a newer version is published.
+     * */
+    public void release() {
+
+        if (references.decrementAndGet() != 0) {
+            return;
+        }
+
+        if (readCurrentVersion(meanFile) <= version) {
+            synchronized (RadioMapSnapshot.class) {
+                // Opened again since, as a new snapshot
+                if (Opened.get(folder) == this) {
+                    Opened.remove(folder);
+                }
+            }
+            return;
+        }
+
+        File deleted = retire(folder);
+
+        if (deleted != null) {
+            delete(deleted);
+        }
+    }
+
+    /**
+     * Renames a version folder that is not opened out of the way of open,
+     * so that it can be deleted without holding the lock of open
+     *
+     * @param folder
+     *            the version folder
+     *
+     * @return
+     *            the folder renamed, or null if it is opened or could not be renamed
+     * */
+    private static synchronized File retire(File folder) {
+
+        RadioMapSnapshot snapshot = Opened.get(folder);
+
+        // Opened again since, as a new snapshot
+        if (snapshot != null && snapshot.references.get() != 0) {
+            return null;
+        }
+        Opened.remove(folder);
+
+        File deleted = new File(folder.getParentFile(), DELETED + folder.getName() + "-" + System.nanoTime());
+        return folder.renameTo(deleted) ? deleted : null;
+    }
+
+    private static File[] getDistributedFiles(File meanFile, File parametersFile) {
+
+        File[] Distributed = {
+            meanFile,
+            RadioMapMeanBinary.getBinaryFile(meanFile),
+            RadioMapCompact.getCompactFile(meanFile),
+            RadioMapGrouping.getGroupsFile(meanFile),
+            RadioMapClusters.getClustersFile(meanFile),
+            parametersFile
+        };
+        return Distributed;
+    }
+
+    /**
+     * Replaces a file next to the radio map mean with its published version
+     * by renaming, or deletes it if the version has none
+     *
+     * @param published
+     *            the file in the version folder
+     *
+     * @param file
+     *            the file next to the radio map mean
+     * */
+    private static void install(File published, File file) {
+
+        File temp = new File(file.getAbsoluteFile().getParentFile(), "." + file.getName() + ".tmp");
+
+        try {
+            if (!published.isFile()) {
+                Files.deleteIfExists(file.toPath());
+                return;
+            }
+
+            Files.copy(published.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Error while installing published " + file.getName() + ": " + e.getMessage());
+            temp.delete();
+        }
+    }
+
+    private static int latestVersion(File snapshots) {
+
+        int latest = 0;
+        String[] list = snapshots.list();
+
+        if (list != null) {
+            for (String name : list) {
+                latest = Math.max(latest, parseVersion(name));
+            }
+        }
+        return latest;
+    }
+
+    private static int parseVersion(String name) {
+
+        if (name == null || !name.startsWith("v")) {
+            return -1;
+        }
+
+        try {
+            return Integer.parseInt(name.substring(1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void force(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private static void delete(File file) {
+
+        File[] list = file.listFiles();
+
+        if (list != null) {
+            for (File child : list) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
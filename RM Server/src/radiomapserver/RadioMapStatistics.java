@@ -0,0 +1,444 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ *
+ * Streaming aggregate of the RSS samples. Every (location, MAC address) cell
+ * keeps only the count, the sum and the running mean and M2 of its samples
+ * (Welford), so memory depends on the number of locations and MAC addresses
+ * and not on the number of samples read.
+ *
+ * The statistics are sufficient to write the radio map mean again with
+ * another NaN value, so they are kept next to the radio map in binary form.
+ */
+public class RadioMapStatistics implements RadioMapAggregate {
+
+    private static final int STATISTICS_MAGIC = 0x52534D53;
+
+    private final HashMap<String, Integer> LocationIds;
+    private final ArrayList<String> Locations;
+    private final LongIntHashMap MacAddressIds;
+    private final ArrayList<String> MacAddresses;
+    private long[] PackedMacAddresses;
+    // Cell of each (location id, MAC address id) pair
+    private final LongIntHashMap Cells;
+    private int cells_num = 0;
+    private int[] cellLocation;
+    private int[] cellMacAddress;
+    private int[] cellCount;
+    private long[] cellSum;
+    private double[] cellMean;
+    private double[] cellM2;
+    private int[] locationMaxCount;
+
+    public RadioMapStatistics() {
+        LocationIds = new HashMap<String, Integer>();
+        Locations = new ArrayList<String>();
+        MacAddressIds = new LongIntHashMap(256);
+        MacAddresses = new ArrayList<String>();
+        PackedMacAddresses = new long[256];
+        Cells = new LongIntHashMap(1024);
+        cellLocation = new int[1024];
+        cellMacAddress = new int[1024];
+        cellCount = new int[1024];
+        cellSum = new long[1024];
+        cellMean = new double[1024];
+        cellM2 = new double[1024];
+        locationMaxCount = new int[64];
+    }
+
+    public void add(String location, long packedMacAddress, int RSS_Value) {
+
+        int cell = getCell(locationId(location), macAddressId(packedMacAddress));
+        int count = ++cellCount[cell];
+        double delta = RSS_Value - cellMean[cell];
+
+        cellSum[cell] += RSS_Value;
+        cellMean[cell] += delta / count;
+        cellM2[cell] += delta * (RSS_Value - cellMean[cell]);
+
+        updateMaxCount(cell);
+    }
+
+    /**
+     * Adds the statistics of another aggregate, as if its samples were
+     * added after the samples already read
+     *
+     * @param other
+     *            the statistics to add
+     * */
+    public void merge(RadioMapStatistics other) {
+
+        int[] LocationMapping = new int[other.getLocationCount()];
+        int[] MacAddressMapping = new int[other.getMacAddressCount()];
+
+        for (int i = 0; i < LocationMapping.length; ++i) {
+            LocationMapping[i] = locationId(other.getLocation(i));
+        }
+
+        for (int i = 0; i < MacAddressMapping.length; ++i) {
+            MacAddressMapping[i] = macAddressId(other.getPackedMacAddress(i));
+        }
+
+        for (int otherCell = 0; otherCell < other.cells_num; ++otherCell) {
+
+            int cell = getCell(LocationMapping[other.cellLocation[otherCell]], MacAddressMapping[other.cellMacAddress[otherCell]]);
+            int count = cellCount[cell];
+            int otherCount = other.cellCount[otherCell];
+            int total = count + otherCount;
+            double delta = other.cellMean[otherCell] - cellMean[cell];
+
+            // Parallel combination of the running mean and M2
+            cellMean[cell] += delta * otherCount / total;
+            cellM2[cell] += other.cellM2[otherCell] + delta * delta * ((double) count * otherCount / total);
+            cellSum[cell] += other.cellSum[otherCell];
+            cellCount[cell] = total;
+
+            updateMaxCount(cell);
+        }
+    }
+
+    /**
+     * Creates the statistics of the samples of an aggregate, with the same
+     * location and MAC address ids
+     *
+     * @param Aggregate
+     *            the aggregate
+     *
+     * @return
+     *            the statistics of every cell of the aggregate
+     * */
+    public static RadioMapStatistics of(RadioMapAggregate Aggregate) {
+
+        if (Aggregate instanceof RadioMapStatistics) {
+            return (RadioMapStatistics) Aggregate;
+        }
+
+        RadioMapStatistics statistics = new RadioMapStatistics();
+
+        for (int l = 0; l < Aggregate.getLocationCount(); ++l) {
+            statistics.locationId(Aggregate.getLocation(l));
+        }
+
+        for (int m = 0; m < Aggregate.getMacAddressCount(); ++m) {
+            statistics.macAddressId(Aggregate.getPackedMacAddress(m));
+        }
+
+        for (int l = 0; l < Aggregate.getLocationCount(); ++l) {
+            for (int m = 0; m < Aggregate.getMacAddressCount(); ++m) {
+                int otherCell = Aggregate.findCell(l, m);
+
+                if (otherCell == -1) {
+                    continue;
+                }
+
+                int cell = statistics.getCell(l, m);
+                int count = Aggregate.getSampleCount(otherCell);
+
+                statistics.cellCount[cell] = count;
+                statistics.cellSum[cell] = Aggregate.getSampleSum(otherCell);
+                statistics.cellMean[cell] = (double) statistics.cellSum[cell] / count;
+                statistics.cellM2[cell] = Aggregate.getVariance(otherCell) * (count - 1);
+                statistics.updateMaxCount(cell);
+            }
+        }
+        return statistics;
+    }
+
+    /**
+     * Writes the statistics in binary form
+     *
+     * @param out
+     *            the stream to write to
+     *
+     * @throws IOException
+     *            if the statistics could not be written
+     * */
+    public void write(DataOutputStream out) throws IOException {
+
+        out.writeInt(STATISTICS_MAGIC);
+
+        out.writeInt(Locations.size());
+        for (int l = 0; l < Locations.size(); ++l) {
+            out.writeUTF(Locations.get(l));
+        }
+
+        out.writeInt(MacAddresses.size());
+        for (int m = 0; m < MacAddresses.size(); ++m) {
+            out.writeLong(PackedMacAddresses[m]);
+        }
+
+        out.writeInt(cells_num);
+        for (int cell = 0; cell < cells_num; ++cell) {
+            out.writeInt(cellLocation[cell]);
+            out.writeInt(cellMacAddress[cell]);
+            out.writeInt(cellCount[cell]);
+            out.writeLong(cellSum[cell]);
+            out.writeDouble(cellMean[cell]);
+            out.writeDouble(cellM2[cell]);
+        }
+    }
+
+    /**
+     * Reads statistics written by write. The maximum number of samples of
+     * every location is found from the counts of its cells.
+     *
+     * @param in
+     *            the stream to read from
+     *
+     * @return
+     *            the statistics read
+     *
+     * @throws IOException
+     *            if the stream is not statistics or could not be read
+     * */
+    public static RadioMapStatistics read(DataInputStream in) throws IOException {
+
+        RadioMapStatistics statistics = new RadioMapStatistics();
+
+        if (in.readInt() != STATISTICS_MAGIC) {
+            throw new IOException("Not radio map statistics.");
+        }
+
+        int count = in.readInt();
+        for (int l = 0; l < count; ++l) {
+            statistics.locationId(in.readUTF());
+        }
+
+        count = in.readInt();
+        for (int m = 0; m < count; ++m) {
+            statistics.macAddressId(in.readLong());
+        }
+
+        count = in.readInt();
+        for (int c = 0; c < count; ++c) {
+            int location = in.readInt();
+            int MacAddress = in.readInt();
+            int samples = in.readInt();
+
+            if (location < 0 || location >= statistics.getLocationCount() || MacAddress < 0 || MacAddress >= statistics.getMacAddressCount() || samples < 1) {
+                throw new IOException("Corrupted radio map statistics.");
+            }
+
+            int cell = statistics.getCell(location, MacAddress);
+
+            statistics.cellCount[cell] = samples;
+            statistics.cellSum[cell] = in.readLong();
+            statistics.cellMean[cell] = in.readDouble();
+            statistics.cellM2[cell] = in.readDouble();
+            statistics.updateMaxCount(cell);
+        }
+        return statistics;
+    }
+
+    public boolean isEmpty() {
+        return Locations.isEmpty();
+    }
+
+    public int getLocationCount() {
+        return Locations.size();
+    }
+
+    public String getLocation(int location) {
+        return Locations.get(location);
+    }
+
+    public int getMacAddressCount() {
+        return MacAddresses.size();
+    }
+
+    public String getMacAddress(int MacAddress) {
+        return MacAddresses.get(MacAddress);
+    }
+
+    public long getPackedMacAddress(int MacAddress) {
+        return PackedMacAddresses[MacAddress];
+    }
+
+    /**
+     * Finds the id of a location
+     *
+     * @param location
+     *            the location key "X Y"
+     *
+     * @return
+     *            the location id, or -1 if no sample recorded in this location
+     * */
+    public int findLocation(String location) {
+        Integer id = LocationIds.get(location);
+
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Finds the id of a MAC address
+     *
+     * @param packedMacAddress
+     *            the packed MAC address
+     *
+     * @return
+     *            the MAC address id, or -1 if no sample recorded for this MAC address
+     * */
+    public int findMacAddress(long packedMacAddress) {
+        return MacAddressIds.get(packedMacAddress, -1);
+    }
+
+    public int findCell(int location, int MacAddress) {
+        return Cells.get(cellKey(location, MacAddress), -1);
+    }
+
+    public long getCellMacAddress(int cell) {
+        return PackedMacAddresses[cellMacAddress[cell]];
+    }
+
+    public int getSampleCount(int cell) {
+        return cellCount[cell];
+    }
+
+    public long getSampleSum(int cell) {
+        return cellSum[cell];
+    }
+
+    /**
+     * Getter of the mean of samples of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the mean RSS value
+     * */
+    public double getMean(int cell) {
+        return cellMean[cell];
+    }
+
+    /**
+     * Getter of the sample variance of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the variance of RSS values, or 0 if the cell has less than two samples
+     * */
+    public double getVariance(int cell) {
+        if (cellCount[cell] < 2) {
+            return 0;
+        }
+        return cellM2[cell] / (cellCount[cell] - 1);
+    }
+
+    public int getMaxSampleCount(int location) {
+        return locationMaxCount[location];
+    }
+
+    private int locationId(String location) {
+        Integer id = LocationIds.get(location);
+
+        if (id == null) {
+            id = Locations.size();
+            LocationIds.put(location, id);
+            Locations.add(location);
+
+            if (id == locationMaxCount.length) {
+                locationMaxCount = Arrays.copyOf(locationMaxCount, id << 1);
+            }
+        }
+        return id;
+    }
+
+    private int macAddressId(long packedMacAddress) {
+        int id = MacAddressIds.get(packedMacAddress, -1);
+
+        if (id == -1) {
+            id = MacAddresses.size();
+            MacAddressIds.put(packedMacAddress, id);
+            MacAddresses.add(MacAddress.toString(packedMacAddress));
+
+            if (id == PackedMacAddresses.length) {
+                PackedMacAddresses = Arrays.copyOf(PackedMacAddresses, id << 1);
+            }
+            PackedMacAddresses[id] = packedMacAddress;
+        }
+        return id;
+    }
+
+    private static long cellKey(int location, int MacAddress) {
+        return ((long) location << 32) | (MacAddress & 0xFFFFFFFFL);
+    }
+
+    private int getCell(int location, int MacAddress) {
+        long key = cellKey(location, MacAddress);
+        int cell = Cells.get(key, -1);
+
+        if (cell == -1) {
+            cell = cells_num++;
+
+            if (cell == cellCount.length) {
+                cellLocation = Arrays.copyOf(cellLocation, cell << 1);
+                cellMacAddress = Arrays.copyOf(cellMacAddress, cell << 1);
+                cellCount = Arrays.copyOf(cellCount, cell << 1);
+                cellSum = Arrays.copyOf(cellSum, cell << 1);
+                cellMean = Arrays.copyOf(cellMean, cell << 1);
+                cellM2 = Arrays.copyOf(cellM2, cell << 1);
+            }
+            cellLocation[cell] = location;
+            cellMacAddress[cell] = MacAddress;
+            Cells.put(key, cell);
+        }
+        return cell;
+    }
+
+    private void updateMaxCount(int cell) {
+        int location = cellLocation[cell];
+
+        if (locationMaxCount[location] < cellCount[cell]) {
+            locationMaxCount[location] = cellCount[cell];
+        }
+    }
+}
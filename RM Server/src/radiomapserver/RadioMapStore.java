@@ -0,0 +1,861 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ *
+ * Dictionary encoded store of the RSS samples used while constructing the radio map.
+ * Locations and packed MAC addresses are given int ids in the order they are first read,
+ * and every (location, MAC address) cell keeps its samples in a growable byte[]
+ * buffer, that is promoted to short[] when a sample does not fit in a byte.
+ * The samples of a cell can be limited, in which case the cell keeps a uniform
+ * reservoir sample of all the samples read for it. The counts and sums of the
+ * aggregate are then those of all samples read, estimated from the samples kept,
+ * so that the radio map mean is written as if all samples were kept.
+ */
+public class RadioMapStore implements RadioMapAggregate {
+
+    private static final int INITIAL_CELL_CAPACITY = 4;
+    private static final int STORE_MAGIC = 0x52534D31;
+    private static final int SAMPLED_STORE_MAGIC = 0x52534D32;
+    private static final long SAMPLING_SEED = 0x5253534DL;
+    private final HashMap<String, Integer> LocationIds;
+    private final ArrayList<String> Locations;
+    private final LongIntHashMap MacAddressIds;
+    private final ArrayList<String> MacAddresses;
+    private long[] PackedMacAddresses;
+    // Cell of each (location id, MAC address id) pair
+    private final LongIntHashMap Cells;
+    private int cells_num = 0;
+    private int[] cellLocation;
+    private int[] cellMacAddress;
+    private int[] cellCount;
+    // Number of samples read for each cell, more than its count when sampled
+    private int[] cellSeen;
+    private byte[][] cellBytes;
+    private short[][] cellShorts;
+    private int[] locationMaxCount;
+    private int[] locationMaxSeen;
+    private int maxCellSamples;
+    private final Random random;
+
+    public RadioMapStore() {
+        this(0);
+    }
+
+    /**
+     * Constructor of a store that limits the samples kept for every cell
+     *
+     * @param maxCellSamples
+     *            the maximum number of samples kept for every (location, MAC
+     *            address) cell, or 0 to keep all samples
+     * */
+    public RadioMapStore(int maxCellSamples) {
+        LocationIds = new HashMap<String, Integer>();
+        Locations = new ArrayList<String>();
+        MacAddressIds = new LongIntHashMap(256);
+        MacAddresses = new ArrayList<String>();
+        PackedMacAddresses = new long[256];
+        Cells = new LongIntHashMap(1024);
+        cellLocation = new int[1024];
+        cellMacAddress = new int[1024];
+        cellCount = new int[1024];
+        cellSeen = new int[1024];
+        cellBytes = new byte[1024][];
+        cellShorts = new short[1024][];
+        locationMaxCount = new int[64];
+        locationMaxSeen = new int[64];
+        random = new Random(SAMPLING_SEED);
+        this.maxCellSamples = Math.max(maxCellSamples, 0);
+    }
+
+    /**
+     * Sets the maximum number of samples kept for every cell. Cells with more
+     * samples keep a uniform sample of them.
+     *
+     * @param maxCellSamples
+     *            the maximum number of samples kept for every (location, MAC
+     *            address) cell, or 0 to keep all samples
+     * */
+    public void setMaxCellSamples(int maxCellSamples) {
+        this.maxCellSamples = Math.max(maxCellSamples, 0);
+
+        if (this.maxCellSamples == 0) {
+            return;
+        }
+
+        Arrays.fill(locationMaxCount, 0);
+
+        for (int cell = 0; cell < cells_num; ++cell) {
+            int count = cellCount[cell];
+
+            if (count > this.maxCellSamples) {
+
+                // Move a uniform sample of the kept samples to the front
+                for (int i = 0; i < this.maxCellSamples; ++i) {
+                    int j = i + random.nextInt(count - i);
+                    int RSS_Value = getSample(cell, j);
+                    setSample(cell, j, getSample(cell, i));
+                    setSample(cell, i, RSS_Value);
+                }
+
+                cellCount[cell] = count = this.maxCellSamples;
+
+                if (cellShorts[cell] != null) {
+                    cellShorts[cell] = Arrays.copyOf(cellShorts[cell], count);
+                } else {
+                    cellBytes[cell] = Arrays.copyOf(cellBytes[cell], count);
+                }
+            }
+
+            if (locationMaxCount[cellLocation[cell]] < count) {
+                locationMaxCount[cellLocation[cell]] = count;
+            }
+        }
+    }
+
+    /**
+     * Getter of the maximum number of samples kept for every cell
+     *
+     * @return
+     *            the maximum number of samples, or 0 if all samples are kept
+     * */
+    public int getMaxCellSamples() {
+        return maxCellSamples;
+    }
+
+    /**
+     * Checks whether the samples kept are enough for a limit of samples per
+     * cell, i.e. no cell was sampled or it was sampled to at least as many
+     * samples as the limit
+     *
+     * @param maxCellSamples
+     *            the maximum number of samples kept for every cell, or 0 to keep all samples
+     *
+     * @return
+     *            true if the store can be used with this limit
+     * */
+    public boolean keepsSamplesFor(int maxCellSamples) {
+        return !isSampled() || (maxCellSamples > 0 && maxCellSamples <= this.maxCellSamples);
+    }
+
+    /**
+     * Adds a new RSS sample
+     *
+     * @param location
+     *            the location key "X Y"
+     *
+     * @param packedMacAddress
+     *            the packed MAC address of AP
+     *
+     * @param RSS_Value
+     *            the RSS value, that must fit in a short
+     * */
+    public void add(String location, long packedMacAddress, int RSS_Value) {
+        addSample(getCell(locationId(location), macAddressId(packedMacAddress)), RSS_Value);
+    }
+
+    /**
+     * Appends all samples of another store, keeping their order. Cells
+     * sampled by the other store are merged to a uniform sample of the samples
+     * read by both stores.
+     *
+     * @param other
+     *            the store to append
+     * */
+    public void merge(RadioMapStore other) {
+
+        int[] LocationMapping = new int[other.getLocationCount()];
+        int[] MacAddressMapping = new int[other.getMacAddressCount()];
+
+        for (int i = 0; i < LocationMapping.length; ++i) {
+            LocationMapping[i] = locationId(other.getLocation(i));
+        }
+
+        for (int i = 0; i < MacAddressMapping.length; ++i) {
+            MacAddressMapping[i] = macAddressId(other.getPackedMacAddress(i));
+        }
+
+        for (int otherCell = 0; otherCell < other.cells_num; ++otherCell) {
+
+            int cell = getCell(LocationMapping[other.cellLocation[otherCell]], MacAddressMapping[other.cellMacAddress[otherCell]]);
+            int count = other.cellCount[otherCell];
+
+            if (other.cellSeen[otherCell] != count) {
+                mergeSampled(cell, other, otherCell);
+                continue;
+            }
+
+            for (int i = 0; i < count; ++i) {
+                addSample(cell, other.getSample(otherCell, i));
+            }
+        }
+    }
+
+    /**
+     * Merges a sampled cell of another store to a cell. The samples of the
+     * cell are drawn one at a time without replacement from the samples read
+     * by both stores, so a kept sample of the store that read more samples
+     * is drawn more often.
+     *
+     * @param cell
+     *            the cell
+     *
+     * @param other
+     *            the other store
+     *
+     * @param otherCell
+     *            the sampled cell of the other store
+     * */
+    private void mergeSampled(int cell, RadioMapStore other, int otherCell) {
+
+        int count = cellCount[cell];
+        int otherCount = other.cellCount[otherCell];
+        long seen = cellSeen[cell];
+        long otherSeen = other.cellSeen[otherCell];
+        int[] Samples = new int[count];
+        int[] OtherSamples = new int[otherCount];
+
+        for (int i = 0; i < count; ++i) {
+            Samples[i] = getSample(cell, i);
+        }
+
+        for (int i = 0; i < otherCount; ++i) {
+            OtherSamples[i] = other.getSample(otherCell, i);
+        }
+
+        int total = count + otherCount;
+
+        if (maxCellSamples > 0 && total > maxCellSamples) {
+            total = maxCellSamples;
+        }
+
+        cellSeen[cell] = (int) Math.min(seen + otherSeen, Integer.MAX_VALUE);
+        cellCount[cell] = 0;
+        cellBytes[cell] = new byte[Math.max(total, 1)];
+        cellShorts[cell] = null;
+
+        for (int i = 0; i < total; ++i) {
+            int RSS_Value;
+
+            if (otherCount == 0 || (count > 0 && (long) (random.nextDouble() * (seen + otherSeen)) < seen)) {
+                int j = random.nextInt(count);
+                RSS_Value = Samples[j];
+                Samples[j] = Samples[--count];
+                --seen;
+            } else {
+                int j = random.nextInt(otherCount);
+                RSS_Value = OtherSamples[j];
+                OtherSamples[j] = OtherSamples[--otherCount];
+                --otherSeen;
+            }
+
+            setSample(cell, i, RSS_Value);
+            cellCount[cell] = i + 1;
+        }
+
+        int location = cellLocation[cell];
+        if (locationMaxCount[location] < total) {
+            locationMaxCount[location] = total;
+        }
+        if (locationMaxSeen[location] < cellSeen[cell]) {
+            locationMaxSeen[location] = cellSeen[cell];
+        }
+    }
+
+    /**
+     * Writes the store in binary form
+     *
+     * @param out
+     *            the stream to write to
+     *
+     * @throws IOException
+     *            if the store could not be written
+     * */
+    public void write(DataOutputStream out) throws IOException {
+
+        boolean sampled = isSampled();
+
+        out.writeInt(sampled ? SAMPLED_STORE_MAGIC : STORE_MAGIC);
+
+        if (sampled) {
+            out.writeInt(maxCellSamples);
+        }
+
+        out.writeInt(Locations.size());
+        for (int l = 0; l < Locations.size(); ++l) {
+            out.writeUTF(Locations.get(l));
+        }
+
+        out.writeInt(MacAddresses.size());
+        for (int m = 0; m < MacAddresses.size(); ++m) {
+            out.writeLong(PackedMacAddresses[m]);
+        }
+
+        out.writeInt(cells_num);
+        for (int cell = 0; cell < cells_num; ++cell) {
+            out.writeInt(cellLocation[cell]);
+            out.writeInt(cellMacAddress[cell]);
+            out.writeInt(cellCount[cell]);
+
+            if (sampled) {
+                out.writeInt(cellSeen[cell]);
+            }
+
+            if (cellShorts[cell] != null) {
+                out.writeBoolean(true);
+                for (int i = 0; i < cellCount[cell]; ++i) {
+                    out.writeShort(cellShorts[cell][i]);
+                }
+            } else {
+                out.writeBoolean(false);
+                out.write(cellBytes[cell], 0, cellCount[cell]);
+            }
+        }
+    }
+
+    /**
+     * Reads a store written by write
+     *
+     * @param in
+     *            the stream to read from
+     *
+     * @return
+     *            the store read
+     *
+     * @throws IOException
+     *            if the stream is not a store or could not be read
+     * */
+    public static RadioMapStore read(DataInputStream in) throws IOException {
+
+        RadioMapStore store = new RadioMapStore();
+        int magic = in.readInt();
+
+        if (magic != STORE_MAGIC && magic != SAMPLED_STORE_MAGIC) {
+            throw new IOException("Not a radio map store.");
+        }
+
+        boolean sampled = magic == SAMPLED_STORE_MAGIC;
+
+        if (sampled) {
+            store.maxCellSamples = Math.max(in.readInt(), 0);
+        }
+
+        int count = in.readInt();
+        for (int l = 0; l < count; ++l) {
+            store.locationId(in.readUTF());
+        }
+
+        count = in.readInt();
+        for (int m = 0; m < count; ++m) {
+            store.macAddressId(in.readLong());
+        }
+
+        count = in.readInt();
+        for (int c = 0; c < count; ++c) {
+            int location = in.readInt();
+            int MacAddress = in.readInt();
+            int samples = in.readInt();
+            int seen = sampled ? in.readInt() : samples;
+
+            if (location < 0 || location >= store.getLocationCount() || MacAddress < 0 || MacAddress >= store.getMacAddressCount() || samples < 0 || seen < samples) {
+                throw new IOException("Corrupted radio map store.");
+            }
+
+            int cell = store.getCell(location, MacAddress);
+
+            if (in.readBoolean()) {
+                short[] shorts = new short[Math.max(samples, 1)];
+                for (int i = 0; i < samples; ++i) {
+                    shorts[i] = in.readShort();
+                }
+                store.cellShorts[cell] = shorts;
+                store.cellBytes[cell] = null;
+            } else {
+                byte[] bytes = new byte[Math.max(samples, 1)];
+                in.readFully(bytes, 0, samples);
+                store.cellBytes[cell] = bytes;
+            }
+            store.cellCount[cell] = samples;
+            store.cellSeen[cell] = seen;
+
+            if (store.locationMaxCount[location] < samples) {
+                store.locationMaxCount[location] = samples;
+            }
+            if (store.locationMaxSeen[location] < seen) {
+                store.locationMaxSeen[location] = seen;
+            }
+        }
+        return store;
+    }
+
+    public boolean isEmpty() {
+        return Locations.isEmpty();
+    }
+
+    public void clear() {
+        LocationIds.clear();
+        Locations.clear();
+        MacAddressIds.clear();
+        MacAddresses.clear();
+        Cells.clear();
+        Arrays.fill(cellCount, 0, cells_num, 0);
+        Arrays.fill(cellSeen, 0, cells_num, 0);
+        Arrays.fill(cellBytes, 0, cells_num, null);
+        Arrays.fill(cellShorts, 0, cells_num, null);
+        Arrays.fill(locationMaxCount, 0);
+        Arrays.fill(locationMaxSeen, 0);
+        cells_num = 0;
+    }
+
+    /**
+     * Getter of the number of locations
+     *
+     * @return
+     *            the number of locations, ids are 0 to count - 1
+     * */
+    public int getLocationCount() {
+        return Locations.size();
+    }
+
+    /**
+     * Getter of a location key
+     *
+     * @param location
+     *            the location id
+     *
+     * @return
+     *            the location key "X Y"
+     * */
+    public String getLocation(int location) {
+        return Locations.get(location);
+    }
+
+    /**
+     * Getter of the number of MAC addresses
+     *
+     * @return
+     *            the number of MAC addresses, ids are 0 to count - 1
+     * */
+    public int getMacAddressCount() {
+        return MacAddresses.size();
+    }
+
+    /**
+     * Getter of a MAC address
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the MAC address in lower case
+     * */
+    public String getMacAddress(int MacAddress) {
+        return MacAddresses.get(MacAddress);
+    }
+
+    /**
+     * Getter of a packed MAC address
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the packed MAC address
+     * */
+    public long getPackedMacAddress(int MacAddress) {
+        return PackedMacAddresses[MacAddress];
+    }
+
+    /**
+     * Finds the id of a location
+     *
+     * @param location
+     *            the location key "X Y"
+     *
+     * @return
+     *            the location id, or -1 if no sample recorded in this location
+     * */
+    public int findLocation(String location) {
+        Integer id = LocationIds.get(location);
+
+        if (id == null) {
+            return -1;
+        }
+        return id;
+    }
+
+    /**
+     * Finds the id of a MAC address
+     *
+     * @param packedMacAddress
+     *            the packed MAC address
+     *
+     * @return
+     *            the MAC address id, or -1 if no sample recorded for this MAC address
+     * */
+    public int findMacAddress(long packedMacAddress) {
+        return MacAddressIds.get(packedMacAddress, -1);
+    }
+
+    /**
+     * Finds the cell of a location and MAC address
+     *
+     * @param location
+     *            the location id
+     *
+     * @param MacAddress
+     *            the MAC address id
+     *
+     * @return
+     *            the cell, or -1 if no sample recorded for this MAC address in this location
+     * */
+    public int findCell(int location, int MacAddress) {
+        return Cells.get(cellKey(location, MacAddress), -1);
+    }
+
+    /**
+     * Getter of the MAC address of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the packed MAC address
+     * */
+    public long getCellMacAddress(int cell) {
+        return PackedMacAddresses[cellMacAddress[cell]];
+    }
+
+    /**
+     * Getter of the number of samples of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the number of samples read, more than the samples kept if the cell is sampled
+     * */
+    public int getSampleCount(int cell) {
+        return cellSeen[cell];
+    }
+
+    /**
+     * Getter of the number of samples kept for a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the number of samples kept, that can be read with getSample
+     * */
+    public int getKeptSampleCount(int cell) {
+        return cellCount[cell];
+    }
+
+    /**
+     * Getter of the number of samples of all cells
+     *
+     * @return
+     *            the number of samples
+     * */
+    public long getTotalSampleCount() {
+        long count = 0;
+
+        for (int cell = 0; cell < cells_num; ++cell) {
+            count += cellSeen[cell];
+        }
+        return count;
+    }
+
+    /**
+     * Getter of a sample of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @param i
+     *            the index of the sample in read order, or in random order if the cell is sampled
+     *
+     * @return
+     *            the RSS value
+     * */
+    public int getSample(int cell, int i) {
+        if (cellShorts[cell] != null) {
+            return cellShorts[cell][i];
+        }
+        return cellBytes[cell][i];
+    }
+
+    /**
+     * Getter of the sum of samples of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the sum of RSS values, estimated from the samples kept if the cell is sampled
+     * */
+    public long getSampleSum(int cell) {
+        long sum = getKeptSampleSum(cell);
+
+        if (cellSeen[cell] != cellCount[cell]) {
+            return Math.round((double) sum * cellSeen[cell] / cellCount[cell]);
+        }
+        return sum;
+    }
+
+    private long getKeptSampleSum(int cell) {
+        long sum = 0;
+        int count = cellCount[cell];
+
+        if (cellShorts[cell] != null) {
+            short[] samples = cellShorts[cell];
+            for (int i = 0; i < count; ++i) {
+                sum += samples[i];
+            }
+        } else {
+            byte[] samples = cellBytes[cell];
+            for (int i = 0; i < count; ++i) {
+                sum += samples[i];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Getter of the sample variance of a cell
+     *
+     * @param cell
+     *            the cell
+     *
+     * @return
+     *            the variance of RSS values, or 0 if the cell has less than two samples
+     *            kept, estimated from the samples kept if the cell is sampled
+     * */
+    public double getVariance(int cell) {
+        int count = cellCount[cell];
+
+        if (count < 2) {
+            return 0;
+        }
+
+        double mean = (double) getKeptSampleSum(cell) / count;
+        double m2 = 0;
+
+        for (int i = 0; i < count; ++i) {
+            double d = getSample(cell, i) - mean;
+            m2 += d * d;
+        }
+        return m2 / (count - 1);
+    }
+
+    /**
+     * Getter of the maximum number of samples recorded for a MAC address in a location
+     *
+     * @param location
+     *            the location id
+     *
+     * @return
+     *            the maximum number of samples read
+     * */
+    public int getMaxSampleCount(int location) {
+        return locationMaxSeen[location];
+    }
+
+    /**
+     * Getter of the maximum number of samples kept for a MAC address in a location
+     *
+     * @param location
+     *            the location id
+     *
+     * @return
+     *            the maximum number of samples kept
+     * */
+    public int getMaxKeptSampleCount(int location) {
+        return locationMaxCount[location];
+    }
+
+    private int locationId(String location) {
+        Integer id = LocationIds.get(location);
+
+        if (id == null) {
+            id = Locations.size();
+            LocationIds.put(location, id);
+            Locations.add(location);
+
+            if (id == locationMaxCount.length) {
+                locationMaxCount = Arrays.copyOf(locationMaxCount, id << 1);
+                locationMaxSeen = Arrays.copyOf(locationMaxSeen, id << 1);
+            }
+        }
+        return id;
+    }
+
+    private int macAddressId(long packedMacAddress) {
+        int id = MacAddressIds.get(packedMacAddress, -1);
+
+        if (id == -1) {
+            id = MacAddresses.size();
+            MacAddressIds.put(packedMacAddress, id);
+            MacAddresses.add(MacAddress.toString(packedMacAddress));
+
+            if (id == PackedMacAddresses.length) {
+                PackedMacAddresses = Arrays.copyOf(PackedMacAddresses, id << 1);
+            }
+            PackedMacAddresses[id] = packedMacAddress;
+        }
+        return id;
+    }
+
+    private static long cellKey(int location, int MacAddress) {
+        return ((long) location << 32) | (MacAddress & 0xFFFFFFFFL);
+    }
+
+    private int getCell(int location, int MacAddress) {
+        long key = cellKey(location, MacAddress);
+        int cell = Cells.get(key, -1);
+
+        if (cell == -1) {
+            cell = cells_num++;
+
+            if (cell == cellCount.length) {
+                cellLocation = Arrays.copyOf(cellLocation, cell << 1);
+                cellMacAddress = Arrays.copyOf(cellMacAddress, cell << 1);
+                cellCount = Arrays.copyOf(cellCount, cell << 1);
+                cellSeen = Arrays.copyOf(cellSeen, cell << 1);
+                cellBytes = Arrays.copyOf(cellBytes, cell << 1);
+                cellShorts = Arrays.copyOf(cellShorts, cell << 1);
+            }
+            cellLocation[cell] = location;
+            cellMacAddress[cell] = MacAddress;
+            cellBytes[cell] = new byte[INITIAL_CELL_CAPACITY];
+            Cells.put(key, cell);
+        }
+        return cell;
+    }
+
+    private boolean isSampled() {
+        for (int cell = 0; cell < cells_num; ++cell) {
+            if (cellSeen[cell] != cellCount[cell]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addSample(int cell, int RSS_Value) {
+
+        if (RSS_Value < Short.MIN_VALUE || RSS_Value > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("RSS value " + RSS_Value + " is out of range.");
+        }
+
+        int count = cellCount[cell];
+
+        if (cellSeen[cell] < Integer.MAX_VALUE) {
+            ++cellSeen[cell];
+        }
+
+        int location = cellLocation[cell];
+        if (locationMaxSeen[location] < cellSeen[cell]) {
+            locationMaxSeen[location] = cellSeen[cell];
+        }
+
+        // The cell is full. The sample replaces a kept one with probability count / seen
+        if (maxCellSamples > 0 && count >= maxCellSamples) {
+            int i = random.nextInt(cellSeen[cell]);
+
+            if (i < count) {
+                setSample(cell, i, RSS_Value);
+            }
+            return;
+        }
+
+        setSample(cell, count, RSS_Value);
+        cellCount[cell] = ++count;
+
+        if (locationMaxCount[location] < count) {
+            locationMaxCount[location] = count;
+        }
+    }
+
+    private void setSample(int cell, int i, int RSS_Value) {
+
+        int count = cellCount[cell];
+
+        // Promote the cell to short samples
+        if (cellShorts[cell] == null && (RSS_Value < Byte.MIN_VALUE || RSS_Value > Byte.MAX_VALUE)) {
+            byte[] bytes = cellBytes[cell];
+            short[] shorts = new short[bytes.length];
+            for (int j = 0; j < count; ++j) {
+                shorts[j] = bytes[j];
+            }
+            cellShorts[cell] = shorts;
+            cellBytes[cell] = null;
+        }
+
+        if (cellShorts[cell] != null) {
+            if (i == cellShorts[cell].length) {
+                cellShorts[cell] = Arrays.copyOf(cellShorts[cell], grow(i));
+            }
+            cellShorts[cell][i] = (short) RSS_Value;
+        } else {
+            if (i == cellBytes[cell].length) {
+                cellBytes[cell] = Arrays.copyOf(cellBytes[cell], grow(i));
+            }
+            cellBytes[cell][i] = (byte) RSS_Value;
+        }
+    }
+
+    private int grow(int count) {
+        int capacity = count + (count >> 1) + 1;
+
+        // A sampled cell never holds more than the maximum
+        if (maxCellSamples > count && capacity > maxCellSamples) {
+            return maxCellSamples;
+        }
+        return capacity;
+    }
+}
@@ -0,0 +1,876 @@
+/*
+ * AirPlace:  The Airplace Project is an OpenSource Indoor and Outdoor
+ * Localization solution using WiFi RSS (Receive Signal Strength).
+ * The AirPlace Project consists of three parts:
+ *
+ *  1) The AirPlace Logger (Ideal for collecting RSS Logs)
+ *  2) The AirPlace Server (Ideal for transforming the collected RSS logs
+ *  to meaningful RadioMap files)
+ *  3) The AirPlace Tracker (Ideal for using the RadioMap files for
+ *  indoor localization)
+ *
+ * It is ideal for spaces where GPS signal is not sufficient.
+ *
+ * Authors:
+ * C. Laoudias, G.Larkou, G. Constantinou, M. Constantinides, S. Nicolaou,
+ *
+ * Supervisors:
+ * D. Zeinalipour-Yazti and C. G. Panayiotou
+ *
+ * Copyright (c) 2011, KIOS Research Center and Data Management Systems Lab (DMSL),
+ * University of Cyprus. All rights reserved.
+ *
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * Υou should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package radiomapserver;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+/**
+ *
+ * Write-ahead log of the RSS log files uploaded to a folder. The lines of an
+ * upload are appended to the log in checksummed frames while they are
+ * received, and to a hidden part file of the folder. The part file is renamed
+ * to an RSS log file of the folder only when the upload is committed, so a
+ * crash in the middle of an upload leaves no truncated RSS log file.
+ *
+ * Commits are forced to disk together: a commit forces all frames appended
+ * before it, so uploads committed at the same time share a single fsync and
+ * no line is forced on its own. The part file is not forced on its own, as
+ * the log holds the upload until the RSS log file is forced. The log is
+ * written in hidden segment files of the folder. A new segment is started
+ * when the current one is full, and a segment is deleted once every upload
+ * begun in it or before it is committed or aborted, at a checkpoint that
+ * forces the RSS log files renamed since the last one, and the folder.
+ * When the log is opened again, the uploads committed in it are rebuilt
+ * from the frames of the log unless their RSS log file is whole, and the
+ * frames of uncommitted uploads are dropped.
+ */
+public class RadioMapUploadLog {
+
+    private static final String LOG_PREFIX = ".rsslog-uploads.";
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String PART_PREFIX = ".rsslog-part";
+    private static final String PART_SUFFIX = ".tmp";
+    private static final int LOG_MAGIC = 0x52535741;
+    // Length, type and upload id before the payload of a record, and CRC32 after it
+    private static final int RECORD_HEADER = 13;
+    private static final int RECORD_TRAILER = 4;
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+    // Bytes of a segment after which a new one is started
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final byte BEGIN = 1;
+    private static final byte DATA = 2;
+    private static final byte COMMIT = 3;
+    private static final byte ABORT = 4;
+    // The logs opened in this process, by RSS folder
+    private static final HashMap<File, RadioMapUploadLog> Opened = new HashMap<File, RadioMapUploadLog>();
+    private final File RSSFolder;
+    private FileChannel channel = null;
+    // The segment written, the oldest segment not deleted yet, and the bytes of the segment written
+    private long segment = 0;
+    private long oldestSegment = 1;
+    private long segmentSize = 0;
+    // Segments kept instead of deleted, to recover by hand a commit that failed
+    private final HashSet<Long> Kept = new HashSet<Long>();
+    // Bytes appended to the logs of this folder, bytes of them forced to disk, and forced when a segment ended
+    private long written = 0;
+    private long synced = 0;
+    private long rolled = 0;
+    private final Object syncLock = new Object();
+    private long nextId = 1;
+    // Uploads begun and not committed or aborted yet
+    private final HashMap<Long, Upload> Uploads = new HashMap<Long, Upload>();
+    // RSS log files renamed since the last checkpoint, not forced to disk yet
+    private final ArrayList<File> Installed = new ArrayList<File>();
+    // The last upload number given to a committed upload, e.g. 17 for rsslog17.txt
+    private long lastLogNumber = 0;
+
+    /**
+     * An upload in progress, or read from the log when it is recovered
+     */
+    private static class Upload {
+
+        // The segment the upload began in
+        long firstSegment;
+        File part_file;
+        FileOutputStream out;
+        // The name of the RSS log file, once committed
+        String name = null;
+        // The bytes of the frames, when recovered
+        CRC32 crc = null;
+    }
+
+    private RadioMapUploadLog(File RSSFolder) {
+        this.RSSFolder = RSSFolder;
+    }
+
+    /**
+     * Opens the upload log of an RSS folder. The first time in the process,
+     * the uploads committed and not written to their RSS log file before a
+     * crash are written, and the upload numbers continue after the RSS log
+     * files and segments of the folder.
+     *
+     * @param RSSFolder
+     *            the folder to store uploaded RSS log files
+     *
+     * @return
+     *            the upload log of the folder, the same for every call
+     * */
+    public static synchronized RadioMapUploadLog open(File RSSFolder) {
+
+        File folder = RSSFolder.getAbsoluteFile();
+        RadioMapUploadLog log = Opened.get(folder);
+
+        if (log == null) {
+            log = new RadioMapUploadLog(folder);
+            log.recover();
+            log.lastLogNumber = findLastLogNumber(folder);
+            Opened.put(folder, log);
+        }
+        return log;
+    }
+
+    /**
+     * Begins a new upload
+     *
+     * @return
+     *            the id of the upload, or -1 if the log or its part file could not be written
+     * */
+    public synchronized long begin() {
+
+        long id = nextId++;
+        Upload upload = new Upload();
+
+        upload.part_file = getPartFile(RSSFolder, id);
+        upload.firstSegment = segment;
+        Uploads.put(id, upload);
+
+        try {
+            upload.out = new FileOutputStream(upload.part_file, false);
+        } catch (IOException e) {
+            System.err.println("Error while creating uploaded RSS log file " + upload.part_file.getAbsolutePath() + ": " + e.getMessage());
+            end(id, false);
+            return -1;
+        }
+
+        if (append(BEGIN, id, new byte[0], 0, 0) == -1) {
+            end(id, false);
+            return -1;
+        }
+
+        // A new segment may be started by the record
+        upload.firstSegment = segment;
+        return id;
+    }
+
+    /**
+     * Appends a frame of lines of an upload to the log and to its part file.
+     * The frame is not forced to disk until the upload is committed.
+     *
+     * @param id
+     *            the id of the upload
+     *
+     * @param bytes
+     *            the bytes of the lines
+     *
+     * @param offset
+     *            the offset of the frame in bytes
+     *
+     * @param length
+     *            the length of the frame
+     *
+     * @return
+     *            true if the frame is appended, otherwise false
+     * */
+    public boolean append(long id, byte[] bytes, int offset, int length) {
+
+        Upload upload;
+
+        synchronized (this) {
+            upload = Uploads.get(id);
+
+            if (upload == null) {
+                return false;
+            }
+
+            for (int start = offset, left = length; left > 0;) {
+                int frame = Math.min(left, MAX_PAYLOAD);
+
+                if (append(DATA, id, bytes, start, frame) == -1) {
+                    return false;
+                }
+                start += frame;
+                left -= frame;
+            }
+        }
+
+        // Only the connection of the upload writes its part file
+        try {
+            upload.out.write(bytes, offset, length);
+        } catch (IOException e) {
+            System.err.println("Error while writing uploaded RSS log file " + upload.part_file.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Commits an upload, and renames its part file to a new RSS log file of
+     * the folder. The commit is forced to disk together with the commits of
+     * other uploads appended meanwhile. The upload ends whether it is written
+     * or not.
+     *
+     * @param id
+     *            the id of the upload
+     *
+     * @return
+     *            the RSS log file written, or null if the upload is not
+     *            committed or it is committed and could not be written, in
+     *            which case the segments of the log with the upload are kept
+     * */
+    public File commit(long id) {
+
+        Upload upload;
+        File outFile;
+        long end;
+
+        synchronized (this) {
+            upload = Uploads.get(id);
+
+            if (upload == null) {
+                return null;
+            }
+
+            outFile = findFilename();
+            byte[] name = outFile.getName().getBytes(StandardCharsets.UTF_8);
+            end = append(COMMIT, id, name, 0, name.length);
+
+            if (end == -1) {
+                abort(id);
+                return null;
+            }
+        }
+
+        if (!sync(end)) {
+            // The commit may be on disk, so the upload is kept for the next open
+            synchronized (this) {
+                end(id, true);
+            }
+            return null;
+        }
+
+        try {
+            install(upload.out, upload.part_file, outFile);
+            upload.out = null;
+        } catch (IOException e) {
+            System.err.println("Error while writing uploaded RSS log file " + outFile.getAbsolutePath() + ": " + e.getMessage());
+            synchronized (this) {
+                end(id, true);
+            }
+            return null;
+        }
+
+        synchronized (this) {
+            // Forced at the next checkpoint, before the segments with the upload are deleted
+            Installed.add(outFile);
+            end(id, false);
+        }
+        return outFile;
+    }
+
+    /**
+     * Drops an upload that is not committed, e.g. when the connection is
+     * lost. Its frames are not written when the log is recovered.
+     *
+     * @param id
+     *            the id of the upload
+     * */
+    public synchronized void abort(long id) {
+
+        if (!Uploads.containsKey(id)) {
+            return;
+        }
+
+        append(ABORT, id, new byte[0], 0, 0);
+        end(id, false);
+    }
+
+    /**
+     * Appends a record to the log, starting a new segment if there is none
+     * or the current one is full
+     *
+     * @return
+     *            the bytes appended to the logs of this folder after the record, or -1 on error
+     * */
+    private long append(byte type, long id, byte[] bytes, int offset, int length) {
+
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + length + RECORD_TRAILER);
+        CRC32 crc = new CRC32();
+
+        record.putInt(length);
+        record.put(type);
+        record.putLong(id);
+        record.put(bytes, offset, length);
+        crc.update(record.array(), 0, record.position());
+        record.putInt((int) crc.getValue());
+        record.flip();
+
+        try {
+            if (channel != null && segmentSize >= SEGMENT_BYTES) {
+                rollOver();
+            }
+
+            if (channel == null) {
+                ++segment;
+                channel = FileChannel.open(getSegmentFile(RSSFolder, segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                segmentSize = 0;
+                ByteBuffer header = ByteBuffer.allocate(4);
+                header.putInt(LOG_MAGIC);
+                header.flip();
+                write(header);
+            }
+            write(record);
+        } catch (IOException e) {
+            System.err.println("Error while writing upload log " + getSegmentFile(RSSFolder, segment).getAbsolutePath() + ": " + e.getMessage());
+            return -1;
+        }
+        return written;
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+
+        int count = buffer.remaining();
+
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        written += count;
+        segmentSize += count;
+    }
+
+    /**
+     * Ends the current segment. It is forced to disk, so the commits waiting
+     * to force it are forced, and deleted once the uploads in it end.
+     * */
+    private void rollOver() throws IOException {
+
+        channel.force(false);
+        rolled = written;
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Error while closing upload log " + getSegmentFile(RSSFolder, segment).getAbsolutePath() + ": " + e.getMessage());
+        }
+        channel = null;
+        deleteSegments();
+    }
+
+    /**
+     * Forces the log to disk, if the bytes up to end are not forced yet. The
+     * first commit waiting forces the records of all commits appended until then.
+     * */
+    private boolean sync(long end) {
+
+        synchronized (syncLock) {
+
+            if (synced >= end) {
+                return true;
+            }
+
+            FileChannel forced;
+            long target;
+
+            synchronized (this) {
+                forced = channel;
+                target = written;
+            }
+
+            try {
+                if (forced == null) {
+                    throw new IOException("No segment is open.");
+                }
+                forced.force(false);
+            } catch (IOException e) {
+                // A segment ended meanwhile is forced before it is closed
+                synchronized (this) {
+                    if (rolled < end) {
+                        System.err.println("Error while forcing upload log " + getSegmentFile(RSSFolder, segment).getAbsolutePath() + ": " + e.getMessage());
+                        return false;
+                    }
+                    target = rolled;
+                }
+            }
+            synced = target;
+            return true;
+        }
+    }
+
+    /**
+     * Ends an upload in progress, and deletes its part file if it is not
+     * written
+     *
+     * @param keep
+     *            true to keep the segments with the records of the upload
+     * */
+    private void end(long id, boolean keep) {
+
+        Upload upload = Uploads.remove(id);
+
+        if (upload.out != null) {
+            try {
+                upload.out.close();
+            } catch (IOException e) {
+                // The file is deleted anyway
+            }
+            upload.part_file.delete();
+        }
+
+        if (keep) {
+            for (long s = Math.max(upload.firstSegment, oldestSegment); s <= segment; s++) {
+                Kept.add(s);
+            }
+        }
+
+        deleteSegments();
+    }
+
+    /**
+     * Deletes the segments that are not written and have no upload in
+     * progress, or keeps them under another name if a commit in them failed.
+     * The RSS log files renamed are forced first, as the segments are the
+     * only copy on disk of the uploads until then.
+     * */
+    private void deleteSegments() {
+
+        long first = segment;
+
+        for (Upload upload : Uploads.values()) {
+            first = Math.min(first, upload.firstSegment);
+        }
+
+        if (oldestSegment >= first || !checkpoint()) {
+            return;
+        }
+
+        for (; oldestSegment < first; oldestSegment++) {
+            File segment_file = getSegmentFile(RSSFolder, oldestSegment);
+
+            if (!Kept.remove(oldestSegment)) {
+                segment_file.delete();
+                continue;
+            }
+
+            File kept = new File(RSSFolder, segment_file.getName() + "." + System.currentTimeMillis());
+            segment_file.renameTo(kept);
+            System.err.println("Upload log kept as " + kept.getAbsolutePath() + ". Rename it to " + segment_file.getName() + " before the server starts again to recover the failed commits");
+        }
+    }
+
+    /**
+     * Forces the RSS log files renamed since the last checkpoint, and the
+     * folder with their names
+     *
+     * @return
+     *            true if they are forced, otherwise false
+     * */
+    private boolean checkpoint() {
+
+        try {
+            for (File outFile : Installed) {
+                // Merged in a segment by the compactor meanwhile, which forces it
+                if (outFile.isFile()) {
+                    force(outFile);
+                }
+            }
+            forceFolder(RSSFolder);
+        } catch (IOException e) {
+            System.err.println("Error while forcing uploaded RSS log files of " + RSSFolder.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+        Installed.clear();
+        return true;
+    }
+
+    /**
+     * Takes the next upload number for the RSS log file of a committed upload
+     * */
+    private File findFilename() {
+
+        File outFile;
+
+        // Files copied to the folder by hand are not written over
+        do {
+            outFile = new File(RSSFolder, "rsslog" + (++lastLogNumber) + ".txt");
+        } while (outFile.exists());
+
+        return outFile;
+    }
+
+    /**
+     * Finds the last upload number of the RSS log files and segments of a folder
+     * */
+    private static long findLastLogNumber(File RSSFolder) {
+
+        String[] list = RSSFolder.list();
+        long last = 0;
+
+        if (list != null) {
+            for (String name : list) {
+                long[] range = RadioMapCompactor.parseLogName(name);
+
+                if (range != null && range[1] > last) {
+                    last = range[1];
+                }
+            }
+        }
+        return last;
+    }
+
+    private static File getSegmentFile(File RSSFolder, long segment) {
+        return new File(RSSFolder, LOG_PREFIX + segment + LOG_SUFFIX);
+    }
+
+    private static File getPartFile(File RSSFolder, long id) {
+        return new File(RSSFolder, PART_PREFIX + id + PART_SUFFIX);
+    }
+
+    /**
+     * Parses the number of a segment file name, e.g. 3 for ".rsslog-uploads.3.wal"
+     *
+     * @return
+     *            the number of the segment, or -1 if the name is not a segment
+     * */
+    private static long parseSegmentName(String name) {
+
+        if (!name.startsWith(LOG_PREFIX) || !name.endsWith(LOG_SUFFIX)) {
+            return -1;
+        }
+
+        try {
+            return Long.parseLong(name.substring(LOG_PREFIX.length(), name.length() - LOG_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Closes the part file of an upload, and renames it to its RSS log file
+     * */
+    private static void install(FileOutputStream out, File part_file, File outFile) throws IOException {
+
+        out.close();
+
+        try {
+            Files.move(part_file.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            part_file.delete();
+            throw e;
+        }
+    }
+
+    private static void force(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+
+        try {
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Forces the names of a folder to disk, so that renames in it are kept
+     * after a crash
+     * */
+    private static void forceFolder(File folder) throws IOException {
+
+        FileChannel channel;
+
+        try {
+            channel = FileChannel.open(folder.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Folders can not be opened on some platforms, e.g. Windows, that keep renames without it
+            return;
+        }
+
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Computes the CRC32 of a file
+     * */
+    private static long checksum(File file) throws IOException {
+
+        CRC32 crc = new CRC32();
+        FileInputStream fis = new FileInputStream(file);
+        byte[] buffer = new byte[64 * 1024];
+        int read;
+
+        try {
+            while ((read = fis.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        } finally {
+            fis.close();
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads bytes from a channel until the buffer is full
+     *
+     * @return
+     *            true if the buffer is full, or false if the channel ended before
+     * */
+    private static boolean readFully(FileChannel in, ByteBuffer buffer) throws IOException {
+
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Replays the log left by a crash or a stop. The segments are read in
+     * order, a record at a time, up to the first record that is incomplete or
+     * does not match its checksum. The frames of every upload are written to
+     * its part file while they are read, and the part files of the uploads
+     * committed are renamed to their RSS log file, unless it is already whole.
+     * */
+    private void recover() {
+
+        String[] list = RSSFolder.list();
+        ArrayList<Long> Segments = new ArrayList<Long>();
+
+        if (list == null) {
+            return;
+        }
+
+        for (String name : list) {
+            long number = parseSegmentName(name);
+
+            if (number != -1) {
+                Segments.add(number);
+            } else if (name.startsWith(PART_PREFIX) && name.endsWith(PART_SUFFIX)) {
+                // Parts of uploads not committed, or rebuilt from the log below
+                new File(RSSFolder, name).delete();
+            }
+        }
+
+        if (Segments.isEmpty()) {
+            return;
+        }
+        Collections.sort(Segments);
+
+        LinkedHashMap<Long, Upload> Recovered = new LinkedHashMap<Long, Upload>();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+        ByteBuffer payload = ByteBuffer.allocate(64 * 1024 + RECORD_TRAILER);
+        CRC32 crc = new CRC32();
+        long dropped = 0;
+        boolean broken = false;
+        ArrayList<String> Failed = new ArrayList<String>();
+
+        for (long number : Segments) {
+
+            File segment_file = getSegmentFile(RSSFolder, number);
+
+            // Records after a broken one are not replayed, as their uploads may have lost frames
+            if (broken) {
+                dropped += segment_file.length();
+                continue;
+            }
+
+            long valid = 0;
+            FileChannel in = null;
+
+            try {
+                in = FileChannel.open(segment_file.toPath(), StandardOpenOption.READ);
+                header.clear().limit(4);
+
+                if (readFully(in, header) && ((ByteBuffer) header.flip()).getInt() == LOG_MAGIC) {
+                    valid = in.position();
+
+                    while (true) {
+                        header.clear();
+
+                        if (!readFully(in, header)) {
+                            break;
+                        }
+                        header.flip();
+
+                        int length = header.getInt();
+                        byte type = header.get();
+                        long id = header.getLong();
+
+                        if (length < 0 || length > MAX_PAYLOAD) {
+                            break;
+                        }
+
+                        if (payload.capacity() < length + RECORD_TRAILER) {
+                            payload = ByteBuffer.allocate(length + RECORD_TRAILER);
+                        }
+                        payload.clear().limit(length + RECORD_TRAILER);
+
+                        if (!readFully(in, payload)) {
+                            break;
+                        }
+
+                        crc.reset();
+                        crc.update(header.array(), 0, RECORD_HEADER);
+                        crc.update(payload.array(), 0, length);
+
+                        if (payload.getInt(length) != (int) crc.getValue()) {
+                            break;
+                        }
+
+                        Upload upload = Recovered.get(id);
+
+                        if (type == BEGIN) {
+                            upload = new Upload();
+                            upload.part_file = getPartFile(RSSFolder, id);
+                            upload.out = new FileOutputStream(upload.part_file, false);
+                            upload.crc = new CRC32();
+                            Recovered.put(id, upload);
+                        } else if (type == DATA && upload != null) {
+                            upload.out.write(payload.array(), 0, length);
+                            upload.crc.update(payload.array(), 0, length);
+                        } else if (type == COMMIT && upload != null) {
+                            upload.name = new String(payload.array(), 0, length, StandardCharsets.UTF_8);
+                        } else if (type == ABORT && upload != null) {
+                            upload.out.close();
+                            upload.part_file.delete();
+                            Recovered.remove(id);
+                        }
+                        valid = in.position();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Error while reading upload log " + segment_file.getAbsolutePath() + ": " + e.getMessage());
+                Failed.add(segment_file.getName());
+            } finally {
+                if (in != null) {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        // Only read
+                    }
+                }
+            }
+
+            if (segment_file.length() > valid) {
+                dropped += segment_file.length() - valid;
+                broken = true;
+            }
+        }
+
+        int uncommitted = 0;
+        boolean installed = false;
+
+        for (Upload upload : Recovered.values()) {
+
+            // Only names written by commit are trusted. Uploads already merged in a segment are not written again
+            long[] range = upload.name == null ? null : RadioMapCompactor.parseLogName(upload.name);
+
+            if (range == null || range[0] != range[1] || RadioMapCompactor.isCompacted(RSSFolder, range[0])) {
+                uncommitted += upload.name == null ? 1 : 0;
+
+                try {
+                    upload.out.close();
+                } catch (IOException e) {
+                    // The file is deleted anyway
+                }
+                upload.part_file.delete();
+                continue;
+            }
+
+            File outFile = new File(RSSFolder, upload.name);
+
+            try {
+                // Renamed and forced before the crash or the server stopped
+                if (outFile.isFile() && outFile.length() == upload.part_file.length() && checksum(outFile) == upload.crc.getValue()) {
+                    upload.out.close();
+                    upload.part_file.delete();
+                    continue;
+                }
+
+                // The log is deleted below, so the RSS log file is forced now
+                upload.out.getFD().sync();
+                install(upload.out, upload.part_file, outFile);
+                installed = true;
+                System.out.println("Recovered uploaded RSS log file " + outFile.getAbsolutePath());
+            } catch (IOException e) {
+                System.err.println("Error while recovering uploaded RSS log file " + outFile.getAbsolutePath() + ": " + e.getMessage());
+                Failed.add(upload.name);
+            }
+        }
+
+        if (installed) {
+            try {
+                forceFolder(RSSFolder);
+            } catch (IOException e) {
+                System.err.println("Error while forcing uploaded RSS log files of " + RSSFolder.getAbsolutePath() + ": " + e.getMessage());
+                Failed.add(RSSFolder.getName());
+            }
+        }
+
+        if (dropped > 0) {
+            System.err.println("Dropped " + dropped + " bytes of incomplete records of upload log in " + RSSFolder.getAbsolutePath());
+        }
+
+        if (uncommitted > 0) {
+            System.err.println("Dropped " + uncommitted + " uploads not committed of upload log in " + RSSFolder.getAbsolutePath());
+        }
+
+        // New segments are written over the log, so keep it to recover the failed uploads by hand
+        long kept = System.currentTimeMillis();
+
+        for (long number : Segments) {
+            File segment_file = getSegmentFile(RSSFolder, number);
+
+            if (Failed.isEmpty()) {
+                segment_file.delete();
+            } else {
+                segment_file.renameTo(new File(RSSFolder, segment_file.getName() + "." + kept));
+            }
+        }
+
+        if (!Failed.isEmpty()) {
+            System.err.println("Upload log kept in " + RSSFolder.getAbsolutePath() + " with suffix ." + kept + ". Remove the suffix to recover " + Failed);
+        }
+    }
+}
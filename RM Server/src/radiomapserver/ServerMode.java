@@ -69,6 +69,10 @@ public class ServerMode extends Thread {
     private boolean running = false;
     private final JTextField state;
     private final DefaultTableModel model;
+    // Radio map in memory the uploaded RSS log files are added to, or null
+    private final RadioMapIngestor ingestor;
+    // Files sent to clients
+    private final RadioMapDistribution distribution;
 
     public enum STATES {
 
@@ -100,7 +104,12 @@ public class ServerMode extends Thread {
     private final MODE mode;
 
     public ServerMode(int Port, String RSSFolder, File filename, MODE m, JTextArea logDisplay, JTextField state, DefaultTableModel model) {
+        this(Port, RSSFolder, filename, m, logDisplay, state, model, null);
+    }
+
+    public ServerMode(int Port, String RSSFolder, File filename, MODE m, JTextArea logDisplay, JTextField state, DefaultTableModel model, RadioMapIngestor ingestor) {
         this.ServerPort = Port;
+        this.ingestor = ingestor;
         this.filename = filename;
         this.RSSFolder = new File(RSSFolder);
         this.mode = m;
@@ -113,7 +122,8 @@ public class ServerMode extends Thread {
             string_mode = "Outdoor";
         }
 
-        this.parameters_file = new File(filename.getAbsolutePath().replace("-mean.txt", "-parameters.txt"));
+        this.distribution = new RadioMapDistribution(filename, this.RSSFolder, ingestor);
+        this.parameters_file = distribution.getParametersFile();
         this.state = state;
         state.setText(STATES.toString(STATES.NOT_RUNNING));
     }
@@ -123,6 +133,13 @@ public class ServerMode extends Thread {
 
         logDisplay.setText("");
 
+        if (ingestor != null) {
+            logDisplay.append("Creating " + string_mode + " Radio Map from RSS log files\n");
+            if (!distribution.start()) {
+                logDisplay.append("ERROR: Could not create " + string_mode + " Radio Map. Existed Radio Map will be used if exists\n");
+            }
+        }
+
         checkDistributionFiles();
 
 
@@ -143,7 +160,7 @@ public class ServerMode extends Thread {
                 try {
                     Connection = ListenSocket.accept();
                     logDisplay.append("Connection request received from: " + Connection.getInetAddress().getHostName() + "\n");
-                    MultiServerThread thread = new MultiServerThread(Connection, RSSFolder, filename, parameters_file, model);
+                    MultiServerThread thread = new MultiServerThread(Connection, new RadioMapProtocol(distribution), model);
                     thread.start();
                 } catch (Exception e) {
                     logDisplay.append("Stopped listening for connections");
@@ -177,6 +194,7 @@ public class ServerMode extends Thread {
         } catch (IOException ex) {
             logDisplay.append("ERROR: " + ex.getMessage() + "\n");
         }
+        distribution.stop();
         state.setText(STATES.toString(STATES.STOPPED));
     }
 